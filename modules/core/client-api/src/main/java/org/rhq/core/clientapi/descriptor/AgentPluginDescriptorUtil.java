@@ -29,6 +29,8 @@ import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -79,6 +81,11 @@ public abstract class AgentPluginDescriptorUtil {
     private static final String CANNED_GROUP_EXPRESSION_SCHEMA_PATH="rhq-canned-groups.xsd";
     private static final String CANNED_GROUP_EXPRESSION_DESCRIPTOR_PATH="META-INF/rhq-group-expressions.xml";
 
+    // JAXB contexts and schemas are thread-safe and expensive to create, so they are created once for all descriptors;
+    // only the unmarshallers, which are not thread-safe, are created for each descriptor parsed
+    private static final ConcurrentMap<String, JAXBContext> JAXB_CONTEXTS = new ConcurrentHashMap<String, JAXBContext>();
+    private static final ConcurrentMap<String, Schema> SCHEMAS = new ConcurrentHashMap<String, Schema>();
+
     /**
      * Determines which of the two plugins is obsolete - in other words, this determines which
      * plugin is older. Each plugin must have the same logical name, but
@@ -453,20 +460,33 @@ public abstract class AgentPluginDescriptorUtil {
      */
     private static Object parsePluginDescriptor(InputStream is,
             ValidationEventCollector validationEventCollector, String xsd, String jaxbPackage) throws PluginContainerException {
-        JAXBContext jaxbContext;
-        try {
-            jaxbContext = JAXBContext.newInstance(jaxbPackage);
-        } catch (Exception e) {
-            throw new PluginContainerException("Failed to create JAXB Context.", new WrappedRemotingException(e));
+        JAXBContext jaxbContext = JAXB_CONTEXTS.get(jaxbPackage);
+        if (jaxbContext == null) {
+            try {
+                jaxbContext = JAXBContext.newInstance(jaxbPackage, AgentPluginDescriptorUtil.class.getClassLoader());
+            } catch (Exception e) {
+                throw new PluginContainerException("Failed to create JAXB Context.", new WrappedRemotingException(e));
+            }
+            JAXBContext existing = JAXB_CONTEXTS.putIfAbsent(jaxbPackage, jaxbContext);
+            if (existing != null) {
+                jaxbContext = existing;
+            }
         }
 
         Unmarshaller unmarshaller;
         try {
             unmarshaller = jaxbContext.createUnmarshaller();
             // Enable schema validation
-            URL pluginSchemaURL = AgentPluginDescriptorUtil.class.getClassLoader().getResource(xsd);
-            Schema pluginSchema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
-                    pluginSchemaURL);
+            Schema pluginSchema = SCHEMAS.get(xsd);
+            if (pluginSchema == null) {
+                URL pluginSchemaURL = AgentPluginDescriptorUtil.class.getClassLoader().getResource(xsd);
+                pluginSchema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(
+                        pluginSchemaURL);
+                Schema existing = SCHEMAS.putIfAbsent(xsd, pluginSchema);
+                if (existing != null) {
+                    pluginSchema = existing;
+                }
+            }
             unmarshaller.setSchema(pluginSchema);
             unmarshaller.setEventHandler(validationEventCollector);
 
@@ -54,6 +54,11 @@ public interface ContentServerService {
      */
     String CONCURRENCY_LIMIT_CONTENT_DOWNLOAD = "rhq.server.concurrency-limit.content-download";
 
+    /**
+     * Content reports and downloads are processed after all other commands when the server is busy.
+     */
+    int PRIORITY_CONTENT = -10;
+
     /**
      * Sends a set of newly discovered packages to the server. The collection of packages represents the current set of
      * packages deployed on the specified resource. As such, entries may be either new packages or packages that have
@@ -63,7 +68,7 @@ public interface ContentServerService {
      * @param report report containing the current set of packages installed on the resource.
      */
     @Asynchronous(guaranteedDelivery = true)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_REPORT)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_REPORT, priority = PRIORITY_CONTENT)
     void mergeDiscoveredPackages(ContentDiscoveryReport report);
 
     /**
@@ -123,7 +128,7 @@ public interface ContentServerService {
      *         downloaded
      */
     @Timeout(45 * 60 * 1000L)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = PRIORITY_CONTENT)
     long downloadPackageBitsGivenResource(int resourceId, PackageDetailsKey packageDetailsKey, OutputStream outputStream);
 
     /**
@@ -143,7 +148,7 @@ public interface ContentServerService {
      * @return the number of bytes written to the output stream - this is the size of the chunk downloaded
      */
     @Timeout(45 * 60 * 1000L)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = PRIORITY_CONTENT)
     long downloadPackageBitsRangeGivenResource(int resourceId, PackageDetailsKey packageDetailsKey,
         OutputStream outputStream, long startByte, long endByte);
 
@@ -160,7 +165,7 @@ public interface ContentServerService {
      * @return the number of bytes written to the output stream
      */
     @Timeout(45 * 60 * 1000L)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = PRIORITY_CONTENT)
     long downloadPackageBitsForChildResource(int parentResourceId, String resourceTypeName,
         PackageDetailsKey packageDetailsKey, OutputStream outputStream);
 
@@ -179,7 +184,7 @@ public interface ContentServerService {
      *
      * @return the list of all package versions' metadata
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = PRIORITY_CONTENT)
     PageList<PackageVersionMetadataComposite> getPackageVersionMetadata(int resourceId, PageControl pc);
 
     /**
@@ -214,6 +219,6 @@ public interface ContentServerService {
      * @return
      */
     @Timeout(90 * 60 * 1000L)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_CONTENT_DOWNLOAD)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_CONTENT_DOWNLOAD, priority = PRIORITY_CONTENT)
     boolean preLoadRemoteContent(int resourceId, PackageDetailsKey packageDetailsKey);
 } 
@@ -50,6 +50,13 @@ public interface DiscoveryServerService {
     String CONCURRENCY_LIMIT_AVAILABILITY_REPORT = "rhq.server.concurrency-limit.availability-report";
     String CONCURRENCY_LIMIT_INVENTORY_SYNC = "rhq.server.concurrency-limit.inventory-sync";
 
+    /**
+     * Availability reports are processed before any other report when the server is busy, they are small and the
+     * alerting of down resources depends on them.
+     */
+    int PRIORITY_AVAILABILITY_REPORT = 30;
+    int PRIORITY_INVENTORY = 10;
+
     /**
      * Merge the platform/servers/services contained in the specified inventory report into the server's inventory. Note
      * that the plugin container will use this method to send the results of both platform/server scans and service
@@ -65,13 +72,13 @@ public interface DiscoveryServerService {
      *
      * @throws InvalidInventoryReportException if the inventory report contains invalid data
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_INVENTORY_REPORT)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_INVENTORY_REPORT, priority = PRIORITY_INVENTORY)
     @Timeout(0L)
     // should be something like 1000L * 60 * 30 but until we can be assured we never take longer, disable timeout
     MergeInventoryReportResults mergeInventoryReport(InventoryReport inventoryReport)
         throws InvalidInventoryReportException, StaleTypeException;
 
-    @LimitedConcurrency(CONCURRENCY_LIMIT_INVENTORY_REPORT)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_INVENTORY_REPORT, priority = PRIORITY_INVENTORY)
     @Timeout(0L)
     // should be something like 1000L * 60 * 30 but until we can be assured we never take longer, disable timeout
     Collection<ResourceSyncInfo> getResourceSyncInfo(int resourceId);
@@ -89,7 +96,7 @@ public interface DiscoveryServerService {
      *         in sync. <code>true</code> should always be returned if the given availability report is already a full
      *         report.
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_AVAILABILITY_REPORT)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_AVAILABILITY_REPORT, priority = PRIORITY_AVAILABILITY_REPORT)
     boolean mergeAvailabilityReport(AvailabilityReport availabilityReport);
 
     /**
@@ -99,7 +106,7 @@ public interface DiscoveryServerService {
      * @param includeDescendants
      * @return a tree of resources with the latest data
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_INVENTORY_SYNC)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_INVENTORY_SYNC, priority = PRIORITY_INVENTORY)
     Set<Resource> getResources(Set<Integer> resourceIds, boolean includeDescendants);
 
     /**
@@ -108,7 +115,7 @@ public interface DiscoveryServerService {
      * @param resourceIds
      * @return a list of resources in the same order as the passed in ids, with the latest data
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_INVENTORY_SYNC)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_INVENTORY_SYNC, priority = PRIORITY_INVENTORY)
     List<Resource> getResourcesAsList(Integer... resourceIds);
 
     /**
@@ -144,7 +151,7 @@ public interface DiscoveryServerService {
      *
      * @return a map of the resourceId to the inventory status
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_INVENTORY_SYNC)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_INVENTORY_SYNC, priority = PRIORITY_INVENTORY)
     Map<Integer, InventoryStatus> getInventoryStatus(int rootResourceId, boolean descendants);
 
     /**
@@ -188,6 +195,6 @@ public interface DiscoveryServerService {
      * @return the current list of measurement schedules that should be installed agent side for each resource contained
      *         within the passed set
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_INVENTORY_SYNC)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_INVENTORY_SYNC, priority = PRIORITY_INVENTORY)
     Set<ResourceMeasurementScheduleRequest> postProcessNewlyCommittedResources(Set<Integer> resourceIds);
 }
\ No newline at end of file
@@ -41,13 +41,15 @@ public interface MeasurementServerService {
     String CONCURRENCY_LIMIT_MEASUREMENT_REPORT = "rhq.server.concurrency-limit.measurement-report";
     String CONCURRENCY_LIMIT_MEASUREMENT_SCHEDULE_REQUEST = "rhq.server.concurrency-limit.measurement-schedule-request";
 
+    int PRIORITY_MEASUREMENT = 20;
+
     /**
      * This method is called when new measurements are to be reported from an agent to the server.
      *
      * @param report the report containing the metric data
      */
     @Asynchronous(guaranteedDelivery = true)
-    @LimitedConcurrency(CONCURRENCY_LIMIT_MEASUREMENT_REPORT)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_MEASUREMENT_REPORT, priority = PRIORITY_MEASUREMENT)
     void mergeMeasurementReport(MeasurementReport report);
 
     /**
@@ -58,7 +60,7 @@ public interface MeasurementServerService {
      *
      * @return set of all measurement schedules for the resources and their children resources, if applicable
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_MEASUREMENT_SCHEDULE_REQUEST)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_MEASUREMENT_SCHEDULE_REQUEST, priority = PRIORITY_MEASUREMENT)
     Set<ResourceMeasurementScheduleRequest> getLatestSchedulesForResourceIds(Set<Integer> resourceIds,
         boolean getChildSchedules);
 
@@ -70,7 +72,7 @@ public interface MeasurementServerService {
      *
      * @return set of all measurement schedules for the resource and its children resources, if applicable
      */
-    @LimitedConcurrency(CONCURRENCY_LIMIT_MEASUREMENT_SCHEDULE_REQUEST)
+    @LimitedConcurrency(value = CONCURRENCY_LIMIT_MEASUREMENT_SCHEDULE_REQUEST, priority = PRIORITY_MEASUREMENT)
     Set<ResourceMeasurementScheduleRequest> getLatestSchedulesForResourceId(int resourceIds, boolean getChildSchedules);
 
     /**
@@ -45,12 +45,21 @@ import java.lang.annotation.Target;
  * clients to turn on concurrency controls (if we did, that would allow rogue clients to be able to circumvent the
  * concurrency controls).</p>
  *
+ * <p>The annotation also gives the priority of the method. When the server has reached its global limit of concurrent
+ * incoming commands, the commands waiting for their turn are processed by decreasing priority. Methods that are not
+ * annotated have the {@link #DEFAULT_PRIORITY default priority}.</p>
+ *
  * @author John Mazzitelli
  */
 @Documented
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface LimitedConcurrency {
+    /**
+     * The priority of the methods that do not declare one, including the methods that are not annotated at all.
+     */
+    int DEFAULT_PRIORITY = 0;
+
     /**
      * The name that identifies the "concurrency queue" that limits the number of threads that can concurrently
      * invoke this method on the server.
@@ -58,4 +67,12 @@ public @interface LimitedConcurrency {
      * @return the name identifying the concurrency queue
      */
     String value();
+
+    /**
+     * The priority of the invocations of this method when they have to wait for the server to process them. Higher
+     * values are processed first.
+     *
+     * @return the priority of the invocations
+     */
+    int priority() default DEFAULT_PRIORITY;
 }
\ No newline at end of file
@@ -36,7 +36,10 @@ import javax.persistence.Table;
 import javax.xml.bind.annotation.XmlTransient;
 
 /**
- * Contains the actual package contents ("the bits") for a particular {@link PackageVersion}.
+ * Contains the actual package contents ("the bits") for a particular {@link PackageVersion}. Package versions with
+ * identical content may share the same bits, so bits are only removed once no package version refers to them anymore.
+ * Content is compared with the SHA-256 and size the server computed over the stored bits, never with the values
+ * reported for the package version.
  *
  * @author John Mazzitelli
  * @author Jay Shaughnessy
@@ -57,13 +60,65 @@ import javax.xml.bind.annotation.XmlTransient;
         + " DELETE PackageBits AS pb " //
         + " WHERE pb.id NOT IN ( SELECT pv.packageBits.id " //
         + "                        FROM PackageVersion pv " //
-        + "                       WHERE pv.packageBits IS NOT NULL ) ") })
+        + "                       WHERE pv.packageBits IS NOT NULL ) "),
+
+    // bits stored with the given content, oldest first. The digest is only known once the bits were stored.
+    @NamedQuery(name = PackageBits.QUERY_FIND_BY_CONTENT, query = "" //
+        + " SELECT pb " //
+        + "   FROM PackageBits pb " //
+        + "  WHERE pb.contentSha256 = :sha256 " //
+        + "    AND pb.contentSize = :size " //
+        + " ORDER BY pb.id "),
+
+    // contents stored in the database more than once
+    @NamedQuery(name = PackageBits.QUERY_FIND_DUPLICATED_CONTENT, query = "" //
+        + " SELECT pb.contentSha256, pb.contentSize " //
+        + "   FROM PackageBits pb " //
+        + "  WHERE pb.contentSha256 IS NOT NULL " //
+        + " GROUP BY pb.contentSha256, pb.contentSize " //
+        + " HAVING COUNT(pb.id) > 1 "),
+
+    // bits stored without their digest whose package versions report the same SHA-256 as other bits
+    @NamedQuery(name = PackageBits.QUERY_FIND_UNVERIFIED_DUPLICATE_CANDIDATES, query = "" //
+        + " SELECT DISTINCT pb.id " //
+        + "   FROM PackageVersion pv JOIN pv.packageBits pb " //
+        + "  WHERE pb.contentSha256 IS NULL " //
+        + "    AND pb.blob.bits IS NOT NULL " //
+        + "    AND pv.sha256 IN ( SELECT pv2.sha256 " //
+        + "                         FROM PackageVersion pv2 " //
+        + "                        WHERE pv2.packageBits IS NOT NULL " //
+        + "                     GROUP BY pv2.sha256 " //
+        + "                       HAVING COUNT(DISTINCT pv2.packageBits.id) > 1 ) "),
+
+    // package bits no package version refers to
+    @NamedQuery(name = PackageBits.QUERY_FIND_UNUSED_IDS, query = "" //
+        + " SELECT pb.id " //
+        + "   FROM PackageBits pb " //
+        + "  WHERE pb.id NOT IN ( SELECT pv.packageBits.id " //
+        + "                         FROM PackageVersion pv " //
+        + "                        WHERE pv.packageBits IS NOT NULL ) "),
+
+    @NamedQuery(name = PackageBits.QUERY_FIND_PACKAGE_VERSIONS, query = "" //
+        + " SELECT pv " //
+        + "   FROM PackageVersion pv " //
+        + "  WHERE pv.packageBits.id IN ( :ids ) "),
+
+    @NamedQuery(name = PackageBits.QUERY_COUNT_PACKAGE_VERSIONS, query = "" //
+        + " SELECT COUNT(pv.id) " //
+        + "   FROM PackageVersion pv " //
+        + "  WHERE pv.packageBits.id = :id ") })
 @Table(name = PackageBits.TABLE_NAME)
 public class PackageBits implements Serializable {
     public static final String TABLE_NAME = "RHQ_PACKAGE_BITS";
 
     public static final String QUERY_PACKAGE_BITS_LOADED_STATUS_PACKAGE_VERSION_ID = "PackageBits.isLoaded";
     public static final String DELETE_IF_NO_PACKAGE_VERSION = "PackageBits.deleteIfNoPackageVersion";
+    public static final String QUERY_FIND_BY_CONTENT = "PackageBits.findByContent";
+    public static final String QUERY_FIND_DUPLICATED_CONTENT = "PackageBits.findDuplicatedContent";
+    public static final String QUERY_FIND_UNVERIFIED_DUPLICATE_CANDIDATES = "PackageBits.findUnverifiedDuplicates";
+    public static final String QUERY_FIND_UNUSED_IDS = "PackageBits.findUnusedIds";
+    public static final String QUERY_FIND_PACKAGE_VERSIONS = "PackageBits.findPackageVersions";
+    public static final String QUERY_COUNT_PACKAGE_VERSIONS = "PackageBits.countPackageVersions";
     /**
      *  Can be used as initial contents for a PackageVersion's PackageBits whenever a predictable non-null
      *  value is required. Use as an initial value for the PackageBits.blob.bits. The value will
@@ -89,6 +144,14 @@ public class PackageBits implements Serializable {
     @XmlTransient
     private PackageBitsBlob blob;
 
+    // Computed by the server while the bits are stored and only written through JDBC, together with the bits. Null
+    // while the bits are not loaded (EMPTY_BLOB) or if they were stored before the digest was kept.
+    @Column(name = "CONTENT_SHA256", insertable = false, updatable = false)
+    private String contentSha256;
+
+    @Column(name = "CONTENT_SIZE", insertable = false, updatable = false)
+    private Long contentSize;
+
     public PackageBits() {
         // for JPA use
     }
@@ -119,4 +182,18 @@ public class PackageBits implements Serializable {
     public void setBlob(PackageBitsBlob blob) {
         this.blob = blob;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the SHA-256 the server computed over the stored bits, null if not known
+     */
+    public String getContentSha256() {
+        return contentSha256;
+    }
+
+    /**
+     * @return the size of the stored bits, null if not known
+     */
+    public Long getContentSize() {
+        return contentSize;
+    }
+}
@@ -416,9 +416,11 @@ public class PackageVersion implements Serializable {
     @OneToMany(mappedBy = "packageVersion", fetch = FetchType.LAZY)
     private Set<InstalledPackageHistory> installedPackageHistory;
 
-    // No longer use cascade PERSIST on this.  We'll associate it manually due to intracacies in blob handling
+    // No longer use cascade PERSIST on this.  We'll associate it manually due to intracacies in blob handling.
+    // Versions with identical content share their bits, so there is no cascade REMOVE either. Bits that are no
+    // longer referenced are removed with PackageBits.DELETE_IF_NO_PACKAGE_VERSION.
     @JoinColumn(name = "PACKAGE_BITS_ID", referencedColumnName = "ID", nullable = true)
-    @OneToOne(cascade = { CascadeType.REMOVE }, fetch = FetchType.LAZY, optional = true)
+    @ManyToOne(fetch = FetchType.LAZY, optional = true)
     @XmlTransient
     private PackageBits packageBits;
 
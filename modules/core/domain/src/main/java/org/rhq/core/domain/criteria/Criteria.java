@@ -46,7 +46,7 @@ public abstract class Criteria implements Serializable, BaseCriteria {
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
     public enum Type {
-        FILTER(new String[] { "filterId", "filterIds" }), FETCH(), SORT(new String[] { "sortId" });
+        FILTER(new String[] { "filterId", "filterIds", "filterSeekId" }), FETCH(), SORT(new String[] { "sortId" });
 
         private List<String> globalFields;
 
@@ -105,6 +105,8 @@ public abstract class Criteria implements Serializable, BaseCriteria {
 
     private static final long serialVersionUID = 2L;
 
+    private static final String CONTINUATION_TOKEN_PREFIX = "k1.";
+
     private Integer pageNumber;
     private Integer pageSize;
 
@@ -135,6 +137,10 @@ public abstract class Criteria implements Serializable, BaseCriteria {
     // All Criteria support filtering on IDs
     protected List<Integer> filterIds;
 
+    // All Criteria support keyset paging, this is the id the requested page starts after
+    protected Integer filterSeekId;
+    private boolean keysetPaging;
+
     /**
      * This default constructor will set default paging to avoid unintended fetch of huge results. The default is:
      * <pre>setPaging(0, 200);</pre>
@@ -142,6 +148,7 @@ public abstract class Criteria implements Serializable, BaseCriteria {
     public Criteria() {
         this.filterOverrides = new HashMap<String, String>();
         this.filterOverrides.put("ids", "id IN ( ? )");
+        this.filterOverrides.put("seekId", "id > ?");
         this.sortOverrides = new HashMap<String, String>();
 
         this.orderingFieldNames = new ArrayList<String>();
@@ -186,6 +193,7 @@ public abstract class Criteria implements Serializable, BaseCriteria {
         if (isSupportsAddSortId()) {
             addSortField("id");
             this.sortId = sortId;
+            this.filterOverrides.put("seekId", (sortId == PageOrdering.DESC) ? "id < ?" : "id > ?");
 
         } else {
             throw new UnsupportedOperationException("ID sort is not supported by supported by this class");
@@ -271,6 +279,72 @@ public abstract class Criteria implements Serializable, BaseCriteria {
         return false;
     }
 
+    /**
+     * Switches this criteria to keyset (a.k.a. seek) paging. Rather than skipping <code>pageNumber * pageSize</code>
+     * rows, every page starts right after the last entity of the previous one, which is identified by the
+     * {@link org.rhq.core.domain.util.PageList#getContinuationToken() continuation token} of the previous result.
+     * A page then costs the same no matter how deep it is, and no count query is issued, the results are
+     * {@link org.rhq.core.domain.util.PageList#isUnbounded() unbounded}.
+     * <p/>
+     * Keyset paging orders the results by id only, use {@link #addSortId(PageOrdering)} to pick the direction. Other
+     * sort fields and the page number are not supported, the page size applies as usual.
+     *
+     * @param keysetPaging whether to use keyset paging
+     *
+     * @see #setContinuationToken(String)
+     */
+    public void setKeysetPaging(boolean keysetPaging) {
+        this.keysetPaging = keysetPaging;
+        if (!keysetPaging) {
+            this.filterSeekId = null;
+        }
+    }
+
+    public boolean isKeysetPaging() {
+        return keysetPaging;
+    }
+
+    /**
+     * Sets where the next page starts when keyset paging. This implies {@link #setKeysetPaging(boolean) keyset
+     * paging}.
+     *
+     * @param continuationToken the {@link org.rhq.core.domain.util.PageList#getContinuationToken() continuation
+     *                          token} of the previous page, null to fetch the first page
+     *
+     * @throws IllegalArgumentException if the token is not a valid continuation token
+     */
+    public void setContinuationToken(String continuationToken) {
+        this.keysetPaging = true;
+        this.filterSeekId = (continuationToken == null) ? null : decodeContinuationToken(continuationToken);
+    }
+
+    /**
+     * @return the continuation token of the page this criteria fetches when keyset paging, or null for the first page
+     */
+    public String getContinuationToken() {
+        return (filterSeekId == null) ? null : encodeContinuationToken(filterSeekId);
+    }
+
+    /**
+     * @param lastId the id of the last entity of a page
+     *
+     * @return the continuation token of the page that follows
+     */
+    public static String encodeContinuationToken(int lastId) {
+        return CONTINUATION_TOKEN_PREFIX + Integer.toString(lastId, 36);
+    }
+
+    private static int decodeContinuationToken(String continuationToken) {
+        if (continuationToken.startsWith(CONTINUATION_TOKEN_PREFIX)) {
+            try {
+                return Integer.parseInt(continuationToken.substring(CONTINUATION_TOKEN_PREFIX.length()), 36);
+            } catch (NumberFormatException e) {
+                // fall through
+            }
+        }
+        throw new IllegalArgumentException("Invalid continuation token: " + continuationToken);
+    }
+
     public void clearPaging() {
         PageControl unlimited = PageControl.getUnlimitedInstance();
         this.pageNumber = unlimited.getPageNumber();
@@ -92,6 +92,9 @@ public class AvailabilityReport implements Serializable {
     // true if this is report was generated on the server side - it did not come from an actual agent
     private boolean serverSideReport = false;
 
+    // position of this report in the stream of reports sent by the agent, 0 if the report is not part of a stream
+    private long sequenceNumber = 0L;
+
     /**
      * Constructor for {@link AvailabilityReport} that assumes this report will represent a full inventory (same as if
      * constructing with {@link #AvailabilityReport(boolean, String)} with the first argument being <code>false</code>).
@@ -167,6 +170,22 @@ public class AvailabilityReport implements Serializable {
         this.serverSideReport = serverSideReport;
     }
 
+    /**
+     * Returns the position of this report in the stream of availability reports sent by its agent. Agents number the
+     * reports they send in increasing order, so that the server can tell when a changes-only report (or a batch of a
+     * large one) was lost or arrived out of order, and ask for a full report. Reports built elsewhere are not
+     * numbered.
+     *
+     * @return the sequence number of this report, or 0 if it is not numbered
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public void setSequenceNumber(long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
     /**
      * Tries to find the availability for given resource in this report.
      *
@@ -201,6 +220,9 @@ public class AvailabilityReport implements Serializable {
         str.append('[').append(agentName).append(']');
         str.append('[').append(availabilities.size()).append(']');
         str.append('[').append(changesOnly ? "changesOnly" : "full").append(']');
+        if (sequenceNumber > 0L) {
+            str.append("[seq=").append(sequenceNumber).append(']');
+        }
 
         if (includeAll && (availabilities.size() > 0)) {
             for (Datum next : availabilities) {
@@ -125,15 +125,15 @@ public class MeasurementReport implements Serializable {
         return this.measurementNumericData.size() + this.measurementTraitData.size() + this.callTimeData.size();
     }
 
-    public long getCollectionTime() {
+    public synchronized long getCollectionTime() {
         return collectionTime;
     }
 
-    public void setCollectionTime(long collectionTime) {
+    public synchronized void setCollectionTime(long collectionTime) {
         this.collectionTime = collectionTime;
     }
 
-    public void incrementCollectionTime(long collectionTime) {
+    public synchronized void incrementCollectionTime(long collectionTime) {
         this.collectionTime += collectionTime;
     }
 }
\ No newline at end of file
@@ -204,6 +204,54 @@ public class MeasurementSchedule implements Serializable {
         + "                          WHERE ms.RESOURCE_ID = res.ID " //
         + "                            AND ms.DEFINITION = def.ID ) ";
 
+    /**
+     * Creates the schedules of a new measurement definition for all the existing resources of its type. The
+     * definition must be flushed to the database first.
+     */
+    public static final String NATIVE_QUERY_INSERT_SCHEDULES_FOR_DEFINITION_POSTGRES = "" //
+        + "INSERT INTO RHQ_MEASUREMENT_SCHED ( ID, ENABLED, COLL_INTERVAL, DEFINITION, RESOURCE_ID ) " //
+        + "     SELECT nextval('RHQ_MEASUREMENT_SCHED_ID_SEQ'), " //
+        + "            :enabled, " //
+        + "            def.DEFAULT_INTERVAL, " //
+        + "            def.ID, " //
+        + "            res.ID " //
+        + "       FROM RHQ_RESOURCE res, RHQ_MEASUREMENT_DEF def " //
+        + "      WHERE def.ID = :definitionId " //
+        + "        AND res.RESOURCE_TYPE_ID = def.RESOURCE_TYPE_ID " //
+        + "        AND NOT EXISTS ( SELECT ms.ID " //
+        + "                           FROM RHQ_MEASUREMENT_SCHED ms " //
+        + "                          WHERE ms.RESOURCE_ID = res.ID " //
+        + "                            AND ms.DEFINITION = def.ID ) ";
+
+    public static final String NATIVE_QUERY_INSERT_SCHEDULES_FOR_DEFINITION_ORACLE = "" //
+        + "INSERT INTO RHQ_MEASUREMENT_SCHED ( ID, ENABLED, COLL_INTERVAL, DEFINITION, RESOURCE_ID ) " //
+        + "     SELECT RHQ_MEASUREMENT_SCHED_ID_SEQ.nextval, " //
+        + "            :enabled, interval, definitionId, resourceId " //
+        + "       FROM ( SELECT def.DEFAULT_INTERVAL AS interval, " //
+        + "                     def.ID AS definitionId, " //
+        + "                     res.ID AS resourceId " //
+        + "                FROM RHQ_RESOURCE res, RHQ_MEASUREMENT_DEF def " //
+        + "               WHERE def.ID = :definitionId " //
+        + "                 AND res.RESOURCE_TYPE_ID = def.RESOURCE_TYPE_ID " //
+        + "                 AND NOT EXISTS ( SELECT ms.ID " //
+        + "                                    FROM RHQ_MEASUREMENT_SCHED ms " //
+        + "                                   WHERE ms.RESOURCE_ID = res.ID " //
+        + "                                     AND ms.DEFINITION = def.ID ) ) ";
+
+    public static final String NATIVE_QUERY_INSERT_SCHEDULES_FOR_DEFINITION_SQL_SERVER = "" //
+        + "INSERT INTO RHQ_MEASUREMENT_SCHED ( ENABLED, COLL_INTERVAL, DEFINITION, RESOURCE_ID ) " //
+        + "     SELECT :enabled, " //
+        + "            def.DEFAULT_INTERVAL, " //
+        + "            def.ID, " //
+        + "            res.ID " //
+        + "       FROM RHQ_RESOURCE res, RHQ_MEASUREMENT_DEF def " //
+        + "      WHERE def.ID = :definitionId " //
+        + "        AND res.RESOURCE_TYPE_ID = def.RESOURCE_TYPE_ID " //
+        + "        AND NOT EXISTS ( SELECT ms.ID " //
+        + "                           FROM RHQ_MEASUREMENT_SCHED ms " //
+        + "                          WHERE ms.RESOURCE_ID = res.ID " //
+        + "                            AND ms.DEFINITION = def.ID ) ";
+
     @GeneratedValue(strategy = GenerationType.AUTO, generator = "RHQ_MEASUREMENT_SCHED_ID_SEQ")
     @Id
     private int id;
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import javax.persistence.CascadeType;
+import javax.persistence.Column;
 import javax.persistence.DiscriminatorValue;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
@@ -90,6 +91,11 @@ public class GroupOperationHistory extends OperationHistory {
     @OneToMany(mappedBy = "groupOperationHistory", cascade = { CascadeType.PERSIST, CascadeType.REMOVE })
     private List<ResourceOperationHistory> resourceOperationHistories = new ArrayList<ResourceOperationHistory>();
 
+    // the number of windows the member operations are dispatched in, null if they are all dispatched at once or in
+    // the execution order
+    @Column(name = "DISPATCH_WINDOWS")
+    private Integer dispatchWindows;
+
     protected GroupOperationHistory() {
     }
 
@@ -120,6 +126,19 @@ public class GroupOperationHistory extends OperationHistory {
         this.resourceOperationHistories.add(history);
     }
 
+    /**
+     * @return the number of windows the member operations are dispatched in, each of which may take up to the
+     *         operation timeout; 0 if the members are all dispatched at once or one after the other in the execution
+     *         order
+     */
+    public int getDispatchWindows() {
+        return (dispatchWindows != null) ? dispatchWindows.intValue() : 0;
+    }
+
+    public void setDispatchWindows(int dispatchWindows) {
+        this.dispatchWindows = (dispatchWindows > 0) ? Integer.valueOf(dispatchWindows) : null;
+    }
+
     @Override
     public String toString() {
         StringBuilder str = new StringBuilder("GroupOperationHistory: ");
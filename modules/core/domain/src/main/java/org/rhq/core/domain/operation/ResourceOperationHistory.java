@@ -50,6 +50,11 @@ import org.rhq.core.domain.resource.Resource;
     @NamedQuery(name = ResourceOperationHistory.QUERY_FIND_ALL_IN_STATUS, query = "SELECT h FROM ResourceOperationHistory h WHERE h.status = :status"),
     @NamedQuery(name = ResourceOperationHistory.QUERY_FIND_BY_GROUP_OPERATION_HISTORY_ID, query = "select h "
         + "from ResourceOperationHistory h " + "where h.groupOperationHistory.id = :groupHistoryId "),
+    @NamedQuery(name = ResourceOperationHistory.QUERY_COUNT_IN_PROGRESS_BY_GROUP_OPERATION_HISTORY_ID, query = "" //
+        + "SELECT COUNT(h) " //
+        + "  FROM ResourceOperationHistory h " //
+        + " WHERE h.groupOperationHistory.id = :groupHistoryId " //
+        + "   AND h.status = 'INPROGRESS' "),
     @NamedQuery(name = ResourceOperationHistory.QUERY_FIND_BY_RESOURCE_ID_AND_STATUS, query = "select h "
         + "from ResourceOperationHistory h " + "where h.resource.id = :resourceId " + "and h.status = :status"),
     @NamedQuery(name = ResourceOperationHistory.QUERY_FIND_BY_RESOURCE_ID_AND_NOT_STATUS, query = "" //
@@ -100,6 +105,7 @@ import org.rhq.core.domain.resource.Resource;
 public class ResourceOperationHistory extends OperationHistory {
     public static final String QUERY_FIND_ALL_IN_STATUS = "ResourceOperationHistory.findAllInStatus";
     public static final String QUERY_FIND_BY_GROUP_OPERATION_HISTORY_ID = "ResourceOperationHistory.findByGroupOperationHistoryId";
+    public static final String QUERY_COUNT_IN_PROGRESS_BY_GROUP_OPERATION_HISTORY_ID = "ResourceOperationHistory.countInProgressByGroupOperationHistoryId";
     public static final String QUERY_FIND_BY_RESOURCE_ID_AND_STATUS = "ResourceOperationHistory.findByResourceIdAndStatus";
     public static final String QUERY_FIND_BY_RESOURCE_ID_AND_NOT_STATUS = "ResourceOperationHistory.findByResourceIdAndNotStatus";
     public static final String QUERY_FIND_LATEST_COMPLETED_OPERATION = "ResourceOperationHistory.findLatestCompletedOperation";
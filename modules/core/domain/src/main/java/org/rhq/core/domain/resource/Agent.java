@@ -53,6 +53,7 @@ import org.rhq.core.domain.cloud.Server;
     @NamedQuery(name = Agent.QUERY_FIND_BY_NAME, query = "SELECT a FROM Agent a WHERE a.name = :name"),
     @NamedQuery(name = Agent.QUERY_FIND_BY_ADDRESS_AND_PORT, query = "SELECT a FROM Agent a WHERE a.address = :address AND a.port = :port"),
     @NamedQuery(name = Agent.QUERY_FIND_BY_AGENT_TOKEN, query = "SELECT a FROM Agent a WHERE a.agentToken = :agentToken"),
+    @NamedQuery(name = Agent.QUERY_FIND_AGENT_TOKENS, query = "SELECT a.agentToken FROM Agent a WHERE a.agentToken IN ( :agentTokens )"),
     @NamedQuery(name = Agent.QUERY_FIND_BY_RESOURCE_ID, query = "SELECT r.agent FROM Resource r WHERE r.id = :resourceId"),
     @NamedQuery(name = Agent.QUERY_FIND_AGENT_ID_BY_RESOURCE_ID, query = "SELECT r.agent.id FROM Resource r WHERE r.id = :resourceId"),
     @NamedQuery(name = Agent.QUERY_FIND_AGENT_ID_BY_NAME, query = "SELECT a.id FROM Agent a WHERE a.name = :name"),
@@ -165,6 +166,7 @@ public class Agent implements Serializable {
     public static final String QUERY_FIND_BY_NAME = "Agent.findByName";
     public static final String QUERY_FIND_BY_ADDRESS_AND_PORT = "Agent.findByAddressAndPort";
     public static final String QUERY_FIND_BY_AGENT_TOKEN = "Agent.findByAgentToken";
+    public static final String QUERY_FIND_AGENT_TOKENS = "Agent.findAgentTokens";
     public static final String QUERY_FIND_BY_RESOURCE_ID = "Agent.findByResourceId";
     public static final String QUERY_FIND_AGENT_ID_BY_RESOURCE_ID = "Agent.findAgentIdByResourceId";
     public static final String QUERY_FIND_AGENT_ID_BY_NAME = "Agent.findAgentIdByName";
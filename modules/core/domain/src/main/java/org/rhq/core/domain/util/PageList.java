@@ -41,6 +41,7 @@ public class PageList<E> extends ArrayList<E> implements Serializable {
     private int totalSize = 0;
     private boolean isUnbounded; // Is the total size of the list known?
     private PageControl pageControl;
+    private String continuationToken; // Where the next page starts when keyset paging, null if this is the last page
 
     public PageList() {
     }
@@ -176,6 +177,24 @@ public class PageList<E> extends ArrayList<E> implements Serializable {
         }
     }
 
+    /**
+     * Returns the token that fetches the page following this one when the list was obtained using keyset paging.
+     * Pass it to {@link org.rhq.core.domain.criteria.Criteria#setContinuationToken(String)} of an otherwise
+     * unchanged criteria to get the next page.
+     *
+     * @return the continuation token or null if there are no more pages or the list was not obtained using keyset
+     *         paging
+     *
+     * @see org.rhq.core.domain.criteria.Criteria#setKeysetPaging(boolean)
+     */
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public void setContinuationToken(String continuationToken) {
+        this.continuationToken = continuationToken;
+    }
+
     /**
      * @see PageControl#isConsistentWith(PageList)
      *
@@ -115,6 +115,12 @@ public class PluginContainerConfiguration {
     private static final String CONTENT_DISCOVERY_THREADCOUNT_PROP = PROP_PREFIX + "content-discovery-threadpoolsize";
     public static final int CONTENT_DISCOVERY_THREADCOUNT_DEFAULT = 10;
 
+    // Bundle ----------
+
+    private static final String BUNDLE_CACHE_DIRECTORY_PROP = PROP_PREFIX + "bundle-cache-directory";
+    private static final String BUNDLE_CACHE_MAX_AGE_PROP = PROP_PREFIX + "bundle-cache-max-age";
+    public static final long BUNDLE_CACHE_MAX_AGE_DEFAULT = 7 * 24 * 60 * 60L; // in seconds
+
     // Configuration -------
 
     public static final long CONFIGURATION_DISCOVERY_INITIAL_DELAY_DEFAULT = 300L; // in seconds
@@ -943,6 +949,46 @@ public class PluginContainerConfiguration {
         return (time == null) ? RESOURCE_FACTORY_KEEP_ALIVE_DEFAULT : time.intValue();
     }
 
+    /**
+     * Returns the directory where downloaded bundle files are kept, keyed by their hash, so that the same content is
+     * pulled from the server only once. Several plugin containers (for example agents on the same machine or sharing
+     * a network file system) can point at the same directory; only one of them will download a given file and the
+     * others will copy it from the cache. If <code>null</code>, bundle files are always downloaded from the server.
+     *
+     * @return the bundle cache directory (may be <code>null</code>)
+     */
+    public File getBundleCacheDirectory() {
+        return (File) configuration.get(BUNDLE_CACHE_DIRECTORY_PROP);
+    }
+
+    /**
+     * Sets the directory where downloaded bundle files are cached.
+     *
+     * @param dir the bundle cache directory, <code>null</code> to disable the cache
+     */
+    public void setBundleCacheDirectory(File dir) {
+        configuration.put(BUNDLE_CACHE_DIRECTORY_PROP, dir);
+    }
+
+    /**
+     * Cached bundle files that have not been used for this many seconds are removed from the bundle cache.
+     *
+     * @return the maximum age of unused cached bundle files, in seconds
+     */
+    public long getBundleCacheMaxAge() {
+        Long age = (Long) configuration.get(BUNDLE_CACHE_MAX_AGE_PROP);
+        return (age == null) ? BUNDLE_CACHE_MAX_AGE_DEFAULT : age.longValue();
+    }
+
+    /**
+     * Sets the maximum age, in seconds, of unused cached bundle files.
+     *
+     * @param age the maximum age in seconds
+     */
+    public void setBundleCacheMaxAge(long age) {
+        configuration.put(BUNDLE_CACHE_MAX_AGE_PROP, Long.valueOf(age));
+    }
+
     /**
      * This is the name of the plugin container, as assigned to it by the software component that is embedding the
      * plugin container. This is usually, but doesn't have to be, the fully qualified domain name of the platform where
@@ -0,0 +1,324 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.bundle;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.domain.content.PackageVersion;
+import org.rhq.core.util.MessageDigestGenerator;
+import org.rhq.core.util.file.FileUtil;
+
+/**
+ * A directory of downloaded bundle files, keyed by their content hash. The directory can be shared by several
+ * plugin containers - in the same VM, in other agents on the same machine or on a shared file system. Whichever
+ * container asks for a file first downloads it from the server; the others wait for that download to finish and copy
+ * the file from the cache instead of streaming the same bits from the server again.
+ * <p/>
+ * Each entry is guarded by a file lock (so that separate agent processes coordinate) and by a monitor (because file
+ * locks are held per VM, not per thread). A download is written to a temporary file and only renamed to its final
+ * name once its hash has been verified, so a cached file is always complete and correct when it is found.
+ * <p/>
+ * Only plugin containers that can reach the same directory share downloads, agents never send files to each other.
+ * Letting agents pass bundle files to each other, with the server telling each agent which peer to download from,
+ * would need a peer download source in the bundle schedule request, a service on the agent streaming its cached files
+ * to other agents, and the server keeping track of which agent holds which file. None of that exists yet.
+ * The cache is off unless a directory is configured, since it keeps a second copy of every bundle file it holds.
+ */
+class BundleFileCache {
+    private static final Log LOG = LogFactory.getLog(BundleFileCache.class);
+
+    private static final String ENTRY_SUFFIX = ".bits";
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String DOWNLOAD_SUFFIX = ".download";
+
+    // file locks are owned by the VM, so threads (and plugin containers) in the same VM are serialized on these
+    private static final ConcurrentMap<String, Object> ENTRY_MONITORS = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Pulls the content of a package version from its original source.
+     */
+    interface Downloader {
+        /**
+         * @return the number of bytes written
+         */
+        long download(PackageVersion packageVersion, OutputStream out) throws Exception;
+    }
+
+    private final File cacheDir;
+    private final long maxAge;
+
+    /**
+     * @param cacheDir the directory holding the cached files, created if needed
+     * @param maxAge   cached files not used for this many milliseconds are removed by {@link #purgeUnused(long)}
+     */
+    BundleFileCache(File cacheDir, long maxAge) {
+        this.cacheDir = cacheDir;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Only package versions with a known hash can be cached because the hash is what identifies the cached file and
+     * what proves a download is intact.
+     *
+     * @param packageVersion the package version
+     *
+     * @return <code>true</code> if the package version's content can be served from the cache
+     */
+    static boolean isCacheable(PackageVersion packageVersion) {
+        return packageVersion.getSHA256() != null || packageVersion.getMD5() != null;
+    }
+
+    /**
+     * Copies the content of the package version to the target file, downloading it into the cache first if no other
+     * plugin container has done so already.
+     *
+     * @param packageVersion the package version whose content is needed, must be {@link #isCacheable(PackageVersion)}
+     * @param target         the file to copy the content to
+     * @param downloader     used if the content is not in the cache yet
+     *
+     * @return <code>true</code> if the content had to be downloaded, <code>false</code> if it was found in the cache
+     *
+     * @throws Exception if the content could not be downloaded or did not match its hash
+     */
+    boolean copyTo(final PackageVersion packageVersion, final File target, final Downloader downloader)
+        throws Exception {
+        cacheDir.mkdirs();
+        Boolean downloaded = withEntryLocked(getKey(packageVersion), true, false, new EntryAction<Boolean>() {
+            @Override
+            public Boolean run(File entry) throws Exception {
+                boolean downloaded = false;
+                if (!entry.exists()) {
+                    download(packageVersion, entry, downloader);
+                    downloaded = true;
+                } else {
+                    // mark as used so that it survives purging
+                    entry.setLastModified(System.currentTimeMillis());
+                }
+
+                target.getParentFile().mkdirs();
+                FileUtil.copyFile(entry, target);
+                return downloaded;
+            }
+        });
+        return downloaded.booleanValue();
+    }
+
+    /**
+     * Removes the cached content of the package version, for example because the copy handed out did not pass
+     * verification.
+     *
+     * @param packageVersion the package version whose cached content is removed
+     */
+    void evict(PackageVersion packageVersion) {
+        try {
+            withEntryLocked(getKey(packageVersion), true, true, new EntryAction<Object>() {
+                @Override
+                public Object run(File entry) throws IOException {
+                    entry.delete();
+                    return Boolean.TRUE;
+                }
+            });
+        } catch (Exception e) {
+            LOG.warn("Failed to evict [" + packageVersion + "] from the bundle cache: " + e);
+        }
+    }
+
+    /**
+     * Removes the cached files that have not been used for longer than the maximum age, along with their lock files.
+     * Files currently locked by another plugin container are skipped and left for the next purge.
+     *
+     * @param now the current time
+     */
+    void purgeUnused(long now) {
+        final long cutoff = now - maxAge;
+        File[] expired = cacheDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(ENTRY_SUFFIX) && file.lastModified() < cutoff;
+            }
+        });
+        if (expired == null) {
+            return;
+        }
+
+        for (File entry : expired) {
+            String name = entry.getName();
+            String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+            try {
+                withEntryLocked(key, false, true, new EntryAction<Object>() {
+                    @Override
+                    public Object run(File entry) throws IOException {
+                        if (entry.lastModified() < cutoff) {
+                            entry.delete();
+                            return Boolean.TRUE;
+                        }
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                LOG.debug("Failed to purge [" + entry + "] from the bundle cache: " + e);
+            }
+        }
+    }
+
+    /**
+     * Something done to a cache entry while holding its lock.
+     */
+    private interface EntryAction<T> {
+        /**
+         * @param entry the cached file, which may not exist
+         *
+         * @return the result of the action, must not be <code>null</code> if the action removed the entry
+         */
+        T run(File entry) throws Exception;
+    }
+
+    /**
+     * Runs the action while holding both the monitor and the file lock of the entry.
+     * <p/>
+     * When an entry is removed, its lock file and monitor are removed too, so they do not pile up. Whoever was waiting
+     * on them at the time must not go ahead, since a newcomer would lock a new lock file and monitor: the removed
+     * monitor is no longer the one registered for the entry, and the removed lock file is marked as retired while it
+     * is still locked. Both cases are detected once the lock is obtained, and the locking is retried. The lock file is
+     * only deleted once it is unlocked and closed, because open files cannot be deleted on Windows. If the deletion
+     * fails anyway, the next one to lock the retired file deletes it.
+     *
+     * @param key    the key of the entry
+     * @param wait   whether to wait for the file lock, if <code>false</code> and the entry is locked by another plugin
+     *               container the action is not run
+     * @param remove whether the action may remove the entry, in which case the lock file and monitor are removed too
+     * @param action what to do with the entry
+     *
+     * @return the result of the action, <code>null</code> if it was not run
+     */
+    private <T> T withEntryLocked(String key, boolean wait, boolean remove, EntryAction<T> action) throws Exception {
+        File entry = new File(cacheDir, key + ENTRY_SUFFIX);
+        File lockPath = new File(cacheDir, key + LOCK_SUFFIX);
+        String monitorKey = entry.getAbsolutePath();
+        while (true) {
+            Object monitor = getMonitor(monitorKey);
+            synchronized (monitor) {
+                if (ENTRY_MONITORS.get(monitorKey) != monitor) {
+                    continue; // the entry was removed while we waited for its monitor
+                }
+
+                boolean retired = false;
+                RandomAccessFile lockFile = new RandomAccessFile(lockPath, "rw");
+                try {
+                    FileLock lock = wait ? lockFile.getChannel().lock() : lockFile.getChannel().tryLock();
+                    if (lock == null) {
+                        return null;
+                    }
+                    try {
+                        if (lockFile.length() > 0L) {
+                            // the lock file was retired while we waited for its lock, or could not be deleted
+                            retired = true;
+                            continue;
+                        }
+                        T result = action.run(entry);
+                        if (remove && (result != null) && !entry.exists()) {
+                            // retire the lock file before it is deleted, see above
+                            lockFile.write(1);
+                            retired = true;
+                            ENTRY_MONITORS.remove(monitorKey, monitor);
+                        }
+                        return result;
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    lockFile.close();
+                    if (retired && !lockPath.delete() && lockPath.exists()) {
+                        LOG.debug("Could not delete the retired bundle cache lock file [" + lockPath
+                            + "], it will be deleted by the next one locking it");
+                    }
+                }
+            }
+        }
+    }
+
+    private void download(PackageVersion packageVersion, File entry, Downloader downloader) throws Exception {
+        File tmp = new File(cacheDir, entry.getName() + DOWNLOAD_SUFFIX);
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            long size;
+            try {
+                size = downloader.download(packageVersion, fos);
+            } finally {
+                fos.close();
+            }
+
+            Long expectedSize = packageVersion.getFileSize();
+            if (expectedSize != null && size != expectedSize) {
+                throw new Exception("Downloaded bundle file [" + packageVersion + "] but its size was [" + size
+                    + "] when it was expected to be [" + expectedSize + "].");
+            }
+
+            String expectedHash;
+            String realHash;
+            if (packageVersion.getSHA256() != null) {
+                expectedHash = packageVersion.getSHA256();
+                realHash = new MessageDigestGenerator(MessageDigestGenerator.SHA_256).calcDigestString(tmp);
+            } else {
+                expectedHash = packageVersion.getMD5();
+                realHash = new MessageDigestGenerator(MessageDigestGenerator.MD5).calcDigestString(tmp);
+            }
+            if (!expectedHash.equals(realHash)) {
+                throw new Exception("Downloaded bundle file [" + packageVersion + "] failed hash check. expected=["
+                    + expectedHash + "], actual=[" + realHash + "]");
+            }
+
+            if (!tmp.renameTo(entry)) {
+                throw new IOException("Failed to move downloaded bundle file [" + tmp + "] to [" + entry + "]");
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static String getKey(PackageVersion packageVersion) {
+        String key = (packageVersion.getSHA256() != null) ? ("sha256-" + packageVersion.getSHA256()) : ("md5-"
+            + packageVersion.getMD5());
+        return key.toLowerCase();
+    }
+
+    private static Object getMonitor(String path) {
+        Object monitor = ENTRY_MONITORS.get(path);
+        if (monitor == null) {
+            Object newMonitor = new Object();
+            monitor = ENTRY_MONITORS.putIfAbsent(path, newMonitor);
+            if (monitor == null) {
+                monitor = newMonitor;
+            }
+        }
+        return monitor;
+    }
+}
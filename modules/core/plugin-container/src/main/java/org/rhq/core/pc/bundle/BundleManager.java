@@ -113,6 +113,7 @@ public class BundleManager extends AgentService implements BundleAgentService, B
     private final ExecutorService deployerThreadPool;
     private final InventoryManager inventoryManager;
     private final MeasurementManager measurementManager;
+    private final BundleFileCache bundleFileCache;
 
     public BundleManager(PluginContainerConfiguration configuration, AgentServiceStreamRemoter streamRemoter,
         InventoryManager inventoryManager, MeasurementManager measurementManager) {
@@ -122,6 +123,9 @@ public class BundleManager extends AgentService implements BundleAgentService, B
         this.deployerThreadPool = Executors.newSingleThreadExecutor(threadFactory); // single-threaded so only one deployment at a time
         this.inventoryManager = inventoryManager;
         this.measurementManager = measurementManager;
+        File bundleCacheDir = configuration.getBundleCacheDirectory();
+        this.bundleFileCache = (bundleCacheDir == null) ? null : new BundleFileCache(bundleCacheDir,
+            configuration.getBundleCacheMaxAge() * 1000L);
     }
 
     @Override
@@ -578,6 +582,9 @@ public class BundleManager extends AgentService implements BundleAgentService, B
 
         Map<PackageVersion, File> packageVersionFiles = new HashMap<PackageVersion, File>();
         List<PackageVersion> packageVersions = getAllBundleVersionPackageVersions(bundleVersion);
+        if (bundleFileCache != null) {
+            bundleFileCache.purgeUnused(System.currentTimeMillis());
+        }
         for (PackageVersion packageVersion : packageVersions) {
             File packageFile = new File(downloadDir, packageVersion.getFileName());
 
@@ -585,32 +592,11 @@ public class BundleManager extends AgentService implements BundleAgentService, B
                 verifyHash(packageVersion, packageFile);
             } catch (Exception e) {
 
-                // file either doesn't exist or it hash doesn't match, download a new copy
-                packageFile.getParentFile().mkdirs();
-                FileOutputStream fos = new FileOutputStream(packageFile);
-                try {
-                    auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_STARTED, packageVersion.getDisplayName(),
-                        "Downloading [" + packageVersion + "]");
-
-                    long size = getFileContent(packageVersion, fos);
-
-                    if (packageVersion.getFileSize() != null && size != packageVersion.getFileSize()) {
-                        String message = "Downloaded bundle file [" + packageVersion + "] but its size was [" + size
-                            + "] when it was expected to be [" + packageVersion.getFileSize() + "].";
-                        LOG.warn(message);
-                        auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_ENDED, packageVersion.getDisplayName(),
-                            null, BundleResourceDeploymentHistory.Status.WARN, message, null);
-                    } else {
-                        auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_ENDED, packageVersion.getDisplayName(),
-                            "Download complete for [" + packageVersion + "]");
-                    }
-                } catch (Exception e2) {
-                    String message = "Failed to downloaded bundle file [" + packageVersion + "] " + e2;
-                    LOG.warn(message);
-                    auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_ENDED, packageVersion.getDisplayName(),
-                        null, BundleResourceDeploymentHistory.Status.FAILURE, message, null);
-                } finally {
-                    fos.close();
+                // file either doesn't exist or it hash doesn't match, get a new copy - from the bundle cache if
+                // another deployment (possibly of another agent sharing the cache) already downloaded it
+                if (bundleFileCache == null || !BundleFileCache.isCacheable(packageVersion)
+                    || !copyFromBundleCache(resourceDeployment, packageVersion, packageFile)) {
+                    downloadBundleFile(resourceDeployment, packageVersion, packageFile);
                 }
 
                 // now try to verify it again, if this throws an exception, that is very bad and we need to abort
@@ -623,6 +609,70 @@ public class BundleManager extends AgentService implements BundleAgentService, B
         return packageVersionFiles;
     }
 
+    private void downloadBundleFile(BundleResourceDeployment resourceDeployment, PackageVersion packageVersion,
+        File packageFile) throws Exception {
+
+        packageFile.getParentFile().mkdirs();
+        FileOutputStream fos = new FileOutputStream(packageFile);
+        try {
+            auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_STARTED, packageVersion.getDisplayName(),
+                "Downloading [" + packageVersion + "]");
+
+            long size = getFileContent(packageVersion, fos);
+
+            if (packageVersion.getFileSize() != null && size != packageVersion.getFileSize()) {
+                String message = "Downloaded bundle file [" + packageVersion + "] but its size was [" + size
+                    + "] when it was expected to be [" + packageVersion.getFileSize() + "].";
+                LOG.warn(message);
+                auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_ENDED, packageVersion.getDisplayName(),
+                    null, BundleResourceDeploymentHistory.Status.WARN, message, null);
+            } else {
+                auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_ENDED, packageVersion.getDisplayName(),
+                    "Download complete for [" + packageVersion + "]");
+            }
+        } catch (Exception e2) {
+            String message = "Failed to downloaded bundle file [" + packageVersion + "] " + e2;
+            LOG.warn(message);
+            auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_ENDED, packageVersion.getDisplayName(),
+                null, BundleResourceDeploymentHistory.Status.FAILURE, message, null);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Obtains the bundle file through the bundle cache. If the copy from the cache doesn't pass verification, the
+     * cached file is thrown away.
+     *
+     * @return <code>true</code> if the file was obtained, <code>false</code> if it needs to be downloaded directly
+     */
+    private boolean copyFromBundleCache(BundleResourceDeployment resourceDeployment, PackageVersion packageVersion,
+        File packageFile) {
+
+        auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_STARTED, packageVersion.getDisplayName(),
+            "Obtaining [" + packageVersion + "] through the bundle cache");
+        try {
+            boolean downloaded = bundleFileCache.copyTo(packageVersion, packageFile, new BundleFileCache.Downloader() {
+                @Override
+                public long download(PackageVersion packageVersion, OutputStream out) throws Exception {
+                    return getFileContent(packageVersion, out);
+                }
+            });
+            verifyHash(packageVersion, packageFile);
+            auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_ENDED, packageVersion.getDisplayName(),
+                (downloaded ? "Download complete for [" : "Copied from the bundle cache [") + packageVersion + "]");
+            return true;
+        } catch (Exception e) {
+            String message = "Failed to obtain bundle file [" + packageVersion
+                + "] through the bundle cache, downloading it directly. Cause: " + e;
+            LOG.warn(message);
+            auditDeployment(resourceDeployment, AUDIT_FILE_DOWNLOAD_ENDED, packageVersion.getDisplayName(), null,
+                BundleResourceDeploymentHistory.Status.WARN, message, null);
+            bundleFileCache.evict(packageVersion);
+            return false;
+        }
+    }
+
     private void completeDeployment(final BundleResourceDeployment resourceDeployment, BundleDeploymentStatus status,
         String message) {
         getBundleServerService().setBundleDeploymentStatus(resourceDeployment.getId(), status);
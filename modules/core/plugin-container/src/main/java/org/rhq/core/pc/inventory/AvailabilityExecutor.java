@@ -22,9 +22,6 @@ import static org.rhq.core.domain.measurement.AvailabilityType.DOWN;
 import static org.rhq.core.domain.measurement.AvailabilityType.UNKNOWN;
 import static org.rhq.core.domain.measurement.AvailabilityType.UP;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
@@ -48,7 +45,6 @@ import org.rhq.core.domain.resource.ResourceErrorType;
 import org.rhq.core.pc.inventory.ResourceContainer.ResourceComponentState;
 import org.rhq.core.pluginapi.availability.AvailabilityFacet;
 import org.rhq.core.util.exception.ThrowableUtil;
-import org.rhq.core.util.stream.StreamUtil;
 
 /**
  * Runs a periodic scan for resource availability.
@@ -196,19 +192,9 @@ public class AvailabilityExecutor implements Runnable, Callable<AvailabilityRepo
         addScanHistory(scan);
 
         if (LOG.isDebugEnabled()) {
-            long end = System.currentTimeMillis();
-            ObjectOutputStream oos = null;
-            try {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream(10000);
-                oos = new ObjectOutputStream(baos);
-                oos.writeObject(availabilityReport);
-                LOG.debug("Built availability report for [" + availabilityReport.getResourceAvailability().size()
-                    + "] resources with a size of [" + baos.size() + "] bytes in [" + (end - start) + "]ms");
-            } catch (IOException e) {
-                LOG.debug("Failed to log the availability report details.", e);
-            } finally {
-                StreamUtil.safeClose(oos);
-            }
+            // don't serialize the report just to log its size, for a large full report that costs as much as the scan
+            LOG.debug("Built availability report for [" + availabilityReport.getResourceAvailability().size()
+                + "] resources in [" + scan.getRuntime() + "]ms");
         }
     }
 
@@ -19,6 +19,8 @@
 
 package org.rhq.core.pc.inventory;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -41,16 +43,36 @@ import org.rhq.core.pc.PluginContainer;
 /**
  * Provides methods to read and write inventory data to a file.
  *
+ * <p>The file starts with a {@link #FORMAT_HEADER header} and a format version, followed by the platform and the
+ * resource containers. Files written before the header was introduced are still readable. A new file is first
+ * written next to the existing one and then renamed over it, so an agent that dies while storing its inventory still
+ * has the previous inventory to start from, see {@link #restoreInventoryFile()}. A file that could not be fully
+ * written is deleted.</p>
+ *
  * @author John Mazzitelli
  */
 public class InventoryFile {
     private static final Log log = LogFactory.getLog(InventoryFile.class);
 
+    /**
+     * The first object in an inventory file, used to tell versioned files from those written by older agents, which
+     * start directly with the platform resource.
+     */
+    static final String FORMAT_HEADER = "rhq-inventory";
+
+    /**
+     * The version of the inventory file format written by {@link #storeInventory(Resource, Map)}.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final File inventoryFile;
     private Resource platform;
     private Map<String, ResourceContainer> resourceContainers; // keyed on UUID
 
     private final InventoryManager inventoryManager;
+    private final PluginMetadataManager metadataManager;
 
     /**
      * Constructor for {@link InventoryFile} that will read and write inventory data to the given file.
@@ -58,8 +80,17 @@ public class InventoryFile {
      * @param inventoryFile the path to the inventory.dat file
      */
     public InventoryFile(File inventoryFile, InventoryManager inventoryManager) {
+        this(inventoryFile, inventoryManager, null);
+    }
+
+    /**
+     * Constructor for tests, which connect the loaded resources to the types of the given metadata manager instead of
+     * those of the plugin container.
+     */
+    InventoryFile(File inventoryFile, InventoryManager inventoryManager, PluginMetadataManager metadataManager) {
         this.inventoryFile = inventoryFile;
         this.inventoryManager = inventoryManager;
+        this.metadataManager = metadataManager;
     }
 
     /**
@@ -103,6 +134,21 @@ public class InventoryFile {
         return resourceContainers;
     }
 
+    /**
+     * Restores the inventory file from the previous one if the agent died while {@link #storeInventory(Resource, Map)
+     * replacing} it, i.e. after the previous file was moved aside and before the new one took its place.
+     *
+     * @return <code>true</code> if there is an inventory file to {@link #loadInventory() load}
+     */
+    public boolean restoreInventoryFile() {
+        File oldFile = new File(inventoryFile.getPath() + ".old");
+        if (!inventoryFile.exists() && oldFile.exists()) {
+            log.warn("Inventory data file [" + inventoryFile + "] is missing - restoring it from [" + oldFile + "]");
+            oldFile.renameTo(inventoryFile);
+        }
+        return inventoryFile.exists();
+    }
+
     /**
      * Reads in the inventory found in the file. Once this returns, {@link #getPlatform()} and
      * {@link #getResourceContainers()} will return non-<code>null</code> objects as found in the file.
@@ -114,12 +160,22 @@ public class InventoryFile {
         FileInputStream fis = null;
         try {
             fis = new FileInputStream(inventoryFile);
-            ObjectInputStream ois = new ObjectInputStream(fis);
+            ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(fis, BUFFER_SIZE));
 
             // this list will contain UUIDs of resources that we should ignore usually due to disabled plugins
             Set<String> uuidsToIgnore = new HashSet<String>();
 
-            this.platform = (Resource) ois.readObject();
+            Object firstObject = ois.readObject();
+            if (FORMAT_HEADER.equals(firstObject)) {
+                int version = ois.readInt();
+                if (version > FORMAT_VERSION) {
+                    throw new PluginContainerException("Inventory file format version [" + version
+                        + "] is newer than the supported version [" + FORMAT_VERSION + "]");
+                }
+                firstObject = ois.readObject();
+            }
+
+            this.platform = (Resource) firstObject;
             connectTypes(this.platform, uuidsToIgnore);
             this.resourceContainers = (Map<String, ResourceContainer>) ois.readObject();
             for (ResourceContainer resourceContainer : this.resourceContainers.values()) {
@@ -199,7 +255,8 @@ public class InventoryFile {
     }
 
     private void connectTypes(Resource resource, Set<String> uuidsToIgnore) {
-        PluginMetadataManager metadataManager = PluginContainer.getInstance().getPluginManager().getMetadataManager();
+        PluginMetadataManager metadataManager = (this.metadataManager != null) ? this.metadataManager : PluginContainer
+            .getInstance().getPluginManager().getMetadataManager();
         ResourceType resourceType = resource.getResourceType();
 
         if (resourceType != null) {
@@ -237,7 +294,8 @@ public class InventoryFile {
     /**
      * Given a platform and map of resource containers (keyed on UUID strings), this persists that inventory to the
      * {@link #getInventoryFile() inventory file}. This object's {@link #getPlatform() platform} and
-     * {@link #getResourceContainers() resource containers} will be set to those passed to this method.
+     * {@link #getResourceContainers() resource containers} will be set to those passed to this method. If the
+     * inventory cannot be written, the inventory file is left as it was.
      *
      * @param  platformResource
      * @param  containers
@@ -245,20 +303,52 @@ public class InventoryFile {
      * @throws IOException
      */
     public void storeInventory(Resource platformResource, Map<String, ResourceContainer> containers) throws IOException {
-        FileOutputStream fos = new FileOutputStream(inventoryFile);
+        File newFile = new File(inventoryFile.getPath() + ".new");
+        boolean written = false;
+        FileOutputStream fos = new FileOutputStream(newFile);
         try {
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
+            ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos, BUFFER_SIZE));
             try {
+                oos.writeObject(FORMAT_HEADER);
+                oos.writeInt(FORMAT_VERSION);
                 oos.writeObject(platformResource);
                 oos.writeObject(containers);
-
-                this.platform = platformResource;
-                this.resourceContainers = containers;
+                oos.flush();
+                // make sure the new file is on disk before it replaces the old one
+                fos.getFD().sync();
+                written = true;
             } finally {
                 oos.close();
             }
         } finally {
             fos.close();
+            if (!written && !newFile.delete()) {
+                log.warn("Cannot delete incomplete inventory file [" + newFile + "]");
+            }
+        }
+
+        replaceInventoryFile(newFile);
+
+        this.platform = platformResource;
+        this.resourceContainers = containers;
+    }
+
+    private void replaceInventoryFile(File newFile) throws IOException {
+        if (newFile.renameTo(inventoryFile)) {
+            return;
+        }
+
+        // some platforms (e.g. Windows) will not rename over an existing file - move the old one out of the way first
+        File oldFile = new File(inventoryFile.getPath() + ".old");
+        oldFile.delete();
+        if (inventoryFile.exists() && !inventoryFile.renameTo(oldFile)) {
+            throw new IOException("Cannot move aside old inventory file [" + inventoryFile + "]; new inventory is in ["
+                + newFile + "]");
+        }
+        if (!newFile.renameTo(inventoryFile)) {
+            oldFile.renameTo(inventoryFile);
+            throw new IOException("Cannot rename new inventory file [" + newFile + "] to [" + inventoryFile + "]");
         }
+        oldFile.delete();
     }
 }
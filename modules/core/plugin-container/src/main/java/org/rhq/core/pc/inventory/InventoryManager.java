@@ -47,6 +47,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
@@ -180,6 +181,24 @@ public class InventoryManager extends AgentService implements ContainerService,
         SYNC_BATCH_SIZE = syncBatchSize;
     }
 
+    /**
+     * The maximum number of availabilities sent to the server in one changes-only availability report. Larger
+     * changes-only reports are streamed in several numbered batches. Full reports are always sent whole.
+     */
+    static private final int AVAIL_REPORT_BATCH_SIZE;
+
+    static {
+
+        int availReportBatchSize = 500;
+        try {
+            availReportBatchSize = Integer.parseInt(System.getProperty(
+                "rhq.agent.plugins.availability-scan.report-batch-size", "500"));
+        } catch (Throwable t) {
+            //
+        }
+        AVAIL_REPORT_BATCH_SIZE = Math.max(1, availReportBatchSize);
+    }
+
     private final PluginContainerConfiguration configuration;
 
     private ScheduledThreadPoolExecutor inventoryThreadPoolExecutor;
@@ -190,6 +209,9 @@ public class InventoryManager extends AgentService implements ContainerService,
     private final RuntimeDiscoveryExecutor serviceScanExecutor;
     private final AvailabilityExecutor availabilityExecutor;
 
+    // numbers the availability reports (and report batches) sent to the server
+    private final AtomicLong availabilityReportSequence = new AtomicLong();
+
     private final Agent agent;
 
     /**
@@ -1203,50 +1225,96 @@ public class InventoryManager extends AgentService implements ContainerService,
             // report was received, and the rest of the handling would be short-circuited.
             this.inventoryLock.readLock().lock();
             try {
-                AvailabilityReport.Datum[] avails = reportAvails.toArray(new AvailabilityReport.Datum[reportAvails
-                    .size()]);
-                for (AvailabilityReport.Datum avail : avails) {
-                    int resourceId = avail.getResourceId();
-                    ResourceContainer container = getResourceContainer(resourceId);
-
-                    if (container == null) {
-                        reportAvails.remove(avail);
+                List<AvailabilityReport.Datum> knownAvails = new ArrayList<AvailabilityReport.Datum>(reportAvails
+                    .size());
+                for (AvailabilityReport.Datum avail : reportAvails) {
+                    if (getResourceContainer(avail.getResourceId()) != null) {
+                        knownAvails.add(avail);
                     }
                 }
+                if (knownAvails.size() < reportAvails.size()) {
+                    reportAvails.clear();
+                    reportAvails.addAll(knownAvails);
+                }
             } finally {
                 this.inventoryLock.readLock().unlock();
             }
 
             if (reportAvails.size() > 0) {
-                try {
-                    log.info("Sending availability report to Server...");
-                    if (log.isDebugEnabled()) {
-                        log.debug("Availability report content: " + report.toString(log.isTraceEnabled()));
-                    }
-
-                    boolean ok = configuration.getServerServices().getDiscoveryServerService()
-                        .mergeAvailabilityReport(report);
-                    if (!ok) {
-                        // I guess I could immediately call executeAvailabilityScanImmediately and pass its results to
-                        // mergeAvailabilityReport again right now, but what happens if we've queued up a bunch of
-                        // changed-only reports and the server is out of sync - each time the server processes those
-                        // reports, we'd do an extra round trip with a full report (which will get very expensive).
-                        // Let's just flag our executor for the next time it runs to send a full report; this way
-                        // if we've got 100 queued changed-only reports, let the server fully process them and only
-                        // at the next time we run the avail scan will we send it a full report.  It might make the
-                        // server sync up a little slower than we'd like, but it avoids a potential hammering of the
-                        // server with tons of full reports when that would be unnecessary.
-                        availabilityExecutor.sendFullReportNextTime();
+                // the numbered reports must reach the server in the order of their numbers
+                synchronized (availabilityReportSequence) {
+                    for (AvailabilityReport batch : getAvailabilityReportBatches(report, AVAIL_REPORT_BATCH_SIZE)) {
+                        batch.setSequenceNumber(availabilityReportSequence.incrementAndGet());
+                        if (!sendAvailabilityReport(batch)) {
+                            // the rest of the changes will be picked up by the full report sent next time
+                            break;
+                        }
                     }
-                } catch (Exception e) {
-                    log.warn("Could not transmit availability report to server", e);
-                    availabilityExecutor.sendFullReportNextTime(); // just in case the agent and server are out of sync
                 }
             }
         }
 
     }
 
+    /**
+     * Changes-only reports are streamed in small batches so that a burst of changes (e.g. a host going down with all
+     * its children) does not turn into one huge request. Full reports are what the server resyncs from, so they are
+     * always sent whole.
+     *
+     * @return the reports to send, in order
+     */
+    static List<AvailabilityReport> getAvailabilityReportBatches(AvailabilityReport report, int batchSize) {
+        List<AvailabilityReport.Datum> reportAvails = report.getResourceAvailability();
+        if (!report.isChangesOnlyReport() || (reportAvails.size() <= batchSize)) {
+            return Collections.singletonList(report);
+        }
+        List<AvailabilityReport> batches = new ArrayList<AvailabilityReport>();
+        for (int start = 0; start < reportAvails.size(); start += batchSize) {
+            int end = Math.min(start + batchSize, reportAvails.size());
+            AvailabilityReport batch = new AvailabilityReport(true, report.getAgentName());
+            for (AvailabilityReport.Datum avail : reportAvails.subList(start, end)) {
+                batch.addAvailability(avail);
+            }
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Sends one availability report to the server, asking the executor for a full report next time if the server
+     * is out of sync with us or could not be reached.
+     *
+     * @param report the report to send, not empty
+     * @return false if the report could not be transmitted, true otherwise
+     */
+    private boolean sendAvailabilityReport(AvailabilityReport report) {
+        try {
+            log.info("Sending availability report to Server...");
+            if (log.isDebugEnabled()) {
+                log.debug("Availability report content: " + report.toString(log.isTraceEnabled()));
+            }
+
+            boolean ok = configuration.getServerServices().getDiscoveryServerService().mergeAvailabilityReport(report);
+            if (!ok) {
+                // I guess I could immediately call executeAvailabilityScanImmediately and pass its results to
+                // mergeAvailabilityReport again right now, but what happens if we've queued up a bunch of
+                // changed-only reports and the server is out of sync - each time the server processes those
+                // reports, we'd do an extra round trip with a full report (which will get very expensive).
+                // Let's just flag our executor for the next time it runs to send a full report; this way
+                // if we've got 100 queued changed-only reports, let the server fully process them and only
+                // at the next time we run the avail scan will we send it a full report.  It might make the
+                // server sync up a little slower than we'd like, but it avoids a potential hammering of the
+                // server with tons of full reports when that would be unnecessary.
+                availabilityExecutor.sendFullReportNextTime();
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("Could not transmit availability report to server", e);
+            availabilityExecutor.sendFullReportNextTime(); // just in case the agent and server are out of sync
+            return false;
+        }
+    }
+
     /**
      * Send an inventory report to the Server.
      *
@@ -2472,11 +2540,11 @@ public class InventoryManager extends AgentService implements ContainerService,
         File file = null;
         try {
             file = new File(this.configuration.getDataDirectory(), "inventory.dat");
-            if (file.exists()) {
+            InventoryFile inventoryFile = new InventoryFile(file, this);
+            if (inventoryFile.restoreInventoryFile()) {
                 long start = System.currentTimeMillis();
                 log.info("Loading inventory from data file [" + file + "]...");
 
-                InventoryFile inventoryFile = new InventoryFile(file, this);
                 inventoryFile.loadInventory();
 
                 this.platform = inventoryFile.getPlatform();
@@ -0,0 +1,333 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.pc.measurement;
+
+import gnu.trove.iterator.TIntLongIterator;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntLongHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The measurement values the {@link MeasurementManager} remembers from one report to the next, kept in a compact form
+ * so that they can be saved to a data file and survive agent restarts:
+ *
+ * <ul>
+ * <li>a hash of the last value of each trait the server accepted, so that unchanged traits are not sent again, not
+ * even after a restart</li>
+ * <li>the last raw value of each per-minute metric, so that the first collection after a restart already yields a
+ * per-minute value</li>
+ * </ul>
+ *
+ * <p>The values are keyed on schedule id and stored in primitive maps. This store is thread safe and does not rely on
+ * the monitor of the measurement manager.</p>
+ *
+ * <p>The schedule ids only mean something for the inventory they were collected for. The data file is therefore
+ * stamped with the identity of that inventory and discarded when loaded for another one, e.g. once the inventory data
+ * file was purged and the agent synchronized its inventory again.</p>
+ */
+class MeasurementCacheStore {
+    private static final Log LOG = LogFactory.getLog(MeasurementCacheStore.class);
+
+    private static final int FILE_FORMAT_VERSION = 2;
+
+    // the hash of a null trait value
+    private static final long NULL_HASH = 0L;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // the following fields are guarded by the lock
+    private final TIntLongHashMap traitHashes = new TIntLongHashMap();
+    private final TIntLongHashMap perMinuteTimestamps = new TIntLongHashMap();
+    private final TIntDoubleHashMap perMinuteValues = new TIntDoubleHashMap();
+    private long modifications = 0L;
+    private long savedModifications = 0L;
+
+    /**
+     * A previously collected raw value of a per-minute metric.
+     */
+    static class PerMinuteValue {
+        final long timestamp;
+        final double value;
+
+        PerMinuteValue(long timestamp, double value) {
+            this.timestamp = timestamp;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Tells whether the trait value is different from the last one the server accepted.
+     *
+     * @param  scheduleId the schedule of the trait
+     * @param  value      the newly collected value
+     *
+     * @return <code>true</code> if the server did not accept any value yet or if the value changed
+     */
+    boolean isTraitChanged(int scheduleId, String value) {
+        lock.readLock().lock();
+        try {
+            return !traitHashes.containsKey(scheduleId) || (traitHashes.get(scheduleId) != hash(value));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Records that the server accepted a value of the trait.
+     */
+    void traitAccepted(int scheduleId, String value) {
+        long hash = hash(value);
+        lock.writeLock().lock();
+        try {
+            if (!traitHashes.containsKey(scheduleId) || (traitHashes.get(scheduleId) != hash)) {
+                traitHashes.put(scheduleId, hash);
+                modifications++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the last raw value of the per-minute metric, <code>null</code> if none
+     */
+    PerMinuteValue getPerMinuteValue(int scheduleId) {
+        lock.readLock().lock();
+        try {
+            if (!perMinuteTimestamps.containsKey(scheduleId)) {
+                return null;
+            }
+            return new PerMinuteValue(perMinuteTimestamps.get(scheduleId), perMinuteValues.get(scheduleId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the last raw value of the per-minute metric.
+     *
+     * @return the previous raw value of the per-minute metric, <code>null</code> if none
+     */
+    PerMinuteValue putPerMinuteValue(int scheduleId, long timestamp, double value) {
+        lock.writeLock().lock();
+        try {
+            PerMinuteValue previous = null;
+            if (perMinuteTimestamps.containsKey(scheduleId)) {
+                previous = new PerMinuteValue(perMinuteTimestamps.get(scheduleId), perMinuteValues.get(scheduleId));
+            }
+            perMinuteTimestamps.put(scheduleId, timestamp);
+            perMinuteValues.put(scheduleId, value);
+            modifications++;
+            return previous;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets everything about the schedule, once it is no longer collected.
+     */
+    void forget(int scheduleId) {
+        lock.writeLock().lock();
+        try {
+            if (traitHashes.containsKey(scheduleId) || perMinuteTimestamps.containsKey(scheduleId)) {
+                traitHashes.remove(scheduleId);
+                perMinuteTimestamps.remove(scheduleId);
+                perMinuteValues.remove(scheduleId);
+                modifications++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int getTraitCount() {
+        lock.readLock().lock();
+        try {
+            return traitHashes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if anything changed since the store was last loaded or saved
+     */
+    boolean isDirty() {
+        lock.readLock().lock();
+        try {
+            return modifications != savedModifications;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the content of this store with the one of the data file, if it exists. The per-minute values older than
+     * the given age are not loaded, a per-minute value averaged over such a long time would be meaningless. If the data
+     * file cannot be read or was saved for another inventory, the store is left empty: the traits will just be sent
+     * again.
+     *
+     * @param file                 the data file
+     * @param maxPerMinuteValueAge the maximum age, in milliseconds, of the per-minute values to load
+     * @param inventoryIdentity    the identity of the current inventory, see {@link #save(File, String)}
+     */
+    void load(File file, long maxPerMinuteValueAge, String inventoryIdentity) {
+        if (!file.exists()) {
+            return;
+        }
+
+        long oldest = System.currentTimeMillis() - maxPerMinuteValueAge;
+        lock.writeLock().lock();
+        try {
+            traitHashes.clear();
+            perMinuteTimestamps.clear();
+            perMinuteValues.clear();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int version = in.readInt();
+                if (version != FILE_FORMAT_VERSION) {
+                    throw new IOException("Unsupported data file format version [" + version + "]");
+                }
+                String savedIdentity = in.readUTF();
+                if (!savedIdentity.equals(inventoryIdentity)) {
+                    LOG.info("Discarding measurement values from data file [" + file + "], they were saved for "
+                        + "inventory [" + savedIdentity + "] but the inventory is now [" + inventoryIdentity + "]");
+                    in.close();
+                    file.delete();
+                    return;
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    traitHashes.put(in.readInt(), in.readLong());
+                }
+                for (int i = in.readInt(); i > 0; i--) {
+                    int scheduleId = in.readInt();
+                    long timestamp = in.readLong();
+                    double value = in.readDouble();
+                    if (timestamp >= oldest) {
+                        perMinuteTimestamps.put(scheduleId, timestamp);
+                        perMinuteValues.put(scheduleId, value);
+                    }
+                }
+                savedModifications = modifications;
+            } finally {
+                in.close();
+            }
+            LOG.info("Loaded [" + traitHashes.size() + "] trait and [" + perMinuteTimestamps.size()
+                + "] per-minute metric values from data file [" + file + "]");
+        } catch (Exception e) {
+            LOG.warn("Could not load measurement values from data file [" + file + "], traits will be sent again: "
+                + e);
+            traitHashes.clear();
+            perMinuteTimestamps.clear();
+            perMinuteValues.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the content of this store to the data file. The file is replaced only once completely written.
+     *
+     * @param file              the data file
+     * @param inventoryIdentity the identity of the inventory the schedule ids belong to
+     */
+    void save(File file, String inventoryIdentity) {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        long saving;
+        // the read lock keeps the maps unchanged while they are written
+        lock.readLock().lock();
+        try {
+            saving = modifications;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(FILE_FORMAT_VERSION);
+                out.writeUTF(inventoryIdentity);
+                out.writeInt(traitHashes.size());
+                for (TIntLongIterator it = traitHashes.iterator(); it.hasNext();) {
+                    it.advance();
+                    out.writeInt(it.key());
+                    out.writeLong(it.value());
+                }
+                out.writeInt(perMinuteTimestamps.size());
+                for (TIntLongIterator it = perMinuteTimestamps.iterator(); it.hasNext();) {
+                    it.advance();
+                    out.writeInt(it.key());
+                    out.writeLong(it.value());
+                    out.writeDouble(perMinuteValues.get(it.key()));
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not save measurement values to data file [" + tmpFile + "]: " + e);
+            tmpFile.delete();
+            return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!(file.delete() || !file.exists()) || !tmpFile.renameTo(file)) {
+                LOG.warn("Could not replace measurement values data file [" + file + "] with [" + tmpFile + "]");
+                return;
+            }
+            savedModifications = saving;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A 64 bits FNV-1a hash of the value. Collisions are unlikely enough for a value to be compared with the previous
+     * value of the same trait only.
+     */
+    static long hash(String value) {
+        if (value == null) {
+            return NULL_HASH;
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
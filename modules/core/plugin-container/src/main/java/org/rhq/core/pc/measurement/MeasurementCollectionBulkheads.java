@@ -0,0 +1,407 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps one plugin's slow or hung components from starving the measurement collection of every other resource.
+ * <ul>
+ * <li>Each plugin gets a bulkhead: a cap on how many collector threads its components may occupy at once, and a
+ * timeout for its <code>getValues</code> calls. Unless configured, the cap is half of the current collector pool, so it
+ * follows the pool as it is resized.</li>
+ * <li>A resource component whose collections exceed the collection budget several times in a row is quarantined.
+ * Its collections are skipped for a while, and each further quarantine doubles the time, up to a limit.</li>
+ * <li>The time spent collecting is accumulated so that the collector thread pool can be sized from the observed
+ * collection latency, see {@link #getRecommendedPoolSize(int, int, int, long)}.</li>
+ * </ul>
+ * The limits are read from system properties, and a plugin specific value overrides the default:
+ * <pre>
+ * rhq.agent.plugins.measurement-collection.plugin-concurrency[.&lt;plugin&gt;]
+ * rhq.agent.plugins.measurement-collection.plugin-slot-wait-ms
+ * rhq.agent.plugins.measurement-collection.timeout-ms[.&lt;plugin&gt;]
+ * rhq.agent.plugins.measurement-collection.budget-ms[.&lt;plugin&gt;]
+ * rhq.agent.plugins.measurement-collection.quarantine-threshold
+ * rhq.agent.plugins.measurement-collection.quarantine-ms
+ * </pre>
+ */
+class MeasurementCollectionBulkheads {
+    private static final Log LOG = LogFactory.getLog(MeasurementCollectionBulkheads.class);
+
+    static final String PROP_PREFIX = "rhq.agent.plugins.measurement-collection.";
+    static final String PLUGIN_CONCURRENCY_PROP = PROP_PREFIX + "plugin-concurrency";
+    static final String PLUGIN_SLOT_WAIT_PROP = PROP_PREFIX + "plugin-slot-wait-ms";
+    static final String TIMEOUT_PROP = PROP_PREFIX + "timeout-ms";
+    static final String BUDGET_PROP = PROP_PREFIX + "budget-ms";
+    static final String QUARANTINE_THRESHOLD_PROP = PROP_PREFIX + "quarantine-threshold";
+    static final String QUARANTINE_PROP = PROP_PREFIX + "quarantine-ms";
+
+    private static final long MAX_QUARANTINE = 60L * 60L * 1000L; // 1 hour
+
+    // 0 if the plugin concurrency is not configured and follows the collector pool size
+    private final int defaultPluginConcurrency;
+    private final long pluginSlotWait;
+    private volatile int collectorThreads;
+    private final long defaultTimeout;
+    private final long defaultBudget;
+    private final int quarantineThreshold;
+    private final long quarantineTime;
+
+    private final ConcurrentMap<String, PluginBulkhead> bulkheads = new ConcurrentHashMap<String, PluginBulkhead>();
+    private final ConcurrentMap<Integer, ComponentHealth> components = new ConcurrentHashMap<Integer, ComponentHealth>();
+
+    private final AtomicLong busyTime = new AtomicLong();
+
+    /**
+     * @param collectorThreads the number of threads available to run collections
+     * @param defaultTimeout the <code>getValues</code> timeout, in milliseconds, of plugins that do not override it
+     */
+    MeasurementCollectionBulkheads(int collectorThreads, long defaultTimeout) {
+        this.collectorThreads = collectorThreads;
+        this.defaultPluginConcurrency = getIntProperty(PLUGIN_CONCURRENCY_PROP, 0);
+        this.pluginSlotWait = getLongProperty(PLUGIN_SLOT_WAIT_PROP, 1000L);
+        this.defaultTimeout = getLongProperty(TIMEOUT_PROP, defaultTimeout);
+        this.defaultBudget = getLongProperty(BUDGET_PROP, Math.min(10000L, this.defaultTimeout));
+        this.quarantineThreshold = getIntProperty(QUARANTINE_THRESHOLD_PROP, 3);
+        this.quarantineTime = getLongProperty(QUARANTINE_PROP, 5L * 60L * 1000L);
+    }
+
+    /**
+     * Tells the bulkheads the collector pool was resized, the plugins whose concurrency is not configured get half of
+     * the new pool.
+     *
+     * @param collectorThreads the number of threads now available to run collections
+     */
+    void setCollectorThreads(int collectorThreads) {
+        this.collectorThreads = collectorThreads;
+        for (PluginBulkhead bulkhead : bulkheads.values()) {
+            bulkhead.concurrencyChanged();
+        }
+    }
+
+    /**
+     * Reserves one of the plugin's collector slots without waiting, see {@link #tryAcquire(String, long)}.
+     */
+    boolean tryAcquire(String plugin) {
+        try {
+            return tryAcquire(plugin, 0L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Reserves one of the plugin's collector slots, waiting a little for one to be released if they are all taken.
+     * Each successful call must be paired with a call to {@link #release(String)}.
+     *
+     * @param plugin the name of the plugin whose component is about to be called
+     * @param maxWait the maximum time, in milliseconds, to wait for a slot
+     *
+     * @return <code>false</code> if all of the plugin's slots are still taken after waiting
+     */
+    boolean tryAcquire(String plugin, long maxWait) throws InterruptedException {
+        PluginBulkhead bulkhead = getBulkhead(plugin);
+        if (bulkhead.acquire(maxWait)) {
+            return true;
+        }
+        bulkhead.rejected.incrementAndGet();
+        return false;
+    }
+
+    void release(String plugin) {
+        getBulkhead(plugin).release();
+    }
+
+    /**
+     * @return how long, in milliseconds, a collection waits for a slot of its plugin before it is treated as late
+     */
+    long getPluginSlotWait() {
+        return pluginSlotWait;
+    }
+
+    /**
+     * @return the <code>getValues</code> timeout, in milliseconds, for components of the given plugin
+     */
+    long getTimeout(String plugin) {
+        return getBulkhead(plugin).timeout;
+    }
+
+    /**
+     * @return <code>true</code> if collection for the resource is currently being skipped
+     */
+    boolean isQuarantined(int resourceId, long now) {
+        ComponentHealth health = components.get(resourceId);
+        return (health != null) && health.isQuarantined(now);
+    }
+
+    /**
+     * Records the outcome of one <code>getValues</code> call and quarantines the component if it has now exceeded the
+     * plugin's budget too many times in a row.
+     *
+     * @param plugin the plugin of the resource
+     * @param resourceId the resource whose component was called
+     * @param duration how long the call took, in milliseconds
+     * @param timedOut whether the call was abandoned because it exceeded the plugin's timeout
+     */
+    void recordCollection(String plugin, int resourceId, long duration, boolean timedOut) {
+        PluginBulkhead bulkhead = getBulkhead(plugin);
+        bulkhead.record(duration, timedOut);
+        busyTime.addAndGet(duration);
+
+        boolean overBudget = timedOut || (duration > bulkhead.budget);
+        ComponentHealth health = components.get(resourceId);
+        if (!overBudget) {
+            if (health != null) {
+                health.reset();
+            }
+            return;
+        }
+
+        if (health == null) {
+            ComponentHealth newHealth = new ComponentHealth();
+            health = components.putIfAbsent(resourceId, newHealth);
+            if (health == null) {
+                health = newHealth;
+            }
+        }
+        long quarantinedFor = health.overBudget(System.currentTimeMillis());
+        if (quarantinedFor > 0L) {
+            bulkhead.quarantines.incrementAndGet();
+            LOG.warn("Measurement collection for resource [" + resourceId + "] of plugin [" + plugin
+                + "] exceeded its budget of [" + bulkhead.budget + "]ms " + quarantineThreshold
+                + " times in a row - it will not be collected for the next [" + quarantinedFor + "]ms");
+        }
+    }
+
+    /**
+     * Forgets everything known about the given resources, for example because they were removed from inventory.
+     */
+    void forget(Iterable<Integer> resourceIds) {
+        for (Integer resourceId : resourceIds) {
+            components.remove(resourceId);
+        }
+    }
+
+    /**
+     * @return the number of resource components currently quarantined
+     */
+    int getQuarantinedCount() {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (ComponentHealth health : components.values()) {
+            if (health.isQuarantined(now)) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Works out the collector pool size needed for the load observed since the last call, and resets the
+     * observation. The pool grows by one thread when it was more than 75% busy, and shrinks by one when it was less
+     * than 25% busy. It always stays within the given bounds.
+     *
+     * @param currentSize the number of collector threads used during the observation
+     * @param minSize the smallest size to recommend
+     * @param maxSize the largest size to recommend
+     * @param elapsed the length of the observation, in milliseconds
+     *
+     * @return the recommended number of collector threads
+     */
+    int getRecommendedPoolSize(int currentSize, int minSize, int maxSize, long elapsed) {
+        long busy = busyTime.getAndSet(0L);
+        if (elapsed <= 0L || currentSize <= 0) {
+            return currentSize;
+        }
+        double utilization = (double) busy / ((double) elapsed * currentSize);
+        int recommended = currentSize;
+        if (utilization > 0.75) {
+            recommended = currentSize + 1;
+        } else if (utilization < 0.25) {
+            recommended = currentSize - 1;
+        }
+        return Math.max(minSize, Math.min(maxSize, recommended));
+    }
+
+    /**
+     * @return the latency statistics of each plugin's collections, keyed by plugin name
+     */
+    Map<String, Map<String, Long>> getStatistics() {
+        Map<String, Map<String, Long>> statistics = new TreeMap<String, Map<String, Long>>();
+        for (Map.Entry<String, PluginBulkhead> entry : bulkheads.entrySet()) {
+            statistics.put(entry.getKey(), entry.getValue().getStatistics());
+        }
+        return statistics;
+    }
+
+    private PluginBulkhead getBulkhead(String plugin) {
+        PluginBulkhead bulkhead = bulkheads.get(plugin);
+        if (bulkhead == null) {
+            PluginBulkhead newBulkhead = new PluginBulkhead(getIntProperty(PLUGIN_CONCURRENCY_PROP + "." + plugin,
+                defaultPluginConcurrency), getLongProperty(TIMEOUT_PROP + "." + plugin, defaultTimeout),
+                getLongProperty(BUDGET_PROP + "." + plugin, defaultBudget));
+            bulkhead = bulkheads.putIfAbsent(plugin, newBulkhead);
+            if (bulkhead == null) {
+                bulkhead = newBulkhead;
+            }
+        }
+        return bulkhead;
+    }
+
+    private static int getIntProperty(String name, int defaultValue) {
+        try {
+            return Integer.parseInt(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value for [" + name + "] - using [" + defaultValue + "]");
+            return defaultValue;
+        }
+    }
+
+    private static long getLongProperty(String name, long defaultValue) {
+        try {
+            return Long.parseLong(System.getProperty(name, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value for [" + name + "] - using [" + defaultValue + "]");
+            return defaultValue;
+        }
+    }
+
+    private class PluginBulkhead {
+        // 0 if the concurrency follows the collector pool size
+        private final int configuredConcurrency;
+        private int inFlight; // guarded by this
+        private final long timeout;
+        private final long budget;
+
+        private final AtomicLong collections = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+        private final AtomicLong maxTime = new AtomicLong();
+        private final AtomicLong lastTime = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong quarantines = new AtomicLong();
+
+        PluginBulkhead(int concurrency, long timeout, long budget) {
+            this.configuredConcurrency = Math.max(0, concurrency);
+            this.timeout = timeout;
+            this.budget = budget;
+        }
+
+        int getConcurrency() {
+            if (configuredConcurrency > 0) {
+                return configuredConcurrency;
+            }
+            // no single plugin may occupy more than half of the collectors, so there are always some left
+            return Math.max(1, collectorThreads / 2);
+        }
+
+        synchronized boolean acquire(long maxWait) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + maxWait;
+            while (inFlight >= getConcurrency()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0L) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            ++inFlight;
+            return true;
+        }
+
+        synchronized void release() {
+            --inFlight;
+            notifyAll();
+        }
+
+        synchronized void concurrencyChanged() {
+            notifyAll();
+        }
+
+        synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        void record(long duration, boolean timedOut) {
+            collections.incrementAndGet();
+            totalTime.addAndGet(duration);
+            lastTime.set(duration);
+            long max = maxTime.get();
+            while (duration > max && !maxTime.compareAndSet(max, duration)) {
+                max = maxTime.get();
+            }
+            if (timedOut) {
+                timeouts.incrementAndGet();
+            }
+        }
+
+        Map<String, Long> getStatistics() {
+            long count = collections.get();
+            Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+            statistics.put("collections", count);
+            statistics.put("averageMs", (count == 0L) ? 0L : (totalTime.get() / count));
+            statistics.put("maxMs", maxTime.get());
+            statistics.put("lastMs", lastTime.get());
+            statistics.put("timeouts", timeouts.get());
+            statistics.put("rejected", rejected.get());
+            statistics.put("quarantines", quarantines.get());
+            statistics.put("inFlight", (long) getInFlight());
+            statistics.put("concurrency", (long) getConcurrency());
+            return statistics;
+        }
+    }
+
+    private class ComponentHealth {
+        private int consecutiveOverBudget;
+        private int quarantines;
+        private volatile long quarantinedUntil;
+
+        boolean isQuarantined(long now) {
+            return now < quarantinedUntil;
+        }
+
+        synchronized void reset() {
+            consecutiveOverBudget = 0;
+            quarantines = 0;
+        }
+
+        /**
+         * @return how long the component is now quarantined for, or 0 if it is not quarantined
+         */
+        synchronized long overBudget(long now) {
+            if (++consecutiveOverBudget < quarantineThreshold) {
+                return 0L;
+            }
+            consecutiveOverBudget = 0;
+            long time = Math.min(MAX_QUARANTINE, quarantineTime << Math.min(quarantines, 16));
+            ++quarantines;
+            quarantinedUntil = now + time;
+            return time;
+        }
+    }
+}
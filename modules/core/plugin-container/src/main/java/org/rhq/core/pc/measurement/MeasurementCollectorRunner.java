@@ -34,6 +34,7 @@ import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.pc.inventory.InventoryManager;
 import org.rhq.core.pc.inventory.ResourceContainer;
+import org.rhq.core.pc.inventory.TimeoutException;
 import org.rhq.core.pc.util.ComponentUtil;
 import org.rhq.core.pc.util.FacetLockType;
 import org.rhq.core.pluginapi.measurement.MeasurementFacet;
@@ -58,6 +59,18 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
     }
 
     public MeasurementReport call() {
+        return collect(this.measurementManager.getNextScheduledSet());
+    }
+
+    /**
+     * Collects one set of due measurements, as returned by {@link MeasurementManager#getNextScheduledSet()}, into
+     * the active report and reschedules them. This can run on several collector threads at once.
+     *
+     * @param requests the due measurements, all for the same resource; if <code>null</code> nothing is collected
+     *
+     * @return the report the measurements were collected into
+     */
+    MeasurementReport collect(Set<ScheduledMeasurementInfo> requests) {
         MeasurementReport report = null;
         try {
             this.measurementManager.getLock().readLock().lock();
@@ -67,8 +80,6 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
 
             InventoryManager im = this.measurementManager.getInventoryManager();
 
-            Set<ScheduledMeasurementInfo> requests = this.measurementManager.getNextScheduledSet();
-
             if (requests != null) {
                 ScheduledMeasurementInfo next = requests.iterator().next();
 
@@ -78,9 +89,11 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
                         log.debug("Measurement collection is falling behind... Missed requested time by ["
                             + (System.currentTimeMillis() - requests.iterator().next().getNextCollection()) + "ms]");
 
-                        if (!scheduleHistory.isEmpty()) {
-                            log.debug("The most recent measurement requests prior to this detected delay: "
-                                + scheduleHistory);
+                        synchronized (scheduleHistory) {
+                            if (!scheduleHistory.isEmpty()) {
+                                log.debug("The most recent measurement requests prior to this detected delay: "
+                                    + scheduleHistory);
+                            }
                         }
                     }
 
@@ -91,6 +104,7 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
 
                 Integer resourceId = next.getResourceId();
                 ResourceContainer container = im.getResourceContainer(resourceId);
+                MeasurementCollectionBulkheads bulkheads = this.measurementManager.getCollectionBulkheads();
                 if (container.getResourceComponentState() != ResourceContainer.ResourceComponentState.STARTED
                     || container.getAvailability() == null
                     || container.getAvailability().getAvailabilityType() == AvailabilityType.DOWN) {
@@ -99,16 +113,43 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
                         log.debug("Measurements not collected for inactive resource component: "
                             + container.getResource());
                     }
-                } else {
-                    MeasurementFacet measurementComponent = ComponentUtil
-                        .getComponent(resourceId, MeasurementFacet.class, FacetLockType.READ,
-                            MeasurementManager.FACET_METHOD_TIMEOUT, true, true, true);
-
+                } else if (bulkheads.isQuarantined(resourceId, start)) {
+                    // Don't collect metrics for components that keep blowing their budget, they would only tie up
+                    // collector threads that other resources need
                     if (log.isDebugEnabled()) {
-                        scheduleHistory.addRequests(requests);
+                        log.debug("Measurements not collected for quarantined resource component: "
+                            + container.getResource());
+                    }
+                } else {
+                    String plugin = container.getResource().getResourceType().getPlugin();
+                    if (!bulkheads.tryAcquire(plugin, bulkheads.getPluginSlotWait())) {
+                        // treat it as a late collection, so it is counted and retried soon rather than at the next
+                        // interval
+                        if (log.isDebugEnabled()) {
+                            log.debug("Measurements not collected yet for " + container.getResource()
+                                + ", all collector slots of plugin [" + plugin + "] are busy - rescheduling");
+                        }
+                        this.measurementManager.incrementLateCollections(requests.size());
+                        this.measurementManager.rescheduleLateCollections(requests);
+                        return report;
+                    } else {
+                        try {
+                            MeasurementFacet measurementComponent = ComponentUtil.getComponent(resourceId,
+                                MeasurementFacet.class, FacetLockType.READ, bulkheads.getTimeout(plugin), true,
+                                true, true);
+
+                            if (log.isDebugEnabled()) {
+                                synchronized (scheduleHistory) {
+                                    scheduleHistory.addRequests(requests);
+                                }
+                            }
+
+                            getValues(measurementComponent, report, requests, container.getResource(), plugin,
+                                bulkheads);
+                        } finally {
+                            bulkheads.release(plugin);
+                        }
                     }
-
-                    getValues(measurementComponent, report, requests, container.getResource());
                 }
 
                 this.measurementManager.reschedule(requests);
@@ -125,20 +166,14 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
     }
 
     private void getValues(MeasurementFacet measurementComponent, MeasurementReport report,
-        Set<? extends MeasurementScheduleRequest> requests, Resource resource) {
+        Set<? extends MeasurementScheduleRequest> requests, Resource resource, String plugin,
+        MeasurementCollectionBulkheads bulkheads) {
+        long start = System.currentTimeMillis();
+        boolean timedOut = false;
         try {
-            long start = System.currentTimeMillis();
             measurementComponent.getValues(report, Collections.unmodifiableSet(requests));
-            long duration = (System.currentTimeMillis() - start);
-            if (duration > 2000L || log.isTraceEnabled()) {
-                String message = "[PERF] Collection of measurements for [" + resource + "] (component=["
-                    + measurementComponent + "]) took [" + duration + "]ms";
-                if (log.isDebugEnabled()) {
-                    message += " for requests: " + requests;
-                }
-                log.info(message);
-            }
         } catch (Throwable t) {
+            timedOut = (t instanceof TimeoutException);
             this.measurementManager.incrementFailedCollections(requests.size());
             if (log.isDebugEnabled()) {
                 log.warn("Failure to collect measurement data for " + resource + ", requests=" + requests
@@ -147,6 +182,18 @@ public class MeasurementCollectorRunner implements Callable<MeasurementReport>,
                 log.warn("Failure to collect measurement data for " + resource + " - cause: "
                     + ThrowableUtil.getAllMessages(t));
             }
+        } finally {
+            long duration = (System.currentTimeMillis() - start);
+            bulkheads.recordCollection(plugin, resource.getId(), duration, timedOut);
+            if (duration > 2000L || log.isTraceEnabled()) {
+                String message = "[PERF] plugin=[" + plugin + "] resourceId=[" + resource.getId() + "] component=["
+                    + measurementComponent + "] requests=[" + requests.size() + "] durationMs=[" + duration
+                    + "] timedOut=[" + timedOut + "]";
+                if (log.isDebugEnabled()) {
+                    message += " for requests: " + requests;
+                }
+                log.info(message);
+            }
         }
     }
 
@@ -19,6 +19,7 @@
 
 package org.rhq.core.pc.measurement;
 
+import java.io.File;
 import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.Date;
@@ -26,9 +27,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -60,6 +61,7 @@ import org.rhq.core.pc.agent.AgentService;
 import org.rhq.core.pc.agent.AgentServiceStreamRemoter;
 import org.rhq.core.pc.inventory.InventoryManager;
 import org.rhq.core.pc.inventory.ResourceContainer;
+import org.rhq.core.pc.measurement.MeasurementCacheStore.PerMinuteValue;
 import org.rhq.core.pc.util.ComponentUtil;
 import org.rhq.core.pc.util.FacetLockType;
 import org.rhq.core.pc.util.LoggingThreadFactory;
@@ -86,6 +88,22 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     static final int FACET_METHOD_TIMEOUT = 30 * 1000; // 30 seconds
 
+    // how often the collector thread pool is resized to fit the observed collection latency
+    private static final long COLLECTOR_POOL_RESIZE_INTERVAL = 60 * 1000L; // 1 minute
+
+    // the collector thread pool may grow up to this many times its configured size
+    private static final int COLLECTOR_POOL_MAX_FACTOR = Integer.getInteger(
+        "rhq.agent.plugins.measurement-collection.max-pool-factor", 4);
+
+    // the data file the trait hashes and per-minute values are saved to, so that they survive agent restarts
+    private static final String CACHE_STORE_FILE_NAME = "measurement-values.dat";
+
+    // how often the trait hashes and per-minute values are saved while the agent runs
+    private static final long CACHE_STORE_SAVE_INTERVAL = 5 * 60 * 1000L; // 5 minutes
+
+    // per-minute values older than this are not reused after a restart
+    private static final long PER_MINUTE_VALUE_MAX_AGE = 60 * 60 * 1000L; // 1 hour
+
     static final Log LOG = LogFactory.getLog(MeasurementManager.class);
 
     private final ScheduledThreadPoolExecutor collectorThreadPool;
@@ -94,16 +112,23 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     private final MeasurementSenderRunner measurementSenderRunner;
     private final MeasurementCollectorRunner measurementCollectorRunner;
 
+    private final MeasurementCollectionBulkheads collectionBulkheads;
+
+    // the number of collections handed to the collector thread pool that have not finished yet
+    private int collectionsInProgress;
+    private final Object collectionsInProgressLock = new Object();
+
     private final PluginContainerConfiguration configuration;
 
-    private final PriorityQueue<ScheduledMeasurementInfo> scheduledRequests = new PriorityQueue<ScheduledMeasurementInfo>(
-        10000);
+    private final MeasurementScheduleWheel scheduledRequests = new MeasurementScheduleWheel();
 
     private final InventoryManager inventoryManager;
 
-    private final Map<Integer, String> traitCache = new HashMap<Integer, String>();
+    // the last collected value of each trait, null values are not cached
+    private final Map<Integer, String> traitCache = new ConcurrentHashMap<Integer, String>();
 
-    private final Map<Integer, CachedValue> perMinuteCache = new HashMap<Integer, CachedValue>();
+    private final MeasurementCacheStore cacheStore = new MeasurementCacheStore();
+    private volatile long lastCacheStoreSave = System.currentTimeMillis();
 
     private volatile MeasurementReport activeReport = new MeasurementReport();
 
@@ -126,9 +151,12 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         this.configuration = configuration;
         this.inventoryManager = inventoryManager;
 
+        int threadPoolSize = configuration.getMeasurementCollectionThreadPoolSize();
+        this.collectionBulkheads = new MeasurementCollectionBulkheads(threadPoolSize, FACET_METHOD_TIMEOUT);
+
         if (configuration.isInsideAgent()) {
-            int threadPoolSize = configuration.getMeasurementCollectionThreadPoolSize();
-            collectorThreadPool = new ScheduledThreadPoolExecutor(threadPoolSize, new LoggingThreadFactory(
+            // one extra thread runs the MeasurementCollectionRequester, the rest run the collections
+            collectorThreadPool = new ScheduledThreadPoolExecutor(threadPoolSize + 1, new LoggingThreadFactory(
                 COLLECTOR_THREAD_POOL_NAME, true));
             senderThreadPool = new ScheduledThreadPoolExecutor(2, new LoggingThreadFactory(SENDER_THREAD_POOL_NAME,
                 true));
@@ -155,6 +183,8 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         }
 
         if (configuration.isInsideAgent()) {
+            loadCacheStore();
+
             long collectionInitialDelaySecs = configuration.getMeasurementCollectionInitialDelay();
 
             // Schedule the measurement sender to send measurement reports periodically.
@@ -179,16 +209,39 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     class MeasurementCollectionRequester implements Runnable {
         @Override
         public void run() {
+            long lastResize = System.currentTimeMillis();
             try {
                 while (!collectorThreadPool.isShutdown()) {
+                    long now = System.currentTimeMillis();
+                    if (now - lastResize >= COLLECTOR_POOL_RESIZE_INTERVAL) {
+                        resizeCollectorThreadPool(now - lastResize);
+                        lastResize = now;
+                    }
+
                     long next = getNextExpectedCollectionTime();
                     if (next == Long.MIN_VALUE) {
                         Thread.sleep(10000);
                     } else {
                         long delay = next - System.currentTimeMillis();
                         if (delay <= 0) {
-                            //                  collectorThreadPool.execute(measurementCollectorRunner);
-                            measurementCollectorRunner.call();
+                            // wait for a free collector so that due collections queue up in the schedule wheel,
+                            // where late ones are detected, rather than in the thread pool
+                            waitForFreeCollector();
+                            final Set<ScheduledMeasurementInfo> requests = getNextScheduledSet();
+                            if (requests == null) {
+                                collectionFinished();
+                            } else {
+                                collectorThreadPool.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        try {
+                                            measurementCollectorRunner.collect(requests);
+                                        } finally {
+                                            collectionFinished();
+                                        }
+                                    }
+                                });
+                            }
                         } else {
                             if (!collectorThreadPool.isShutdown()) {
                                 Thread.sleep(delay);
@@ -207,6 +260,48 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         }
     }
 
+    private void waitForFreeCollector() throws InterruptedException {
+        synchronized (collectionsInProgressLock) {
+            // one pool thread is the requester itself
+            while (collectionsInProgress >= collectorThreadPool.getCorePoolSize() - 1) {
+                collectionsInProgressLock.wait(1000L);
+            }
+            ++collectionsInProgress;
+        }
+    }
+
+    private void collectionFinished() {
+        synchronized (collectionsInProgressLock) {
+            --collectionsInProgress;
+            collectionsInProgressLock.notifyAll();
+        }
+    }
+
+    /**
+     * Grows or shrinks the collector thread pool by one thread, depending on how busy the collectors were over the
+     * elapsed time. The pool never gets smaller than the configured size, nor larger than
+     * COLLECTOR_POOL_MAX_FACTOR times that size.
+     */
+    private void resizeCollectorThreadPool(long elapsed) {
+        int minSize = configuration.getMeasurementCollectionThreadPoolSize();
+        int currentSize = collectorThreadPool.getCorePoolSize() - 1;
+        int newSize = collectionBulkheads.getRecommendedPoolSize(currentSize, minSize, minSize
+            * COLLECTOR_POOL_MAX_FACTOR, elapsed);
+        if (newSize != currentSize) {
+            LOG.info("Resizing measurement collector thread pool from [" + currentSize + "] to [" + newSize
+                + "] threads based on observed collection latency");
+            collectorThreadPool.setCorePoolSize(newSize + 1);
+            collectionBulkheads.setCollectorThreads(newSize);
+            synchronized (collectionsInProgressLock) {
+                collectionsInProgressLock.notifyAll();
+            }
+        }
+    }
+
+    MeasurementCollectionBulkheads getCollectionBulkheads() {
+        return collectionBulkheads;
+    }
+
     private void reschedule(Resource resource) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("In Reschedule for: " + resource);
@@ -241,26 +336,21 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     }
 
     /**
-     * Check if the passed trait is new or has changed
+     * Check if the passed trait is new or has changed since the server last accepted a value for it. The value is only
+     * recorded as known to the server once the report including it is sent, see
+     * {@link #sendMeasurementReport(MeasurementReport)}, so a value that could not be sent is checked as changed again.
      * @param  scheduleId
      * @param  traitValue
      *
      * @return true if the value is new or changed and should be included in the report
      */
     public boolean checkTrait(int scheduleId, String traitValue) {
-
-        if (traitCache.containsKey(scheduleId)) {
-            String historic = traitCache.get(scheduleId);
-            if (((historic == null) && (traitValue != null)) || ((historic != null) && !historic.equals(traitValue))) {
-                traitCache.put(scheduleId, traitValue);
-                return true;
-            } else {
-                return false;
-            }
-        } else {
+        if (traitValue != null) {
             traitCache.put(scheduleId, traitValue);
-            return true;
+        } else {
+            traitCache.remove(scheduleId);
         }
+        return cacheStore.isTraitChanged(scheduleId, traitValue);
     }
 
     /**
@@ -308,6 +398,10 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             PluginContainer.shutdownExecutorService(this.senderThreadPool, true);
         }
 
+        if (configuration.isInsideAgent()) {
+            saveCacheStore();
+        }
+
         if (configuration.isStartManagementBean()) {
             MBeanServer server = ManagementFactory.getPlatformMBeanServer();
             try {
@@ -353,7 +447,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
 
     }
 
@@ -390,7 +483,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         // TODO GH: Should I kick the pool or should I just go with the 30 second granularity on collections?
         // If I get much more granular then the server could end up with too many small reports from many agents
         // This may be another reason to have a separate sending mechanism from the collection mechanism.
-        clearDuplicateSchedules();
     }
 
     /**
@@ -399,7 +491,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      * @param resourceId The resource to collect on
      * @param requests   The measurements to collect
      */
-    public synchronized void scheduleCollection(int resourceId, Set<MeasurementScheduleRequest> requests) {
+    public void scheduleCollection(int resourceId, Set<MeasurementScheduleRequest> requests) {
         // This ensures that all the schedules for a single resource start at the same time
         // This will enable them to be collected at the same time
         long firstCollection = System.currentTimeMillis();
@@ -415,38 +507,23 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
             info.setNextCollection(firstCollection);
 
-            this.scheduledRequests.remove(info);
-
-            // Don't add it if collection is disabled for this resource
+            // Don't add it if collection is disabled for this resource. Scheduling replaces any existing
+            // schedule with the same id, so there is never more than one collection per schedule.
             if (info.isEnabled()) {
-                this.scheduledRequests.offer(info);
+                this.scheduledRequests.schedule(info);
+            } else {
+                this.scheduledRequests.remove(info.getScheduleId());
+                this.cacheStore.forget(info.getScheduleId());
             }
         }
     }
 
     @Override
-    public synchronized void unscheduleCollection(Set<Integer> resourceIds) {
-        Iterator<ScheduledMeasurementInfo> itr = this.scheduledRequests.iterator();
-        while (itr.hasNext()) {
-            ScheduledMeasurementInfo info = itr.next();
-            if (resourceIds.contains(info.getResourceId())) {
-                itr.remove();
-            }
-        }
-    }
-
-    private void clearDuplicateSchedules() {
-        HashSet<Integer> set = new HashSet<Integer>(this.scheduledRequests.size());
-        Iterator<ScheduledMeasurementInfo> iter = this.scheduledRequests.iterator();
-        while (iter.hasNext()) {
-            ScheduledMeasurementInfo info = iter.next();
-            if (set.contains(info.getScheduleId())) {
-                LOG.debug("Found duplicate schedule - will remove it: " + info);
-                iter.remove();
-            } else {
-                set.add(info.getScheduleId());
-            }
+    public void unscheduleCollection(Set<Integer> resourceIds) {
+        for (Integer scheduleId : this.scheduledRequests.unschedule(resourceIds)) {
+            this.cacheStore.forget(scheduleId);
         }
+        this.collectionBulkheads.forget(resourceIds);
     }
 
     // spinder 12/16/11. BZ 760139. Modified to return empty sets instead of 'null' even for erroneous conditions.
@@ -492,7 +569,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         while (iterator.hasNext()) {
             MeasurementDataNumeric numeric = iterator.next();
             if (numeric.isPerMinuteCollection()) {
-                CachedValue currentValue = perMinuteCache.get(numeric.getScheduleId());
+                PerMinuteValue currentValue = cacheStore.getPerMinuteValue(numeric.getScheduleId());
                 if (currentValue == null) {
                     iterator.remove();
                 } else {
@@ -509,35 +586,18 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
 
     @Override
     public long getNextExpectedCollectionTime() {
-        ScheduledMeasurementInfo nextScheduledMeasurement = this.scheduledRequests.peek();
-        if (nextScheduledMeasurement == null) {
-            return Long.MIN_VALUE;
-        } else {
-            return nextScheduledMeasurement.getNextCollection();
-        }
+        return this.scheduledRequests.getNextCollectionTime();
     }
 
     /**
-     * Returns the complete set of scheduled measurement collections.
+     * Returns the next set of measurement collections that are due, all for the same resource and collection time.
+     * The returned schedules are out of the schedule wheel until they are passed to {@link #reschedule(Set)} or
+     * {@link #rescheduleLateCollections(Set)}.
      *
-     * @return all measurement schedules
+     * @return the due measurement schedules, or <code>null</code> if nothing is due yet
      */
-    public synchronized Set<ScheduledMeasurementInfo> getNextScheduledSet() {
-        ScheduledMeasurementInfo first = this.scheduledRequests.peek();
-        if ((first == null) || (first.getNextCollection() > System.currentTimeMillis())) {
-            return null;
-        }
-
-        Set<ScheduledMeasurementInfo> nextScheduledSet = new HashSet<ScheduledMeasurementInfo>();
-
-        ScheduledMeasurementInfo next = this.scheduledRequests.peek();
-        while ((next != null) && (next.getResourceId() == first.getResourceId())
-            && (next.getNextCollection() == first.getNextCollection())) {
-            nextScheduledSet.add(this.scheduledRequests.poll());
-            next = this.scheduledRequests.peek();
-        }
-
-        return nextScheduledSet;
+    public Set<ScheduledMeasurementInfo> getNextScheduledSet() {
+        return this.scheduledRequests.pollDue(System.currentTimeMillis());
     }
 
     /**
@@ -547,12 +607,12 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @param scheduledMeasurementInfos the schedules to reschedule
      */
-    public synchronized void reschedule(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
+    public void reschedule(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
 
         for (ScheduledMeasurementInfo scheduledMeasurement : scheduledMeasurementInfos) {
             long interval = scheduledMeasurement.getInterval();
             scheduledMeasurement.setNextCollection(scheduledMeasurement.getNextCollection() + interval);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.reschedule(scheduledMeasurement);
         }
     }
 
@@ -569,7 +629,7 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
      *
      * @param scheduledMeasurementInfos the late schedules to reschedule
      */
-    synchronized void rescheduleLateCollections(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
+    void rescheduleLateCollections(Set<ScheduledMeasurementInfo> scheduledMeasurementInfos) {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("Rescheduling [" + scheduledMeasurementInfos.size() + "] late collections: "
@@ -595,13 +655,14 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
             }
 
             scheduledMeasurement.setNextCollection(nextCollection);
-            this.scheduledRequests.offer(scheduledMeasurement);
+            this.scheduledRequests.reschedule(scheduledMeasurement);
         }
     }
 
     /**
      * Sends the given measurement report to the server, if this plugin container has server services that it can
-     * communicate with.
+     * communicate with. Once the report is accepted for delivery, its trait values are recorded as known to the server
+     * so that they are not sent again until they change.
      *
      * @param report
      */
@@ -614,17 +675,75 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
                 configuration.getServerServices().getMeasurementServerService().mergeMeasurementReport(report);
             } catch (Exception e) {
                 LOG.warn("Failure to report measurements to server", e);
+                return;
+            }
+
+            // only the traits the server got are known to it, the others must be sent again
+            for (MeasurementDataTrait trait : report.getTraitData()) {
+                this.cacheStore.traitAccepted(trait.getScheduleId(), trait.getValue());
+            }
+        }
+
+        if (configuration.isInsideAgent()
+            && (System.currentTimeMillis() - this.lastCacheStoreSave >= CACHE_STORE_SAVE_INTERVAL)) {
+            saveCacheStore();
+        }
+    }
+
+    /**
+     * Loads the trait hashes and per-minute values saved for the current inventory. The inventory manager must have
+     * loaded the inventory already.
+     */
+    void loadCacheStore() {
+        File cacheStoreFile = getCacheStoreFile();
+        if (cacheStoreFile != null) {
+            this.cacheStore.load(cacheStoreFile, PER_MINUTE_VALUE_MAX_AGE, getInventoryIdentity());
+        }
+    }
+
+    void saveCacheStore() {
+        this.lastCacheStoreSave = System.currentTimeMillis();
+        File cacheStoreFile = getCacheStoreFile();
+        String inventoryIdentity = getInventoryIdentity();
+        if ((cacheStoreFile != null) && (inventoryIdentity != null) && this.cacheStore.isDirty()) {
+            long start = System.currentTimeMillis();
+            this.cacheStore.save(cacheStoreFile, inventoryIdentity);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Saved [" + this.cacheStore.getTraitCount() + "] trait hashes to [" + cacheStoreFile
+                    + "] in [" + (System.currentTimeMillis() - start) + "ms]");
             }
         }
     }
 
+    /**
+     * The schedule ids of the saved values belong to the inventory of the platform. If the inventory data file is
+     * purged, e.g. by <code>inventory --sync</code>, a new platform is discovered and the saved values are discarded.
+     *
+     * @return the server id and uuid of the platform, <code>null</code> if there is no platform yet
+     */
+    private String getInventoryIdentity() {
+        Resource platform = this.inventoryManager.getPlatform();
+        if (platform == null) {
+            return null;
+        }
+        return platform.getId() + ":" + platform.getUuid();
+    }
+
+    private File getCacheStoreFile() {
+        File dataDir = configuration.getDataDirectory();
+        if ((dataDir == null) || (!dataDir.isDirectory() && !dataDir.mkdirs())) {
+            return null;
+        }
+        return new File(dataDir, CACHE_STORE_FILE_NAME);
+    }
+
     private Double updatePerMinuteMetric(MeasurementDataNumeric numeric) {
-        CachedValue previousValue = this.perMinuteCache.get(numeric.getScheduleId());
-        this.perMinuteCache.put(numeric.getScheduleId(), new CachedValue(numeric.getTimestamp(), numeric.getValue()));
+        PerMinuteValue previousValue = this.cacheStore.putPerMinuteValue(numeric.getScheduleId(),
+            numeric.getTimestamp(), numeric.getValue());
         return calculatePerMinuteValue(numeric, previousValue);
     }
 
-    private Double calculatePerMinuteValue(MeasurementDataNumeric numeric, CachedValue currentValue) {
+    private Double calculatePerMinuteValue(MeasurementDataNumeric numeric, PerMinuteValue currentValue) {
         Double perMinuteValue = null;
         if (currentValue != null) {
             long timeDifference = numeric.getTimestamp() - currentValue.timestamp;
@@ -643,15 +762,13 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
     public Map<String, Object> getMeasurementScheduleInfoForResource(int resourceId) {
         Map<String, Object> results = null;
 
-        for (ScheduledMeasurementInfo info : new PriorityQueue<ScheduledMeasurementInfo>(scheduledRequests)) {
-            if (info.getResourceId() == resourceId) {
-                if (results == null) {
-                    results = new HashMap<String, Object>();
-                }
-                String scheduleId = String.valueOf(info.getScheduleId());
-                String interval = String.valueOf(info.getInterval()) + "ms";
-                results.put(scheduleId, interval);
+        for (ScheduledMeasurementInfo info : scheduledRequests.getSchedules(resourceId)) {
+            if (results == null) {
+                results = new HashMap<String, Object>();
             }
+            String scheduleId = String.valueOf(info.getScheduleId());
+            String interval = String.valueOf(info.getInterval()) + "ms";
+            results.put(scheduleId, interval);
         }
 
         return results;
@@ -750,6 +867,36 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         return this.scheduledRequests.size();
     }
 
+    @Override
+    public long getScheduledCollectionSlots() {
+        return this.scheduledRequests.getOccupiedSlots();
+    }
+
+    @Override
+    public Map<String, Long> getScheduledCollectionsHistogram() {
+        return this.scheduledRequests.getOccupancyHistogram(System.currentTimeMillis());
+    }
+
+    @Override
+    public Map<String, Long> getCollectionLatenessHistogram() {
+        return this.scheduledRequests.getLatenessHistogram();
+    }
+
+    @Override
+    public long getCollectorThreadPoolSize() {
+        return (this.collectorThreadPool == null) ? 0L : (this.collectorThreadPool.getCorePoolSize() - 1);
+    }
+
+    @Override
+    public long getQuarantinedCollections() {
+        return this.collectionBulkheads.getQuarantinedCount();
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getCollectionStatisticsByPlugin() {
+        return this.collectionBulkheads.getStatistics();
+    }
+
     @Override
     public long getTotalTimeCollectingMeasurements() {
         return this.totalTimeCollecting.get();
@@ -786,16 +933,6 @@ public class MeasurementManager extends AgentService implements MeasurementAgent
         return failedCollection.get();
     }
 
-    private static class CachedValue {
-        CachedValue(long timestamp, double value) {
-            this.timestamp = timestamp;
-            this.value = value;
-        }
-
-        long timestamp;
-        double value;
-    }
-
     public InventoryManager getInventoryManager() {
         return inventoryManager;
     }
@@ -22,6 +22,8 @@
   */
 package org.rhq.core.pc.measurement;
 
+import java.util.Map;
+
 /**
  * @author Greg Hinkle
  */
@@ -38,5 +40,35 @@ public interface MeasurementManagerMBean {
 
     long getLateCollections();
 
+    /**
+     * @return the number of distinct collection times currently holding scheduled collections
+     */
+    long getScheduledCollectionSlots();
+
+    /**
+     * @return the number of scheduled collections due within each time window from now, keyed by window
+     */
+    Map<String, Long> getScheduledCollectionsHistogram();
+
+    /**
+     * @return the number of collections started per lateness bucket since the agent started, keyed by bucket
+     */
+    Map<String, Long> getCollectionLatenessHistogram();
+
     long getFailedCollections();
+
+    /**
+     * @return the number of threads currently collecting measurements, which adapts to the collection latency
+     */
+    long getCollectorThreadPoolSize();
+
+    /**
+     * @return the number of resource components whose collections are skipped for repeatedly exceeding their budget
+     */
+    long getQuarantinedCollections();
+
+    /**
+     * @return collection latency statistics for each plugin, keyed by plugin name
+     */
+    Map<String, Map<String, Long>> getCollectionStatisticsByPlugin();
 }
\ No newline at end of file
@@ -0,0 +1,332 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The set of scheduled measurement collections, kept as a wheel of time slots. Each slot holds every schedule due at
+ * one collection time, grouped by resource, so that a poll hands back exactly what the collector runs in one
+ * {@link org.rhq.core.pluginapi.measurement.MeasurementFacet#getValues} call.
+ * <p/>
+ * Schedules can be added, replaced and removed concurrently with polling. Each slot is guarded by its own monitor;
+ * there is no lock over the whole wheel. A schedule id maps to exactly one live {@link ScheduledMeasurementInfo}.
+ * Slot entries that no longer match it (because the schedule was replaced or removed while being collected) are
+ * dropped when they are polled.
+ */
+class MeasurementScheduleWheel {
+
+    /** Upper bounds, in milliseconds, of the lateness histogram buckets. The last bucket is unbounded. */
+    static final long[] LATENESS_BUCKETS = { 1000L, 5000L, 30000L, 60000L, 300000L };
+
+    /** Upper bounds, in milliseconds from now, of the occupancy histogram buckets. The last bucket is unbounded. */
+    static final long[] OCCUPANCY_BUCKETS = { 60000L, 300000L, 1800000L, 3600000L };
+
+    private final ConcurrentSkipListMap<Long, Slot> slots = new ConcurrentSkipListMap<Long, Slot>();
+
+    private final ConcurrentMap<Integer, ScheduledMeasurementInfo> schedules = new ConcurrentHashMap<Integer, ScheduledMeasurementInfo>(
+        10000);
+
+    private final AtomicLongArray latenessCounts = new AtomicLongArray(LATENESS_BUCKETS.length + 1);
+
+    /**
+     * Adds the schedule to the wheel at its next collection time. Any schedule already in the wheel with the same
+     * schedule id is replaced.
+     *
+     * @param info the schedule to add
+     */
+    void schedule(ScheduledMeasurementInfo info) {
+        ScheduledMeasurementInfo previous = schedules.put(info.getScheduleId(), info);
+        if ((previous != null) && (previous != info)) {
+            removeFromSlot(previous);
+        }
+        addToSlot(info);
+    }
+
+    /**
+     * Puts a polled schedule back in the wheel at its (already updated) next collection time. The schedule is
+     * dropped if it was replaced or unscheduled while it was being collected.
+     *
+     * @param info a schedule previously returned by {@link #pollDue(long)}
+     *
+     * @return <code>true</code> if the schedule was put back, <code>false</code> if it was dropped
+     */
+    boolean reschedule(ScheduledMeasurementInfo info) {
+        if (schedules.get(info.getScheduleId()) != info) {
+            return false;
+        }
+        addToSlot(info);
+        return true;
+    }
+
+    /**
+     * Removes the schedule with the given id, if it is in the wheel.
+     *
+     * @param scheduleId the id of the schedule to remove
+     */
+    void remove(int scheduleId) {
+        ScheduledMeasurementInfo previous = schedules.remove(scheduleId);
+        if (previous != null) {
+            removeFromSlot(previous);
+        }
+    }
+
+    /**
+     * Removes every schedule belonging to one of the given resources.
+     *
+     * @param resourceIds the resources whose schedules are removed
+     *
+     * @return the ids of the removed schedules
+     */
+    List<Integer> unschedule(Set<Integer> resourceIds) {
+        List<Integer> removed = new ArrayList<Integer>();
+        for (Iterator<Map.Entry<Integer, ScheduledMeasurementInfo>> iter = schedules.entrySet().iterator(); iter
+            .hasNext();) {
+            Map.Entry<Integer, ScheduledMeasurementInfo> entry = iter.next();
+            ScheduledMeasurementInfo info = entry.getValue();
+            if (resourceIds.contains(info.getResourceId()) && schedules.remove(entry.getKey(), info)) {
+                removeFromSlot(info);
+                removed.add(entry.getKey());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes and returns the schedules of one resource in the earliest slot, provided that slot is due.
+     *
+     * @param now the current time
+     *
+     * @return the schedules to collect now, all for the same resource and collection time, or <code>null</code> if
+     *         nothing is due
+     */
+    Set<ScheduledMeasurementInfo> pollDue(long now) {
+        while (true) {
+            Map.Entry<Long, Slot> first = slots.firstEntry();
+            if ((first == null) || (first.getKey() > now)) {
+                return null;
+            }
+
+            Slot slot = first.getValue();
+            Set<ScheduledMeasurementInfo> polled;
+            synchronized (slot) {
+                polled = slot.pollResource();
+                retireIfEmpty(first.getKey(), slot);
+            }
+            if (polled == null) {
+                continue;
+            }
+
+            Set<ScheduledMeasurementInfo> due = new HashSet<ScheduledMeasurementInfo>(polled.size());
+            for (ScheduledMeasurementInfo info : polled) {
+                if (schedules.get(info.getScheduleId()) == info) {
+                    due.add(info);
+                }
+            }
+            if (!due.isEmpty()) {
+                recordLateness(now - first.getKey());
+                return due;
+            }
+        }
+    }
+
+    /**
+     * @return the earliest collection time in the wheel, or {@link Long#MIN_VALUE} if the wheel is empty
+     */
+    long getNextCollectionTime() {
+        Map.Entry<Long, Slot> first = slots.firstEntry();
+        return (first == null) ? Long.MIN_VALUE : first.getKey();
+    }
+
+    /**
+     * @return the number of schedules in the wheel, including those currently being collected
+     */
+    int size() {
+        return schedules.size();
+    }
+
+    /**
+     * @return the number of distinct collection times currently occupied
+     */
+    int getOccupiedSlots() {
+        return slots.size();
+    }
+
+    /**
+     * @param resourceId the resource whose schedules are returned
+     *
+     * @return a snapshot of the schedules of the given resource
+     */
+    List<ScheduledMeasurementInfo> getSchedules(int resourceId) {
+        List<ScheduledMeasurementInfo> result = new ArrayList<ScheduledMeasurementInfo>();
+        for (ScheduledMeasurementInfo info : schedules.values()) {
+            if (info.getResourceId() == resourceId) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Counts how many schedules are due within each of the {@link #OCCUPANCY_BUCKETS} windows from now. The counts
+     * are taken without locking the slots, so they are approximate while the wheel is changing.
+     *
+     * @param now the current time
+     *
+     * @return the number of schedules per bucket, keyed by a label of the bucket's upper bound
+     */
+    Map<String, Long> getOccupancyHistogram(long now) {
+        long[] counts = new long[OCCUPANCY_BUCKETS.length + 1];
+        for (Map.Entry<Long, Slot> entry : slots.entrySet()) {
+            counts[bucketOf(OCCUPANCY_BUCKETS, entry.getKey() - now)] += entry.getValue().size;
+        }
+        Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < counts.length; ++i) {
+            histogram.put(bucketLabel(OCCUPANCY_BUCKETS, i), counts[i]);
+        }
+        return histogram;
+    }
+
+    /**
+     * @return the number of polled collections per {@link #LATENESS_BUCKETS} bucket, keyed by a label of the
+     *         bucket's upper bound
+     */
+    Map<String, Long> getLatenessHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < latenessCounts.length(); ++i) {
+            histogram.put(bucketLabel(LATENESS_BUCKETS, i), latenessCounts.get(i));
+        }
+        return histogram;
+    }
+
+    private void recordLateness(long lateness) {
+        latenessCounts.incrementAndGet(bucketOf(LATENESS_BUCKETS, lateness));
+    }
+
+    private void addToSlot(ScheduledMeasurementInfo info) {
+        Long time = info.getNextCollection();
+        while (true) {
+            Slot slot = slots.get(time);
+            if (slot == null) {
+                Slot newSlot = new Slot();
+                slot = slots.putIfAbsent(time, newSlot);
+                if (slot == null) {
+                    slot = newSlot;
+                }
+            }
+            synchronized (slot) {
+                if (!slot.retired) {
+                    slot.add(info);
+                    return;
+                }
+            }
+            // the slot was emptied and removed concurrently; go around again and create a fresh one
+        }
+    }
+
+    private void removeFromSlot(ScheduledMeasurementInfo info) {
+        Long time = info.getNextCollection();
+        Slot slot = slots.get(time);
+        if (slot != null) {
+            synchronized (slot) {
+                slot.remove(info);
+                retireIfEmpty(time, slot);
+            }
+        }
+    }
+
+    // must be called while holding the slot's monitor
+    private void retireIfEmpty(Long time, Slot slot) {
+        if (!slot.retired && (slot.size == 0)) {
+            slot.retired = true;
+            slots.remove(time, slot);
+        }
+    }
+
+    private static int bucketOf(long[] bounds, long value) {
+        for (int i = 0; i < bounds.length; ++i) {
+            if (value < bounds[i]) {
+                return i;
+            }
+        }
+        return bounds.length;
+    }
+
+    private static String bucketLabel(long[] bounds, int bucket) {
+        return (bucket < bounds.length) ? ("<" + bounds[bucket] + "ms") : (">=" + bounds[bounds.length - 1] + "ms");
+    }
+
+    /**
+     * The schedules due at one collection time. Resources are kept in id order, which is the order the previous
+     * priority queue based implementation collected them in. Schedules are held by identity so that a stale entry
+     * can never hide the live schedule with the same id.
+     */
+    private static class Slot {
+        private final Map<Integer, Set<ScheduledMeasurementInfo>> resources = new TreeMap<Integer, Set<ScheduledMeasurementInfo>>();
+        // written under the slot's monitor, read without it for the occupancy histogram
+        private volatile int size;
+        private boolean retired;
+
+        void add(ScheduledMeasurementInfo info) {
+            Set<ScheduledMeasurementInfo> group = resources.get(info.getResourceId());
+            if (group == null) {
+                group = Collections.newSetFromMap(new IdentityHashMap<ScheduledMeasurementInfo, Boolean>());
+                resources.put(info.getResourceId(), group);
+            }
+            if (group.add(info)) {
+                ++size;
+            }
+        }
+
+        void remove(ScheduledMeasurementInfo info) {
+            Set<ScheduledMeasurementInfo> group = resources.get(info.getResourceId());
+            if ((group != null) && group.remove(info)) {
+                --size;
+                if (group.isEmpty()) {
+                    resources.remove(info.getResourceId());
+                }
+            }
+        }
+
+        Set<ScheduledMeasurementInfo> pollResource() {
+            Iterator<Set<ScheduledMeasurementInfo>> iter = resources.values().iterator();
+            if (!iter.hasNext()) {
+                return null;
+            }
+            Set<ScheduledMeasurementInfo> group = iter.next();
+            iter.remove();
+            size -= group.size();
+            return group;
+        }
+    }
+}
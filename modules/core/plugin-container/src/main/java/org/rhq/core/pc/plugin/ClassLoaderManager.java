@@ -57,6 +57,11 @@ public class ClassLoaderManager {
      */
     private final File tmpDir;
 
+    /**
+     * Where the jars embedded in plugin jars are kept across classloaders and plugin container restarts, if anywhere.
+     */
+    private final EmbeddedJarCache embeddedJarCache;
+
     /**
      * Indicates what plugins are deployed and their hierarchies.
      */
@@ -112,6 +117,8 @@ public class ClassLoaderManager {
      * @param rootClassLoader the classloader at the top of the classloader hierarchy to be used as the parent classloader
      *                        for those classloaders that are not children to other shared/resource classloaders.
      * @param tmpDir where the classloaders can write out the jars that are embedded in the plugin jars
+     * @param embeddedJarCache where the jars that are embedded in the plugin jars are kept instead, so they are only
+     *                         unpacked once (may be <code>null</code>, in which case they are unpacked in tmpDir)
      * @param createResourceClassLoaders if <code>true</code>, the classloader manager will create resource classloader
      *                                   instances when appropriate. If <code>false</code>, this classloader manager
      *                                   will never create classloaders on a per-resource instance basis. It will only
@@ -120,7 +127,8 @@ public class ClassLoaderManager {
      *                                   managed resource will provide the necessary client jars via the root classloader.
      */
     public ClassLoaderManager(Map<String, URL> pluginNamesUrls, PluginDependencyGraph graph,
-        ClassLoader rootClassLoader, File tmpDir, boolean createResourceClassLoaders) {
+        ClassLoader rootClassLoader, File tmpDir, EmbeddedJarCache embeddedJarCache,
+        boolean createResourceClassLoaders) {
 
         this.rootClassLoader = rootClassLoader;
         this.pluginClassLoaders = new HashMap<String, ClassLoader>();
@@ -130,6 +138,7 @@ public class ClassLoaderManager {
         this.pluginNamesUrls = pluginNamesUrls;
         this.pluginDependencyGraph = graph;
         this.tmpDir = tmpDir;
+        this.embeddedJarCache = embeddedJarCache;
         this.createResourceClassLoaders = createResourceClassLoaders;
     }
 
@@ -509,15 +518,13 @@ public class ClassLoaderManager {
             // we just use File to parse the name from the path.
             String pluginJarName = new File(mainJarUrl.getPath()).getName();
 
-            if (additionalJars == null || additionalJars.size() == 0) {
-                classLoader = PluginClassLoader.create(pluginJarName, mainJarUrl, true, parentClassLoader, this.tmpDir);
-            } else {
-                List<URL> allJars = new ArrayList<URL>(additionalJars.size() + 1);
-                allJars.add(mainJarUrl);
+            List<URL> allJars = new ArrayList<URL>();
+            allJars.add(mainJarUrl);
+            if (additionalJars != null) {
                 allJars.addAll(additionalJars);
-                classLoader = PluginClassLoader.create(pluginJarName, allJars.toArray(new URL[allJars.size()]), true,
-                    parentClassLoader, this.tmpDir);
             }
+            classLoader = PluginClassLoader.create(pluginJarName, allJars.toArray(new URL[allJars.size()]), true,
+                parentClassLoader, this.tmpDir, this.embeddedJarCache);
 
             if (log.isDebugEnabled()) {
                 log.debug("Created classloader for plugin jar [" + mainJarUrl + "] with additional jars ["
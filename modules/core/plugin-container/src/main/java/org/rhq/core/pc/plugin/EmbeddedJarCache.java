@@ -0,0 +1,398 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.pc.plugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.rhq.core.pc.util.LoggingThreadFactory;
+import org.rhq.core.util.MessageDigestGenerator;
+import org.rhq.core.util.file.FileUtil;
+import org.rhq.core.util.stream.StreamUtil;
+
+/**
+ * Keeps the lib/* files embedded in the plugin jars unpacked on disk, so that they are unpacked only once rather than
+ * each time the plugin container starts. The unpacked files of a plugin jar are kept in a directory named after the
+ * plugin jar and the SHA-256 digest of its content; as long as the plugin jar does not change, the directory is reused
+ * across plugin container restarts, and it is shared by all the classloaders created for the plugin.
+ *
+ * <p>The files are unpacked into a temporary directory first, which is renamed once complete, followed by the list of
+ * the unpacked files to put in the classpath. An entry is only used when its list exists, so an entry left incomplete,
+ * e.g. because the agent was killed while unpacking, is unpacked again.</p>
+ */
+public class EmbeddedJarCache {
+    private static final Log log = LogFactory.getLog(EmbeddedJarCache.class);
+
+    private static final String CLASSPATH_FILE_SUFFIX = ".classpath";
+    private static final String EXTRACTION_DIRECTORY_SUFFIX = ".unpacking";
+    private static final String CLASSPATH_DIRECTORY_ENTRY = ".";
+    private static final Pattern ENTRY_NAME_PATTERN = Pattern.compile(".+-[0-9a-f]{64}");
+
+    /**
+     * The digests of the plugin jars already computed, keyed on the jar files. This is shared by all the caches so that
+     * the jars are not digested again when the plugin container is rebooted.
+     */
+    private static final ConcurrentMap<File, FileDigest> DIGESTS = new ConcurrentHashMap<File, FileDigest>();
+
+    private final File cacheDirectory;
+
+    // the classpath of the entries used by this cache, keyed on entry name
+    private final ConcurrentMap<String, List<URL>> entries = new ConcurrentHashMap<String, List<URL>>();
+    private final ConcurrentMap<String, Object> entryLocks = new ConcurrentHashMap<String, Object>();
+
+    private final AtomicInteger reusedCount = new AtomicInteger();
+    private final AtomicInteger unpackedCount = new AtomicInteger();
+    private final AtomicLong unpackTime = new AtomicLong();
+
+    /**
+     * Creates the cache. Entries left incomplete in the given directory are removed.
+     *
+     * @param cacheDirectory where the unpacked files are kept, created if it does not exist
+     */
+    public EmbeddedJarCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+        this.cacheDirectory.mkdirs();
+
+        File[] files = this.cacheDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(EXTRACTION_DIRECTORY_SUFFIX)) {
+                    FileUtil.purge(file, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the URLs of the lib/* files embedded in the given plugin jar, in the order they are found in the jar,
+     * unpacking them if they are not in the cache yet. If a file other than a jar is embedded, the URL of the
+     * directory holding the unpacked files is also returned, so those files can be found as classloader resources.
+     *
+     * @param  pluginJarName the name of the plugin jar file
+     * @param  pluginUrl     the location of the plugin jar
+     *
+     * @return the URLs to add to the plugin classloader, empty if the plugin jar has no embedded files
+     *
+     * @throws IOException if the plugin jar could not be read or its embedded files could not be unpacked
+     */
+    public List<URL> getEmbeddedJars(String pluginJarName, URL pluginUrl) throws IOException {
+        String entryName = pluginJarName + "-" + getDigest(pluginUrl);
+
+        List<URL> classpath = entries.get(entryName);
+        if (classpath != null) {
+            return classpath;
+        }
+
+        Object lock = entryLocks.putIfAbsent(entryName, new Object());
+        if (lock == null) {
+            lock = entryLocks.get(entryName);
+        }
+
+        synchronized (lock) {
+            classpath = entries.get(entryName);
+            if (classpath == null) {
+                File entryDirectory = new File(cacheDirectory, entryName);
+                File classpathFile = new File(cacheDirectory, entryName + CLASSPATH_FILE_SUFFIX);
+
+                classpath = readClasspath(entryDirectory, classpathFile);
+                if (classpath != null) {
+                    reusedCount.incrementAndGet();
+                } else {
+                    long start = System.currentTimeMillis();
+                    classpath = unpack(pluginUrl, entryDirectory, classpathFile);
+                    unpackTime.addAndGet(System.currentTimeMillis() - start);
+                    unpackedCount.incrementAndGet();
+
+                    if (log.isDebugEnabled()) {
+                        log.debug("Unpacked the embedded jars of [" + pluginUrl + "] in ["
+                            + (System.currentTimeMillis() - start) + "]ms");
+                    }
+                }
+
+                entries.put(entryName, classpath);
+            }
+        }
+
+        return classpath;
+    }
+
+    /**
+     * Makes sure the embedded files of all the given plugin jars are in the cache, unpacking those that are not with a
+     * few threads. Plugin jars that fail to be unpacked are skipped; the failure will surface again when the
+     * classloader of the plugin is created.
+     *
+     * @param pluginUrls the locations of the plugin jars
+     */
+    public void prepare(Collection<URL> pluginUrls) {
+        int threads = Math.max(1, Math.min(pluginUrls.size(), Math.min(4, Runtime.getRuntime().availableProcessors())));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new LoggingThreadFactory(
+            "EmbeddedJarUnpacker", true));
+        try {
+            List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(pluginUrls.size());
+            for (final URL pluginUrl : pluginUrls) {
+                tasks.add(new Callable<Object>() {
+                    public Object call() {
+                        try {
+                            // see ClassLoaderManager for how the plugin jar name is determined
+                            return getEmbeddedJars(new File(pluginUrl.getPath()).getName(), pluginUrl);
+                        } catch (Exception e) {
+                            log.debug("Failed to unpack the embedded jars of [" + pluginUrl + "]: " + e);
+                            return null;
+                        }
+                    }
+                });
+            }
+            executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Removes the entries of the cache that were not used since this cache was created, i.e. the entries of plugin
+     * jars that have been updated or removed.
+     */
+    public void purgeUnused() {
+        File[] files = cacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        Set<String> used = new HashSet<String>(entries.keySet());
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(CLASSPATH_FILE_SUFFIX)) {
+                name = name.substring(0, name.length() - CLASSPATH_FILE_SUFFIX.length());
+            }
+            if (ENTRY_NAME_PATTERN.matcher(name).matches() && !used.contains(name)) {
+                log.debug("Removing unused embedded jars: " + file);
+                FileUtil.purge(file, true);
+            }
+        }
+    }
+
+    /**
+     * @return the number of plugin jars whose embedded files were found already unpacked
+     */
+    public int getReusedCount() {
+        return reusedCount.get();
+    }
+
+    /**
+     * @return the number of plugin jars whose embedded files had to be unpacked
+     */
+    public int getUnpackedCount() {
+        return unpackedCount.get();
+    }
+
+    /**
+     * @return the total time, in milliseconds, spent unpacking embedded files, summed over all the threads
+     */
+    public long getUnpackTime() {
+        return unpackTime.get();
+    }
+
+    private List<URL> readClasspath(File entryDirectory, File classpathFile) throws IOException {
+        if (!classpathFile.isFile() || !entryDirectory.isDirectory()) {
+            return null;
+        }
+
+        List<URL> classpath = new ArrayList<URL>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(classpathFile), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0) {
+                    continue;
+                }
+                File file = CLASSPATH_DIRECTORY_ENTRY.equals(line) ? entryDirectory : new File(entryDirectory, line);
+                if (!file.exists()) {
+                    // someone removed files from the cache, unpack the plugin jar again
+                    return null;
+                }
+                classpath.add(file.toURI().toURL());
+            }
+        } finally {
+            reader.close();
+        }
+
+        return Collections.unmodifiableList(classpath);
+    }
+
+    private List<URL> unpack(URL pluginUrl, File entryDirectory, File classpathFile) throws IOException {
+        // start from scratch, an earlier entry may have been partially removed
+        classpathFile.delete();
+        FileUtil.purge(entryDirectory, true);
+
+        File extractionDirectory = FileUtil.createTempDirectory(entryDirectory.getName(), EXTRACTION_DIRECTORY_SUFFIX,
+            cacheDirectory);
+        List<String> classpathEntries = new ArrayList<String>();
+
+        try {
+            ZipInputStream zis = new ZipInputStream(new BufferedInputStream(pluginUrl.openStream()));
+            try {
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    String entryName = entry.getName();
+
+                    // Only care about entries in the lib directory, see PluginClassLoader
+                    if (entry.isDirectory() || !entryName.startsWith("lib") || (entryName.length() <= 4)) {
+                        continue;
+                    }
+
+                    int i = Math.max(entryName.lastIndexOf('/'), entryName.lastIndexOf('\\'));
+                    String fileName = entryName.substring(i + 1);
+                    if (fileName.length() == 0) {
+                        continue;
+                    }
+
+                    String classpathEntry;
+                    if (fileName.endsWith(".jar")) {
+                        // jars of the same name in different lib subdirectories must not overwrite each other
+                        classpathEntry = fileName;
+                        for (int n = 1; classpathEntries.contains(classpathEntry); n++) {
+                            classpathEntry = n + "-" + fileName;
+                        }
+                    } else {
+                        // all non-jar files are extracted as-is, the directory is put in the classpath to find them
+                        classpathEntry = CLASSPATH_DIRECTORY_ENTRY;
+                    }
+
+                    File file = new File(extractionDirectory, CLASSPATH_DIRECTORY_ENTRY.equals(classpathEntry) ? fileName
+                        : classpathEntry);
+                    FileOutputStream outputStream = new FileOutputStream(file);
+                    try {
+                        StreamUtil.copy(zis, outputStream, false);
+                    } finally {
+                        outputStream.close();
+                    }
+
+                    if (!classpathEntries.contains(classpathEntry)) {
+                        classpathEntries.add(classpathEntry);
+                    }
+                }
+            } finally {
+                try {
+                    zis.close();
+                } catch (Exception ignored) {
+                }
+            }
+
+            if (!extractionDirectory.renameTo(entryDirectory)) {
+                throw new IOException("Failed to rename [" + extractionDirectory + "] to [" + entryDirectory + "]");
+            }
+        } catch (IOException e) {
+            FileUtil.purge(extractionDirectory, true);
+            throw e;
+        }
+
+        // the entry is complete once the classpath file exists, write it under another name and rename it
+        File tmpClasspathFile = new File(cacheDirectory, classpathFile.getName() + EXTRACTION_DIRECTORY_SUFFIX);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmpClasspathFile), "UTF-8");
+        try {
+            for (String classpathEntry : classpathEntries) {
+                writer.write(classpathEntry);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpClasspathFile.renameTo(classpathFile)) {
+            tmpClasspathFile.delete();
+            throw new IOException("Failed to rename [" + tmpClasspathFile + "] to [" + classpathFile + "]");
+        }
+
+        List<URL> classpath = new ArrayList<URL>(classpathEntries.size());
+        for (String classpathEntry : classpathEntries) {
+            File file = CLASSPATH_DIRECTORY_ENTRY.equals(classpathEntry) ? entryDirectory : new File(entryDirectory,
+                classpathEntry);
+            classpath.add(file.toURI().toURL());
+        }
+        return Collections.unmodifiableList(classpath);
+    }
+
+    private static String getDigest(URL pluginUrl) throws IOException {
+        if (!"file".equals(pluginUrl.getProtocol())) {
+            return new MessageDigestGenerator(MessageDigestGenerator.SHA_256).calcDigestString(pluginUrl);
+        }
+
+        File file;
+        try {
+            file = new File(pluginUrl.toURI());
+        } catch (Exception e) {
+            file = new File(pluginUrl.getPath());
+        }
+
+        // only digest the jar again if it looks like it changed
+        long length = file.length();
+        long lastModified = file.lastModified();
+        FileDigest digest = DIGESTS.get(file);
+        if ((digest == null) || (digest.length != length) || (digest.lastModified != lastModified)) {
+            digest = new FileDigest(length, lastModified, new MessageDigestGenerator(MessageDigestGenerator.SHA_256)
+                .calcDigestString(file));
+            DIGESTS.put(file, digest);
+        }
+        return digest.digest;
+    }
+
+    private static class FileDigest {
+        private final long length;
+        private final long lastModified;
+        private final String digest;
+
+        FileDigest(long length, long lastModified, String digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
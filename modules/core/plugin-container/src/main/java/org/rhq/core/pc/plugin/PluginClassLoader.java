@@ -122,6 +122,29 @@ public class PluginClassLoader extends URLClassLoader {
      */
     public static PluginClassLoader create(String pluginJarName, URL[] pluginUrls, boolean unpackNestedJars,
         ClassLoader parent, File tmpDirectory) throws PluginContainerException {
+        return create(pluginJarName, pluginUrls, unpackNestedJars, parent, tmpDirectory, null);
+    }
+
+    /**
+     * Same as {@link #create(String, URL[], boolean, ClassLoader, File)}, except that the nested jars are taken from
+     * the given cache if there is one. Jars taken from the cache are shared with other classloaders and outlive this
+     * one, {@link #destroy()} leaves them alone.
+     *
+     * @param pluginJarName the logical name of the plugin
+     * @param pluginUrls the first element is the location where the plugin jar can be found, the remaining
+     *                   are additional URLs to jars that will be added to the new classloader
+     * @param unpackNestedJars if <code>true</code>, any lib/*.jar files found in the plugin jar
+     *                         are unpacked and put in the classloader. The additional jars are NEVER unpacked.
+     * @param parent the parent classloader for the new classloader being created
+     * @param tmpDirectory the directory where the unpacked nested jars are placed when there is no cache
+     * @param embeddedJarCache where the unpacked nested jars are kept across classloaders (may be <code>null</code>)
+     *
+     * @return the new plugin classloader
+     *
+     * @throws PluginContainerException
+     */
+    public static PluginClassLoader create(String pluginJarName, URL[] pluginUrls, boolean unpackNestedJars,
+        ClassLoader parent, File tmpDirectory, EmbeddedJarCache embeddedJarCache) throws PluginContainerException {
         List<URL> classpathUrlList = new ArrayList<URL>();
         File unpackedDirectory = null;
         boolean processedPluginJar = false; // after the first URL is processed (which is the plugin jar) this will be true
@@ -132,7 +155,12 @@ public class PluginClassLoader extends URLClassLoader {
             // note that we only ever unpacked the plugin jar itself
             if (!processedPluginJar && unpackNestedJars) {
                 try {
-                    unpackedDirectory = unpackEmbeddedJars(pluginJarName, pluginUrl, classpathUrlList, tmpDirectory);
+                    if (embeddedJarCache != null) {
+                        classpathUrlList.addAll(embeddedJarCache.getEmbeddedJars(pluginJarName, pluginUrl));
+                    } else {
+                        unpackedDirectory = unpackEmbeddedJars(pluginJarName, pluginUrl, classpathUrlList,
+                            tmpDirectory);
+                    }
                 } catch (Exception e) {
                     throw new PluginContainerException("Failed to unpack embedded JARs within: " + pluginUrl, e);
                 }
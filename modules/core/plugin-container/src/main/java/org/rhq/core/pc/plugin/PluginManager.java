@@ -25,9 +25,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,6 +48,7 @@ import org.rhq.core.clientapi.descriptor.plugin.PluginDescriptor;
 import org.rhq.core.domain.plugin.Plugin;
 import org.rhq.core.pc.ContainerService;
 import org.rhq.core.pc.PluginContainerConfiguration;
+import org.rhq.core.pc.util.LoggingThreadFactory;
 import org.rhq.core.pluginapi.plugin.PluginContext;
 import org.rhq.core.pluginapi.plugin.PluginLifecycleListener;
 import org.rhq.core.system.SystemInfo;
@@ -136,7 +143,16 @@ public class PluginManager implements ContainerService {
         Map<URL, PluginDescriptor> descriptors = new HashMap<URL, PluginDescriptor>();
         PluginDependencyGraph graph = new PluginDependencyGraph();
         boolean createResourceCL = pluginContainerConfiguration.isCreateResourceClassloaders();
-        this.classLoaderManager = new ClassLoaderManager(pluginNamesUrls, graph, rootCL, tmpDir, createResourceCL);
+
+        // the embedded jars are kept in the data directory rather than in the tmp directory, which is purged whenever
+        // the plugin container starts, so that the jars of the plugins that did not change are not unpacked again
+        EmbeddedJarCache embeddedJarCache = null;
+        if (pluginContainerConfiguration.getDataDirectory() != null) {
+            embeddedJarCache = new EmbeddedJarCache(new File(pluginContainerConfiguration.getDataDirectory(),
+                "embedded-jars-cache"));
+        }
+        this.classLoaderManager = new ClassLoaderManager(pluginNamesUrls, graph, rootCL, tmpDir, embeddedJarCache,
+            createResourceCL);
 
         if (finder == null) {
             log.warn("No plugin finder was specified in the plugin container configuration - this should only occur within test environments.");
@@ -144,13 +160,15 @@ public class PluginManager implements ContainerService {
         }
 
         try {
+            long start = System.currentTimeMillis();
             Collection<URL> pluginUrls = finder.findPlugins();
 
             // first, we need to parse all descriptors so we can build the dependency graph
+            Map<URL, Future<PluginDescriptor>> parsedDescriptors = parsePluginDescriptors(pluginUrls);
             for (URL url : pluginUrls) {
                 log.debug("Plugin found at: " + url);
                 try {
-                    PluginDescriptor descriptor = AgentPluginDescriptorUtil.loadPluginDescriptorFromUrl(url);
+                    PluginDescriptor descriptor = getParsedDescriptor(parsedDescriptors.get(url));
                     if (!disabledPlugins.contains(descriptor.getName())) {
                         AgentPluginDescriptorUtil.addPluginToDependencyGraph(graph, descriptor);
                         pluginNamesUrls.put(descriptor.getName(), url);
@@ -165,6 +183,15 @@ public class PluginManager implements ContainerService {
                 }
             }
 
+            long descriptorsParsed = System.currentTimeMillis();
+
+            // unpack the embedded jars of the plugins that changed since the last start, all at once
+            if (embeddedJarCache != null) {
+                embeddedJarCache.prepare(pluginNamesUrls.values());
+                embeddedJarCache.purgeUnused();
+            }
+            long embeddedJarsPrepared = System.currentTimeMillis();
+
             // our graph is complete, get the order that we have to deploy the plugins
             List<String> deploymentOrder = graph.getDeploymentOrder();
 
@@ -184,6 +211,12 @@ public class PluginManager implements ContainerService {
                 }
             }
             log.info("Deployed plugins: " + this.loadedPlugins);
+            long pluginsDeployed = System.currentTimeMillis();
+            log.info("Parsed plugin descriptors in " + (descriptorsParsed - start) + "ms, prepared embedded jars in "
+                + (embeddedJarsPrepared - descriptorsParsed) + "ms"
+                + ((embeddedJarCache != null) ? " (" + embeddedJarCache.getReusedCount() + " reused, "
+                    + embeddedJarCache.getUnpackedCount() + " unpacked)" : "") + ", deployed plugins in "
+                + (pluginsDeployed - embeddedJarsPrepared) + "ms");
             metadataManager.cleanupDescriptors();
         } catch (Exception e) {
             shutdown(); // have to clean up the environments (e.g. unpacked jars) we might have already created
@@ -192,6 +225,47 @@ public class PluginManager implements ContainerService {
         }
     }
 
+    /**
+     * Parses the descriptors of the given plugin jars with a few threads, parsing being mostly CPU bound. The returned
+     * map is ordered like the given plugin jars, so the descriptors can be processed in the same order they would have
+     * been if they were parsed one after the other.
+     *
+     * @param  pluginUrls the plugin jars
+     *
+     * @return the descriptors being parsed, keyed on the plugin jars they are parsed from
+     */
+    private Map<URL, Future<PluginDescriptor>> parsePluginDescriptors(Collection<URL> pluginUrls) {
+        Map<URL, Future<PluginDescriptor>> parsedDescriptors = new LinkedHashMap<URL, Future<PluginDescriptor>>();
+        if (pluginUrls.isEmpty()) {
+            return parsedDescriptors;
+        }
+
+        int threads = Math.min(pluginUrls.size(), Math.min(4, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), new LoggingThreadFactory(
+            "PluginDescriptorParser", true));
+        try {
+            for (final URL url : pluginUrls) {
+                parsedDescriptors.put(url, executor.submit(new Callable<PluginDescriptor>() {
+                    public PluginDescriptor call() throws Exception {
+                        return AgentPluginDescriptorUtil.loadPluginDescriptorFromUrl(url);
+                    }
+                }));
+            }
+        } finally {
+            // the threads go away once the descriptors already submitted are parsed
+            executor.shutdown();
+        }
+        return parsedDescriptors;
+    }
+
+    private PluginDescriptor getParsedDescriptor(Future<PluginDescriptor> parsedDescriptor) throws Throwable {
+        try {
+            return parsedDescriptor.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
     /**
      * @see ContainerService#shutdown()
      */
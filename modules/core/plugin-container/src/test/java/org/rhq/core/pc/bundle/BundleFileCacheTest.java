@@ -0,0 +1,203 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.bundle;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.content.PackageVersion;
+import org.rhq.core.util.MessageDigestGenerator;
+import org.rhq.core.util.file.FileUtil;
+import org.rhq.core.util.stream.StreamUtil;
+
+@Test
+public class BundleFileCacheTest {
+
+    private static final byte[] CONTENT = "bundle file content".getBytes();
+
+    private File tmpDir;
+    private File cacheDir;
+
+    @BeforeMethod
+    public void beforeMethod() throws Exception {
+        tmpDir = FileUtil.createTempDirectory("bundle-file-cache", null, null);
+        cacheDir = new File(tmpDir, "cache");
+    }
+
+    @AfterMethod
+    public void afterMethod() {
+        FileUtil.purge(tmpDir, true);
+    }
+
+    public void agentsSharingTheCacheDownloadOnce() throws Exception {
+        final PackageVersion packageVersion = packageVersion(CONTENT);
+        final CountingDownloader downloader = new CountingDownloader(CONTENT);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+
+        // each "agent" has its own cache instance over the same directory and its own bundle tmp dir
+        List<Thread> agents = new ArrayList<Thread>();
+        for (int i = 0; i < 8; ++i) {
+            final BundleFileCache cache = new BundleFileCache(cacheDir, 60000L);
+            final File target = new File(tmpDir, "agent" + i + "/bundle-versions/1/file.zip");
+            Thread agent = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        cache.copyTo(packageVersion, target, downloader);
+                        assertEquals(StreamUtil.slurp(new FileInputStream(target)), CONTENT);
+                    } catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    }
+                }
+            };
+            agent.start();
+            agents.add(agent);
+        }
+        start.countDown();
+        for (Thread agent : agents) {
+            agent.join(30000L);
+        }
+
+        assertTrue(failures.isEmpty(), "Failures: " + failures);
+        assertEquals(downloader.downloads.get(), 1, "Only the first agent should have downloaded the file");
+    }
+
+    public void corruptDownloadIsNotCached() throws Exception {
+        PackageVersion packageVersion = packageVersion(CONTENT);
+        BundleFileCache cache = new BundleFileCache(cacheDir, 60000L);
+        File target = new File(tmpDir, "target/file.zip");
+
+        try {
+            cache.copyTo(packageVersion, target, new CountingDownloader("corrupted content!!".getBytes()));
+            fail("A download not matching the hash should have been rejected");
+        } catch (Exception expected) {
+        }
+
+        CountingDownloader downloader = new CountingDownloader(CONTENT);
+        assertTrue(cache.copyTo(packageVersion, target, downloader), "The corrupt download should not be cached");
+        assertFalse(cache.copyTo(packageVersion, target, downloader));
+        assertEquals(downloader.downloads.get(), 1);
+    }
+
+    public void unusedFilesArePurged() throws Exception {
+        PackageVersion packageVersion = packageVersion(CONTENT);
+        BundleFileCache cache = new BundleFileCache(cacheDir, 60000L);
+        File target = new File(tmpDir, "target/file.zip");
+        CountingDownloader downloader = new CountingDownloader(CONTENT);
+
+        cache.copyTo(packageVersion, target, downloader);
+        cache.purgeUnused(System.currentTimeMillis());
+        assertFalse(cache.copyTo(packageVersion, target, downloader), "Recently used files should be kept");
+
+        cache.purgeUnused(System.currentTimeMillis() + 120000L);
+        assertEquals(cacheDir.list().length, 0, "The lock files of purged entries should have been removed");
+        assertTrue(cache.copyTo(packageVersion, target, downloader), "Expired files should have been purged");
+        assertEquals(downloader.downloads.get(), 2);
+    }
+
+    public void evictedFilesAreDownloadedAgain() throws Exception {
+        PackageVersion packageVersion = packageVersion(CONTENT);
+        BundleFileCache cache = new BundleFileCache(cacheDir, 60000L);
+        File target = new File(tmpDir, "target/file.zip");
+        CountingDownloader downloader = new CountingDownloader(CONTENT);
+
+        cache.copyTo(packageVersion, target, downloader);
+        cache.evict(packageVersion);
+        assertEquals(cacheDir.list().length, 0, "The lock file of an evicted entry should have been removed");
+        assertTrue(cache.copyTo(packageVersion, target, downloader));
+        assertFalse(cache.copyTo(packageVersion, target, downloader));
+        assertEquals(downloader.downloads.get(), 2);
+    }
+
+    public void retiredLockFileLeftBehindIsReplaced() throws Exception {
+        PackageVersion packageVersion = packageVersion(CONTENT);
+        BundleFileCache cache = new BundleFileCache(cacheDir, 60000L);
+        File target = new File(tmpDir, "target/file.zip");
+        CountingDownloader downloader = new CountingDownloader(CONTENT);
+
+        // a lock file that was retired but could not be deleted, e.g. because it was still open on Windows
+        cacheDir.mkdirs();
+        File lockFile = new File(cacheDir, "sha256-" + packageVersion.getSHA256().toLowerCase() + ".lock");
+        FileOutputStream out = new FileOutputStream(lockFile);
+        try {
+            out.write(1);
+        } finally {
+            out.close();
+        }
+
+        assertTrue(cache.copyTo(packageVersion, target, downloader));
+        assertEquals(StreamUtil.slurp(new FileInputStream(target)), CONTENT);
+        assertEquals(lockFile.length(), 0L, "The retired lock file should have been replaced by a new one");
+
+        cache.evict(packageVersion);
+        assertEquals(cacheDir.list().length, 0, "The lock file of an evicted entry should have been removed");
+    }
+
+    public void packageVersionsWithoutHashAreNotCacheable() {
+        PackageVersion packageVersion = new PackageVersion();
+        assertFalse(BundleFileCache.isCacheable(packageVersion));
+        packageVersion.setMD5(MessageDigestGenerator.getDigestString(new String(CONTENT)));
+        assertTrue(BundleFileCache.isCacheable(packageVersion));
+    }
+
+    private static PackageVersion packageVersion(byte[] content) throws Exception {
+        PackageVersion packageVersion = new PackageVersion();
+        packageVersion.setFileName("file.zip");
+        packageVersion.setFileSize((long) content.length);
+        packageVersion.setSHA256(new MessageDigestGenerator(MessageDigestGenerator.SHA_256).calcDigestString(
+            content));
+        return packageVersion;
+    }
+
+    private static class CountingDownloader implements BundleFileCache.Downloader {
+        private final byte[] content;
+        private final AtomicInteger downloads = new AtomicInteger();
+
+        CountingDownloader(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public long download(PackageVersion packageVersion, OutputStream out) throws Exception {
+            downloads.incrementAndGet();
+            out.write(content);
+            return content.length;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.discovery.AvailabilityReport;
+import org.rhq.core.domain.measurement.AvailabilityType;
+
+/**
+ * Tests the batches {@link InventoryManager} streams availability reports in.
+ */
+@Test
+public class AvailabilityReportBatchTest {
+
+    public void testChangesOnlyReportIsSplitInOrder() {
+        AvailabilityReport report = createReport(true, 7);
+
+        List<AvailabilityReport> batches = InventoryManager.getAvailabilityReportBatches(report, 3);
+
+        assert batches.size() == 3 : batches;
+        int resourceId = 1;
+        for (AvailabilityReport batch : batches) {
+            assert batch.isChangesOnlyReport();
+            assert batch.getAgentName().equals("agent");
+            for (AvailabilityReport.Datum datum : batch.getResourceAvailability()) {
+                assert datum.getResourceId() == resourceId++ : "the batches must keep the order of the report";
+            }
+        }
+        assert resourceId == 8 : "every availability must be in a batch";
+        assert batches.get(2).getResourceAvailability().size() == 1;
+    }
+
+    public void testSmallChangesOnlyReportIsSentWhole() {
+        AvailabilityReport report = createReport(true, 3);
+
+        List<AvailabilityReport> batches = InventoryManager.getAvailabilityReportBatches(report, 3);
+
+        assert batches.size() == 1;
+        assert batches.get(0) == report;
+    }
+
+    public void testFullReportIsSentWhole() {
+        AvailabilityReport report = createReport(false, 7);
+
+        List<AvailabilityReport> batches = InventoryManager.getAvailabilityReportBatches(report, 3);
+
+        assert batches.size() == 1;
+        assert batches.get(0) == report;
+    }
+
+    private static AvailabilityReport createReport(boolean changesOnly, int size) {
+        AvailabilityReport report = new AvailabilityReport(changesOnly, "agent");
+        for (int resourceId = 1; resourceId <= size; resourceId++) {
+            report.addAvailability(new AvailabilityReport.Datum(resourceId, AvailabilityType.UP, 1000L + resourceId));
+        }
+        return report;
+    }
+}
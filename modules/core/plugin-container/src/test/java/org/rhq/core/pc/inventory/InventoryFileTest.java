@@ -0,0 +1,212 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License version 2 as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.inventory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.mockito.Mockito;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.clientapi.agent.PluginContainerException;
+import org.rhq.core.clientapi.agent.metadata.PluginMetadataManager;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.util.file.FileUtil;
+
+@Test
+public class InventoryFileTest {
+
+    private static final String PLATFORM_UUID = "f2bb5d1c-8e0c-4b8a-9c1e-3d6f0a7b9e21";
+
+    private File testDir;
+    private File file;
+    private InventoryManager inventoryManager;
+    private PluginMetadataManager metadataManager;
+
+    @BeforeMethod
+    public void createTestDirectory() throws Exception {
+        testDir = FileUtil.createTempDirectory("inventory-file-test", null, null);
+        file = new File(testDir, "inventory.dat");
+        inventoryManager = Mockito.mock(InventoryManager.class);
+        Mockito.when(inventoryManager.getContainerChildren(Mockito.any(Resource.class))).thenReturn(
+            new HashSet<Resource>());
+        metadataManager = new PluginMetadataManager();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteTestDirectory() {
+        FileUtil.purge(testDir, true);
+    }
+
+    public void testStoredFileStartsWithVersionedHeader() throws Exception {
+        createInventoryFile().storeInventory(createPlatform(), createContainers());
+
+        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
+        try {
+            assert InventoryFile.FORMAT_HEADER.equals(ois.readObject());
+            assert ois.readInt() == InventoryFile.FORMAT_VERSION;
+            assert ((Resource) ois.readObject()).getUuid().equals(PLATFORM_UUID);
+        } finally {
+            ois.close();
+        }
+        assert !new File(file.getPath() + ".new").exists();
+
+        InventoryFile loaded = createInventoryFile();
+        loaded.loadInventory();
+        assertLoaded(loaded);
+    }
+
+    public void testLegacyFileWithoutHeaderIsLoaded() throws Exception {
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
+        try {
+            oos.writeObject(createPlatform());
+            oos.writeObject(createContainers());
+        } finally {
+            oos.close();
+        }
+
+        InventoryFile loaded = createInventoryFile();
+        loaded.loadInventory();
+        assertLoaded(loaded);
+    }
+
+    public void testNewerFormatVersionIsRejected() throws Exception {
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file));
+        try {
+            oos.writeObject(InventoryFile.FORMAT_HEADER);
+            oos.writeInt(InventoryFile.FORMAT_VERSION + 1);
+            oos.writeObject(createPlatform());
+            oos.writeObject(createContainers());
+        } finally {
+            oos.close();
+        }
+
+        assertNotLoaded(createInventoryFile());
+    }
+
+    public void testTruncatedFileIsRejected() throws Exception {
+        createInventoryFile().storeInventory(createPlatform(), createContainers());
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+
+        assertNotLoaded(createInventoryFile());
+    }
+
+    public void testCorruptFileIsRejected() throws Exception {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write("not an inventory".getBytes("UTF-8"));
+        } finally {
+            fos.close();
+        }
+
+        assertNotLoaded(createInventoryFile());
+    }
+
+    public void testFailedWriteKeepsPreviousFile() throws Exception {
+        createInventoryFile().storeInventory(createPlatform(), createContainers());
+        long length = file.length();
+
+        try {
+            createInventoryFile().storeInventory(createPlatform(), new UnwritableContainers());
+            assert false : "the write should have failed";
+        } catch (IOException expected) {
+        }
+
+        assert !new File(file.getPath() + ".new").exists() : "the incomplete file must be deleted";
+        assert file.length() == length;
+        InventoryFile loaded = createInventoryFile();
+        loaded.loadInventory();
+        assertLoaded(loaded);
+    }
+
+    public void testFileIsRestoredFromOldFile() throws Exception {
+        createInventoryFile().storeInventory(createPlatform(), createContainers());
+        // the agent died after moving the previous file aside
+        File oldFile = new File(file.getPath() + ".old");
+        assert file.renameTo(oldFile);
+
+        InventoryFile restored = createInventoryFile();
+        assert restored.restoreInventoryFile();
+        assert file.exists();
+        assert !oldFile.exists();
+        restored.loadInventory();
+        assertLoaded(restored);
+    }
+
+    public void testNothingToRestoreWithoutFiles() {
+        assert !createInventoryFile().restoreInventoryFile();
+        assert !file.exists();
+    }
+
+    private InventoryFile createInventoryFile() {
+        return new InventoryFile(file, inventoryManager, metadataManager);
+    }
+
+    private static Resource createPlatform() {
+        Resource platform = new Resource("platform-key", "platform", PluginMetadataManager.TEST_PLATFORM_TYPE);
+        platform.setId(10001);
+        platform.setUuid(PLATFORM_UUID);
+        return platform;
+    }
+
+    private static Map<String, ResourceContainer> createContainers() {
+        Map<String, ResourceContainer> containers = new HashMap<String, ResourceContainer>();
+        containers.put(PLATFORM_UUID, new ResourceContainer(createPlatform(), null));
+        return containers;
+    }
+
+    private static void assertLoaded(InventoryFile inventoryFile) {
+        assert inventoryFile.getPlatform().getUuid().equals(PLATFORM_UUID);
+        assert inventoryFile.getPlatform().getResourceType() == PluginMetadataManager.TEST_PLATFORM_TYPE;
+        assert inventoryFile.getResourceContainers().size() == 1;
+        assert inventoryFile.getResourceContainers().get(PLATFORM_UUID).getResource().getId() == 10001;
+    }
+
+    private static void assertNotLoaded(InventoryFile inventoryFile) {
+        try {
+            inventoryFile.loadInventory();
+            assert false : "the file should not have been loaded";
+        } catch (PluginContainerException expected) {
+        }
+    }
+
+    private static class UnwritableContainers extends HashMap<String, ResourceContainer> {
+        private static final long serialVersionUID = 1L;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            throw new IOException("disk full");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.pc.measurement;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.pc.measurement.MeasurementCacheStore.PerMinuteValue;
+import org.rhq.core.util.file.FileUtil;
+
+@Test
+public class MeasurementCacheStoreTest {
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final String INVENTORY = "10001:platform-uuid";
+
+    private File testDir;
+    private File file;
+
+    @BeforeMethod
+    public void createTestDirectory() throws Exception {
+        testDir = FileUtil.createTempDirectory("measurement-cache-store-test", null, null);
+        file = new File(testDir, "measurement-values.dat");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteTestDirectory() {
+        FileUtil.purge(testDir, true);
+    }
+
+    public void testTraitChangedUntilAccepted() {
+        MeasurementCacheStore store = new MeasurementCacheStore();
+        assert store.isTraitChanged(1, "a");
+        assert store.isTraitChanged(1, "a") : "a trait not accepted yet must be sent again";
+
+        store.traitAccepted(1, "a");
+        assert !store.isTraitChanged(1, "a");
+        assert store.isTraitChanged(1, "b");
+        assert store.isTraitChanged(1, null);
+        assert store.isTraitChanged(2, "a");
+
+        store.traitAccepted(1, null);
+        assert !store.isTraitChanged(1, null);
+        assert store.isTraitChanged(1, "");
+
+        store.forget(1);
+        assert store.isTraitChanged(1, null);
+    }
+
+    public void testSurvivesSaveAndLoad() {
+        long now = System.currentTimeMillis();
+        MeasurementCacheStore store = new MeasurementCacheStore();
+        store.traitAccepted(1, "a");
+        store.traitAccepted(2, null);
+        assert store.putPerMinuteValue(3, now, 42.0) == null;
+        store.putPerMinuteValue(4, now - 2 * HOUR, 7.0);
+        assert store.isDirty();
+
+        store.save(file, INVENTORY);
+        assert !store.isDirty();
+        assert file.exists();
+
+        MeasurementCacheStore loaded = new MeasurementCacheStore();
+        loaded.traitAccepted(5, "x");
+        loaded.load(file, HOUR, INVENTORY);
+        assert !loaded.isDirty();
+        assert !loaded.isTraitChanged(1, "a");
+        assert !loaded.isTraitChanged(2, null);
+        assert loaded.isTraitChanged(5, "x") : "loading must replace the content of the store";
+
+        PerMinuteValue value = loaded.getPerMinuteValue(3);
+        assert value != null;
+        assert value.timestamp == now;
+        assert value.value == 42.0;
+        assert loaded.getPerMinuteValue(4) == null : "a per-minute value that is too old must not be loaded";
+    }
+
+    public void testInvalidFileLeavesStoreEmpty() throws Exception {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[] { 0, 0, 0, 99, 1, 2 });
+        } finally {
+            out.close();
+        }
+
+        MeasurementCacheStore store = new MeasurementCacheStore();
+        store.load(file, HOUR, INVENTORY);
+        assert store.getTraitCount() == 0;
+        assert store.isTraitChanged(1, "a");
+    }
+
+    public void testFileOfAnotherInventoryIsDiscarded() {
+        MeasurementCacheStore store = new MeasurementCacheStore();
+        store.traitAccepted(1, "a");
+        store.putPerMinuteValue(2, System.currentTimeMillis(), 42.0);
+        store.save(file, INVENTORY);
+
+        MeasurementCacheStore loaded = new MeasurementCacheStore();
+        loaded.load(file, HOUR, "0:rediscovered-platform-uuid");
+        assert loaded.getTraitCount() == 0;
+        assert loaded.isTraitChanged(1, "a") : "the schedule ids of another inventory must not suppress traits";
+        assert loaded.getPerMinuteValue(2) == null;
+        assert !file.exists() : "the values of another inventory must not be loaded again";
+    }
+}
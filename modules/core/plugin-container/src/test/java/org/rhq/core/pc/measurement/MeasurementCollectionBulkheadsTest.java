@@ -0,0 +1,120 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static java.util.Collections.singleton;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+@Test
+public class MeasurementCollectionBulkheadsTest {
+
+    public void pluginConcurrencyIsCappedPerPlugin() {
+        MeasurementCollectionBulkheads bulkheads = new MeasurementCollectionBulkheads(4, 30000L);
+
+        assertTrue(bulkheads.tryAcquire("jdbc"));
+        assertTrue(bulkheads.tryAcquire("jdbc"));
+        assertFalse(bulkheads.tryAcquire("jdbc"), "Only half of the collectors should be available to one plugin");
+        assertTrue(bulkheads.tryAcquire("platform"), "Other plugins should not be affected");
+
+        bulkheads.release("jdbc");
+        assertTrue(bulkheads.tryAcquire("jdbc"));
+        assertEquals(bulkheads.getStatistics().get("jdbc").get("rejected"), Long.valueOf(1));
+    }
+
+    public void pluginConcurrencyFollowsPoolSize() {
+        MeasurementCollectionBulkheads bulkheads = new MeasurementCollectionBulkheads(2, 30000L);
+
+        assertTrue(bulkheads.tryAcquire("jdbc"));
+        assertFalse(bulkheads.tryAcquire("jdbc"));
+
+        bulkheads.setCollectorThreads(6);
+        assertTrue(bulkheads.tryAcquire("jdbc"));
+        assertTrue(bulkheads.tryAcquire("jdbc"));
+        assertFalse(bulkheads.tryAcquire("jdbc"), "Half of the resized pool should be available to one plugin");
+        assertEquals(bulkheads.getStatistics().get("jdbc").get("concurrency"), Long.valueOf(3));
+    }
+
+    public void slotReleasedWhileWaitingIsTaken() throws Exception {
+        final MeasurementCollectionBulkheads bulkheads = new MeasurementCollectionBulkheads(2, 30000L);
+        assertTrue(bulkheads.tryAcquire("jdbc"));
+
+        long start = System.currentTimeMillis();
+        assertFalse(bulkheads.tryAcquire("jdbc", 100L));
+        assertTrue(System.currentTimeMillis() - start >= 90L, "Should have waited for a slot");
+
+        Thread releaser = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                bulkheads.release("jdbc");
+            }
+        });
+        releaser.start();
+        assertTrue(bulkheads.tryAcquire("jdbc", 10000L), "Should have been given the released slot");
+        releaser.join();
+    }
+
+    public void componentIsQuarantinedAfterRepeatedlyExceedingBudget() {
+        MeasurementCollectionBulkheads bulkheads = new MeasurementCollectionBulkheads(4, 30000L);
+        long now = System.currentTimeMillis();
+
+        bulkheads.recordCollection("jdbc", 1, 20000L, false);
+        bulkheads.recordCollection("jdbc", 1, 30000L, true);
+        assertFalse(bulkheads.isQuarantined(1, now));
+
+        // a collection within budget starts the count over
+        bulkheads.recordCollection("jdbc", 1, 100L, false);
+        bulkheads.recordCollection("jdbc", 1, 20000L, false);
+        bulkheads.recordCollection("jdbc", 1, 20000L, false);
+        assertFalse(bulkheads.isQuarantined(1, now));
+
+        bulkheads.recordCollection("jdbc", 1, 30000L, true);
+        assertTrue(bulkheads.isQuarantined(1, System.currentTimeMillis()));
+        assertFalse(bulkheads.isQuarantined(2, System.currentTimeMillis()));
+        assertEquals(bulkheads.getQuarantinedCount(), 1);
+        assertEquals(bulkheads.getStatistics().get("jdbc").get("timeouts"), Long.valueOf(2));
+        assertEquals(bulkheads.getStatistics().get("jdbc").get("maxMs"), Long.valueOf(30000L));
+
+        bulkheads.forget(singleton(1));
+        assertFalse(bulkheads.isQuarantined(1, System.currentTimeMillis()));
+    }
+
+    public void poolSizeFollowsCollectorUtilization() {
+        MeasurementCollectionBulkheads bulkheads = new MeasurementCollectionBulkheads(4, 30000L);
+
+        // 4 threads busy for 3.6 of 4 thread-minutes
+        bulkheads.recordCollection("jdbc", 1, 216000L, false);
+        assertEquals(bulkheads.getRecommendedPoolSize(4, 2, 8, 60000L), 5);
+
+        // idle
+        assertEquals(bulkheads.getRecommendedPoolSize(5, 2, 8, 60000L), 4);
+        assertEquals(bulkheads.getRecommendedPoolSize(2, 2, 8, 60000L), 2, "Should not shrink below the minimum");
+
+        bulkheads.recordCollection("jdbc", 1, 1000000L, false);
+        assertEquals(bulkheads.getRecommendedPoolSize(8, 2, 8, 60000L), 8, "Should not grow beyond the maximum");
+    }
+}
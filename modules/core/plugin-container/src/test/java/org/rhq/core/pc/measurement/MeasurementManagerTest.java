@@ -0,0 +1,143 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.pc.measurement;
+
+import java.io.File;
+import java.util.Set;
+
+import org.mockito.Mockito;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.clientapi.server.measurement.MeasurementServerService;
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementDataTrait;
+import org.rhq.core.domain.measurement.MeasurementReport;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.pc.PluginContainerConfiguration;
+import org.rhq.core.pc.ServerServices;
+import org.rhq.core.pc.inventory.InventoryManager;
+import org.rhq.core.util.file.FileUtil;
+
+@Test
+public class MeasurementManagerTest {
+
+    private File testDir;
+    private MeasurementServerService measurementServerService;
+
+    @BeforeMethod
+    public void createTestDirectory() throws Exception {
+        testDir = FileUtil.createTempDirectory("measurement-manager-test", null, null);
+        measurementServerService = Mockito.mock(MeasurementServerService.class);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteTestDirectory() {
+        FileUtil.purge(testDir, true);
+    }
+
+    public void testUnchangedTraitsAreSuppressedAfterRestart() throws Exception {
+        Resource platform = createPlatform(10001, "platform-uuid");
+        MeasurementManager manager = createManager(platform);
+        assert sendTraits(manager, trait(1, "a"), trait(2, "b")).size() == 2;
+        manager.saveCacheStore();
+
+        // the agent restarts with the same inventory
+        MeasurementManager restarted = createManager(platform);
+        restarted.loadCacheStore();
+        Set<MeasurementDataTrait> sent = sendTraits(restarted, trait(1, "a"), trait(2, "changed"), trait(3, "c"));
+        assert sent.size() == 2 : sent;
+        assert !contains(sent, 1) : "an unchanged trait must not be sent again after a restart";
+        assert contains(sent, 2);
+        assert contains(sent, 3);
+    }
+
+    public void testTraitsAreResentAfterFailedMerge() throws Exception {
+        Mockito.doThrow(new RuntimeException("server not reachable")).doNothing().when(measurementServerService)
+            .mergeMeasurementReport(Mockito.any(MeasurementReport.class));
+        MeasurementManager manager = createManager(createPlatform(10001, "platform-uuid"));
+
+        assert sendTraits(manager, trait(1, "a")).size() == 1;
+        assert sendTraits(manager, trait(1, "a")).size() == 1 : "a trait the server did not get must be sent again";
+        assert sendTraits(manager, trait(1, "a")).isEmpty();
+        Mockito.verify(measurementServerService, Mockito.times(2)).mergeMeasurementReport(
+            Mockito.any(MeasurementReport.class));
+
+        manager.saveCacheStore();
+        MeasurementManager restarted = createManager(createPlatform(10001, "platform-uuid"));
+        restarted.loadCacheStore();
+        assert sendTraits(restarted, trait(1, "a")).isEmpty();
+    }
+
+    public void testValuesOfPurgedInventoryAreDiscarded() throws Exception {
+        MeasurementManager manager = createManager(createPlatform(10001, "platform-uuid"));
+        sendTraits(manager, trait(1, "a"));
+        manager.saveCacheStore();
+
+        // inventory.dat was purged, e.g. by inventory --sync, and a new platform was discovered
+        MeasurementManager restarted = createManager(createPlatform(0, "rediscovered-platform-uuid"));
+        restarted.loadCacheStore();
+        assert sendTraits(restarted, trait(1, "a")).size() == 1;
+    }
+
+    private MeasurementManager createManager(Resource platform) {
+        InventoryManager inventoryManager = Mockito.mock(InventoryManager.class);
+        Mockito.when(inventoryManager.getPlatform()).thenReturn(platform);
+        ServerServices serverServices = new ServerServices();
+        serverServices.setMeasurementServerService(measurementServerService);
+        PluginContainerConfiguration configuration = new PluginContainerConfiguration();
+        configuration.setDataDirectory(testDir);
+        configuration.setServerServices(serverServices);
+        return new MeasurementManager(configuration, null, inventoryManager);
+    }
+
+    private static Set<MeasurementDataTrait> sendTraits(MeasurementManager manager, MeasurementDataTrait... traits)
+        throws Exception {
+        for (MeasurementDataTrait trait : traits) {
+            manager.getActiveReport().addData(trait);
+        }
+        return new MeasurementSenderRunner(manager).call().getTraitData();
+    }
+
+    private static boolean contains(Set<MeasurementDataTrait> traits, int scheduleId) {
+        for (MeasurementDataTrait trait : traits) {
+            if (trait.getScheduleId() == scheduleId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MeasurementDataTrait trait(int scheduleId, String value) {
+        return new MeasurementDataTrait(new MeasurementScheduleRequest(scheduleId, "trait" + scheduleId, 60000L, true,
+            DataType.TRAIT), value);
+    }
+
+    private static Resource createPlatform(int id, String uuid) {
+        Resource platform = new Resource(id);
+        platform.setUuid(uuid);
+        return platform;
+    }
+}
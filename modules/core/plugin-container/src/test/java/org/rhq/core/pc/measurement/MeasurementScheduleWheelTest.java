@@ -0,0 +1,197 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.core.pc.measurement;
+
+import static java.util.Collections.singleton;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.measurement.DataType;
+import org.rhq.core.domain.measurement.MeasurementScheduleRequest;
+
+@Test
+public class MeasurementScheduleWheelTest {
+
+    public void pollReturnsOneResourceAtATimeInTimeOrder() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel();
+        wheel.schedule(info(1, 10, 2000L));
+        wheel.schedule(info(2, 10, 2000L));
+        wheel.schedule(info(3, 20, 2000L));
+        wheel.schedule(info(4, 30, 1000L));
+
+        assertEquals(wheel.size(), 4);
+        assertEquals(wheel.getOccupiedSlots(), 2);
+        assertEquals(wheel.getNextCollectionTime(), 1000L);
+        assertNull(wheel.pollDue(999L), "Nothing should be due yet");
+
+        assertEquals(scheduleIds(wheel.pollDue(5000L)), ids(4));
+        assertEquals(scheduleIds(wheel.pollDue(5000L)), ids(1, 2));
+        assertEquals(scheduleIds(wheel.pollDue(5000L)), ids(3));
+        assertNull(wheel.pollDue(5000L));
+        assertEquals(wheel.getNextCollectionTime(), Long.MIN_VALUE);
+        assertEquals(wheel.getOccupiedSlots(), 0);
+    }
+
+    public void scheduleReplacesExistingScheduleWithSameId() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel();
+        wheel.schedule(info(1, 10, 1000L));
+        wheel.schedule(info(1, 10, 3000L));
+
+        assertEquals(wheel.size(), 1);
+        assertEquals(wheel.getNextCollectionTime(), 3000L);
+        assertNull(wheel.pollDue(2000L));
+        assertEquals(scheduleIds(wheel.pollDue(3000L)), ids(1));
+    }
+
+    public void rescheduleDropsSchedulesReplacedOrRemovedDuringCollection() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel();
+        wheel.schedule(info(1, 10, 1000L));
+        wheel.schedule(info(2, 10, 1000L));
+
+        Set<ScheduledMeasurementInfo> polled = wheel.pollDue(1000L);
+        assertEquals(polled.size(), 2);
+
+        // while "collecting", the server pushes a new schedule 1 and the resource of schedule 2 goes away
+        ScheduledMeasurementInfo replacement = info(1, 10, 5000L);
+        wheel.schedule(replacement);
+        wheel.remove(2);
+
+        for (ScheduledMeasurementInfo info : polled) {
+            info.setNextCollection(2000L);
+            assertFalse(wheel.reschedule(info), "Stale schedule should not be put back: " + info);
+        }
+
+        assertEquals(wheel.size(), 1);
+        assertNull(wheel.pollDue(4000L));
+        assertTrue(wheel.pollDue(5000L).iterator().next() == replacement);
+    }
+
+    public void unscheduleRemovesAllSchedulesOfResource() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel();
+        wheel.schedule(info(1, 10, 1000L));
+        wheel.schedule(info(2, 10, 2000L));
+        wheel.schedule(info(3, 20, 1000L));
+
+        wheel.unschedule(singleton(10));
+
+        assertEquals(wheel.size(), 1);
+        assertTrue(wheel.getSchedules(10).isEmpty());
+        assertEquals(scheduleIds(wheel.pollDue(5000L)), ids(3));
+        assertNull(wheel.pollDue(5000L));
+    }
+
+    public void histogramsCountSchedulesAndLateness() {
+        MeasurementScheduleWheel wheel = new MeasurementScheduleWheel();
+        wheel.schedule(info(1, 10, 10000L));
+        wheel.schedule(info(2, 20, 10000L + 120000L));
+
+        assertEquals(wheel.getOccupancyHistogram(10000L).get("<60000ms"), Long.valueOf(1));
+        assertEquals(wheel.getOccupancyHistogram(10000L).get("<300000ms"), Long.valueOf(1));
+
+        wheel.pollDue(10000L + 45000L);
+        assertEquals(wheel.getLatenessHistogram().get("<60000ms"), Long.valueOf(1));
+        assertEquals(wheel.getLatenessHistogram().get("<1000ms"), Long.valueOf(0));
+    }
+
+    public void concurrentSchedulingAndPollingLosesNothing() throws Exception {
+        final MeasurementScheduleWheel wheel = new MeasurementScheduleWheel();
+        final int schedulesPerThread = 5000;
+        final int threads = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger polled = new AtomicInteger();
+
+        Thread[] schedulers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            final int offset = t * schedulesPerThread;
+            schedulers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < schedulesPerThread; ++i) {
+                        wheel.schedule(info(offset + i, (offset + i) % 97, (i % 10) * 100L));
+                    }
+                }
+            };
+            schedulers[t].start();
+        }
+        Thread poller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (polled.get() < threads * schedulesPerThread) {
+                    Set<ScheduledMeasurementInfo> due = wheel.pollDue(Long.MAX_VALUE);
+                    if (due != null) {
+                        polled.addAndGet(due.size());
+                    }
+                }
+            }
+        };
+        poller.start();
+
+        start.countDown();
+        for (Thread scheduler : schedulers) {
+            scheduler.join();
+        }
+        poller.join(30000L);
+
+        assertEquals(polled.get(), threads * schedulesPerThread);
+        assertNull(wheel.pollDue(Long.MAX_VALUE));
+    }
+
+    private static ScheduledMeasurementInfo info(int scheduleId, int resourceId, long nextCollection) {
+        ScheduledMeasurementInfo info = new ScheduledMeasurementInfo(new MeasurementScheduleRequest(scheduleId,
+            "metric" + scheduleId, 30000L, true, DataType.MEASUREMENT), resourceId);
+        info.setNextCollection(nextCollection);
+        return info;
+    }
+
+    private static Set<Integer> scheduleIds(Set<ScheduledMeasurementInfo> infos) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (ScheduledMeasurementInfo info : infos) {
+            ids.add(info.getScheduleId());
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(Integer... ids) {
+        Set<Integer> result = new HashSet<Integer>();
+        for (Integer id : ids) {
+            result.add(id);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.core.pc.plugin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.util.file.FileUtil;
+
+@Test
+public class EmbeddedJarCacheTest {
+    private File testDir;
+    private File cacheDir;
+
+    @BeforeMethod
+    public void createTestDirectory() throws Exception {
+        testDir = FileUtil.createTempDirectory("embedded-jar-cache-test", null, null);
+        cacheDir = new File(testDir, "cache");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void deleteTestDirectory() {
+        FileUtil.purge(testDir, true);
+    }
+
+    public void testUnpackedOnceAndReused() throws Exception {
+        URL pluginUrl = createPluginJar("test-plugin.jar", "one");
+
+        EmbeddedJarCache cache = new EmbeddedJarCache(cacheDir);
+        List<URL> classpath = cache.getEmbeddedJars("test-plugin.jar", pluginUrl);
+        assert classpath.size() == 3 : classpath;
+        assert classpath.get(0).getPath().endsWith("/a.jar") : classpath;
+        assert classpath.get(1).getPath().endsWith("a.jar") : classpath;
+        assert !classpath.get(0).equals(classpath.get(1)) : "the same named jars must not overwrite each other";
+        for (URL url : classpath) {
+            assert new File(url.toURI()).exists() : url;
+        }
+        assert cache.getUnpackedCount() == 1;
+        assert cache.getEmbeddedJars("test-plugin.jar", pluginUrl).equals(classpath);
+        assert cache.getUnpackedCount() == 1;
+
+        // a new cache, as after a restart, finds the files that were already unpacked
+        cache = new EmbeddedJarCache(cacheDir);
+        cache.prepare(Collections.singleton(pluginUrl));
+        assert cache.getReusedCount() == 1;
+        assert cache.getUnpackedCount() == 0;
+        assert cache.getEmbeddedJars("test-plugin.jar", pluginUrl).equals(classpath);
+    }
+
+    public void testChangedPluginIsUnpackedAndOldEntryPurged() throws Exception {
+        URL pluginUrl = createPluginJar("test-plugin.jar", "one");
+        EmbeddedJarCache cache = new EmbeddedJarCache(cacheDir);
+        List<URL> oldClasspath = cache.getEmbeddedJars("test-plugin.jar", pluginUrl);
+
+        // make sure the modification time changes as well as the content
+        File pluginJar = new File(pluginUrl.toURI());
+        pluginUrl = createPluginJar("test-plugin.jar", "two, a bit longer");
+        pluginJar.setLastModified(pluginJar.lastModified() + 2000L);
+
+        cache = new EmbeddedJarCache(cacheDir);
+        cache.prepare(Collections.singleton(pluginUrl));
+        assert cache.getUnpackedCount() == 1;
+        assert cache.getReusedCount() == 0;
+
+        cache.purgeUnused();
+        assert !new File(oldClasspath.get(0).toURI()).exists() : "the old entry should have been purged";
+        for (URL url : cache.getEmbeddedJars("test-plugin.jar", pluginUrl)) {
+            assert new File(url.toURI()).exists() : url;
+        }
+    }
+
+    public void testPluginWithoutEmbeddedJars() throws Exception {
+        File pluginJar = new File(testDir, "empty-plugin.jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(pluginJar));
+        try {
+            out.putNextEntry(new JarEntry("META-INF/rhq-plugin.xml"));
+            out.write("<plugin/>".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+
+        EmbeddedJarCache cache = new EmbeddedJarCache(cacheDir);
+        assert cache.getEmbeddedJars("empty-plugin.jar", pluginJar.toURI().toURL()).isEmpty();
+    }
+
+    private URL createPluginJar(String name, String content) throws Exception {
+        File pluginJar = new File(testDir, name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(pluginJar));
+        try {
+            String[] entries = { "lib/a.jar", "lib/x/a.jar", "lib/res.txt" };
+            for (String entry : entries) {
+                out.putNextEntry(new JarEntry(entry));
+                out.write((entry + content).getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return pluginJar.toURI().toURL();
+    }
+}
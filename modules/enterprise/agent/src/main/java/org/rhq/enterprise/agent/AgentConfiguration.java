@@ -1243,6 +1243,12 @@ public class AgentConfiguration {
             tmp_directory.mkdir();
         }
 
+        // determine where bundle files are cached, if at all - the cache keeps a second copy of each bundle file
+        String bundle_cache_pref = m_preferences.get(AgentConfigurationConstants.PLUGINS_BUNDLE_CACHE_DIRECTORY, null);
+        File bundle_cache_directory = (bundle_cache_pref != null) ? new File(bundle_cache_pref) : null;
+        long bundle_cache_max_age = m_preferences.getLong(AgentConfigurationConstants.PLUGINS_BUNDLE_CACHE_MAX_AGE,
+            AgentConfigurationConstants.DEFAULT_PLUGINS_BUNDLE_CACHE_MAX_AGE);
+
         // determine what, if any, plugins are to be enabled
         String enabled_pref = m_preferences.get(AgentConfigurationConstants.PLUGINS_ENABLED, null);
         List<String> enabled_plugins = null;
@@ -1311,6 +1317,8 @@ public class AgentConfiguration {
         config.setEventSenderPeriod(event_sender_period);
         config.setEventReportMaxPerSource(event_report_max_per_src);
         config.setEventReportMaxTotal(event_report_max_total);
+        config.setBundleCacheDirectory(bundle_cache_directory);
+        config.setBundleCacheMaxAge(bundle_cache_max_age);
 
         if (name != null) {
             config.setContainerName(name);
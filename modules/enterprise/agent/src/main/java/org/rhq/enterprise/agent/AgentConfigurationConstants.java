@@ -787,6 +787,23 @@ public interface AgentConfigurationConstants {
      */
     long DEFAULT_PLUGINS_OPERATION_INVOCATION_TIMEOUT = PluginContainerConfiguration.OPERATION_INVOCATION_TIMEOUT_DEFAULT;
 
+    /**
+     * The directory where downloaded bundle files are cached by content hash. Agents on the same machine (or on a
+     * shared file system) that point at the same directory download each bundle file from the server only once. If
+     * not defined, bundle files are not cached and are always downloaded from the server.
+     */
+    String PLUGINS_BUNDLE_CACHE_DIRECTORY = PROPERTY_NAME_PREFIX + "plugins.bundle-cache-directory";
+
+    /**
+     * If defined, cached bundle files that have not been used for this many seconds are removed from the cache.
+     */
+    String PLUGINS_BUNDLE_CACHE_MAX_AGE = PROPERTY_NAME_PREFIX + "plugins.bundle-cache-max-age-secs";
+
+    /**
+     * The default number of seconds an unused bundle file is kept in the bundle cache.
+     */
+    long DEFAULT_PLUGINS_BUNDLE_CACHE_MAX_AGE = PluginContainerConfiguration.BUNDLE_CACHE_MAX_AGE_DEFAULT;
+
     /**
      * The time in seconds before the event sender thread will start to send event reports.
      */
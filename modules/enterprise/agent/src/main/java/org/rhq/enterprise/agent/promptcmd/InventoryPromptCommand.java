@@ -264,13 +264,16 @@ public class InventoryPromptCommand implements AgentPromptCommand {
             executePCCommand(agent, "stop");
         }
 
+        // the measurement values saved next to the inventory are keyed on the ids of that inventory, purge them too
         File dataDir = agent.getConfiguration().getPluginContainerConfiguration().getDataDirectory();
-        File inventoryDataFile = new File(dataDir, "inventory.dat");
-        inventoryDataFile.delete();
-        if (!inventoryDataFile.exists()) {
-            out.println(MSG.getMsg(AgentI18NResourceKeys.INVENTORY_DATA_FILE_DELETED, inventoryDataFile));
-        } else {
-            out.println(MSG.getMsg(AgentI18NResourceKeys.INVENTORY_DATA_FILE_DELETION_FAILURE, inventoryDataFile));
+        for (String dataFileName : new String[] { "inventory.dat", "measurement-values.dat" }) {
+            File dataFile = new File(dataDir, dataFileName);
+            dataFile.delete();
+            if (!dataFile.exists()) {
+                out.println(MSG.getMsg(AgentI18NResourceKeys.INVENTORY_DATA_FILE_DELETED, dataFile));
+            } else {
+                out.println(MSG.getMsg(AgentI18NResourceKeys.INVENTORY_DATA_FILE_DELETION_FAILURE, dataFile));
+            }
         }
 
         if (recyclePC) {
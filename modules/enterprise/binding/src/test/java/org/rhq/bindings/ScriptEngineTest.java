@@ -21,12 +21,15 @@ package org.rhq.bindings;
 
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.Collections;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
@@ -107,6 +110,16 @@ public class ScriptEngineTest extends ScriptedTestBase {
         }
     }
     
+    @Test
+    public void testCompiledSandbox_javascript() throws ScriptException, IOException {
+        assertCompiledScriptDenied("java.lang.System.setProperty('rhq.sandbox.test', 'compiled');");
+    }
+
+    @Test
+    public void testCompiledSandbox_python() throws ScriptException, IOException {
+        assertCompiledScriptDenied("import java.lang as l\nl.System.setProperty('rhq.sandbox.test', 'compiled')");
+    }
+
     @Test
     public void testStandardBindings_javascript() throws ScriptException, IOException {
         ScriptEngine scriptEngine = getScriptEngine();
@@ -135,6 +148,21 @@ public class ScriptEngineTest extends ScriptedTestBase {
         return getSecuredScriptEngine(new PackageFinder(Collections.<File> emptyList()), EMPTY_BINDINGS, new StandardScriptPermissions());
     }
     
+    private void assertCompiledScriptDenied(String script) throws ScriptException, IOException {
+        ScriptEngine sandbox = getSecuredScriptEngine();
+        assertTrue(sandbox instanceof Compilable, "The secured script engine should support compiling the scripts.");
+
+        //compiled scripts are evaluated later, possibly from another thread, but must still run in the sandbox
+        CompiledScript compiled = ((Compilable) sandbox).compile(script);
+        try {
+            compiled.eval();
+            fail("The compiled script should not have been allowed to set a system property.");
+        } catch (Exception e) {
+            assertSecurityExceptionPresent(e);
+        }
+        assertTrue(System.getProperty("rhq.sandbox.test") == null, "The system property should not have been set.");
+    }
+
     private void assertSecurityExceptionPresent(Throwable t) {
         boolean ok = false;
         while (t != null) {
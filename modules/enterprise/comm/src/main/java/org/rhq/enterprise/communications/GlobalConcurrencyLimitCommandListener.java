@@ -18,50 +18,87 @@
  */
 package org.rhq.enterprise.communications;
 
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Semaphore;
 import mazz.i18n.Logger;
+import org.jboss.remoting.invocation.NameBasedInvocation;
+import org.rhq.core.communications.command.annotation.LimitedConcurrency;
 import org.rhq.enterprise.communications.command.Command;
 import org.rhq.enterprise.communications.command.CommandResponse;
 import org.rhq.enterprise.communications.command.client.CommandPreprocessor;
+import org.rhq.enterprise.communications.command.impl.remotepojo.RemotePojoInvocationCommand;
 import org.rhq.enterprise.communications.command.server.CommandListener;
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
+import org.rhq.enterprise.communications.util.ClassUtil;
 import org.rhq.enterprise.communications.util.ConcurrencyManager.Permit;
 import org.rhq.enterprise.communications.util.NotPermittedException;
+import org.rhq.enterprise.communications.util.PermitWaitQueue;
 
 /**
  * This is a listener for commands coming into the {@link ServiceContainer}'s {@link CommandPreprocessor} and will
- * immediately drop the command if the global concurrent limit has been exceeded. In other words, if we've received too
- * many incoming commands at the same time, we'll start dropping additional incoming commands under the command
- * processor can catch up.
+ * drop the command if the global concurrent limit has been exceeded. In other words, if we've received too many
+ * incoming commands at the same time, we'll start dropping additional incoming commands under the command processor
+ * can catch up.
+ *
+ * <p>Before being dropped, a command briefly waits for its turn in a {@link PermitWaitQueue}. Remote POJO invocations
+ * wait with the {@link LimitedConcurrency#priority() priority} of the invoked method, and commands of the same priority
+ * take turns by sender, the sender being identified by the security token of the command. This way, a few senders
+ * flooding the server with, say, inventory reports do not starve the availability reports of all the others.</p>
  *
  * @author John Mazzitelli
  */
 public class GlobalConcurrencyLimitCommandListener implements CommandListener {
     public static final String CONCURRENCY_LIMIT_NAME = "rhq.communications.global-concurrency-limit-semaphore";
 
+    /**
+     * The request class of the commands that do not invoke a method with a limited concurrency.
+     */
+    public static final String DEFAULT_REQUEST_CLASS = "default";
+
     private static final Logger LOG = CommI18NFactory.getLogger(GlobalConcurrencyLimitCommandListener.class);
 
+    // identifies the sender of a command; both the agent and the server put their security token in their commands
+    private static final String CMDCONFIG_PROP_SECURITY_TOKEN = "rhq.security-token";
+
+    private static final RequestClass DEFAULT = new RequestClass(DEFAULT_REQUEST_CLASS,
+        LimitedConcurrency.DEFAULT_PRIORITY);
+
     private final ServiceContainer serviceContainer;
+    private final PermitWaitQueue waitQueue;
     private final ConcurrentLinkedQueue<Permit> permitsObtained;
     private final Semaphore droppedCommands;
 
-    public GlobalConcurrencyLimitCommandListener(ServiceContainer serviceContainer) {
+    // the request classes of the remote POJO methods, keyed on interface, method name and signature
+    private final ConcurrentMap<String, RequestClass> requestClasses;
+
+    public GlobalConcurrencyLimitCommandListener(ServiceContainer serviceContainer, PermitWaitQueue waitQueue) {
         this.serviceContainer = serviceContainer;
+        this.waitQueue = waitQueue;
         this.permitsObtained = new ConcurrentLinkedQueue<Permit>();
         this.droppedCommands = new Semaphore(0);
+        this.requestClasses = new ConcurrentHashMap<String, RequestClass>();
     }
 
     /**
      * This will be called for every command coming in. We'll check to see if we are permitted to process this command -
-     * if we've reached the global concurrency limit, this method will throw a {@link NotPermittedException}.
+     * if we've reached the global concurrency limit and the command could not get its turn in time, this method will
+     * throw a {@link NotPermittedException}.
      *
      * @see CommandListener#receivedCommand(Command)
      */
     public void receivedCommand(Command command) {
         try {
-            Permit permit = this.serviceContainer.getConcurrencyManager().getPermit(CONCURRENCY_LIMIT_NAME);
+            RequestClass requestClass = getRequestClass(command);
+            String sender = (command.getConfiguration() != null) ? command.getConfiguration().getProperty(
+                CMDCONFIG_PROP_SECURITY_TOKEN) : null;
+
+            Permit permit = this.waitQueue.getPermit(this.serviceContainer.getConcurrencyManager(), requestClass.name,
+                requestClass.priority, sender);
             this.permitsObtained.add(permit);
         } catch (NotPermittedException npe) {
             LOG.debug(CommI18NResourceKeys.COMMAND_NOT_PERMITTED, command, npe.getSleepBeforeRetry());
@@ -94,6 +131,69 @@ public class GlobalConcurrencyLimitCommandListener implements CommandListener {
             // since permits are associated with the concurrency manager that granted them and giving a
             // permit to a concurrency manager that didn't grant it will simply be a no-op.
             this.serviceContainer.getConcurrencyManager().releasePermit(this.permitsObtained.poll());
+            this.waitQueue.permitReleased();
+        }
+    }
+
+    /**
+     * Returns the request class of the given command, which is the concurrency limit of the remote POJO method it
+     * invokes.
+     *
+     * @param  command the incoming command
+     *
+     * @return the request class, the default one if the command is not a remote POJO invocation or if the invoked
+     *         method does not have a limited concurrency
+     */
+    private RequestClass getRequestClass(Command command) {
+        if (!RemotePojoInvocationCommand.COMMAND_TYPE.equals(command.getCommandType())) {
+            return DEFAULT;
+        }
+
+        Object invocationParameter = command.getParameterValue(RemotePojoInvocationCommand.PARAM_INVOCATION.getName());
+        Object interfaceParameter = command.getParameterValue(RemotePojoInvocationCommand.PARAM_TARGET_INTERFACE_NAME
+            .getName());
+        if (!(invocationParameter instanceof NameBasedInvocation) || !(interfaceParameter instanceof String)) {
+            return DEFAULT;
+        }
+
+        NameBasedInvocation invocation = (NameBasedInvocation) invocationParameter;
+        String[] signature = invocation.getSignature();
+        String key = interfaceParameter + "." + invocation.getMethodName()
+            + ((signature != null) ? Arrays.toString(signature) : "[]");
+
+        RequestClass requestClass = this.requestClasses.get(key);
+        if (requestClass == null) {
+            requestClass = DEFAULT;
+            try {
+                Class<?>[] classSignature = new Class[(signature != null) ? signature.length : 0];
+                for (int x = 0; x < classSignature.length; x++) {
+                    classSignature[x] = ClassUtil.getClassFromTypeName(signature[x]);
+                }
+
+                Class<?> targetInterface = Class.forName((String) interfaceParameter);
+                Method targetMethod = targetInterface.getMethod(invocation.getMethodName(), classSignature);
+                LimitedConcurrency limitedConcurrency = targetMethod.getAnnotation(LimitedConcurrency.class);
+                if (limitedConcurrency != null) {
+                    requestClass = new RequestClass(limitedConcurrency.value(), limitedConcurrency.priority());
+                }
+
+                // there are few remote POJO methods, we can remember them all
+                this.requestClasses.put(key, requestClass);
+            } catch (Exception e) {
+                // the command service will fail the command, it can wait with the default priority
+            }
+        }
+
+        return requestClass;
+    }
+
+    private static class RequestClass {
+        private final String name;
+        private final int priority;
+
+        RequestClass(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
         }
     }
 }
\ No newline at end of file
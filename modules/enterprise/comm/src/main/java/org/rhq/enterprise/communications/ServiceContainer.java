@@ -77,6 +77,7 @@ import org.rhq.enterprise.communications.command.server.discovery.AutoDiscoveryL
 import org.rhq.enterprise.communications.i18n.CommI18NFactory;
 import org.rhq.enterprise.communications.i18n.CommI18NResourceKeys;
 import org.rhq.enterprise.communications.util.ConcurrencyManager;
+import org.rhq.enterprise.communications.util.PermitWaitQueue;
 import org.rhq.enterprise.communications.util.SecurityUtil;
 
 /**
@@ -239,6 +240,12 @@ public class ServiceContainer {
      */
     private ConcurrencyManager m_concurrencyManager;
 
+    /**
+     * The queue of the incoming commands waiting for their turn once the global concurrency limit is reached. This is
+     * <code>null</code> if there is no global concurrency limit.
+     */
+    private PermitWaitQueue m_globalConcurrencyQueue;
+
     /**
      * Custom data is a way to share information across disparate components so long as those components
      * have access to this service container object. This data is never used by the service container - it
@@ -378,6 +385,15 @@ public class ServiceContainer {
         m_concurrencyManager = concurrencyManager;
     }
 
+    /**
+     * Returns the queue of the incoming commands that wait for their turn once the global concurrency limit is reached.
+     *
+     * @return the wait queue, or <code>null</code> if there is no global concurrency limit
+     */
+    public PermitWaitQueue getGlobalConcurrencyQueue() {
+        return m_globalConcurrencyQueue;
+    }
+
     /**
      * A convienence method that takes a {@link #getClientConfiguration() client configuration} and builds a sender
      * object with it. Note that regardless of the transport specified in <code>server_endpoint</code>, this method will
@@ -559,9 +575,13 @@ public class ServiceContainer {
             limits.put(GlobalConcurrencyLimitCommandListener.CONCURRENCY_LIMIT_NAME, globalConcurrencyLimit);
             m_concurrencyManager = new ConcurrencyManager(limits);
 
-            // add our listener that will drop commands if we reach our limit
-            addCommandListener(new GlobalConcurrencyLimitCommandListener(this));
-            LOG.info(CommI18NResourceKeys.GLOBAL_CONCURRENCY_LIMIT_SET, globalConcurrencyLimit);
+            // add our listener that will queue, and eventually drop, commands if we reach our limit
+            int queueSize = m_configuration.getGlobalConcurrencyQueueSize();
+            long maxWaitTime = m_configuration.getGlobalConcurrencyMaxWaitTime();
+            m_globalConcurrencyQueue = new PermitWaitQueue(GlobalConcurrencyLimitCommandListener.CONCURRENCY_LIMIT_NAME,
+                queueSize, maxWaitTime);
+            addCommandListener(new GlobalConcurrencyLimitCommandListener(this, m_globalConcurrencyQueue));
+            LOG.info(CommI18NResourceKeys.GLOBAL_CONCURRENCY_LIMIT_SET, globalConcurrencyLimit, queueSize, maxWaitTime);
         } else {
             LOG.info(CommI18NResourceKeys.GLOBAL_CONCURRENCY_LIMIT_DISABLED);
         }
@@ -116,6 +116,38 @@ public class ServiceContainerConfiguration {
         return value;
     }
 
+    /**
+     * Returns the maximum number of commands that may wait for their turn once the
+     * {@link #getGlobalConcurrencyLimit() global concurrency limit} has been reached. Commands received while this many
+     * commands are already waiting are dropped.
+     *
+     * <p>If this returns a value of 0 or less, commands received over the global concurrency limit are dropped right
+     * away.</p>
+     *
+     * @return the maximum number of waiting commands
+     */
+    public int getGlobalConcurrencyQueueSize() {
+        int value = m_preferences.getInt(ServiceContainerConfigurationConstants.GLOBAL_CONCURRENCY_QUEUE_SIZE,
+            ServiceContainerConfigurationConstants.DEFAULT_GLOBAL_CONCURRENCY_QUEUE_SIZE);
+        return value;
+    }
+
+    /**
+     * Returns the maximum time, in milliseconds, a command waits for its turn once the
+     * {@link #getGlobalConcurrencyLimit() global concurrency limit} has been reached. Commands that are still waiting
+     * after this time are dropped.
+     *
+     * <p>If this returns a value of 0 or less, commands received over the global concurrency limit are dropped right
+     * away.</p>
+     *
+     * @return the maximum wait time in milliseconds
+     */
+    public long getGlobalConcurrencyMaxWaitTime() {
+        long value = m_preferences.getLong(ServiceContainerConfigurationConstants.GLOBAL_CONCURRENCY_MAX_WAIT_TIME,
+            ServiceContainerConfigurationConstants.DEFAULT_GLOBAL_CONCURRENCY_MAX_WAIT_TIME);
+        return value;
+    }
+
     /**
      * Returns the name of the MBeanServer that will be created to house all the services. This is actually the default
      * domain name of the MBeanServer. If an MBeanServer already exists and is registered with this default domain name,
@@ -58,6 +58,26 @@ public interface ServiceContainerConfigurationConstants {
      */
     String GLOBAL_CONCURRENCY_LIMIT = PROPERTY_NAME_PREFIX + "global-concurrency-limit";
 
+    /**
+     * The maximum number of messages that can wait for their turn once the global concurrency limit is reached.
+     */
+    String GLOBAL_CONCURRENCY_QUEUE_SIZE = PROPERTY_NAME_PREFIX + "global-concurrency-limit.queue-size";
+
+    /**
+     * The default maximum number of messages waiting for their turn.
+     */
+    int DEFAULT_GLOBAL_CONCURRENCY_QUEUE_SIZE = 50;
+
+    /**
+     * The maximum time, in milliseconds, a message waits for its turn once the global concurrency limit is reached.
+     */
+    String GLOBAL_CONCURRENCY_MAX_WAIT_TIME = PROPERTY_NAME_PREFIX + "global-concurrency-limit.max-wait-time";
+
+    /**
+     * The default maximum time a message waits for its turn.
+     */
+    long DEFAULT_GLOBAL_CONCURRENCY_MAX_WAIT_TIME = 5000L;
+
     /**
      * The name of the MBeanServer that will be created to house all the services. This is actually the name of the
      * default domain of the MBeanServer.
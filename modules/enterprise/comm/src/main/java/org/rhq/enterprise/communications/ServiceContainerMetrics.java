@@ -18,17 +18,20 @@
  */
 package org.rhq.enterprise.communications;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.rhq.enterprise.communications.command.server.CommandProcessor;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.Calltime;
+import org.rhq.enterprise.communications.util.PermitWaitQueue;
+import org.rhq.enterprise.communications.util.PermitWaitQueue.WaitStatistics;
 
 /**
  * MBean implementation that emits metrics from the server-side comm components.
  */
 public class ServiceContainerMetrics implements ServiceContainerMetricsMBean {
     private CommandProcessor commandProcessor;
-    private ServiceContainer serviceContainer; // useful for future, but not used yet
+    private ServiceContainer serviceContainer;
 
     /**
      * Creates a new {@link ServiceContainerMetrics} object.
@@ -43,6 +46,11 @@ public class ServiceContainerMetrics implements ServiceContainerMetricsMBean {
 
     public void clear() {
         commandProcessor.getCommandProcessorMetrics().clear();
+
+        PermitWaitQueue queue = serviceContainer.getGlobalConcurrencyQueue();
+        if (queue != null) {
+            queue.clearStatistics();
+        }
     }
 
     public long getNumberSuccessfulCommandsReceived() {
@@ -75,4 +83,12 @@ public class ServiceContainerMetrics implements ServiceContainerMetricsMBean {
         Map<String, Calltime> callTimeData = commandProcessor.getCommandProcessorMetrics().getCallTimeData();
         return callTimeData;
     }
+
+    public Map<String, WaitStatistics> getCommandWaitStatistics() {
+        PermitWaitQueue queue = serviceContainer.getGlobalConcurrencyQueue();
+        if (queue == null) {
+            return new HashMap<String, WaitStatistics>();
+        }
+        return queue.getStatistics();
+    }
 }
\ No newline at end of file
@@ -25,6 +25,7 @@ import javax.management.ObjectName;
 import org.rhq.core.util.ObjectNameFactory;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.Calltime;
+import org.rhq.enterprise.communications.util.PermitWaitQueue.WaitStatistics;
 
 /**
  * This is the interface to the MBean that emits metric information on the server-side comm components.
@@ -108,4 +109,13 @@ public interface ServiceContainerMetricsMBean {
      * @see CommandProcessorMetrics#getCallTimeDataReceived()
      */
     public Map<String, Calltime> getCallTimeDataReceived();
+
+    /**
+     * Returns the statistics of the commands that had to wait for their turn because the global concurrency limit was
+     * reached, keyed on the concurrency limit names of the invoked methods. Commands not subject to any named limit
+     * are found under {@link GlobalConcurrencyLimitCommandListener#DEFAULT_REQUEST_CLASS}.
+     *
+     * @return the wait statistics, empty if there is no global concurrency limit
+     */
+    public Map<String, WaitStatistics> getCommandWaitStatistics();
 }
\ No newline at end of file
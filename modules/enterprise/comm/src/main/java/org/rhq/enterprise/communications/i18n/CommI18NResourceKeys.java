@@ -692,7 +692,7 @@ public interface CommI18NResourceKeys {
     @I18NMessages( { @I18NMessage("Service container is configured to disable communications - incoming commands will not be accepted") })
     String SERVICE_CONTAINER_DISABLED = "ServiceContainer.disabled";
 
-    @I18NMessages( { @I18NMessage("Global concurrency limit has been set - no more than [{0}] incoming commands will be accepted at the same time") })
+    @I18NMessages( { @I18NMessage("Global concurrency limit has been set - no more than [{0}] incoming commands will be accepted at the same time; up to [{1}] more will wait for up to [{2}]ms for their turn") })
     String GLOBAL_CONCURRENCY_LIMIT_SET = "ServiceContainer.global-concurrency-limit-set";
 
     @I18NMessages( { @I18NMessage("Global concurrency limit has been disabled - there is no limit to the number of incoming commands allowed") })
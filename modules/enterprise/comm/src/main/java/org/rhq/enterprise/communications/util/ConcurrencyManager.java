@@ -219,7 +219,7 @@ public class ConcurrencyManager {
         return deniedCount;
     }
 
-    private long getSleepBeforeRetryHint(int deniedCount) {
+    static long getSleepBeforeRetryHint(int deniedCount) {
         // If the denied count is low, there is some but not alot of contention.
         // In this case, we can tell the client to just wait a little bit before retrying.
         // If the denied count is high, then there is alot of contention and we'll
@@ -0,0 +1,356 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.util;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.rhq.enterprise.communications.util.ConcurrencyManager.Permit;
+
+/**
+ * Lets threads wait a short time for a permit of a named {@link ConcurrencyManager} semaphore, rather than being
+ * denied as soon as no permit is available.
+ *
+ * <p>The threads waiting for a permit are served by decreasing priority. Threads of the same priority are served
+ * fairly among their senders: each sender gets its turn in a round, so a sender queuing many requests at once only
+ * delays its own requests, not those of the other senders. The number of waiting threads is bounded; once the queue is
+ * full, or once a thread has waited for the maximum wait time, the thread is denied its permit just as if it did not
+ * wait at all.</p>
+ *
+ * <p>Each waiting thread belongs to a named class of requests, statistics on the waits are kept for each class.</p>
+ *
+ * @see ConcurrencyManager
+ */
+public class PermitWaitQueue {
+    // how often the thread at the head of the queue retries if it is not told about a permit being released, this
+    // covers the case where the concurrency manager is replaced while threads are waiting
+    private static final long RETRY_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    private final String permitName;
+    private final int maxQueueSize;
+    private final long maxWaitTime;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+
+    // the following fields are guarded by the lock
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+    private final Map<String, Long> senderRounds = new HashMap<String, Long>();
+    private final Map<String, WaitStatistics> statistics = new HashMap<String, WaitStatistics>();
+    private long currentRound = 0L;
+    private long sequence = 0L;
+
+    // number of waiting threads, read without the lock when permits are released
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    /**
+     * Creates the queue of the threads waiting for a named permit.
+     *
+     * @param permitName   the name of the semaphore whose permits are waited for
+     * @param maxQueueSize the maximum number of threads allowed to wait at the same time, if 0 or less threads never wait
+     * @param maxWaitTime  the maximum time, in milliseconds, a thread will wait for a permit, if 0 or less threads never
+     *                     wait
+     */
+    public PermitWaitQueue(String permitName, int maxQueueSize, long maxWaitTime) {
+        this.permitName = permitName;
+        this.maxQueueSize = maxQueueSize;
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    /**
+     * Obtains a permit from the given concurrency manager, waiting for one to be released if none is available.
+     *
+     * @param  concurrencyManager the manager that grants the permits
+     * @param  requestClass       the name of the class of the request that needs the permit
+     * @param  priority           the priority of the request, higher priorities are served first
+     * @param  sender             identifies the sender of the request (may be <code>null</code>)
+     *
+     * @return the permit, the caller must eventually release it and then call {@link #permitReleased()}
+     *
+     * @throws NotPermittedException if the queue is full or if no permit was released in time
+     */
+    public Permit getPermit(ConcurrencyManager concurrencyManager, String requestClass, int priority, String sender)
+        throws NotPermittedException {
+
+        lock.lock();
+        try {
+            WaitStatistics classStatistics = getStatistics(requestClass);
+
+            // do not overtake the threads that are already waiting
+            if (waiters.isEmpty()) {
+                try {
+                    return concurrencyManager.getPermit(permitName);
+                } catch (NotPermittedException e) {
+                    if ((maxQueueSize <= 0) || (maxWaitTime <= 0L)) {
+                        classStatistics.rejected++;
+                        throw e;
+                    }
+                }
+            }
+
+            if (waiters.size() >= maxQueueSize) {
+                classStatistics.rejected++;
+                throw new NotPermittedException(ConcurrencyManager.getSleepBeforeRetryHint(waiters.size()));
+            }
+
+            Waiter waiter = new Waiter(priority, getSenderRound(sender), sequence++);
+            waiters.add(waiter);
+            waiting.incrementAndGet();
+            classStatistics.waiting++;
+            classStatistics.maxWaiting = Math.max(classStatistics.maxWaiting, classStatistics.waiting);
+
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitTime);
+            try {
+                while (true) {
+                    if (waiters.peek() == waiter) {
+                        try {
+                            Permit permit = concurrencyManager.getPermit(permitName);
+                            currentRound = Math.max(currentRound, waiter.round);
+                            classStatistics.served(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                            return permit;
+                        } catch (NotPermittedException e) {
+                            // still none available, wait for the next one to be released
+                        }
+                    }
+
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0L) {
+                        classStatistics.timedOut++;
+                        throw new NotPermittedException(ConcurrencyManager.getSleepBeforeRetryHint(waiters.size()));
+                    }
+
+                    permitReleased.awaitNanos(Math.min(remaining, RETRY_INTERVAL));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                classStatistics.timedOut++;
+                throw new NotPermittedException(ConcurrencyManager.getSleepBeforeRetryHint(waiters.size()));
+            } finally {
+                waiters.remove(waiter);
+                waiting.decrementAndGet();
+                classStatistics.waiting--;
+
+                if (waiters.isEmpty()) {
+                    // nobody is waiting anymore, the senders start afresh
+                    senderRounds.clear();
+                    currentRound = 0L;
+                } else {
+                    // the next thread in line may be able to get a permit now
+                    permitReleased.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells the waiting threads, if any, that a permit was released.
+     */
+    public void permitReleased() {
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                permitReleased.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of the wait statistics of each class of requests that asked for a permit.
+     *
+     * @return the statistics keyed on the request class names
+     */
+    public Map<String, WaitStatistics> getStatistics() {
+        lock.lock();
+        try {
+            Map<String, WaitStatistics> copy = new HashMap<String, WaitStatistics>();
+            for (Map.Entry<String, WaitStatistics> entry : statistics.entrySet()) {
+                copy.put(entry.getKey(), new WaitStatistics(entry.getValue()));
+            }
+            return copy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Clears the wait statistics, except for the number of threads currently waiting.
+     */
+    public void clearStatistics() {
+        lock.lock();
+        try {
+            for (WaitStatistics classStatistics : statistics.values()) {
+                classStatistics.clear();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private WaitStatistics getStatistics(String requestClass) {
+        WaitStatistics classStatistics = statistics.get(requestClass);
+        if (classStatistics == null) {
+            classStatistics = new WaitStatistics();
+            statistics.put(requestClass, classStatistics);
+        }
+        return classStatistics;
+    }
+
+    /**
+     * Returns the round in which the next request of the sender will be served. A sender gets one request served per
+     * round, a sender that did not queue any request yet joins the current round.
+     */
+    private long getSenderRound(String sender) {
+        String key = (sender != null) ? sender : "";
+        Long lastRound = senderRounds.get(key);
+        long round = (lastRound != null) ? Math.max(currentRound, lastRound.longValue() + 1) : currentRound;
+        senderRounds.put(key, round);
+        return round;
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final int priority;
+        private final long round;
+        private final long sequence;
+
+        Waiter(int priority, long round, long sequence) {
+            this.priority = priority;
+            this.round = round;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Waiter other) {
+            if (priority != other.priority) {
+                return (priority > other.priority) ? -1 : 1;
+            }
+            if (round != other.round) {
+                return (round < other.round) ? -1 : 1;
+            }
+            return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+        }
+    }
+
+    /**
+     * The statistics on the requests of one class that had to wait for a permit.
+     */
+    public static class WaitStatistics implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long waiting = 0;
+        private long maxWaiting = 0;
+        private long served = 0;
+        private long totalWaitTime = 0;
+        private long maxWaitTime = 0;
+        private long timedOut = 0;
+        private long rejected = 0;
+
+        WaitStatistics() {
+        }
+
+        WaitStatistics(WaitStatistics original) {
+            waiting = original.waiting;
+            maxWaiting = original.maxWaiting;
+            served = original.served;
+            totalWaitTime = original.totalWaitTime;
+            maxWaitTime = original.maxWaitTime;
+            timedOut = original.timedOut;
+            rejected = original.rejected;
+        }
+
+        private void served(long waitTime) {
+            served++;
+            totalWaitTime += waitTime;
+            maxWaitTime = Math.max(maxWaitTime, waitTime);
+        }
+
+        private void clear() {
+            maxWaiting = waiting;
+            served = 0;
+            totalWaitTime = 0;
+            maxWaitTime = 0;
+            timedOut = 0;
+            rejected = 0;
+        }
+
+        /**
+         * @return the number of requests currently waiting
+         */
+        public long getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * @return the highest number of requests that waited at the same time
+         */
+        public long getMaximumWaiting() {
+            return maxWaiting;
+        }
+
+        /**
+         * @return the number of requests that got their permit after waiting
+         */
+        public long getServed() {
+            return served;
+        }
+
+        /**
+         * @return the average time, in milliseconds, the served requests waited
+         */
+        public long getAverageWaitTime() {
+            return (served == 0) ? 0 : (totalWaitTime / served);
+        }
+
+        /**
+         * @return the longest time, in milliseconds, a served request waited
+         */
+        public long getMaximumWaitTime() {
+            return maxWaitTime;
+        }
+
+        /**
+         * @return the number of requests denied after waiting for the maximum wait time
+         */
+        public long getTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @return the number of requests denied without waiting, because the queue was full
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public String toString() {
+            return "" + waiting + ':' + maxWaiting + ':' + served + ':' + getAverageWaitTime() + ':' + maxWaitTime
+                + ':' + timedOut + ':' + rejected;
+        }
+    }
+}
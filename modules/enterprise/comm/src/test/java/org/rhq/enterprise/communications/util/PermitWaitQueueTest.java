@@ -0,0 +1,179 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+package org.rhq.enterprise.communications.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.testng.annotations.Test;
+import org.rhq.enterprise.communications.util.ConcurrencyManager.Permit;
+import org.rhq.enterprise.communications.util.PermitWaitQueue.WaitStatistics;
+
+/**
+ * Tests {@link PermitWaitQueue}.
+ */
+@Test
+public class PermitWaitQueueTest {
+    private static final String FOO = "foo";
+
+    public void testNoWaitWhenDisabled() {
+        ConcurrencyManager cm = createConcurrencyManager();
+        PermitWaitQueue queue = new PermitWaitQueue(FOO, 0, 10000L);
+
+        Permit permit = queue.getPermit(cm, "class", 0, "sender");
+        assert permit != null;
+
+        try {
+            queue.getPermit(cm, "class", 0, "sender");
+            assert false : "should not have waited for a permit";
+        } catch (NotPermittedException e) {
+            // this exception is the one that is to be expected
+        }
+
+        assert queue.getStatistics().get("class").getRejected() == 1;
+
+        cm.releasePermit(permit);
+        queue.permitReleased();
+        assert null != queue.getPermit(cm, "class", 0, "sender");
+    }
+
+    public void testWaitTimesOut() {
+        ConcurrencyManager cm = createConcurrencyManager();
+        PermitWaitQueue queue = new PermitWaitQueue(FOO, 10, 200L);
+
+        assert null != queue.getPermit(cm, "class", 0, "sender");
+
+        long start = System.currentTimeMillis();
+        try {
+            queue.getPermit(cm, "class", 0, "sender");
+            assert false : "should not have been given a permit";
+        } catch (NotPermittedException e) {
+            // this exception is the one that is to be expected
+        }
+
+        assert System.currentTimeMillis() - start >= 190L : "did not wait long enough";
+
+        WaitStatistics statistics = queue.getStatistics().get("class");
+        assert statistics.getTimedOut() == 1 : statistics;
+        assert statistics.getWaiting() == 0 : statistics;
+        assert statistics.getServed() == 0 : statistics;
+    }
+
+    public void testWaitersServedByPriorityThenBySender() throws Exception {
+        final ConcurrencyManager cm = createConcurrencyManager();
+        final PermitWaitQueue queue = new PermitWaitQueue(FOO, 10, 30000L);
+        final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+        final List<Permit> permits = Collections.synchronizedList(new ArrayList<Permit>());
+
+        Permit held = queue.getPermit(cm, "inventory", 10, "a");
+
+        // agent a floods the queue with inventory requests before b and c get to send theirs
+        String[][] requests = { { "a1", "inventory", "10", "a" }, { "a2", "inventory", "10", "a" },
+            { "a3", "inventory", "10", "a" }, { "b1", "inventory", "10", "b" }, { "c1", "availability", "30", "c" } };
+
+        for (final String[] request : requests) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    Permit permit = queue.getPermit(cm, request[1], Integer.parseInt(request[2]), request[3]);
+                    permits.add(permit);
+                    served.add(request[0]);
+                }
+            });
+            int waitingBefore = getWaiting(queue);
+            thread.start();
+            waitUntil(queue, waitingBefore + 1);
+        }
+
+        for (int i = 0; i < requests.length; i++) {
+            cm.releasePermit(held);
+            queue.permitReleased();
+
+            long deadline = System.currentTimeMillis() + 10000L;
+            while ((served.size() <= i) && (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10L);
+            }
+            assert served.size() == i + 1 : "no waiter was served: " + served;
+            held = permits.get(i);
+        }
+
+        assert served.equals(Arrays.asList("c1", "a1", "b1", "a2", "a3")) : served;
+
+        WaitStatistics statistics = queue.getStatistics().get("inventory");
+        assert statistics.getServed() == 4 : statistics;
+        assert statistics.getMaximumWaiting() == 4 : statistics;
+        assert statistics.getWaiting() == 0 : statistics;
+        assert queue.getStatistics().get("availability").getServed() == 1;
+    }
+
+    public void testQueueFull() throws Exception {
+        final ConcurrencyManager cm = createConcurrencyManager();
+        final PermitWaitQueue queue = new PermitWaitQueue(FOO, 1, 30000L);
+
+        Permit held = queue.getPermit(cm, "class", 0, "a");
+
+        final List<Permit> permits = Collections.synchronizedList(new ArrayList<Permit>());
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                permits.add(queue.getPermit(cm, "class", 0, "b"));
+            }
+        });
+        thread.start();
+        waitUntil(queue, 1);
+
+        try {
+            queue.getPermit(cm, "class", 0, "c");
+            assert false : "the queue should have been full";
+        } catch (NotPermittedException e) {
+            assert e.getSleepBeforeRetry() > 0L;
+        }
+
+        cm.releasePermit(held);
+        queue.permitReleased();
+        thread.join(10000L);
+        assert permits.size() == 1;
+
+        WaitStatistics statistics = queue.getStatistics().get("class");
+        assert statistics.getRejected() == 1 : statistics;
+        assert statistics.getServed() == 1 : statistics;
+    }
+
+    private ConcurrencyManager createConcurrencyManager() {
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        map.put(FOO, 1);
+        return new ConcurrencyManager(map);
+    }
+
+    private int getWaiting(PermitWaitQueue queue) {
+        int waiting = 0;
+        for (WaitStatistics statistics : queue.getStatistics().values()) {
+            waiting += statistics.getWaiting();
+        }
+        return waiting;
+    }
+
+    private void waitUntil(PermitWaitQueue queue, int waiting) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while ((getWaiting(queue) < waiting) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10L);
+        }
+        assert getWaiting(queue) == waiting : "the request did not start waiting";
+    }
+}
@@ -60,6 +60,13 @@ public interface ResourceGroupGWTService extends RemoteService {
     PageList<ResourceGroupComposite> findResourceGroupCompositesByCriteria(ResourceGroupCriteria criteria)
         throws RuntimeException;
 
+    /**
+     * Like {@link #findResourceGroupCompositesByCriteria(ResourceGroupCriteria)}, for the group tables: the groups only
+     * hold the columns of the tables and the relationships the criteria fetch.
+     */
+    PageList<ResourceGroupComposite> findResourceGroupCompositeRowsByCriteria(ResourceGroupCriteria criteria)
+        throws RuntimeException;
+
     void setAssignedResourceGroupsForResource(int resourceId, int[] resourceGroupIds, boolean setType)
         throws RuntimeException;
 
@@ -112,7 +112,7 @@ public class ResourceGroupCompositeDataSource extends RPCDataSource<ResourceGrou
 
     @Override
     public void executeFetch(final DSRequest request, final DSResponse response, final ResourceGroupCriteria criteria) {
-        groupService.findResourceGroupCompositesByCriteria(criteria,
+        groupService.findResourceGroupCompositeRowsByCriteria(criteria,
             new AsyncCallback<PageList<ResourceGroupComposite>>() {
                 public void onFailure(Throwable caught) {
                     if (caught.getMessage().contains("SearchExpressionException")) {
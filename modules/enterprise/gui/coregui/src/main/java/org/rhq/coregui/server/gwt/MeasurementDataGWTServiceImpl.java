@@ -19,6 +19,7 @@
 package org.rhq.coregui.server.gwt;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -82,9 +83,15 @@ public class MeasurementDataGWTServiceImpl extends AbstractGWTServiceImpl implem
     public List<MeasurementDataTrait> findCurrentTraitsForResource(int resourceId, DisplayType displayType)
         throws RuntimeException {
         try {
-            return SerialUtility.prepare(
+            List<MeasurementDataTrait> traits = SerialUtility.prepare(
                 dataManager.findCurrentTraitsForResource(getSessionSubject(), resourceId, displayType),
                 "MeasurementDataService.findCurrentTraitsForResource");
+            List<MeasurementSchedule> schedules = new ArrayList<MeasurementSchedule>(traits.size());
+            for (MeasurementDataTrait trait : traits) {
+                schedules.add(trait.getSchedule());
+            }
+            filterResourceFields(schedules);
+            return traits;
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -161,8 +168,11 @@ public class MeasurementDataGWTServiceImpl extends AbstractGWTServiceImpl implem
     public PageList<MeasurementSchedule> findMeasurementSchedulesByCriteria(MeasurementScheduleCriteria criteria)
         throws RuntimeException {
         try {
-            return SerialUtility.prepare(scheduleManager.findSchedulesByCriteria(getSessionSubject(), criteria),
+            PageList<MeasurementSchedule> schedules = SerialUtility.prepare(
+                scheduleManager.findSchedulesByCriteria(getSessionSubject(), criteria),
                 "MeasurementDataService.findMeasurementSchedulesByCriteria");
+            filterResourceFields(schedules);
+            return schedules;
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -434,4 +444,20 @@ public class MeasurementDataGWTServiceImpl extends AbstractGWTServiceImpl implem
         }
     }
 
+    /**
+     * Trims the Resources of the schedules down to the fields the client uses, as for the Resources returned by the
+     * Resource service. The schedules must already be prepared, so that only the Resources that were fetched are
+     * looked at.
+     */
+    static void filterResourceFields(Collection<MeasurementSchedule> schedules) {
+        List<Resource> resources = new ArrayList<Resource>(schedules.size());
+        for (MeasurementSchedule schedule : schedules) {
+            if (null != schedule && null != schedule.getResource()) {
+                resources.add(schedule.getResource());
+            }
+        }
+        if (!resources.isEmpty()) {
+            ObjectFilter.filterFieldsInCollection(resources, ResourceGWTServiceImpl.importantFieldsSet);
+        }
+    }
 }
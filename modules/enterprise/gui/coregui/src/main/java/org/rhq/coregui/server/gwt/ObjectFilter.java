@@ -22,8 +22,12 @@ import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,10 +40,16 @@ public class ObjectFilter {
 
     private static Log log = LogFactory.getLog(ObjectFilter.class);
 
+    // the fields to clear for each set of good fields, the sets in use are few and never change
+    private static final ConcurrentMap<Set<String>, Field[]> FIELDS_TO_CLEAR = //
+        new ConcurrentHashMap<Set<String>, Field[]>();
+
     public static <T extends Collection<?>> T filterFieldsInCollection(T collection, Set<String> goodFields) {
-        long sizeOfBefore = sizeOf(collection);
+        // serializing the collection is as costly as sending it, only do it when the sizes are logged
+        long sizeOfBefore = log.isDebugEnabled() ? sizeOf(collection) : -1;
+        Field[] fieldsToClear = getFieldsToClear(goodFields);
         for (Object object : collection) {
-            filterFields(object, goodFields);
+            clearFields(object, fieldsToClear);
         }
         if (log.isDebugEnabled()) {
             log.debug("Object filtered from size [" + sizeOfBefore + "] to [" + sizeOf(collection) + "]");
@@ -49,9 +59,26 @@ public class ObjectFilter {
     }
 
     public static <T> T filterFields(T object, Set<String> goodFields) {
+        return clearFields(object, getFieldsToClear(goodFields));
+    }
+
+    private static <T> T clearFields(T object, Field[] fieldsToClear) {
         try {
-            Field[] fields = Resource.class.getDeclaredFields();
-            for (Field f : fields) {
+            for (Field f : fieldsToClear) {
+                f.set(object, null);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return object;
+    }
+
+    private static Field[] getFieldsToClear(Set<String> goodFields) {
+        Field[] fieldsToClear = FIELDS_TO_CLEAR.get(goodFields);
+        if (fieldsToClear == null) {
+            List<Field> fields = new ArrayList<Field>();
+            for (Field f : Resource.class.getDeclaredFields()) {
                 if (!Modifier.isFinal(f.getModifiers())) {
                     if (!goodFields.contains(f.getName())) {
                         // Only clearing objects, no point in clearing primitives as it
@@ -61,7 +88,7 @@ public class ObjectFilter {
                                 log.debug("Clearing " + f.getName() + "...");
                             }
                             f.setAccessible(true);
-                            f.set(object, null);
+                            fields.add(f);
                         } else {
                             if (log.isDebugEnabled()) {
                                 log.debug("Can't do " + f.getType());
@@ -70,11 +97,10 @@ public class ObjectFilter {
                     }
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            fieldsToClear = fields.toArray(new Field[fields.size()]);
+            FIELDS_TO_CLEAR.putIfAbsent(goodFields, fieldsToClear);
         }
-
-        return object;
+        return fieldsToClear;
     }
 
     private static int sizeOf(Object object) {
@@ -30,6 +30,7 @@ import java.util.Set;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 
+import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.configuration.Configuration;
 import org.rhq.core.domain.configuration.definition.ConfigurationDefinition;
 import org.rhq.core.domain.configuration.definition.ConfigurationTemplate;
@@ -54,6 +55,8 @@ import org.rhq.core.domain.resource.composite.ResourceLineageComposite;
 import org.rhq.core.domain.util.PageControl;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.coregui.client.gwt.ResourceGWTService;
+import org.rhq.coregui.server.util.ProjectionUtility;
+import org.rhq.coregui.server.util.ResourceLineageCache;
 import org.rhq.coregui.server.util.SerialUtility;
 import org.rhq.enterprise.server.discovery.DiscoveryBossLocal;
 import org.rhq.enterprise.server.measurement.MeasurementProblemManagerLocal;
@@ -68,9 +71,14 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
 
     static final long serialVersionUID = 1L;
 
-    private ResourceManagerLocal resourceManager = LookupUtil.getResourceManager();
-    private ResourceFactoryManagerLocal resourceFactoryManager = LookupUtil.getResourceFactoryManager();
-    private DiscoveryBossLocal discoveryBoss = LookupUtil.getDiscoveryBoss();
+    // the Resource tree asks for the lineage of every Resource browsed, keep it for a short time per user
+    private static final int LINEAGE_CACHE_SIZE = 500;
+    private static final long LINEAGE_CACHE_TIME_TO_LIVE = 15000L;
+
+    private ResourceManagerLocal resourceManager;
+    private ResourceFactoryManagerLocal resourceFactoryManager;
+    private DiscoveryBossLocal discoveryBoss;
+    private ResourceLineageCache lineageCache;
 
     public static final String[] importantFields = { //
     "serialVersionUID", //
@@ -125,6 +133,16 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     }
 
     public ResourceGWTServiceImpl() {
+        this(LookupUtil.getResourceManager(), LookupUtil.getResourceFactoryManager(), LookupUtil.getDiscoveryBoss(),
+            new ResourceLineageCache(LINEAGE_CACHE_SIZE, LINEAGE_CACHE_TIME_TO_LIVE));
+    }
+
+    ResourceGWTServiceImpl(ResourceManagerLocal resourceManager, ResourceFactoryManagerLocal resourceFactoryManager,
+        DiscoveryBossLocal discoveryBoss, ResourceLineageCache lineageCache) {
+        this.resourceManager = resourceManager;
+        this.resourceFactoryManager = resourceFactoryManager;
+        this.discoveryBoss = discoveryBoss;
+        this.lineageCache = lineageCache;
     }
 
     @Override
@@ -236,9 +254,16 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     @Override
     public List<ResourceLineageComposite> getResourceLineageAndSiblings(int resourceId) throws RuntimeException {
         try {
-            return SerialUtility.prepare(
-                resourceManager.getResourceLineageAndSiblings(getSessionSubject(), resourceId),
-                "ResourceService.getResourceLineageAndSiblings");
+            Subject subject = getSessionSubject();
+            List<ResourceLineageComposite> result = lineageCache.get(subject.getId(), resourceId);
+            if (result == null) {
+                long generation = lineageCache.getGeneration();
+                result = SerialUtility.prepare(resourceManager.getResourceLineageAndSiblings(subject, resourceId),
+                    "ResourceService.getResourceLineageAndSiblings");
+                result = ProjectionUtility.projectLineage(result);
+                lineageCache.put(subject.getId(), resourceId, result, generation);
+            }
+            return result;
 
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
@@ -284,6 +309,7 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
                     resourceManager.uninventoryAllResourcesByAgent(getSessionSubject(), agent);
                 }
             }
+            lineageCache.clear();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -292,7 +318,9 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     @Override
     public List<Integer> uninventoryResources(int[] resourceIds) throws RuntimeException {
         try {
-            return resourceManager.uninventoryResources(getSessionSubject(), resourceIds);
+            List<Integer> result = resourceManager.uninventoryResources(getSessionSubject(), resourceIds);
+            lineageCache.clear();
+            return result;
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -302,6 +330,7 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     public void updateResource(Resource resource) throws RuntimeException {
         try {
             resourceManager.updateResource(getSessionSubject(), resource);
+            lineageCache.clear();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -360,8 +389,10 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     @Override
     public List<DeleteResourceHistory> deleteResources(int[] resourceIds) throws RuntimeException {
         try {
-            return SerialUtility.prepare(resourceFactoryManager.deleteResources(getSessionSubject(), resourceIds),
-                "ResourceService.deleteResources");
+            List<DeleteResourceHistory> result = resourceFactoryManager.deleteResources(getSessionSubject(),
+                resourceIds);
+            lineageCache.clear();
+            return SerialUtility.prepare(result, "ResourceService.deleteResources");
         } catch (Throwable t) {
             if (t instanceof CannotConnectToAgentException) {
                 throw (CannotConnectToAgentException) t;
@@ -373,7 +404,9 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     @Override
     public List<Integer> disableResources(int[] resourceIds) throws RuntimeException {
         try {
-            return resourceManager.disableResources(getSessionSubject(), resourceIds);
+            List<Integer> result = resourceManager.disableResources(getSessionSubject(), resourceIds);
+            lineageCache.clear();
+            return result;
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -382,7 +415,9 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     @Override
     public List<Integer> enableResources(int[] resourceIds) throws RuntimeException {
         try {
-            return resourceManager.enableResources(getSessionSubject(), resourceIds);
+            List<Integer> result = resourceManager.enableResources(getSessionSubject(), resourceIds);
+            lineageCache.clear();
+            return result;
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -426,6 +461,7 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     public void importResources(int[] resourceIds) throws RuntimeException {
         try {
             discoveryBoss.importResources(getSessionSubject(), resourceIds);
+            lineageCache.clear();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -435,6 +471,7 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     public void ignoreResources(int[] resourceIds) throws RuntimeException {
         try {
             discoveryBoss.ignoreResources(getSessionSubject(), resourceIds);
+            lineageCache.clear();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -444,6 +481,7 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     public void unignoreResources(int[] resourceIds) throws RuntimeException {
         try {
             discoveryBoss.unignoreResources(getSessionSubject(), resourceIds);
+            lineageCache.clear();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -453,6 +491,7 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     public void unignoreAndImportResources(int[] resourceIds) throws RuntimeException {
         try {
             discoveryBoss.unignoreAndImportResources(getSessionSubject(), resourceIds);
+            lineageCache.clear();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -483,6 +522,7 @@ public class ResourceGWTServiceImpl extends AbstractGWTServiceImpl implements Re
     public ImportResourceResponse manuallyAddResource(ImportResourceRequest request) throws RuntimeException {
         try {
             ImportResourceResponse result = discoveryBoss.manuallyAddResource(getSessionSubject(), request);
+            lineageCache.clear();
             return SerialUtility.prepare(result, "ResourceService.manuallyAddResource");
         } catch (Throwable t) {
             if (t instanceof CannotConnectToAgentException) {
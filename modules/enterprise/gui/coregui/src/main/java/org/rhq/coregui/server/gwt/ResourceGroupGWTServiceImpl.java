@@ -18,15 +18,22 @@
  */
 package org.rhq.coregui.server.gwt;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.criteria.ResourceGroupCriteria;
 import org.rhq.core.domain.criteria.ResourceGroupDefinitionCriteria;
+import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.resource.group.DuplicateExpressionTypeException;
 import org.rhq.core.domain.resource.group.GroupDefinition;
 import org.rhq.core.domain.resource.group.ResourceGroup;
 import org.rhq.core.domain.resource.group.composite.ResourceGroupComposite;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.coregui.client.gwt.ResourceGroupGWTService;
+import org.rhq.coregui.server.util.ProjectionUtility;
+import org.rhq.coregui.server.util.ResourceLineageCache;
 import org.rhq.coregui.server.util.SerialUtility;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
 import org.rhq.enterprise.server.resource.group.definition.GroupDefinitionManagerLocal;
@@ -45,7 +52,9 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
     public PageList<ResourceGroup> findResourceGroupsByCriteria(ResourceGroupCriteria criteria) throws RuntimeException {
         try {
             PageList<ResourceGroup> groups = groupManager.findResourceGroupsByCriteria(getSessionSubject(), criteria);
-            return SerialUtility.prepare(groups, "ResourceGroupService.findResourceGroupsByCriteria");
+            groups = SerialUtility.prepare(groups, "ResourceGroupService.findResourceGroupsByCriteria");
+            filterMemberFields(groups);
+            return groups;
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -56,7 +65,27 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
         try {
             PageList<ResourceGroupComposite> composites = groupManager.findResourceGroupCompositesByCriteria(
                 getSessionSubject(), criteria);
-            return SerialUtility.prepare(composites, "ResourceGroupService.findResourceGroupCompositesByCriteria");
+            composites = SerialUtility
+                .prepare(composites, "ResourceGroupService.findResourceGroupCompositesByCriteria");
+            List<ResourceGroup> groups = new ArrayList<ResourceGroup>(composites.size());
+            for (ResourceGroupComposite composite : composites) {
+                groups.add(composite.getResourceGroup());
+            }
+            filterMemberFields(groups);
+            return composites;
+        } catch (Throwable t) {
+            throw getExceptionToThrowToClient(t);
+        }
+    }
+
+    public PageList<ResourceGroupComposite> findResourceGroupCompositeRowsByCriteria(ResourceGroupCriteria criteria)
+        throws RuntimeException {
+        try {
+            PageList<ResourceGroupComposite> composites = groupManager.findResourceGroupCompositesByCriteria(
+                getSessionSubject(), criteria);
+            composites = SerialUtility.prepare(composites,
+                "ResourceGroupService.findResourceGroupCompositeRowsByCriteria");
+            return ProjectionUtility.projectGroupRows(composites, criteria);
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -76,6 +105,7 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
     public void setAssignedResources(int groupId, int[] resourceIds, boolean setType) throws RuntimeException {
         try {
             groupManager.setAssignedResources(getSessionSubject(), groupId, resourceIds, setType);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -86,6 +116,7 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
         try {
             groupManager.setAssignedResourceGroupsForResource(getSessionSubject(), resourceId, resourceGroupIds,
                 setType);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -118,6 +149,7 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
     public void deleteResourceGroups(int[] groupIds) throws RuntimeException {
         try {
             groupManager.deleteResourceGroups(getSessionSubject(), groupIds);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -134,6 +166,9 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
     public void updateResourceGroup(ResourceGroup group, boolean updateMembership) throws RuntimeException {
         try {
             groupManager.updateResourceGroup(getSessionSubject(), group, null, updateMembership);
+            if (updateMembership) {
+                ResourceLineageCache.invalidateAll();
+            }
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -153,6 +188,7 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
         throws DuplicateExpressionTypeException, RuntimeException {
         try {
             definitionManager.updateGroupDefinition(getSessionSubject(), groupDefinition);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             if (t instanceof DuplicateExpressionTypeException) {
                 throw (DuplicateExpressionTypeException) t;
@@ -166,6 +202,7 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
         try {
             for (int nextGroupDefinitionId : groupDefinitionIds) {
                 definitionManager.calculateGroupMembership(getSessionSubject(), nextGroupDefinitionId);
+                ResourceLineageCache.invalidateAll();
             }
         } catch (Throwable t) {
             if (t instanceof DuplicateExpressionTypeException) {
@@ -179,6 +216,7 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
         try {
             for (int nextGroupDefinitionId : groupDefinitionIds) {
                 definitionManager.removeGroupDefinition(getSessionSubject(), nextGroupDefinitionId);
+                ResourceLineageCache.invalidateAll();
             }
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
@@ -189,8 +227,27 @@ public class ResourceGroupGWTServiceImpl extends AbstractGWTServiceImpl implemen
     public void setRecursive(int groupId, boolean isRecursive) throws RuntimeException {
         try {
             groupManager.setRecursive(getSessionSubject(), groupId, isRecursive);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Trims the member Resources fetched with the groups down to the fields the client uses, as for the Resources
+     * returned by the Resource service. The groups must already be prepared, so that only the members that were
+     * fetched are looked at.
+     */
+    static void filterMemberFields(Collection<ResourceGroup> groups) {
+        List<Resource> members = new ArrayList<Resource>();
+        for (ResourceGroup group : groups) {
+            if (null != group) {
+                members.addAll(group.getExplicitResources());
+                members.addAll(group.getImplicitResources());
+            }
+        }
+        if (!members.isEmpty()) {
+            ObjectFilter.filterFieldsInCollection(members, ResourceGWTServiceImpl.importantFieldsSet);
+        }
+    }
+}
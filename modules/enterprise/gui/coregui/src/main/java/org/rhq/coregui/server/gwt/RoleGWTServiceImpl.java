@@ -22,6 +22,7 @@ import org.rhq.core.domain.authz.Role;
 import org.rhq.core.domain.criteria.RoleCriteria;
 import org.rhq.core.domain.util.PageList;
 import org.rhq.coregui.client.gwt.RoleGWTService;
+import org.rhq.coregui.server.util.ResourceLineageCache;
 import org.rhq.coregui.server.util.SerialUtility;
 import org.rhq.enterprise.server.authz.RoleManagerLocal;
 import org.rhq.enterprise.server.util.LookupUtil;
@@ -46,7 +47,9 @@ public class RoleGWTServiceImpl extends AbstractGWTServiceImpl implements RoleGW
 
     public Role createRole(Role role) throws RuntimeException {
         try {
-            return SerialUtility.prepare(roleManager.createRole(getSessionSubject(), role), "RoleService.createRole");
+            Role result = roleManager.createRole(getSessionSubject(), role);
+            ResourceLineageCache.invalidateAll();
+            return SerialUtility.prepare(result, "RoleService.createRole");
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -54,7 +57,9 @@ public class RoleGWTServiceImpl extends AbstractGWTServiceImpl implements RoleGW
 
     public Role updateRole(Role role) throws RuntimeException {
         try {
-            return SerialUtility.prepare(roleManager.updateRole(getSessionSubject(), role), "RoleService.updateRole");
+            Role result = roleManager.updateRole(getSessionSubject(), role);
+            ResourceLineageCache.invalidateAll();
+            return SerialUtility.prepare(result, "RoleService.updateRole");
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -63,6 +68,7 @@ public class RoleGWTServiceImpl extends AbstractGWTServiceImpl implements RoleGW
     public void removeRoles(int[] roleIds) throws RuntimeException {
         try {
             roleManager.deleteRoles(getSessionSubject(), roleIds);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -71,6 +77,7 @@ public class RoleGWTServiceImpl extends AbstractGWTServiceImpl implements RoleGW
     public void setAssignedResourceGroups(int roleId, int[] resourceGroupIds) throws RuntimeException {
         try {
             roleManager.setAssignedResourceGroups(getSessionSubject(), roleId, resourceGroupIds);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -79,6 +86,7 @@ public class RoleGWTServiceImpl extends AbstractGWTServiceImpl implements RoleGW
     public void setAssignedSubjects(int roleId, int[] subjectIds) throws RuntimeException {
         try {
             roleManager.setAssignedSubjects(getSessionSubject(), roleId, subjectIds);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
@@ -87,6 +95,7 @@ public class RoleGWTServiceImpl extends AbstractGWTServiceImpl implements RoleGW
     public void setAssignedRolesForSubject(int subjectId, int[] roleIds) throws RuntimeException {
         try {
             roleManager.setAssignedSubjectRoles(getSessionSubject(), subjectId, roleIds);
+            ResourceLineageCache.invalidateAll();
         } catch (Throwable t) {
             throw getExceptionToThrowToClient(t);
         }
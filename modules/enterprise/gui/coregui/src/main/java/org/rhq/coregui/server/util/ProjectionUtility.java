@@ -0,0 +1,174 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.coregui.server.util;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.rhq.core.domain.criteria.Criteria;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.resource.composite.ResourceLineageComposite;
+import org.rhq.core.domain.resource.group.GroupDefinition;
+import org.rhq.core.domain.resource.group.ResourceGroup;
+import org.rhq.core.domain.resource.group.composite.ResourceGroupComposite;
+import org.rhq.core.domain.util.PageList;
+import org.rhq.enterprise.server.util.CriteriaUtil;
+
+/**
+ * Copies the entities sent to the GWT client into new instances of the same classes that only hold what a view
+ * displays, so that the client does not get, and the server does not serialize, whatever else was loaded with them.
+ * The client keeps working on the domain classes, only the fields it does not use are left out.
+ * <p/>
+ * The projections are applied to entities already {@link SerialUtility#prepare(Object, String) prepared}, so that no
+ * lazy relationship gets loaded. The relationships kept are those the criteria asked to fetch.
+ */
+public class ProjectionUtility {
+
+    private ProjectionUtility() {
+    }
+
+    /**
+     * Projects the lineage shown by the Resource tree. The tree only displays the name and description of the
+     * Resources, and links them to their parent and, through the type, to their autogroup and subcategory. The client
+     * replaces the types by the ones of its type cache.
+     */
+    public static List<ResourceLineageComposite> projectLineage(List<ResourceLineageComposite> lineage) {
+        List<ResourceLineageComposite> result = new ArrayList<ResourceLineageComposite>(lineage.size());
+        for (ResourceLineageComposite composite : lineage) {
+            result.add(new ResourceLineageComposite(projectResource(composite.getResource()), composite.isLocked()));
+        }
+        return result;
+    }
+
+    /**
+     * Projects the rows of the group tables: the group columns and the counts, and of the relationships only the
+     * ones the criteria asked to fetch.
+     */
+    public static PageList<ResourceGroupComposite> projectGroupRows(PageList<ResourceGroupComposite> composites,
+        Criteria criteria) {
+        Set<String> fetched = getFetchedFields(criteria);
+        PageList<ResourceGroupComposite> result = composites.isUnbounded() ? new PageList<ResourceGroupComposite>(
+            composites.getPageControl()) : new PageList<ResourceGroupComposite>(composites.getTotalSize(),
+            composites.getPageControl());
+        for (ResourceGroupComposite composite : composites) {
+            ResourceGroupComposite row = new ResourceGroupComposite(composite.getExplicitCount(),
+                composite.getExplicitDown(), composite.getExplicitUnknown(), composite.getExplicitDisabled(),
+                composite.getImplicitCount(), composite.getImplicitDown(), composite.getImplicitUnknown(),
+                composite.getImplicitDisabled(), projectGroup(composite.getResourceGroup(), fetched),
+                composite.getResourceFacets(), composite.getResourcePermission());
+            result.add(row);
+        }
+        return result;
+    }
+
+    static Resource projectResource(Resource resource) {
+        if (resource == null) {
+            return null;
+        }
+        Resource projection = new Resource(resource.getId());
+        projection.setUuid(resource.getUuid());
+        projection.setName(resource.getName());
+        projection.setDescription(resource.getDescription());
+        projection.setInventoryStatus(resource.getInventoryStatus());
+        projection.setResourceType(projectResourceType(resource.getResourceType()));
+        Resource parent = resource.getParentResource();
+        if (parent != null) {
+            Resource parentProjection = new Resource(parent.getId());
+            parentProjection.setUuid(parent.getUuid());
+            parentProjection.setName(parent.getName());
+            projection.setParentResourceWithoutAncestry(parentProjection);
+        }
+        return projection;
+    }
+
+    static ResourceType projectResourceType(ResourceType type) {
+        if (type == null) {
+            return null;
+        }
+        ResourceType projection = new ResourceType();
+        projection.setId(type.getId());
+        projection.setName(type.getName());
+        projection.setPlugin(type.getPlugin());
+        projection.setCategory(type.getCategory());
+        projection.setSubCategory(type.getSubCategory());
+        projection.setSingleton(type.isSingleton());
+        projection.setDescription(type.getDescription());
+        return projection;
+    }
+
+    static ResourceGroup projectGroup(ResourceGroup group, Set<String> fetched) {
+        // the category follows from the type: compatible with a type, mixed without
+        ResourceGroup projection = new ResourceGroup(group.getName(), projectResourceType(group.getResourceType()));
+        projection.setId(group.getId());
+        projection.setDescription(group.getDescription());
+        projection.setCtime(group.getCtime());
+        projection.setMtime(group.getMtime());
+        projection.setModifiedBy(group.getModifiedBy());
+        projection.setRecursive(group.isRecursive());
+        projection.setVisible(group.isVisible());
+        if (fetched.contains("groupDefinition") && group.getGroupDefinition() != null) {
+            GroupDefinition definition = new GroupDefinition(group.getGroupDefinition().getName());
+            definition.setId(group.getGroupDefinition().getId());
+            projection.setGroupDefinition(definition);
+        }
+        if (fetched.contains("explicitResources") && group.getExplicitResources() != null) {
+            projection.setExplicitResources(projectResources(group.getExplicitResources()));
+        }
+        if (fetched.contains("implicitResources") && group.getImplicitResources() != null) {
+            projection.setImplicitResources(projectResources(group.getImplicitResources()));
+        }
+        return projection;
+    }
+
+    private static Set<Resource> projectResources(Set<Resource> resources) {
+        Set<Resource> projections = new LinkedHashSet<Resource>(resources.size());
+        for (Resource resource : resources) {
+            projections.add(projectResource(resource));
+        }
+        return projections;
+    }
+
+    /**
+     * @return the names of the relationships the criteria asked to fetch, e.g. <code>explicitResources</code> for
+     *         <code>fetchExplicitResources</code>
+     */
+    static Set<String> getFetchedFields(Criteria criteria) {
+        Set<String> fetched = new HashSet<String>();
+        if (criteria == null) {
+            return fetched;
+        }
+        for (Field field : CriteriaUtil.getFields(criteria, Criteria.Type.FETCH)) {
+            try {
+                field.setAccessible(true);
+                if (Boolean.TRUE.equals(field.get(criteria))) {
+                    String name = field.getName().substring("fetch".length());
+                    fetched.add(Character.toLowerCase(name.charAt(0)) + name.substring(1));
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return fetched;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.coregui.server.util;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.rhq.core.domain.resource.composite.ResourceLineageComposite;
+
+/**
+ * Keeps, for a short time, the Resource lineages and siblings already sent to the Resource tree, so that browsing the
+ * Resources of the same branch does not load and detach the whole branch again. The lineage depends on what the user
+ * may view, so the entries are kept per user. Entries are evicted once expired, or oldest first once the cache is full.
+ * <p/>
+ * The cache is cleared by the inventory changes made through the Resource service of this server, and all the caches
+ * are {@link #invalidateAll() invalidated} by the changes to roles, role assignments and group memberships made through
+ * the GWT services of this server, since these change which Resources a user may view. Resources discovered or changed
+ * by the agents, and changes made through another server, the CLI or the REST API are not seen until the entries
+ * expire, so they can stay stale for up to the time to live (15 seconds as used by the Resource service).
+ * <p/>
+ * A lineage loaded while the cache is cleared or invalidated is not cached, so that it cannot outlive the change:
+ * get the {@link #getGeneration() generation} before loading the lineage and pass it to
+ * {@link #put(int, int, List, long)}.
+ */
+public class ResourceLineageCache {
+
+    // incremented on every change that may alter what any user may view
+    private static final AtomicLong INVALIDATIONS = new AtomicLong();
+
+    private final long timeToLive;
+    private final Map<String, CachedLineage> entries;
+    private long clears;
+
+    /**
+     * @param maxEntries the maximum number of lineages kept
+     * @param timeToLive the time, in milliseconds, a lineage is kept
+     */
+    public ResourceLineageCache(final int maxEntries, long timeToLive) {
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, CachedLineage>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedLineage> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached lineage of the Resource as seen by the user, <code>null</code> if none or if it expired
+     */
+    public synchronized List<ResourceLineageComposite> get(int subjectId, int resourceId) {
+        String key = getKey(subjectId, resourceId);
+        CachedLineage entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiration < currentTimeMillis() || entry.generation != getGeneration()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.lineage;
+    }
+
+    /**
+     * @return the current generation of the cache, which changes whenever the cache is cleared or invalidated
+     */
+    public synchronized long getGeneration() {
+        return clears + INVALIDATIONS.get();
+    }
+
+    /**
+     * Caches the lineage of the Resource as seen by the user. The lineage must be ready to be sent to the client and
+     * must not be modified afterwards.
+     *
+     * @param generation the {@link #getGeneration() generation} of the cache before the lineage was loaded, the
+     *                   lineage is not cached if the cache was cleared or invalidated since
+     */
+    public synchronized void put(int subjectId, int resourceId, List<ResourceLineageComposite> lineage,
+        long generation) {
+        if (generation == getGeneration()) {
+            entries.put(getKey(subjectId, resourceId), new CachedLineage(lineage, currentTimeMillis() + timeToLive,
+                generation));
+        }
+    }
+
+    /**
+     * Forgets all the cached lineages, to be called when the inventory is changed.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        ++clears;
+    }
+
+    /**
+     * Forgets the lineages of all the caches, to be called when the roles, the role assignments or the group
+     * memberships change, since these change which Resources a user may view.
+     */
+    public static void invalidateAll() {
+        INVALIDATIONS.incrementAndGet();
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static String getKey(int subjectId, int resourceId) {
+        return subjectId + ":" + resourceId;
+    }
+
+    private static class CachedLineage {
+        private final List<ResourceLineageComposite> lineage;
+        private final long expiration;
+        private final long generation;
+
+        CachedLineage(List<ResourceLineageComposite> lineage, long expiration, long generation) {
+            this.lineage = lineage;
+            this.expiration = expiration;
+            this.generation = generation;
+        }
+    }
+}
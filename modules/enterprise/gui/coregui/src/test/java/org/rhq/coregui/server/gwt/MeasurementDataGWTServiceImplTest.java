@@ -0,0 +1,65 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.coregui.server.gwt;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.measurement.MeasurementDefinition;
+import org.rhq.core.domain.measurement.MeasurementSchedule;
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+
+@Test
+public class MeasurementDataGWTServiceImplTest {
+
+    public void resourcesOfSchedulesAreTrimmed() {
+        ResourceType type = new ResourceType("type", "test", ResourceCategory.SERVER, null);
+        MeasurementDefinition definition = new MeasurementDefinition(type, "metric");
+        Resource resource = new Resource(1);
+        resource.setUuid("uuid-1");
+        resource.setName("resource");
+        resource.setResourceType(type);
+        resource.setAgent(new Agent("agent", "localhost", 16163, "http://localhost:16163", "token"));
+        Configuration configuration = new Configuration();
+        configuration.put(new PropertySimple("property", "value"));
+        resource.setPluginConfiguration(configuration);
+        MeasurementSchedule schedule = new MeasurementSchedule(definition, resource);
+
+        MeasurementDataGWTServiceImpl.filterResourceFields(Arrays.asList(schedule, null,
+            new MeasurementSchedule(definition, null)));
+
+        assertSame(schedule.getResource(), resource);
+        assertSame(schedule.getDefinition(), definition, "Only the Resources are trimmed");
+        assertEquals(resource.getName(), "resource");
+        assertSame(resource.getResourceType(), type);
+        assertNull(resource.getAgent());
+        assertTrue(resource.getPluginConfiguration().getProperties().isEmpty());
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.coregui.server.gwt;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.resource.composite.ResourceLineageComposite;
+import org.rhq.coregui.server.util.ResourceLineageCache;
+import org.rhq.enterprise.server.discovery.DiscoveryBossLocal;
+import org.rhq.enterprise.server.resource.ResourceFactoryManagerLocal;
+import org.rhq.enterprise.server.resource.ResourceManagerLocal;
+
+@Test
+public class ResourceGWTServiceImplTest {
+
+    private static final int RESOURCE_ID = 10001;
+
+    private List<Integer> lineageLoads;
+    private Subject subject;
+    private TestService service;
+
+    @BeforeMethod
+    public void setUp() {
+        lineageLoads = new ArrayList<Integer>();
+        subject = createSubject(2);
+        service = new TestService(createResourceManager(lineageLoads));
+    }
+
+    public void lineageIsLoadedOncePerSubject() {
+        List<ResourceLineageComposite> lineage = service.getResourceLineageAndSiblings(RESOURCE_ID);
+        assertSame(service.getResourceLineageAndSiblings(RESOURCE_ID), lineage);
+        assertEquals(lineageLoads, Collections.singletonList(subject.getId()));
+
+        subject = createSubject(3);
+        assertNotSame(service.getResourceLineageAndSiblings(RESOURCE_ID), lineage);
+        assertEquals(lineageLoads.size(), 2, "The lineage of another user must be loaded for that user");
+    }
+
+    public void lineageIsProjected() {
+        Resource resource = service.getResourceLineageAndSiblings(RESOURCE_ID).get(0).getResource();
+
+        assertEquals(resource.getId(), RESOURCE_ID);
+        assertEquals(resource.getName(), "resource");
+        assertEquals(resource.getResourceType().getName(), "type");
+        assertTrue(resource.getPluginConfiguration().getProperties().isEmpty());
+    }
+
+    public void inventoryChangeClearsLineages() {
+        service.getResourceLineageAndSiblings(RESOURCE_ID);
+
+        service.uninventoryResources(new int[] { RESOURCE_ID });
+
+        service.getResourceLineageAndSiblings(RESOURCE_ID);
+        assertEquals(lineageLoads.size(), 2);
+    }
+
+    public void authorizationChangeClearsLineages() {
+        service.getResourceLineageAndSiblings(RESOURCE_ID);
+
+        ResourceLineageCache.invalidateAll();
+
+        service.getResourceLineageAndSiblings(RESOURCE_ID);
+        assertEquals(lineageLoads.size(), 2);
+    }
+
+    private static Subject createSubject(int id) {
+        Subject subject = new Subject();
+        subject.setId(id);
+        return subject;
+    }
+
+    private static ResourceManagerLocal createResourceManager(final List<Integer> lineageLoads) {
+        return (ResourceManagerLocal) Proxy.newProxyInstance(ResourceGWTServiceImplTest.class.getClassLoader(),
+            new Class<?>[] { ResourceManagerLocal.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("getResourceLineageAndSiblings")) {
+                        lineageLoads.add(((Subject) args[0]).getId());
+                        return Collections.singletonList(new ResourceLineageComposite(createResource(), false));
+                    } else if (method.getName().equals("uninventoryResources")) {
+                        return Collections.emptyList();
+                    }
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            });
+    }
+
+    private static Resource createResource() {
+        Resource resource = new Resource(RESOURCE_ID);
+        resource.setUuid("uuid-" + RESOURCE_ID);
+        resource.setName("resource");
+        resource.setResourceType(new ResourceType("type", "test", ResourceCategory.SERVER, null));
+        Configuration configuration = new Configuration();
+        configuration.put(new PropertySimple("property", "not shown by the tree"));
+        resource.setPluginConfiguration(configuration);
+        return resource;
+    }
+
+    private class TestService extends ResourceGWTServiceImpl {
+        private static final long serialVersionUID = 1L;
+
+        TestService(ResourceManagerLocal resourceManager) {
+            super(resourceManager, (ResourceFactoryManagerLocal) null, (DiscoveryBossLocal) null,
+                new ResourceLineageCache(10, 15000L));
+        }
+
+        @Override
+        protected Subject getSessionSubject() {
+            return subject;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.coregui.server.gwt;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.resource.group.ResourceGroup;
+
+@Test
+public class ResourceGroupGWTServiceImplTest {
+
+    public void membersAreTrimmed() {
+        ResourceGroup group = new ResourceGroup("group");
+        Resource explicitMember = createResource(1, "explicit");
+        Resource implicitMember = createResource(2, "implicit");
+        group.setExplicitResources(new HashSet<Resource>(Collections.singleton(explicitMember)));
+        group.setImplicitResources(new HashSet<Resource>(Collections.singleton(implicitMember)));
+
+        ResourceGroupGWTServiceImpl.filterMemberFields(Collections.singletonList(group));
+
+        for (Resource member : new Resource[] { explicitMember, implicitMember }) {
+            assertNull(member.getAgent());
+            assertTrue(member.getPluginConfiguration().getProperties().isEmpty());
+            assertEquals(member.getResourceType().getName(), "type", "The type is shown by the member tables");
+        }
+        assertEquals(explicitMember.getName(), "explicit");
+        assertEquals(implicitMember.getName(), "implicit");
+        assertEquals(group.getName(), "group", "Only the members are trimmed");
+    }
+
+    public void groupsWithoutMembersAreLeftAlone() {
+        ResourceGroupGWTServiceImpl.filterMemberFields(Collections.<ResourceGroup> singletonList(null));
+        ResourceGroupGWTServiceImpl.filterMemberFields(Collections.singletonList(new ResourceGroup("group")));
+    }
+
+    private static Resource createResource(int id, String name) {
+        Resource resource = new Resource(id);
+        resource.setUuid("uuid-" + id);
+        resource.setName(name);
+        resource.setResourceType(new ResourceType("type", "test", ResourceCategory.SERVER, null));
+        resource.setAgent(new Agent("agent", "localhost", 16163, "http://localhost:16163", "token"));
+        Configuration configuration = new Configuration();
+        configuration.put(new PropertySimple("property", "value"));
+        resource.setPluginConfiguration(configuration);
+        return resource;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.coregui.server.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertySimple;
+import org.rhq.core.domain.criteria.ResourceGroupCriteria;
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.core.domain.resource.InventoryStatus;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceCategory;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.resource.composite.ResourceLineageComposite;
+import org.rhq.core.domain.resource.group.GroupCategory;
+import org.rhq.core.domain.resource.group.GroupDefinition;
+import org.rhq.core.domain.resource.group.ResourceGroup;
+import org.rhq.core.domain.resource.group.composite.ResourceGroupComposite;
+import org.rhq.core.domain.util.PageControl;
+import org.rhq.core.domain.util.PageList;
+
+@Test
+public class ProjectionUtilityTest {
+
+    public void lineageOnlyHoldsWhatTheTreeDisplays() {
+        Resource platform = createResource(1, "platform");
+        Resource server = createResource(2, "server");
+        server.setParentResource(platform);
+
+        List<ResourceLineageComposite> lineage = ProjectionUtility.projectLineage(Arrays.asList(
+            new ResourceLineageComposite(platform, true), new ResourceLineageComposite(server, false)));
+
+        assertEquals(lineage.size(), 2);
+        assertTrue(lineage.get(0).isLocked());
+        assertFalse(lineage.get(1).isLocked());
+
+        Resource projection = lineage.get(1).getResource();
+        assertNotSame(projection, server);
+        assertEquals(projection, server, "Resources are equal by uuid");
+        assertEquals(projection.getId(), 2);
+        assertEquals(projection.getName(), "server");
+        assertEquals(projection.getDescription(), "server description");
+        assertEquals(projection.getInventoryStatus(), InventoryStatus.COMMITTED);
+        assertEquals(projection.getParentResource().getId(), 1);
+        assertEquals(projection.getParentResource().getName(), "platform");
+        assertNull(projection.getAgent());
+        // the getters of the projection create empty configurations
+        assertTrue(projection.getPluginConfiguration().getProperties().isEmpty());
+        assertTrue(projection.getResourceConfiguration().getProperties().isEmpty());
+
+        ResourceType type = projection.getResourceType();
+        assertNotSame(type, server.getResourceType());
+        assertEquals(type.getId(), server.getResourceType().getId());
+        assertEquals(type.getName(), "server type");
+        assertEquals(type.getPlugin(), "test");
+        assertEquals(type.getSubCategory(), "subcategory");
+        assertTrue(type.isSingleton());
+        assertTrue(type.getParentResourceTypes() == null || type.getParentResourceTypes().isEmpty());
+    }
+
+    public void groupRowsHoldColumnsAndCounts() {
+        ResourceGroup group = createGroup();
+        PageList<ResourceGroupComposite> composites = new PageList<ResourceGroupComposite>(
+            Collections.singletonList(createComposite(group)), 21, new PageControl(0, 20));
+
+        PageList<ResourceGroupComposite> rows = ProjectionUtility.projectGroupRows(composites,
+            new ResourceGroupCriteria());
+
+        assertEquals(rows.getTotalSize(), 21);
+        assertFalse(rows.isUnbounded());
+        assertEquals(rows.getPageControl(), composites.getPageControl());
+        ResourceGroupComposite row = rows.get(0);
+        assertEquals(row.getExplicitCount(), 3L);
+        assertEquals(row.getExplicitDown(), 1L);
+        assertEquals(row.getImplicitCount(), 6L);
+        assertEquals(row.getImplicitDisabled(), 1L);
+        assertEquals(row.getCategory(), GroupCategory.COMPATIBLE);
+
+        ResourceGroup projection = row.getResourceGroup();
+        assertNotSame(projection, group);
+        assertEquals(projection.getId(), group.getId());
+        assertEquals(projection.getName(), "group");
+        assertEquals(projection.getDescription(), "group description");
+        assertEquals(projection.getGroupCategory(), GroupCategory.COMPATIBLE);
+        assertEquals(projection.getResourceType().getPlugin(), "test");
+        assertTrue(projection.isRecursive());
+        assertNull(projection.getGroupDefinition(), "The group definition was not fetched");
+        assertTrue(projection.getExplicitResources().isEmpty(), "The members were not fetched");
+        assertTrue(projection.getImplicitResources().isEmpty(), "The members were not fetched");
+    }
+
+    public void groupRowsHoldFetchedRelationships() {
+        ResourceGroup group = createGroup();
+        PageList<ResourceGroupComposite> composites = new PageList<ResourceGroupComposite>(
+            Collections.singletonList(createComposite(group)), new PageControl(0, 20));
+        ResourceGroupCriteria criteria = new ResourceGroupCriteria();
+        criteria.fetchExplicitResources(true);
+        criteria.fetchGroupDefinition(true);
+
+        PageList<ResourceGroupComposite> rows = ProjectionUtility.projectGroupRows(composites, criteria);
+
+        assertTrue(rows.isUnbounded());
+        ResourceGroup projection = rows.get(0).getResourceGroup();
+        assertEquals(projection.getGroupDefinition().getId(), 7);
+        assertEquals(projection.getGroupDefinition().getName(), "definition");
+        assertNull(projection.getGroupDefinition().getExpression());
+        assertEquals(projection.getExplicitResources().size(), 1);
+        Resource member = projection.getExplicitResources().iterator().next();
+        assertEquals(member.getName(), "member");
+        assertNull(member.getAgent());
+        assertTrue(projection.getImplicitResources().isEmpty(), "The implicit members were not fetched");
+    }
+
+    public void fetchedFieldsAreReadFromCriteria() {
+        ResourceGroupCriteria criteria = new ResourceGroupCriteria();
+        assertTrue(ProjectionUtility.getFetchedFields(criteria).isEmpty());
+        assertTrue(ProjectionUtility.getFetchedFields(null).isEmpty());
+
+        criteria.fetchImplicitResources(true);
+        criteria.fetchRoles(false);
+        assertEquals(ProjectionUtility.getFetchedFields(criteria), new HashSet<String>(
+            Collections.singleton("implicitResources")));
+    }
+
+    private static ResourceGroup createGroup() {
+        ResourceGroup group = new ResourceGroup("group", createType(3, "group type"));
+        group.setId(5);
+        group.setDescription("group description");
+        group.setRecursive(true);
+        GroupDefinition definition = new GroupDefinition("definition");
+        definition.setId(7);
+        definition.setExpression("resource.type.plugin = test");
+        group.setGroupDefinition(definition);
+        group.setExplicitResources(new HashSet<Resource>(Collections.singleton(createResource(4, "member"))));
+        group.setImplicitResources(new HashSet<Resource>(Collections.singleton(createResource(4, "member"))));
+        return group;
+    }
+
+    private static ResourceGroupComposite createComposite(ResourceGroup group) {
+        return new ResourceGroupComposite(3L, 1L, 0L, 0L, 6L, 1L, 0L, 1L, group);
+    }
+
+    private static Resource createResource(int id, String name) {
+        Resource resource = new Resource(id);
+        resource.setUuid("uuid-" + id);
+        resource.setName(name);
+        resource.setDescription(name + " description");
+        resource.setInventoryStatus(InventoryStatus.COMMITTED);
+        resource.setResourceType(createType(100 + id, name + " type"));
+        resource.setAgent(new Agent("agent", "localhost", 16163, "http://localhost:16163", "token"));
+        Configuration configuration = new Configuration();
+        configuration.put(new PropertySimple("property", "value"));
+        resource.setPluginConfiguration(configuration);
+        resource.setResourceConfiguration(configuration.deepCopy());
+        return resource;
+    }
+
+    private static ResourceType createType(int id, String name) {
+        ResourceType type = new ResourceType(name, "test", ResourceCategory.SERVER, new ResourceType("parent",
+            "test", ResourceCategory.PLATFORM, null));
+        type.setId(id);
+        type.setSubCategory("subcategory");
+        type.setSingleton(true);
+        return type;
+    }
+}
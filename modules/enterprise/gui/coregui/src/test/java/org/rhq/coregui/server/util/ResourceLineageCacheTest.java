@@ -0,0 +1,123 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.coregui.server.util;
+
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.composite.ResourceLineageComposite;
+
+@Test
+public class ResourceLineageCacheTest {
+
+    private static final long TIME_TO_LIVE = 15000L;
+    private static final int SUBJECT_ID = 2;
+    private static final int OTHER_SUBJECT_ID = 3;
+    private static final int RESOURCE_ID = 10001;
+
+    private TestCache cache;
+    private List<ResourceLineageComposite> lineage;
+
+    @BeforeMethod
+    public void setUp() {
+        cache = new TestCache(3);
+        lineage = Collections.singletonList(new ResourceLineageComposite(new Resource(RESOURCE_ID), false));
+    }
+
+    public void lineageExpiresAfterTimeToLive() {
+        cache.put(SUBJECT_ID, RESOURCE_ID, lineage, cache.getGeneration());
+
+        cache.now += TIME_TO_LIVE;
+        assertSame(cache.get(SUBJECT_ID, RESOURCE_ID), lineage);
+
+        cache.now += 1;
+        assertNull(cache.get(SUBJECT_ID, RESOURCE_ID));
+    }
+
+    public void lineageIsKeptPerSubject() {
+        cache.put(SUBJECT_ID, RESOURCE_ID, lineage, cache.getGeneration());
+
+        assertSame(cache.get(SUBJECT_ID, RESOURCE_ID), lineage);
+        assertNull(cache.get(OTHER_SUBJECT_ID, RESOURCE_ID), "Another user may not view the same Resources");
+        assertNull(cache.get(SUBJECT_ID, RESOURCE_ID + 1));
+    }
+
+    public void clearForgetsAllLineages() {
+        cache.put(SUBJECT_ID, RESOURCE_ID, lineage, cache.getGeneration());
+        cache.put(OTHER_SUBJECT_ID, RESOURCE_ID, lineage, cache.getGeneration());
+
+        cache.clear();
+
+        assertNull(cache.get(SUBJECT_ID, RESOURCE_ID));
+        assertNull(cache.get(OTHER_SUBJECT_ID, RESOURCE_ID));
+    }
+
+    public void authorizationChangeInvalidatesAllCaches() {
+        TestCache otherCache = new TestCache(3);
+        cache.put(SUBJECT_ID, RESOURCE_ID, lineage, cache.getGeneration());
+        otherCache.put(SUBJECT_ID, RESOURCE_ID, lineage, otherCache.getGeneration());
+
+        ResourceLineageCache.invalidateAll();
+
+        assertNull(cache.get(SUBJECT_ID, RESOURCE_ID));
+        assertNull(otherCache.get(SUBJECT_ID, RESOURCE_ID));
+    }
+
+    public void lineageLoadedDuringChangeIsNotCached() {
+        long generation = cache.getGeneration();
+        // the inventory changes while the lineage is loaded
+        cache.clear();
+        cache.put(SUBJECT_ID, RESOURCE_ID, lineage, generation);
+        assertNull(cache.get(SUBJECT_ID, RESOURCE_ID));
+
+        generation = cache.getGeneration();
+        ResourceLineageCache.invalidateAll();
+        cache.put(SUBJECT_ID, RESOURCE_ID, lineage, generation);
+        assertNull(cache.get(SUBJECT_ID, RESOURCE_ID));
+    }
+
+    public void oldestLineageIsEvictedWhenFull() {
+        for (int i = 0; i < 4; i++) {
+            cache.put(SUBJECT_ID, RESOURCE_ID + i, lineage, cache.getGeneration());
+        }
+
+        assertNull(cache.get(SUBJECT_ID, RESOURCE_ID));
+        assertSame(cache.get(SUBJECT_ID, RESOURCE_ID + 3), lineage);
+    }
+
+    private static class TestCache extends ResourceLineageCache {
+        private long now = System.currentTimeMillis();
+
+        TestCache(int maxEntries) {
+            super(maxEntries, TIME_TO_LIVE);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+}
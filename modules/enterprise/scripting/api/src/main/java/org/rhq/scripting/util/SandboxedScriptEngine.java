@@ -19,6 +19,7 @@
 
 package org.rhq.scripting.util;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.security.AccessControlContext;
 import java.security.AccessController;
@@ -34,6 +35,8 @@ import java.util.Arrays;
 import java.util.Collection;
 
 import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
@@ -48,10 +51,14 @@ import javax.script.ScriptException;
  * <p>
  * This class is provided in hopes that it can help provide security to script engines
  * that do not directly implement some kind of security measures.
+ * <p>
+ * If the decorated engine is {@link Compilable}, the compiled scripts are evaluated with the
+ * same permissions. Otherwise "compiling" merely remembers the script source so that callers
+ * can treat all the engines the same.
  * 
  * @author Lukas Krejci
  */
-public class SandboxedScriptEngine implements ScriptEngine {
+public class SandboxedScriptEngine implements ScriptEngine, Compilable {
 
     private ScriptEngine engine;
     private AccessControlContext accessControlContext;
@@ -214,6 +221,46 @@ public class SandboxedScriptEngine implements ScriptEngine {
         return engine.getFactory();
     }
     
+    @Override
+    public CompiledScript compile(final String script) throws ScriptException {
+        if (engine instanceof Compilable) {
+            try {
+                return new SandboxedCompiledScript(AccessController.doPrivileged(
+                    new PrivilegedExceptionAction<CompiledScript>() {
+                        @Override
+                        public CompiledScript run() throws Exception {
+                            return ((Compilable) engine).compile(script);
+                        }
+                    }, accessControlContext));
+            } catch (PrivilegedActionException e) {
+                throw transfer(e);
+            }
+        } else {
+            return new SandboxedCompiledScript(null) {
+                @Override
+                public Object eval(ScriptContext context) throws ScriptException {
+                    return SandboxedScriptEngine.this.eval(script, context);
+                }
+            };
+        }
+    }
+
+    @Override
+    public CompiledScript compile(Reader script) throws ScriptException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[4096];
+        try {
+            int read;
+            while ((read = script.read(buffer)) != -1) {
+                source.append(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new ScriptException(e);
+        }
+
+        return compile(source.toString());
+    }
+
     private static ScriptException transfer(PrivilegedActionException e) {
         if (e.getCause() instanceof ScriptException) {
             return (ScriptException) e.getCause();
@@ -221,4 +268,31 @@ public class SandboxedScriptEngine implements ScriptEngine {
             return new ScriptException(e);
         }
     }
+
+    private class SandboxedCompiledScript extends CompiledScript {
+        private final CompiledScript compiledScript;
+
+        SandboxedCompiledScript(CompiledScript compiledScript) {
+            this.compiledScript = compiledScript;
+        }
+
+        @Override
+        public Object eval(final ScriptContext context) throws ScriptException {
+            try {
+                return AccessController.doPrivileged(new PrivilegedExceptionAction<Object>() {
+                    @Override
+                    public Object run() throws Exception {
+                        return compiledScript.eval(context);
+                    }
+                }, accessControlContext);
+            } catch (PrivilegedActionException e) {
+                throw transfer(e);
+            }
+        }
+
+        @Override
+        public ScriptEngine getEngine() {
+            return SandboxedScriptEngine.this;
+        }
+    }
 }
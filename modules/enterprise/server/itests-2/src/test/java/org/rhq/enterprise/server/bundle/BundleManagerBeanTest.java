@@ -64,6 +64,7 @@ import org.rhq.core.domain.configuration.definition.PropertyDefinitionSimple;
 import org.rhq.core.domain.configuration.definition.PropertySimpleType;
 import org.rhq.core.domain.content.Architecture;
 import org.rhq.core.domain.content.Package;
+import org.rhq.core.domain.content.PackageBits;
 import org.rhq.core.domain.content.PackageType;
 import org.rhq.core.domain.content.PackageVersion;
 import org.rhq.core.domain.content.Repo;
@@ -248,6 +249,9 @@ public class BundleManagerBeanTest extends AbstractEJB3Test {
             for (Object removeMe : doomed) {
                 em.remove(em.getReference(PackageVersion.class, ((PackageVersion) removeMe).getId()));
             }
+            em.flush();
+            // package bits are shared between versions and not removed with them
+            em.createNamedQuery(PackageBits.DELETE_IF_NO_PACKAGE_VERSION).executeUpdate();
             // remove any oprphaned packages
             q = em.createQuery("SELECT p FROM Package p WHERE p.name LIKE '" + TEST_PREFIX + "%'");
             doomed = q.getResultList();
@@ -901,6 +905,74 @@ public class BundleManagerBeanTest extends AbstractEJB3Test {
         assert !b1f1.getPackageVersion().getGeneralPackage().equals(b2f1.getPackageVersion().getGeneralPackage()) : "should be different packages";
     }
 
+    @Test(enabled = TESTS_ENABLED)
+    public void testIdenticalBundleFilesShareBits() throws Exception {
+        BundleType bt = createBundleType("one");
+        Bundle b1 = createBundle(overlord, "one", bt, null);
+        BundleVersion bv1 = createBundleVersion(b1.getName(), "1.0", b1);
+        BundleFile b1f1 = bundleManager.addBundleFileViaByteArray(overlord, bv1.getId(), TEST_PREFIX + "-file1", "1.0",
+            null, "Identical Bundle File".getBytes());
+
+        Bundle b2 = createBundle(overlord, "two", bt, null);
+        BundleVersion bv2 = createBundleVersion(b2.getName(), "1.0", b2);
+        BundleFile b2f1 = bundleManager.addBundleFileViaByteArray(overlord, bv2.getId(), TEST_PREFIX + "-file2", "1.0",
+            null, "Identical Bundle File".getBytes());
+        BundleFile b2f2 = bundleManager.addBundleFileViaByteArray(overlord, bv2.getId(), TEST_PREFIX + "-file3", "1.0",
+            null, "Different Bundle File".getBytes());
+
+        int sharedBitsId = getPackageBitsId(b1f1.getPackageVersion().getId());
+        assert sharedBitsId == getPackageBitsId(b2f1.getPackageVersion().getId()) : "identical content should be shared";
+        assert sharedBitsId != getPackageBitsId(b2f2.getPackageVersion().getId()) : "different content is not shared";
+
+        // the shared bits must survive the removal of one of the versions using them
+        bundleManager.deleteBundle(overlord, b1.getId());
+        assert sharedBitsId == getPackageBitsId(b2f1.getPackageVersion().getId());
+        assert packageBitsExist(sharedBitsId);
+
+        // and are deleted with the last one
+        int otherBitsId = getPackageBitsId(b2f2.getPackageVersion().getId());
+        bundleManager.deleteBundle(overlord, b2.getId());
+        assert !packageBitsExist(sharedBitsId) : "unused bits should be deleted with their last package version";
+        assert !packageBitsExist(otherBitsId) : "unused bits should be deleted with their package version";
+    }
+
+    @Test(enabled = TESTS_ENABLED)
+    public void testPlaceholderBitsAreNotShared() throws Exception {
+        BundleType bt = createBundleType("one");
+        Bundle b1 = createBundle(overlord, "one", bt, null);
+        BundleVersion bv1 = createBundleVersion(b1.getName(), "1.0", b1);
+        // same content as the placeholder of bits that are not loaded yet
+        BundleFile b1f1 = bundleManager.addBundleFileViaByteArray(overlord, bv1.getId(), TEST_PREFIX + "-file1", "1.0",
+            null, PackageBits.EMPTY_BLOB.getBytes());
+        BundleFile b1f2 = bundleManager.addBundleFileViaByteArray(overlord, bv1.getId(), TEST_PREFIX + "-file2", "1.0",
+            null, PackageBits.EMPTY_BLOB.getBytes());
+
+        assert getPackageBitsId(b1f1.getPackageVersion().getId()) != getPackageBitsId(b1f2.getPackageVersion()
+            .getId()) : "bits that may not be loaded yet must not be shared";
+    }
+
+    private boolean packageBitsExist(int packageBitsId) throws Exception {
+        getTransactionManager().begin();
+        try {
+            Query q = em.createQuery("SELECT COUNT(pb.id) FROM PackageBits pb WHERE pb.id = :id");
+            q.setParameter("id", packageBitsId);
+            return ((Number) q.getSingleResult()).longValue() > 0;
+        } finally {
+            getTransactionManager().rollback();
+        }
+    }
+
+    private int getPackageBitsId(int packageVersionId) throws Exception {
+        getTransactionManager().begin();
+        try {
+            Query q = em.createQuery("SELECT pv.packageBits.id FROM PackageVersion pv WHERE pv.id = :id");
+            q.setParameter("id", packageVersionId);
+            return (Integer) q.getSingleResult();
+        } finally {
+            getTransactionManager().rollback();
+        }
+    }
+
     @Test(enabled = TESTS_ENABLED)
     public void testCreateBundleDeployment() throws Exception {
         Bundle b1 = createBundle("one");
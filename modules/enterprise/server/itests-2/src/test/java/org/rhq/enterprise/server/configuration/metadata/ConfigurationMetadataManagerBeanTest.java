@@ -27,8 +27,10 @@ import static java.util.Arrays.asList;
 import static org.rhq.core.clientapi.shared.PluginDescriptorUtil.loadPluginConfigDefFor;
 import static org.rhq.core.clientapi.shared.PluginDescriptorUtil.loadPluginDescriptor;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.transaction.SystemException;
@@ -218,6 +220,30 @@ public class ConfigurationMetadataManagerBeanTest extends AbstractEJB3Test {
 
     }
 
+    @Test(enabled = ENABLED)
+    public void reportPropertiesThatBecameRequired() {
+        loadAndPersistConfigDefs("servers[name='RequiredPropertiesTest']", "RequiredPropertiesTest");
+        ConfigurationDefinitionUpdateReport report = updateConfigDef();
+
+        Set<String> newlyRequired = new HashSet<String>();
+        for (PropertyDefinition propertyDef : report.getNewlyRequiredPropertyDefinitions()) {
+            newlyRequired.add(propertyDef.getName());
+        }
+        assertEquals("Only the property that was optional before the update should be reported as newly required",
+            new HashSet<String>(asList("becomesRequired")), newlyRequired);
+        assertTrue("The existing configurations may be missing a value for the newly required property",
+            report.isRequiredPropertyAdded());
+    }
+
+    @Test(enabled = ENABLED)
+    public void doNotReportRequiredPropertyAddedWhenNothingBecameRequired() {
+        loadAndPersistConfigDefs("servers[name='GroupTests']", "GroupTests");
+        ConfigurationDefinitionUpdateReport report = updateConfigDef();
+
+        assertTrue("No property became required", report.getNewlyRequiredPropertyDefinitions().isEmpty());
+        assertFalse("No required property was added", report.isRequiredPropertyAdded());
+    }
+
     private void initConfigDefs(String path, String configName) {
         loadAndPersistConfigDefs(path, configName);
         updateConfigDef();
@@ -245,10 +271,10 @@ public class ConfigurationMetadataManagerBeanTest extends AbstractEJB3Test {
         }
     }
 
-    private void updateConfigDef() {
+    private ConfigurationDefinitionUpdateReport updateConfigDef() {
         ConfigurationMetadataManagerLocal configMetadataMgr = LookupUtil.getConfigurationMetadataManager();
         // The next line updates originalConfigDef with the content of updatedConfigDef
-        configMetadataMgr.updateConfigurationDefinition(updatedConfigDef, originalConfigDef);
+        return configMetadataMgr.updateConfigurationDefinition(updatedConfigDef, originalConfigDef);
     }
 
     private String getPackagePath() {
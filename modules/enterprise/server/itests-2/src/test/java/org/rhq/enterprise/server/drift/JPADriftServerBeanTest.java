@@ -283,6 +283,14 @@ public class JPADriftServerBeanTest extends AbstractDriftServerTest {
             actualDrifts, "changeSet", "newDriftFile");
     }
 
+    public void doNotOverwriteLoadedDriftFileContent() throws Exception {
+        String duplicateContent = "duplicate upload of drift file 1...";
+        jpaDriftServer.persistDriftFileData(driftFile1, toInputStream(duplicateContent), duplicateContent.length());
+
+        assertDriftFilePersisted(jpaDriftServer.getDriftFile(getOverlord(), DRIFT_FILE_1_ID), "driftFile1",
+            "drift file 1 content...");
+    }
+
     private DriftFileDTO toDTo(JPADriftFile driftFile) {
         DriftFileDTO dto = new DriftFileDTO();
         dto.setHashId(driftFile.getHashId());
@@ -307,4 +307,64 @@ public class UpdateMeasurementSubsystemTest extends UpdatePluginMetadataTestBase
          */
         assert schedules.size() == 1 : "Did not find the expected 1 new schedule, but: " + schedules.size();
     }
+
+    /**
+     * Like {@link #testAddScheduleOnExistingResources()}, with several resources. The schedules of the new metric are
+     * created in bulk, so check that each resource gets exactly one, enabled, with the default interval of the metric.
+     * @throws Exception
+     */
+    @Test(enabled = ENABLED)
+    public void testAddSchedulesOnExistingResourcesInBulk() throws Exception {
+        int resourceCount = 3;
+        try {
+            registerPlugin("update8-1.xml");
+            ResourceType platform = getResourceType("myPlatform8");
+
+            getTransactionManager().begin();
+
+            for (int i = 0; i < resourceCount; i++) {
+                Resource testResource = new Resource("-test-" + i, "-test resource " + i, platform);
+                testResource.setUuid("" + new Random().nextInt());
+                em.persist(testResource);
+                setUpAgent(testResource);
+            }
+
+            getTransactionManager().commit();
+        } catch (Exception e) {
+            getTransactionManager().rollback();
+            fail("Setup of v1 failed: " + e);
+        }
+
+        registerPlugin("update8-2.xml");
+
+        ResourceType platform = getResourceType("myPlatform8");
+        MeasurementDefinition newDefinition = null;
+        for (MeasurementDefinition definition : platform.getMetricDefinitions()) {
+            if ("connectionCount2".equals(definition.getName())) {
+                newDefinition = definition;
+            }
+        }
+        assert newDefinition != null : "The new metric definition was not added";
+
+        Subject overlord = LookupUtil.getSubjectManager().getOverlord();
+        ResourceCriteria c = new ResourceCriteria();
+        c.addFilterResourceTypeId(platform.getId());
+        c.addFilterInventoryStatus(InventoryStatus.NEW);
+        c.fetchSchedules(true);
+        List<Resource> resources = LookupUtil.getResourceManager().findResourcesByCriteria(overlord, c);
+        assertEquals(resourceCount, resources.size());
+
+        for (Resource res : resources) {
+            Set<MeasurementSchedule> schedules = res.getSchedules();
+            assert schedules.size() == 1 : "Expected one schedule for " + res + ", but found: " + schedules.size();
+
+            MeasurementSchedule schedule = schedules.iterator().next();
+            assertEquals("The schedule should be for the new metric", newDefinition.getId(), schedule.getDefinition()
+                .getId());
+            // the schedules of existing resources are enabled whatever the default of the metric, as they always were
+            assertTrue("The schedule should be enabled", schedule.isEnabled());
+            assertEquals("The schedule should have the default interval of the metric", 120000L,
+                schedule.getInterval());
+        }
+    }
 }
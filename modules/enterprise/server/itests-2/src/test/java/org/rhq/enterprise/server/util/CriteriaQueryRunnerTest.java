@@ -0,0 +1,135 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+package org.rhq.enterprise.server.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.criteria.ResourceCriteria;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.resource.ResourceType;
+import org.rhq.core.domain.util.PageList;
+import org.rhq.core.domain.util.PageOrdering;
+import org.rhq.enterprise.server.test.AbstractEJB3Test;
+import org.rhq.enterprise.server.test.TransactionCallback;
+
+@Test
+public class CriteriaQueryRunnerTest extends AbstractEJB3Test {
+
+    private static final int PARENT_COUNT = 50;
+    private static final int CHILDREN_PER_PARENT = 2;
+
+    public void fetchedCollectionsAreLoadedForTheWholePage() {
+        executeInTransaction(new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                ResourceType type = SessionTestHelper.createNewResourceType(em);
+                List<Integer> parentIds = new ArrayList<Integer>(PARENT_COUNT);
+                for (int i = 0; i < PARENT_COUNT; ++i) {
+                    Resource parent = SessionTestHelper.createNewResource(em, "parent", type);
+                    for (int j = 0; j < CHILDREN_PER_PARENT; ++j) {
+                        Resource child = SessionTestHelper.createNewResource(em, "child", type);
+                        child.setParentResource(parent);
+                    }
+                    parentIds.add(parent.getId());
+                }
+                em.flush();
+                em.clear();
+
+                ResourceCriteria criteria = new ResourceCriteria();
+                criteria.addFilterIds(parentIds.toArray(new Integer[parentIds.size()]));
+                criteria.fetchChildResources(true);
+                CriteriaQueryGenerator generator = new CriteriaQueryGenerator(LookupUtil.getSubjectManager()
+                    .getOverlord(), criteria);
+                CriteriaQueryRunner<Resource> runner = new CriteriaQueryRunner<Resource>(criteria, generator, em);
+
+                Statistics statistics = ((Session) em.getDelegate()).getSessionFactory().getStatistics();
+                boolean statisticsEnabled = statistics.isStatisticsEnabled();
+                statistics.setStatisticsEnabled(true);
+                statistics.clear();
+                PageList<Resource> resources;
+                try {
+                    resources = runner.execute();
+                } finally {
+                    statistics.setStatisticsEnabled(statisticsEnabled);
+                }
+
+                assertEquals(PARENT_COUNT, resources.size());
+                for (Resource resource : resources) {
+                    assertTrue("Children should have been fetched", Hibernate.isInitialized(resource
+                        .getChildResources()));
+                    assertEquals(CHILDREN_PER_PARENT, resource.getChildResources().size());
+                }
+                // Per entity initialization needs at least one collection load per batch fetch size (32) entities
+                assertEquals("Children should have been loaded by the batch query, not collection by collection", 0,
+                    statistics.getCollectionFetchCount());
+                // data query, count query and a single query for the children of the whole page
+                assertEquals(3, statistics.getQueryExecutionCount());
+            }
+        });
+    }
+
+    public void keysetPagingWalksAllPagesWithoutCounting() {
+        executeInTransaction(new TransactionCallback() {
+            @Override
+            public void execute() throws Exception {
+                ResourceType type = SessionTestHelper.createNewResourceType(em);
+                List<Integer> ids = new ArrayList<Integer>(PARENT_COUNT);
+                for (int i = 0; i < PARENT_COUNT; ++i) {
+                    ids.add(SessionTestHelper.createNewResource(em, "keyset", type).getId());
+                }
+                em.flush();
+                em.clear();
+
+                List<Integer> seen = new ArrayList<Integer>(PARENT_COUNT);
+                String continuationToken = null;
+                int pages = 0;
+                do {
+                    ResourceCriteria criteria = new ResourceCriteria();
+                    criteria.addFilterIds(ids.toArray(new Integer[ids.size()]));
+                    criteria.addSortId(PageOrdering.DESC);
+                    criteria.setPaging(0, 20);
+                    criteria.setContinuationToken(continuationToken);
+                    CriteriaQueryGenerator generator = new CriteriaQueryGenerator(LookupUtil.getSubjectManager()
+                        .getOverlord(), criteria);
+                    PageList<Resource> page = new CriteriaQueryRunner<Resource>(criteria, generator, em).execute();
+
+                    assertTrue("Keyset pages are not counted", page.isUnbounded());
+                    for (Resource resource : page) {
+                        seen.add(resource.getId());
+                    }
+                    continuationToken = page.getContinuationToken();
+                    ++pages;
+                } while (continuationToken != null);
+
+                assertEquals(3, pages);
+                assertEquals(PARENT_COUNT, seen.size());
+                for (int i = 1; i < seen.size(); ++i) {
+                    assertTrue("Pages should be in descending id order: " + seen, seen.get(i - 1) > seen.get(i));
+                }
+            }
+        });
+    }
+}
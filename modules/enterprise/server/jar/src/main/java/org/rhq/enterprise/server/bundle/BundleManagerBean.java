@@ -2184,6 +2184,10 @@ public class BundleManagerBean implements BundleManagerLocal, BundleManagerRemot
         // remove the bundle version - cascade remove the deployments which will cascade remove the resource deployments.
         this.entityManager.remove(bundleVersion);
 
+        // the bundle files cascade remove their package versions, but not the package bits which may be shared
+        this.entityManager.flush();
+        contentManager.removeOrphanedPackageBits();
+
         if (deleteBundleIfEmpty) {
             this.entityManager.flush();
             q = entityManager.createNamedQuery(BundleVersion.QUERY_FIND_VERSION_INFO_BY_BUNDLE_ID);
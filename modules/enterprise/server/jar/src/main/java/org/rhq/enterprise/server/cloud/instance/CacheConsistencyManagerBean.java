@@ -36,6 +36,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.enterprise.server.alert.engine.AlertConditionCacheManagerLocal;
+import org.rhq.enterprise.server.core.comm.SecurityTokenCommandAuthenticator;
 
 /**
  * Each server has partitioned alerts condition cache data.  This session bean exists
@@ -95,6 +96,20 @@ public class CacheConsistencyManagerBean implements CacheConsistencyManagerLocal
         // try reload the global cache separate from the agent caches for purposes of isolated failures
         reloadGlobalCacheIfNeeded();
         reloadAgentCachesAsNeeded();
+        revalidateAgentTokens();
+    }
+
+    private void revalidateAgentTokens() {
+        // agents may have been deleted or given new tokens through other servers
+        try {
+            SecurityTokenCommandAuthenticator.revalidateTokens();
+        } catch (Throwable t) {
+            if (log.isDebugEnabled()) {
+                log.debug("Failed to revalidate the cached agent tokens", t);
+            } else {
+                log.error("Failed to revalidate the cached agent tokens, cause: " + t.getMessage());
+            }
+        }
     }
 
     private void reloadGlobalCacheIfNeeded() {
@@ -126,6 +126,7 @@ import org.rhq.enterprise.server.resource.group.ResourceGroupNotFoundException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupUpdateException;
 import org.rhq.enterprise.server.rest.BadArgumentException;
 import org.rhq.enterprise.server.scheduler.SchedulerLocal;
+import org.rhq.enterprise.server.util.BatchIterator;
 import org.rhq.enterprise.server.util.CriteriaQuery;
 import org.rhq.enterprise.server.util.CriteriaQueryExecutor;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
@@ -142,6 +143,9 @@ import org.rhq.enterprise.server.util.QuartzUtil;
 public class ConfigurationManagerBean implements ConfigurationManagerLocal, ConfigurationManagerRemote {
     private static final Log LOG = LogFactory.getLog(ConfigurationManagerBean.class);
 
+    // how many changed live configurations of group members are persisted in the same transaction
+    private static final int AGENT_REPORTED_CONFIGURATIONS_BATCH_SIZE = 50;
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
@@ -523,13 +527,7 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
     private ResourceConfigurationUpdate persistNewAgentReportedResourceConfiguration(Resource resource,
         Configuration liveConfig) throws ConfigurationUpdateStillInProgressException {
 
-        if (liveConfig.getRawConfigurations() != null) {
-            for (RawConfiguration raw : liveConfig.getRawConfigurations()) {
-                MessageDigestGenerator sha256Generator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
-                sha256Generator.add(raw.getContents().getBytes());
-                raw.setSha256(sha256Generator.getDigestString());
-            }
-        }
+        computeRawConfigurationDigests(liveConfig);
 
         /*
         * NOTE: We pass the overlord, since this is a system side-effect.  here, the system
@@ -547,6 +545,39 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
         return update;
     }
 
+    private static void computeRawConfigurationDigests(Configuration liveConfig) {
+        if (liveConfig.getRawConfigurations() != null) {
+            for (RawConfiguration raw : liveConfig.getRawConfigurations()) {
+                MessageDigestGenerator sha256Generator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+                sha256Generator.add(raw.getContents().getBytes());
+                raw.setSha256(sha256Generator.getDigestString());
+            }
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public Map<Integer, Configuration> persistAgentReportedResourceConfigurationsInNewTransaction(
+        Map<Integer, Configuration> liveConfigs) throws ConfigurationUpdateStillInProgressException {
+
+        Subject overlord = this.subjectManager.getOverlord();
+        Map<Integer, Configuration> persistedConfigs = new HashMap<Integer, Configuration>(liveConfigs.size());
+        for (Map.Entry<Integer, Configuration> entry : liveConfigs.entrySet()) {
+            Configuration liveConfig = entry.getValue();
+            computeRawConfigurationDigests(liveConfig);
+
+            // see persistNewAgentReportedResourceConfiguration() for why the overlord and no subject are used
+            ResourceConfigurationUpdate update = persistResourceConfigurationUpdate(overlord, entry.getKey(),
+                liveConfig, ConfigurationUpdateStatus.SUCCESS, null, false);
+            if (update != null) {
+                update.getResource().setResourceConfiguration(liveConfig.deepCopyWithoutProxies());
+                persistedConfigs.put(entry.getKey(), update.getConfiguration());
+            }
+        }
+
+        return persistedConfigs;
+    }
+
     @Override
     public PluginConfigurationUpdate getLatestPluginConfigurationUpdate(Subject subject, int resourceId) {
         if (LOG.isDebugEnabled()) {
@@ -703,33 +734,62 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
         ResourceGroup group = groupComposite.getResourceGroup();
         ensureNoResourceConfigurationUpdatesInProgress(group);
 
-        // If we got this far, no updates are in progress. Now try to obtain the live configs from the Agents.
-        // If any of the requests for live configs fail (e.g. because an Agent is down) or if all of the live
-        // configs can't be obtained within the specified timeout, this call will throw an exception.
+        // If we got this far, no updates are in progress. Now try to obtain the live configs from the Agents, all
+        // at once. The members whose live config could not be obtained (e.g. because their Agent is down) or could
+        // not be obtained within the specified timeout keep their persisted config.
         int userPreferencesTimeout = new SubjectPreferences(subject).getGroupConfigurationTimeoutPeriod();
         Set<Resource> groupMembers = group.getExplicitResources();
-        Map<Integer, Configuration> liveConfigs = LiveConfigurationLoader.getInstance().loadLiveResourceConfigurations(
-            groupMembers, userPreferencesTimeout);
+        LiveConfigurationLoader.LiveConfigurations liveConfigs = LiveConfigurationLoader.getInstance()
+            .loadLiveResourceConfigurations(groupMembers, userPreferencesTimeout);
 
-        // If we got this far, we were able to retrieve all of the live configs from the Agents. Now load the current
-        // persisted configs from the DB and compare them to the corresponding live configs. For any that are not equal,
-        // persist the live config to the DB as the new current config.
+        // Now load the current persisted configs from the DB and compare them to the corresponding live configs. For
+        // any that are not equal, persist the live config to the DB as the new current config.
         Map<Integer, Configuration> currentPersistedConfigs = getPersistedResourceConfigurationsForCompatibleGroup(group);
+        List<Integer> changedResourceIds = new ArrayList<Integer>();
         for (Resource memberResource : groupMembers) {
-            Configuration liveConfig = liveConfigs.get(memberResource.getId());
+            Configuration liveConfig = liveConfigs.getConfigurations().get(memberResource.getId());
             // NOTE: The persisted config may be null if no config has been persisted yet.
             Configuration currentPersistedConfig = currentPersistedConfigs.get(memberResource.getId());
-            if (!liveConfig.equals(currentPersistedConfig)) {
-                // If the live config is different than the persisted config, persist it as the new current config.
-                ResourceConfigurationUpdate update = persistNewAgentReportedResourceConfiguration(memberResource,
-                    liveConfig);
-                if (update != null) {
-                    currentPersistedConfigs.put(memberResource.getId(), update.getConfiguration());
-                    LOG.info("Live configuration for [" + memberResource
+            if (liveConfig == null) {
+                if (currentPersistedConfig == null) {
+                    throw new Exception("Current group Resource configuration for " + groupId
+                        + " cannot be calculated, because the live configuration of [" + memberResource
+                        + "] could not be obtained and none is persisted: "
+                        + liveConfigs.getFailures().get(memberResource.getId()));
+                }
+            } else if (!liveConfig.equals(currentPersistedConfig)) {
+                changedResourceIds.add(memberResource.getId());
+            }
+        }
+
+        if (!liveConfigs.getNotLoaded().isEmpty()) {
+            LOG.warn("Using the persisted configuration of " + liveConfigs.getNotLoaded().size() + " of the "
+                + groupMembers.size() + " members of group[id=" + groupId + "]: the live configuration of "
+                + liveConfigs.getFailures().keySet() + " could not be obtained and the live configuration of "
+                + liveConfigs.getTimedOut() + " was not obtained in time.");
+        }
+
+        // If the live config is different than the persisted config, persist it as the new current config. This is
+        // done in batches, in a transaction per batch rather than one per member.
+        BatchIterator<Integer> batchIterator = new BatchIterator<Integer>(changedResourceIds,
+            AGENT_REPORTED_CONFIGURATIONS_BATCH_SIZE);
+        for (List<Integer> batch : batchIterator) {
+            Map<Integer, Configuration> batchLiveConfigs = new HashMap<Integer, Configuration>(batch.size());
+            for (Integer resourceId : batch) {
+                batchLiveConfigs.put(resourceId, liveConfigs.getConfigurations().get(resourceId));
+            }
+
+            Map<Integer, Configuration> persistedConfigs = configurationManager
+                .persistAgentReportedResourceConfigurationsInNewTransaction(batchLiveConfigs);
+            for (Integer resourceId : batch) {
+                Configuration persistedConfig = persistedConfigs.get(resourceId);
+                if (persistedConfig != null) {
+                    currentPersistedConfigs.put(resourceId, persistedConfig);
+                    LOG.info("Live configuration for Resource[id=" + resourceId
                         + "] did not match latest associated ResourceConfigurationUpdate with SUCCESS status.");
                 } else {
                     // this means the live config is identical to the persisted config
-                    currentPersistedConfigs.put(memberResource.getId(), liveConfig);
+                    currentPersistedConfigs.put(resourceId, batchLiveConfigs.get(resourceId));
                 }
             }
         }
@@ -1458,6 +1518,14 @@ public class ConfigurationManagerBean implements ConfigurationManagerLocal, Conf
         int resourceId, Configuration newConfiguration, ConfigurationUpdateStatus newStatus, String newSubject,
         boolean isPartofGroupUpdate) throws ResourceNotFoundException, ConfigurationUpdateStillInProgressException {
 
+        return persistResourceConfigurationUpdate(subject, resourceId, newConfiguration, newStatus, newSubject,
+            isPartofGroupUpdate);
+    }
+
+    private ResourceConfigurationUpdate persistResourceConfigurationUpdate(Subject subject, int resourceId,
+        Configuration newConfiguration, ConfigurationUpdateStatus newStatus, String newSubject,
+        boolean isPartofGroupUpdate) throws ResourceNotFoundException, ConfigurationUpdateStillInProgressException {
+
         ResourceConfigurationUpdate current = null;
         String errorMessage = null;
 
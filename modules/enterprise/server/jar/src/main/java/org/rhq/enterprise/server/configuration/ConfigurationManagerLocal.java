@@ -147,6 +147,20 @@ public interface ConfigurationManagerLocal extends ConfigurationManagerRemote {
         Configuration newConfiguration, ConfigurationUpdateStatus newStatus, String newSubject,
         boolean isPartofGroupUpdate) throws ResourceNotFoundException, ConfigurationUpdateStillInProgressException;
 
+    /**
+     * Persists the live configurations reported by the Agents as the new current configurations of their Resources,
+     * all in the same new transaction. This is the batch counterpart of persisting each of them with
+     * {@link #persistResourceConfigurationUpdateInNewTransaction(Subject, int, Configuration,
+     * ConfigurationUpdateStatus, String, boolean)} as a successful update made by the system.
+     *
+     * @param  liveConfigs the live configurations, keyed on Resource id
+     *
+     * @return the configurations that were persisted, keyed on Resource id; the live configurations identical to the
+     *         current configuration of their Resource are not persisted and are missing from the returned map
+     */
+    Map<Integer, Configuration> persistAgentReportedResourceConfigurationsInNewTransaction(
+        Map<Integer, Configuration> liveConfigs) throws ConfigurationUpdateStillInProgressException;
+
     /**
      * A callback method that is called when an agent has completed updating a resource's configuration.
      *
@@ -287,8 +301,9 @@ public interface ConfigurationManagerLocal extends ConfigurationManagerRemote {
      * @param groupId the id of the compatible group
      * @return
      * @throws ConfigurationUpdateInProgressException if config updates, for the group or any member, are in progress,
-     * @throws Exception if 1) one or more of the group's members are DOWN, or 2) we fail to retrieve one or more member
-     *         live configs from the corresponding Agents
+     * @throws Exception if 1) one or more of the group's members are DOWN, or 2) we fail to retrieve the live config
+     *         of a member that has no persisted config; members whose live config is not retrieved in time, or at
+     *         all, are returned with their persisted config
      */
     Map<Integer, Configuration> getResourceConfigurationsForCompatibleGroup(Subject subject, int groupId)
         throws ConfigurationUpdateStillInProgressException, Exception;
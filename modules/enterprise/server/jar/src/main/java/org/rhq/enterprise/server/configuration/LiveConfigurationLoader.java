@@ -19,77 +19,309 @@
 package org.rhq.enterprise.server.configuration;
 
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.resource.Agent;
 import org.rhq.core.domain.resource.Resource;
-import org.rhq.enterprise.server.auth.SubjectManagerLocal;
+import org.rhq.core.util.exception.ThrowableUtil;
+import org.rhq.enterprise.server.util.LoggingThreadFactory;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
+ * Loads the live configurations of many Resources at once, asking their Agents concurrently. Each Agent is only sent
+ * a few requests at a time, whatever the number of loads in progress, so a large group of Resources managed by the
+ * same Agent does not flood it, and an overall deadline bounds how long the caller waits: the Resources whose live
+ * configuration is not loaded by then are reported as timed out rather than failing the whole load.
+ * <p/>
+ * The requests of all the loads are run by a shared, bounded pool. A load only hands a request to the pool when its
+ * Agent can take it and the pool has room for it, and otherwise waits for a request to complete, so a large load does
+ * not queue up its requests ahead of the requests of the loads that start after it.
+ *
  * @author Ian Springer
  */
 public class LiveConfigurationLoader {
     private static LiveConfigurationLoader ourInstance = new LiveConfigurationLoader();
 
+    /**
+     * The maximum number of live configuration requests sent to the same Agent at the same time, for all the loads.
+     */
+    static final int MAX_CONCURRENT_REQUESTS_PER_AGENT = 4;
+
+    /**
+     * The maximum number of live configuration requests in progress at the same time, for all the loads.
+     */
+    private static final int MAX_CONCURRENT_REQUESTS = 20;
+
+    /**
+     * The maximum number of live configuration requests waiting for a thread of the pool, for all the loads.
+     */
+    private static final int MAX_QUEUED_REQUESTS = 20;
+
     private final Log log = LogFactory.getLog(LiveConfigurationLoader.class);
 
-    private ConfigurationManagerLocal configurationManager = LookupUtil.getConfigurationManager();
-    private SubjectManagerLocal subjectManager = LookupUtil.getSubjectManager();
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Guards {@link #requestsInProgressByAgent}, and is notified each time a request completes.
+     */
+    private final Object lock = new Object();
+
+    private final Map<Integer, Integer> requestsInProgressByAgent = new HashMap<Integer, Integer>();
 
     public static LiveConfigurationLoader getInstance() {
         return ourInstance;
     }
 
     /**
+     * Loads the live configurations of the given Resources, waiting at most for the given timeout. The Resources
+     * whose live configuration could not be loaded, because their Agent failed or did not answer in time, are part
+     * of the returned result along with the reason.
+     *
+     * @param resources the Resources whose live configurations are to be loaded, their Agents must be loaded
+     * @param timeout the number of seconds before this call should stop waiting for the live configurations
      *
-     * @param resources
-     * @param timeout the number of seconds before this call should timeout and
-     * @return
-     * @throws Exception
+     * @return the live configurations that were loaded and the status of those that were not
      */
-    public Map<Integer, Configuration> loadLiveResourceConfigurations(final Set<Resource> resources, long timeout) {
+    public LiveConfigurations loadLiveResourceConfigurations(Set<Resource> resources, long timeout) {
+        log.info("Loading live configs for " + resources.size() + " Resources...");
+        long startTime = System.currentTimeMillis();
+
+        // requests for the Resources of the same Agent are queued so that only a few of them are sent at a time
+        Map<Integer, Queue<Integer>> resourceIdsByAgent = new HashMap<Integer, Queue<Integer>>();
+        for (Resource resource : resources) {
+            Agent agent = resource.getAgent();
+            Integer agentId = (agent != null) ? agent.getId() : 0;
+            Queue<Integer> resourceIds = resourceIdsByAgent.get(agentId);
+            if (resourceIds == null) {
+                resourceIds = new LinkedList<Integer>();
+                resourceIdsByAgent.put(agentId, resourceIds);
+            }
+            resourceIds.add(resource.getId());
+        }
+
+        LiveConfigurationLoad load = new LiveConfigurationLoad(resources.size());
         try {
-            FutureTask<Map<Integer, Configuration>> task = new FutureTask<Map<Integer, Configuration>>(
-                new Callable<Map<Integer, Configuration>>() {
-                    public Map<Integer, Configuration> call() throws Exception {
-                        return loadLiveResourceConfigurations(resources);
-                    }
-                });
-            new Thread(task).start();
-            return task.get(timeout, TimeUnit.SECONDS);
-        } catch (TimeoutException e) {
-            throw new RuntimeException("Timed out after " + timeout
-                + " seconds while retrieving live Resource configurations.");
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to retrieve live Resource configurations.", e);
+            // the requests already sent when the deadline passes are left to complete, but no new ones are sent
+            sendRequests(load, resourceIdsByAgent, startTime + TimeUnit.SECONDS.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-    }
 
-    private Map<Integer, Configuration> loadLiveResourceConfigurations(Set<Resource> resources) throws Exception {
-        log.info("Loading live configs for " + resources.size() + " Resources...");
-        long startTime = System.currentTimeMillis();
-        Map<Integer, Configuration> liveConfigs = new HashMap<Integer, Configuration>();
+        LiveConfigurations result = new LiveConfigurations(new HashMap<Integer, Configuration>(load.configurations),
+            new HashMap<Integer, String>(load.failures));
         for (Resource resource : resources) {
-            Configuration liveConfig = this.configurationManager.getLiveResourceConfiguration(this.subjectManager
-                .getOverlord(), resource.getId(), false);
-            if (liveConfig == null)
-                throw new Exception("Failed to obtain live Resource configuration for " + resource + ".");
-            liveConfigs.put(resource.getId(), liveConfig);
+            if (result.getStatus(resource.getId()) == null) {
+                result.timedOut.add(resource.getId());
+            }
         }
+
         long elapsedTime = System.currentTimeMillis() - startTime;
-        log.info("Loaded live configs for " + resources.size() + " Resources in " + elapsedTime + " ms.");
-        return liveConfigs;
+        log.info("Loaded live configs for " + result.configurations.size() + " of " + resources.size()
+            + " Resources in " + elapsedTime + " ms (" + result.failures.size() + " failed, " + result.timedOut.size()
+            + " timed out after " + timeout + " seconds).");
+        return result;
+    }
+
+    /**
+     * Hands the requests of the load to the pool as their Agents and the pool can take them, until all of them are
+     * completed or the deadline passes.
+     */
+    private void sendRequests(LiveConfigurationLoad load, Map<Integer, Queue<Integer>> resourceIdsByAgent,
+        long deadline) throws InterruptedException {
+        synchronized (lock) {
+            while (load.remaining > 0) {
+                boolean poolFull = false;
+                Iterator<Map.Entry<Integer, Queue<Integer>>> it = resourceIdsByAgent.entrySet().iterator();
+                while (!poolFull && it.hasNext()) {
+                    Map.Entry<Integer, Queue<Integer>> entry = it.next();
+                    Integer agentId = entry.getKey();
+                    Queue<Integer> resourceIds = entry.getValue();
+                    int requestsInProgress = getRequestsInProgress(agentId);
+                    while (!resourceIds.isEmpty() && requestsInProgress < MAX_CONCURRENT_REQUESTS_PER_AGENT) {
+                        try {
+                            executor.execute(new LoadRequest(load, agentId, resourceIds.peek()));
+                        } catch (RejectedExecutionException e) {
+                            // the pool is busy with the requests of other loads
+                            poolFull = true;
+                            break;
+                        }
+                        resourceIds.remove();
+                        requestsInProgressByAgent.put(agentId, ++requestsInProgress);
+                    }
+                    if (resourceIds.isEmpty()) {
+                        it.remove();
+                    }
+                }
+
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return;
+                }
+                lock.wait(wait);
+            }
+        }
+    }
+
+    private int getRequestsInProgress(Integer agentId) {
+        Integer requestsInProgress = requestsInProgressByAgent.get(agentId);
+        return (requestsInProgress != null) ? requestsInProgress : 0;
+    }
+
+    private void requestCompleted(LiveConfigurationLoad load, Integer agentId) {
+        synchronized (lock) {
+            int requestsInProgress = getRequestsInProgress(agentId) - 1;
+            if (requestsInProgress > 0) {
+                requestsInProgressByAgent.put(agentId, requestsInProgress);
+            } else {
+                requestsInProgressByAgent.remove(agentId);
+            }
+            load.remaining--;
+            // wakes up this load, and the other loads waiting for their Agent or for the pool
+            lock.notifyAll();
+        }
+    }
+
+    Configuration loadLiveResourceConfiguration(int resourceId) throws Exception {
+        Configuration liveConfig = LookupUtil.getConfigurationManager().getLiveResourceConfiguration(
+            LookupUtil.getSubjectManager().getOverlord(), resourceId, false);
+        if (liveConfig == null) {
+            throw new Exception("Failed to obtain live Resource configuration for Resource[id=" + resourceId + "].");
+        }
+        return liveConfig;
     }
 
-    private LiveConfigurationLoader() {
+    LiveConfigurationLoader() {
+        executor = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS), new LoggingThreadFactory("LiveConfigurationLoader",
+                true));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The state of one call to {@link LiveConfigurationLoader#loadLiveResourceConfigurations(Set, long)}, shared by
+     * the requests loading the live configurations.
+     */
+    private static class LiveConfigurationLoad {
+        private final Map<Integer, Configuration> configurations = new ConcurrentHashMap<Integer, Configuration>();
+        private final Map<Integer, String> failures = new ConcurrentHashMap<Integer, String>();
+        // guarded by the lock of the loader
+        private int remaining;
+
+        LiveConfigurationLoad(int count) {
+            remaining = count;
+        }
+    }
+
+    /**
+     * Loads the live configuration of one Resource.
+     */
+    private class LoadRequest implements Runnable {
+        private final LiveConfigurationLoad load;
+        private final Integer agentId;
+        private final Integer resourceId;
+
+        LoadRequest(LiveConfigurationLoad load, Integer agentId, Integer resourceId) {
+            this.load = load;
+            this.agentId = agentId;
+            this.resourceId = resourceId;
+        }
+
+        public void run() {
+            try {
+                load.configurations.put(resourceId, loadLiveResourceConfiguration(resourceId));
+            } catch (Throwable t) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to load live configuration for Resource[id=" + resourceId + "]", t);
+                }
+                load.failures.put(resourceId, ThrowableUtil.getAllMessages(t));
+            } finally {
+                requestCompleted(load, agentId);
+            }
+        }
+    }
+
+    /**
+     * The live configurations loaded by {@link LiveConfigurationLoader#loadLiveResourceConfigurations(Set, long)},
+     * along with the Resources whose live configuration could not be loaded.
+     */
+    public static class LiveConfigurations {
+        /**
+         * What became of the request for the live configuration of a Resource.
+         */
+        public enum Status {
+            LOADED, FAILED, TIMED_OUT
+        }
+
+        private final Map<Integer, Configuration> configurations;
+        private final Map<Integer, String> failures;
+        private final Set<Integer> timedOut = new HashSet<Integer>();
+
+        LiveConfigurations(Map<Integer, Configuration> configurations, Map<Integer, String> failures) {
+            this.configurations = configurations;
+            this.failures = failures;
+            // a live configuration may have been loaded just as the load was failing for another reason
+            this.failures.keySet().removeAll(configurations.keySet());
+        }
+
+        /**
+         * @return the live configurations that were loaded, keyed on Resource id
+         */
+        public Map<Integer, Configuration> getConfigurations() {
+            return configurations;
+        }
+
+        /**
+         * @return the reason the live configuration of each failed Resource could not be loaded, keyed on Resource id
+         */
+        public Map<Integer, String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the ids of the Resources whose live configuration was not loaded before the deadline
+         */
+        public Set<Integer> getTimedOut() {
+            return timedOut;
+        }
+
+        /**
+         * @param resourceId the id of a Resource whose live configuration was asked for
+         *
+         * @return what became of the request for the live configuration of the Resource, <code>null</code> if it was
+         *         not asked for
+         */
+        public Status getStatus(int resourceId) {
+            if (configurations.containsKey(resourceId)) {
+                return Status.LOADED;
+            } else if (failures.containsKey(resourceId)) {
+                return Status.FAILED;
+            } else if (timedOut.contains(resourceId)) {
+                return Status.TIMED_OUT;
+            }
+            return null;
+        }
+
+        /**
+         * @return the ids of the Resources whose live configuration was not loaded, whatever the reason
+         */
+        public Set<Integer> getNotLoaded() {
+            Set<Integer> notLoaded = new HashSet<Integer>(failures.keySet());
+            notLoaded.addAll(timedOut);
+            return notLoaded;
+        }
     }
 }
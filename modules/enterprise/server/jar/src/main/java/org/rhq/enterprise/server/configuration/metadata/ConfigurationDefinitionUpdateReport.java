@@ -38,6 +38,8 @@ public class ConfigurationDefinitionUpdateReport {
 
     private Set<PropertyDefinition> updatedPropertyDefs = new HashSet<PropertyDefinition>();
 
+    private Set<PropertyDefinition> newlyRequiredPropertyDefs = new HashSet<PropertyDefinition>();
+
     public ConfigurationDefinitionUpdateReport(ConfigurationDefinition configurationDefinition) {
         configurationDef = configurationDefinition;
     }
@@ -66,4 +68,42 @@ public class ConfigurationDefinitionUpdateReport {
         return updatedPropertyDefs;
     }
 
+    /**
+     * Records an updated property definition, noting whether it was required before the update.
+     *
+     * @param propertyDef the new property definition
+     * @param wasRequired whether the existing property definition it updates was required
+     */
+    public void addUpdatedPropertyDefinition(PropertyDefinition propertyDef, boolean wasRequired) {
+        addUpdatedPropertyDefinition(propertyDef);
+        if ((propertyDef instanceof PropertyDefinitionSimple) && propertyDef.isRequired() && !wasRequired) {
+            newlyRequiredPropertyDefs.add(propertyDef);
+        }
+    }
+
+    /**
+     * @return the updated property definitions that are required now but were not before the update
+     */
+    public Set<PropertyDefinition> getNewlyRequiredPropertyDefinitions() {
+        return newlyRequiredPropertyDefs;
+    }
+
+    /**
+     * Tells whether the configurations conforming to the definition may be missing a value they now require, that
+     * is whether a required property was added or an existing property became required.
+     *
+     * @return true if the existing configurations need to be checked for missing required values
+     */
+    public boolean isRequiredPropertyAdded() {
+        if (!newlyRequiredPropertyDefs.isEmpty()) {
+            return true;
+        }
+        for (PropertyDefinition propertyDef : newPropertyDefs) {
+            if (propertyDef.isRequired()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 }
@@ -75,8 +75,9 @@ public class ConfigurationMetadataManagerBean implements ConfigurationMetadataMa
                 if (existingProp != null) {
                     log.debug("Updating nonGrouped property [" + existingProp + "]");
 
+                    boolean wasRequired = existingProp.isRequired();
                     updatePropertyDefinition(existingProp, newProperty);
-                    updateReport.addUpdatedPropertyDefinition(newProperty);
+                    updateReport.addUpdatedPropertyDefinition(newProperty, wasRequired);
                 } else {
                     log.debug("Adding nonGrouped property [" + newProperty + "]");
 
@@ -136,8 +137,9 @@ public class ConfigurationMetadataManagerBean implements ConfigurationMetadataMa
                 if (existingProperty != null) {
                     log.debug("Updating property [" + nDef + "] in group [" + group + "]");
 
+                    boolean wasRequired = existingProperty.isRequired();
                     updatePropertyDefinition(existingProperty, nDef);
-                    updateReport.addUpdatedPropertyDefinition(nDef);
+                    updateReport.addUpdatedPropertyDefinition(nDef, wasRequired);
 
                 } else {
                     log.debug("Adding property [" + nDef + "] to group [" + group + "]");
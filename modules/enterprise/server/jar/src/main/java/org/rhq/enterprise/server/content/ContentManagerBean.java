@@ -34,6 +34,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -149,6 +150,17 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
 
     private static final String TMP_FILE_SUFFIX = ".bin";
 
+    /**
+     * If true, package versions whose uploaded content is identical (same SHA-256 and size) share one copy of the
+     * bits in the database.
+     */
+    private static final boolean SHARE_PACKAGE_BITS = Boolean.valueOf(System.getProperty(
+        "rhq.server.content.share-package-bits", "true"));
+
+    // the placeholder content of bits that are not loaded yet, such bits are never shared
+    private static final String EMPTY_BLOB_SHA256 = new MessageDigestGenerator(MessageDigestGenerator.SHA_256)
+        .calcDigestString(PackageBits.EMPTY_BLOB);
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
@@ -650,20 +662,23 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
 
         List <Package> packages = query.getResultList();
         for(Package pkg: packages) {
-            List<Integer> needUnlink = contentManager.purgePackageBits(pkg.getId());
-            if (DatabaseTypeFactory.isPostgres(DatabaseTypeFactory.getDefaultDatabaseType())) {
-                for(Integer bitId: needUnlink){
-                    contentManager.unlinkBlob(bitId);
-                }
-            }
+            contentManager.purgePackageBits(pkg.getId());
         }
+        // this also unlinks the postgres large objects of the released bits
         contentManager.removeOrphanedPackageBits();
     }
 
     @TransactionAttribute(TransactionAttributeType.REQUIRED)
     public void removeOrphanedPackageBits(){
-        Query deleteBitsQuery = entityManager.createNamedQuery(PackageBits.DELETE_IF_NO_PACKAGE_VERSION);
-        deleteBitsQuery.executeUpdate();
+        // Bits are not removed together with their package versions because they may be shared. Delete them one by
+        // one so that the postgres large objects are unlinked as well.
+        entityManager.flush();
+        Query query = entityManager.createNamedQuery(PackageBits.QUERY_FIND_UNUSED_IDS);
+        @SuppressWarnings("unchecked")
+        List<Integer> unused = query.getResultList();
+        for (Integer bitsId : unused) {
+            deletePackageBitsIfUnused(bitsId);
+        }
     }
 
 
@@ -707,11 +722,20 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
             }
 
             /* Set to null all other versions */
+            Set<Integer> released = new HashSet<Integer>();
             for (PackageVersion pv:versions) {
-                needUnlinking.add(pv.getPackageBits().getId());
+                released.add(pv.getPackageBits().getId());
                 pv.setPackageBits(null);
                 entityManager.merge(pv);
             }
+            entityManager.flush();
+
+            /* Bits may be shared with other versions, those must stay */
+            for (Integer bitsId : released) {
+                if (countPackageVersions(bitsId) == 0) {
+                    needUnlinking.add(bitsId);
+                }
+            }
         }
         return needUnlinking;
     }
@@ -785,9 +809,17 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
     @Override
     @RequiredPermission(Permission.MANAGE_INVENTORY)
     public void deletePackageVersion(Subject subject, int packageVersionId) {
+        PackageVersion packageVersion = entityManager.find(PackageVersion.class, packageVersionId);
+        PackageBits bits = (null != packageVersion) ? packageVersion.getPackageBits() : null;
+
         Query q = entityManager.createNamedQuery(PackageVersion.DELETE_SINGLE_IF_NO_CONTENT_SOURCES_OR_REPOS);
         q.setParameter("packageVersionId", packageVersionId);
-        q.executeUpdate();
+        int deleted = q.executeUpdate();
+
+        // the bits are not removed with the package version, they may be shared
+        if (deleted > 0 && null != bits) {
+            deletePackageBitsIfUnused(bits.getId());
+        }
     }
 
     @Override
@@ -1925,12 +1957,9 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
             entityManager.persist(packageVersion);
         }
 
-        // We are going to replace the package bits a bit later
-        // before it happen lets purge the BLOB to avoid leaks
-        if (packageVersion.getPackageBits() != null &&
-                DatabaseTypeFactory.isPostgres(DatabaseTypeFactory.getDefaultDatabaseType())) {
-            contentManager.unlinkBlob(packageVersion.getPackageBits().getId());
-        }
+        // We are going to replace the package bits a bit later, the replaced bits are deleted afterwards to avoid
+        // leaks unless another package version shares them
+        PackageBits replacedBits = packageVersion.getPackageBits();
 
         //get the data
         Map<String, String> contentDetails = new HashMap<String, String>();
@@ -1960,6 +1989,10 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
 
         entityManager.flush();
 
+        if (null != replacedBits && replacedBits.getId() != bits.getId()) {
+            deletePackageBitsIfUnused(replacedBits.getId());
+        }
+
         return packageVersion;
 
     }
@@ -1985,12 +2018,26 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
     private PackageBits loadPackageBits(InputStream packageBitStream, int packageVersionId, String packageName,
         String packageVersion, PackageBits existingBits, Map<String, String> contentDetails) {
 
+        // the digest is needed to find identical content stored for other package versions
+        if (null == contentDetails) {
+            contentDetails = new HashMap<String, String>();
+        }
+
+        PackageBits bits;
         // If/When H2 handles blob update/streaming blobs we can get rid of this conditional code
         if (DatabaseTypeFactory.isH2(DatabaseTypeFactory.getDefaultDatabaseType())) {
-            return loadPackageBitsH2(packageBitStream, packageVersionId, packageName, packageVersion, existingBits,
+            bits = loadPackageBitsH2(packageBitStream, packageVersionId, packageName, packageVersion, existingBits,
                 contentDetails);
+        } else {
+            bits = loadPackageBitsStreamed(packageBitStream, packageVersionId, existingBits, contentDetails);
         }
 
+        return shareIdenticalPackageBits(packageVersionId, bits, contentDetails);
+    }
+
+    private PackageBits loadPackageBitsStreamed(InputStream packageBitStream, int packageVersionId,
+        PackageBits existingBits, Map<String, String> contentDetails) {
+
         // use existing or instantiate PackageBits instance.
         PackageBits bits = (null == existingBits) ? initializePackageBits(null) : existingBits;
 
@@ -2057,10 +2104,257 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
                 throw new RuntimeException("Failed to calculate SHA256 for package bits: ", e);
             }
         }
+        updateContentDigest(bits.getId(), contentDetails);
+
+        return bits;
+    }
+
+    /**
+     * If the content just stored for the package version is already stored for another package version, point the
+     * package version at the existing bits and delete the new copy. The content is compared with the digest the
+     * server computed over the stored bits, not with the digest reported for the other package versions.
+     *
+     * @param packageVersionId the package version the bits were loaded for
+     * @param bits the freshly loaded bits
+     * @param contentDetails the size and SHA-256 computed while loading the bits
+     * @return the bits the package version refers to now
+     */
+    private PackageBits shareIdenticalPackageBits(int packageVersionId, PackageBits bits,
+        Map<String, String> contentDetails) {
+        String sha256 = contentDetails.get(UPLOAD_SHA256);
+        String fileSize = contentDetails.get(UPLOAD_FILE_SIZE);
+        if (!SHARE_PACKAGE_BITS || null == sha256 || null == fileSize
+            || isEmptyBlob(sha256, Long.parseLong(fileSize))) {
+            return bits;
+        }
+
+        Query query = entityManager.createNamedQuery(PackageBits.QUERY_FIND_BY_CONTENT);
+        query.setParameter("sha256", sha256);
+        query.setParameter("size", Long.valueOf(fileSize));
+        query.setMaxResults(2);
+        @SuppressWarnings("unchecked")
+        List<PackageBits> identical = query.getResultList();
+        for (PackageBits shared : identical) {
+            if (shared.getId() == bits.getId()) {
+                continue;
+            }
 
+            PackageVersion pv = entityManager.find(PackageVersion.class, packageVersionId);
+            if (null != pv) {
+                pv.setPackageBits(shared);
+            }
+            entityManager.flush();
+            deletePackageBitsIfUnused(bits.getId());
+
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Package version [" + packageVersionId + "] shares the identical package bits ["
+                    + shared.getId() + "]");
+            }
+            return shared;
+        }
         return bits;
     }
 
+    /**
+     * Records the SHA-256 and size the server computed over the content stored for the bits, or forgets them if the
+     * content details are null. Bits holding the EMPTY_BLOB placeholder get no digest, so they are never shared.
+     */
+    private void updateContentDigest(Connection conn, int bitsId, Map<String, String> contentDetails)
+        throws SQLException {
+        String sha256 = (null != contentDetails) ? contentDetails.get(UPLOAD_SHA256) : null;
+        String size = (null != contentDetails) ? contentDetails.get(UPLOAD_FILE_SIZE) : null;
+
+        PreparedStatement ps = conn.prepareStatement("UPDATE " + PackageBits.TABLE_NAME
+            + " SET CONTENT_SHA256 = ?, CONTENT_SIZE = ? WHERE ID = ?");
+        try {
+            if (null == sha256 || null == size || isEmptyBlob(sha256, Long.parseLong(size))) {
+                ps.setNull(1, Types.VARCHAR);
+                ps.setNull(2, Types.BIGINT);
+            } else {
+                ps.setString(1, sha256);
+                ps.setLong(2, Long.parseLong(size));
+            }
+            ps.setInt(3, bitsId);
+            ps.executeUpdate();
+        } finally {
+            JDBCUtil.safeClose(ps);
+        }
+    }
+
+    private void updateContentDigest(int bitsId, Map<String, String> contentDetails) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            updateContentDigest(conn, bitsId, contentDetails);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to update the digest of package bits [" + bitsId + "]", e);
+        } finally {
+            JDBCUtil.safeClose(conn);
+        }
+    }
+
+    private static boolean isEmptyBlob(String sha256, long size) {
+        return size == PackageBits.EMPTY_BLOB.length() && EMPTY_BLOB_SHA256.equals(sha256);
+    }
+
+    private long countPackageVersions(int bitsId) {
+        Query query = entityManager.createNamedQuery(PackageBits.QUERY_COUNT_PACKAGE_VERSIONS);
+        query.setParameter("id", bitsId);
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
+    /**
+     * Deletes the bits, including the postgres large object holding their content, in the current transaction if no
+     * package version refers to them. The persistence context must have been flushed.
+     */
+    private void deletePackageBitsIfUnused(int bitsId) {
+        if (countPackageVersions(bitsId) > 0) {
+            return;
+        }
+
+        Connection conn = null;
+        PreparedStatement ps = null;
+        try {
+            conn = dataSource.getConnection();
+            if (DatabaseTypeFactory.isPostgres(DatabaseTypeFactory.getDefaultDatabaseType())) {
+                ps = conn.prepareStatement("SELECT lo_unlink(BITS) FROM " + PackageBits.TABLE_NAME
+                    + " WHERE ID = ? AND BITS IS NOT NULL");
+                ps.setInt(1, bitsId);
+                ps.execute();
+                ps.close();
+            }
+            ps = conn.prepareStatement("DELETE FROM " + PackageBits.TABLE_NAME + " WHERE ID = ?");
+            ps.setInt(1, bitsId);
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to delete package bits [" + bitsId + "]", e);
+        } finally {
+            JDBCUtil.safeClose(conn, ps, null);
+        }
+
+        // the row is gone, make sure the entities mapped to it are never written back
+        PackageBits bits = entityManager.find(PackageBits.class, bitsId);
+        if (null != bits) {
+            entityManager.detach(bits);
+        }
+        PackageBitsBlob blob = entityManager.find(PackageBitsBlob.class, bitsId);
+        if (null != blob) {
+            entityManager.detach(blob);
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NEVER)
+    public void deduplicatePackageBits() {
+        // bits stored before their digest was kept are only compared once it was computed over their content
+        Query query = entityManager.createNamedQuery(PackageBits.QUERY_FIND_UNVERIFIED_DUPLICATE_CANDIDATES);
+        @SuppressWarnings("unchecked")
+        List<Integer> unverified = query.getResultList();
+        for (Integer bitsId : unverified) {
+            try {
+                contentManager.computePackageBitsDigest(bitsId);
+            } catch (Exception e) {
+                LOG.warn("Failed to compute the digest of package bits [" + bitsId + "]: " + e.getMessage());
+            }
+        }
+
+        query = entityManager.createNamedQuery(PackageBits.QUERY_FIND_DUPLICATED_CONTENT);
+        @SuppressWarnings("unchecked")
+        List<Object[]> duplicated = query.getResultList();
+        int released = 0;
+        for (Object[] content : duplicated) {
+            try {
+                released += contentManager.deduplicatePackageBits((String) content[0], (Long) content[1]);
+            } catch (Exception e) {
+                LOG.warn("Failed to share package bits with SHA-256 [" + content[0] + "]: " + e.getMessage());
+            }
+        }
+        if (released > 0) {
+            LOG.info("Released [" + released + "] duplicate copies of package bits");
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public void computePackageBitsDigest(int packageBitsId) {
+        Connection conn = null;
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        try {
+            conn = dataSource.getConnection();
+            ps = conn.prepareStatement("SELECT BITS FROM " + PackageBits.TABLE_NAME + " WHERE ID = ?");
+            ps.setInt(1, packageBitsId);
+            rs = ps.executeQuery();
+            if (!rs.next()) {
+                return;
+            }
+            Blob blob = rs.getBlob(1);
+            if (null == blob) {
+                return;
+            }
+
+            MessageDigestGenerator digestGenerator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+            long size = 0;
+            InputStream stream = blob.getBinaryStream();
+            try {
+                byte[] buffer = new byte[32768];
+                for (int bytesRead = stream.read(buffer); bytesRead != -1; bytesRead = stream.read(buffer)) {
+                    digestGenerator.add(buffer, 0, bytesRead);
+                    size += bytesRead;
+                }
+            } finally {
+                StreamUtil.safeClose(stream);
+            }
+
+            Map<String, String> contentDetails = new HashMap<String, String>();
+            contentDetails.put(UPLOAD_SHA256, digestGenerator.getDigestString());
+            contentDetails.put(UPLOAD_FILE_SIZE, String.valueOf(size));
+            updateContentDigest(conn, packageBitsId, contentDetails);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to compute the digest of package bits [" + packageBitsId + "]", e);
+        } finally {
+            JDBCUtil.safeClose(conn, ps, rs);
+        }
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+    public int deduplicatePackageBits(String sha256, long fileSize) {
+        if (isEmptyBlob(sha256, fileSize)) {
+            return 0;
+        }
+
+        Query query = entityManager.createNamedQuery(PackageBits.QUERY_FIND_BY_CONTENT);
+        query.setParameter("sha256", sha256);
+        query.setParameter("size", fileSize);
+        @SuppressWarnings("unchecked")
+        List<PackageBits> identical = query.getResultList();
+        if (identical.size() < 2) {
+            return 0;
+        }
+
+        // keep the oldest copy
+        PackageBits shared = identical.get(0);
+        List<Integer> duplicates = new ArrayList<Integer>();
+        for (PackageBits bits : identical.subList(1, identical.size())) {
+            duplicates.add(bits.getId());
+        }
+
+        query = entityManager.createNamedQuery(PackageBits.QUERY_FIND_PACKAGE_VERSIONS);
+        query.setParameter("ids", duplicates);
+        @SuppressWarnings("unchecked")
+        List<PackageVersion> versions = query.getResultList();
+        for (PackageVersion pv : versions) {
+            pv.setPackageBits(shared);
+        }
+        entityManager.flush();
+
+        for (Integer bitsId : duplicates) {
+            deletePackageBitsIfUnused(bitsId);
+        }
+        return duplicates.size();
+    }
+
     /**
      * This creates a new PackageBits entity initialized to EMPTY_BLOB for the associated PackageBitsBlob.
      * Note that PackageBits and PackageBitsBlob are two entities that *share* the same db row.  This is
@@ -2090,6 +2384,8 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
             PackageBitsBlob blob = entityManager.find(PackageBitsBlob.class, bits.getId());
             // don't bother testing for null, that may pull a large blob, just make sure it's not null
             blob.setBits(PackageBits.EMPTY_BLOB.getBytes());
+            // the content is replaced, its digest no longer applies
+            updateContentDigest(bits.getId(), null);
         }
 
         // write to the db and return the new PackageBits and associated PackageBitsBlob
@@ -2113,6 +2409,11 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
             return; // no stream content to update.
         }
 
+        // the digest of the stored content is always kept with the bits
+        if (null == contentDetails) {
+            contentDetails = new HashMap<String, String>();
+        }
+
         bits = initializePackageBits(bits);
 
         //locate the existing PackageBitsBlob instance
@@ -2158,6 +2459,7 @@ public class ContentManagerBean implements ContentManagerLocal, ContentManagerRe
             } finally {
                 rs.close();
             }
+            updateContentDigest(conn, bits.getId(), contentDetails);
             ps.close();
             conn.close();
         } catch (Exception e) {
@@ -375,7 +375,26 @@ public interface ContentManagerLocal extends ContentManagerRemote {
 
     // used solely for Tx demarcation
     void unlinkBlob(Integer bitId);
+
+    /**
+     * Deletes the package bits no package version refers to anymore, including their postgres large objects. Bits
+     * are not removed together with their package versions because they may be shared, so this must be called after
+     * package versions were deleted.
+     */
     void removeOrphanedPackageBits();
 
     void removeHistoryDeploymentsBits();
+
+    /**
+     * Makes package versions with identical content (same SHA-256 and size of the stored bits) share a single copy
+     * of their package bits and deletes the other copies. New content is shared as it is uploaded, this takes care of
+     * content stored before that, computing the digest of the stored bits first where it is not known yet.
+     */
+    void deduplicatePackageBits();
+
+    // used solely for Tx demarcation
+    void computePackageBitsDigest(int packageBitsId);
+
+    // used solely for Tx demarcation
+    int deduplicatePackageBits(String sha256, long fileSize);
 }
@@ -193,7 +193,7 @@ public class ContentSourceManagerBean implements ContentSourceManagerLocal {
             .executeUpdate();
 
         // remove the package bits corresponding to the orphaned package versions we just deleted
-        entityManager.createNamedQuery(PackageBits.DELETE_IF_NO_PACKAGE_VERSION).executeUpdate();
+        contentManager.removeOrphanedPackageBits();
 
         // flush our bulk deletes
         entityManager.flush();
@@ -1562,6 +1562,11 @@ public class ContentSourceManagerBean implements ContentSourceManagerLocal {
             }
         }
 
+        // the bits of the deleted package versions are not removed with them
+        if (removeCount > 0) {
+            contentManager.removeOrphanedPackageBits();
+        }
+
         progress.append("...").append(removeCount).append('\n');
         syncResults.setResults(progress.toString());
         syncResults = repoManager.mergeRepoSyncResults(syncResults);
@@ -117,6 +117,9 @@ public class RepoManagerBean implements RepoManagerLocal, RepoManagerRemote {
     @EJB
     private RepoManagerLocal repoManager;
 
+    @EJB
+    private ContentManagerLocal contentManager;
+
     public void deleteRepo(Subject subject, int repoId) {
         
         if (!authzManager.canUpdateRepo(subject, repoId)) {
@@ -191,7 +194,12 @@ public class RepoManagerBean implements RepoManagerLocal, RepoManagerRemote {
         deletePackageVersions.setParameter("packageVersionIds", deleteableIds);
         
         int deleted = deletePackageVersions.executeUpdate();
-        
+
+        // the bits of the deleted package versions are not removed with them
+        if (deleted > 0) {
+            contentManager.removeOrphanedPackageBits();
+        }
+
         return deleted == packageVersionIds.length;
     }
     
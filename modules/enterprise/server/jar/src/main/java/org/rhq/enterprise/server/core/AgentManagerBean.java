@@ -23,6 +23,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Properties;
@@ -70,10 +72,12 @@ import org.rhq.enterprise.server.authz.AuthorizationManagerLocal;
 import org.rhq.enterprise.server.authz.PermissionException;
 import org.rhq.enterprise.server.authz.RequiredPermission;
 import org.rhq.enterprise.server.cloud.FailoverListManagerLocal;
+import org.rhq.enterprise.server.core.comm.SecurityTokenCommandAuthenticator;
 import org.rhq.enterprise.server.core.comm.ServerCommunicationsServiceMBean;
 import org.rhq.enterprise.server.core.comm.ServerCommunicationsServiceUtil;
 import org.rhq.enterprise.server.measurement.AvailabilityManagerLocal;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
+import org.rhq.enterprise.server.util.BatchIterator;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.enterprise.server.util.LookupUtil;
@@ -262,6 +266,7 @@ public class AgentManagerBean implements AgentManagerLocal, AgentManagerRemote {
         q.executeUpdate();
 
         destroyAgentClient(agent);
+        SecurityTokenCommandAuthenticator.invalidateToken(agent.getAgentToken());
         LOG.info("Removed agent: " + agent);
     }
 
@@ -341,6 +346,7 @@ public class AgentManagerBean implements AgentManagerLocal, AgentManagerRemote {
 
         ServerCommunicationsServiceMBean server_bootstrap = ServerCommunicationsServiceUtil.getService();
         server_bootstrap.removeDownedAgent(downedAgent.getRemoteEndpoint());
+        SecurityTokenCommandAuthenticator.invalidateToken(downedAgent.getAgentToken());
         LOG.info("Agent with name [" + agentName + "] just went down");
 
         agentManager.backfillAgentInNewTransaction(subjectManager.getOverlord(), agentName, downedAgent.getId());
@@ -520,6 +526,18 @@ public class AgentManagerBean implements AgentManagerLocal, AgentManagerRemote {
         return agent;
     }
 
+    @ExcludeDefaultInterceptors
+    @SuppressWarnings("unchecked")
+    public List<String> findValidAgentTokens(Collection<String> tokens) {
+        List<String> validTokens = new ArrayList<String>(tokens.size());
+        Query query = entityManager.createNamedQuery(Agent.QUERY_FIND_AGENT_TOKENS);
+        for (List<String> batch : new BatchIterator<String>(new ArrayList<String>(tokens))) {
+            query.setParameter("agentTokens", batch);
+            validTokens.addAll(query.getResultList());
+        }
+        return validTokens;
+    }
+
     @ExcludeDefaultInterceptors
     public Agent getAgentByName(String agentName) {
         Agent agent;
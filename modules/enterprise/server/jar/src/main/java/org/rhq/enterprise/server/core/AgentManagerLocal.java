@@ -19,6 +19,7 @@
 package org.rhq.enterprise.server.core;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
 
@@ -190,6 +191,16 @@ public interface AgentManagerLocal extends AgentManagerRemote {
      */
     Agent getAgentByAgentToken(String token);
 
+    /**
+     * Returns those of the given agent tokens that are still assigned to an agent. Tokens of deleted agents, or
+     * replaced by a new token, are not returned.
+     *
+     * @param  tokens the agent tokens to check
+     *
+     * @return the given tokens that are valid
+     */
+    List<String> findValidAgentTokens(Collection<String> tokens);
+
     /**
      * Given an agent's address and port, this will look up and return the {@link Agent} associated with that address
      * and port. If no agent is found, <code>null</code> is returned.
@@ -59,6 +59,7 @@ import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.cloud.FailoverListManagerLocal;
 import org.rhq.enterprise.server.cloud.PartitionEventManagerLocal;
 import org.rhq.enterprise.server.cloud.instance.ServerManagerLocal;
+import org.rhq.enterprise.server.core.comm.SecurityTokenCommandAuthenticator;
 import org.rhq.enterprise.server.core.comm.ServerCommunicationsServiceMBean;
 import org.rhq.enterprise.server.core.comm.ServerCommunicationsServiceUtil;
 import org.rhq.enterprise.server.util.LookupUtil;
@@ -240,6 +241,7 @@ public class CoreServerServiceImpl implements CoreServerService {
             agentByName.setRemoteEndpoint(request.getRemoteEndpoint());
 
             if (request.getRegenerateToken()) {
+                SecurityTokenCommandAuthenticator.invalidateToken(agentByName.getAgentToken());
                 agentByName.setAgentToken(generateAgentToken());
             }
 
@@ -359,6 +361,7 @@ public class CoreServerServiceImpl implements CoreServerService {
         agent.setServer(server);
         agent.setLastAvailabilityPing(Long.valueOf(System.currentTimeMillis()));
         getAgentManager().updateAgent(agent);
+        SecurityTokenCommandAuthenticator.tokenValidated(agent.getAgentToken());
 
         getAlertConditionCacheManager().reloadCachesForAgent(agent.getId());
 
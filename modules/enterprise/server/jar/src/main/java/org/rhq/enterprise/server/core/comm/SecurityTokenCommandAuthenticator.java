@@ -18,8 +18,21 @@
  */
 package org.rhq.enterprise.server.core.comm;
 
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.rhq.core.clientapi.server.core.CoreServerService;
 import org.rhq.core.domain.resource.Agent;
@@ -28,12 +41,25 @@ import org.rhq.enterprise.communications.command.Command;
 import org.rhq.enterprise.communications.command.impl.remotepojo.RemotePojoInvocationCommand;
 import org.rhq.enterprise.communications.command.server.CommandAuthenticator;
 import org.rhq.enterprise.server.core.AgentManagerLocal;
+import org.rhq.enterprise.server.util.LoggingThreadFactory;
 import org.rhq.enterprise.server.util.LookupUtil;
 
 /**
  * This command authenticator implementation is designed to be installed on the JON Server so it can authenticate JON
  * Agents that are sending commands. It performs the necessary checks on the security token found within the command in
  * order to ensure the authenticity of the agent sending the command.
+ * <p/>
+ * Valid tokens are cached. Once a cached token expires, commands carrying it are still accepted while the token is
+ * checked with the database again in the background. The expiry is spread over a minute so that the tokens of agents
+ * that connected at the same time do not all expire together. A token is only checked before accepting the command
+ * when it is not cached, or when its background checks have failed for a long time. Tokens of agents that are deleted,
+ * that get a new token or that shut down are removed from the cache of this server right away, and
+ * {@link #revalidateTokens()} removes them from the caches of the other servers.
+ * <p/>
+ * Note that this fails open while the database cannot be queried: a cached token, including one that was revoked or
+ * replaced by a re-registration through another server in the meantime, keeps being accepted until it was last found
+ * valid 15 minutes (TOKENS_CACHE_HARD_TIMEOUT) ago. Only then are the commands carrying it rejected until the
+ * token can be checked again.
  *
  * @author John Mazzitelli
  */
@@ -46,18 +72,36 @@ public class SecurityTokenCommandAuthenticator implements CommandAuthenticator {
      */
     private static final String CMDCONFIG_PROP_SECURITY_TOKEN = "rhq.security-token";
 
+    private static final Log LOG = LogFactory.getLog(SecurityTokenCommandAuthenticator.class);
+
     /**
-     * A cache keyed on security token strings whose values are the timestamps when the token entries were stored in the
-     * cache.
+     * A cache keyed on security token strings whose values tell when the tokens were last found valid.
      */
-    private static final Map<String, Long> TOKENS_CACHE = new Hashtable<String, Long>();
+    private static final ConcurrentMap<String, CachedToken> TOKENS_CACHE = new ConcurrentHashMap<String, CachedToken>();
 
     /**
-     * Items in the tokens cache will be valid for this amount of milliseconds. After an token grows this old in the
-     * cache, that token's authenticity will again be checked with the database.
+     * Items in the tokens cache will be valid for this amount of milliseconds, less up to a minute of jitter. After a
+     * token grows this old in the cache, that token's authenticity will again be checked with the database in the
+     * background.
      */
     private static final long TOKENS_CACHE_TIMEOUT = 5 * 60 * 1000L;
 
+    private static final int TOKENS_CACHE_TIMEOUT_JITTER = 60 * 1000;
+
+    /**
+     * If a token could not be checked again in the background for this amount of milliseconds, the next command
+     * carrying it waits for the token to be checked with the database.
+     */
+    private static final long TOKENS_CACHE_HARD_TIMEOUT = 3 * TOKENS_CACHE_TIMEOUT;
+
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Checks the expired tokens in the background. A single thread is enough, the tokens expire spread over time.
+     */
+    private static final ThreadPoolExecutor TOKENS_REFRESHER = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(10000), new LoggingThreadFactory("AgentTokenRefresher", true));
+
     /**
      * This is the server service interface that contains the "register agent" API.
      */
@@ -73,6 +117,16 @@ public class SecurityTokenCommandAuthenticator implements CommandAuthenticator {
      */
     private AgentManagerLocal m_agentManager;
 
+    public SecurityTokenCommandAuthenticator() {
+    }
+
+    /**
+     * For tests, uses the given EJB rather than looking it up.
+     */
+    SecurityTokenCommandAuthenticator(AgentManagerLocal agentManager) {
+        m_agentManager = agentManager;
+    }
+
     /**
      * @see CommandAuthenticator#isAuthenticated(Command)
      */
@@ -88,33 +142,131 @@ public class SecurityTokenCommandAuthenticator implements CommandAuthenticator {
         }
 
         // check the validity of the security token
-        long now = System.currentTimeMillis();
-        Long timestamp = TOKENS_CACHE.get(security_token);
-
-        if ((timestamp == null) || ((timestamp.longValue() + TOKENS_CACHE_TIMEOUT) < now)) {
-            try {
-                AgentManagerLocal agentManager = getAgentManager();
-
-                // see if the agent token is valid - note that we do not know if the token is coming
-                // from the particular agent it is assigned to - for true security, SSL certs should be used
-                Agent agent = agentManager.getAgentByAgentToken(security_token);
-                if (agent == null) {
-                    throw new NullPointerException();
-                }
+        long now = currentTimeMillis();
+        CachedToken cachedToken = TOKENS_CACHE.get(security_token);
 
-                TOKENS_CACHE.put(security_token, new Long(now));
+        if ((cachedToken == null) || ((cachedToken.validated + TOKENS_CACHE_HARD_TIMEOUT) < now)) {
+            return validateToken(security_token);
+        }
 
-                // let's take the opportunity to tell the server that this agent is up!
-                agentManager.agentIsAlive(agent);
-            } catch (Exception e) {
-                TOKENS_CACHE.remove(security_token);
-                return false;
+        if ((cachedToken.expires < now) && cachedToken.refreshing.compareAndSet(false, true)) {
+            refreshToken(security_token, cachedToken);
+        }
+
+        return true;
+    }
+
+    /**
+     * Checks the token with the database and caches it if it is valid. The token is removed from the cache only when it
+     * is no longer assigned to an agent; if the database cannot be queried, a cached token is kept so that a transient
+     * failure does not lock out the agents, and it is checked again with a later command.
+     *
+     * @param  token the security token
+     *
+     * @return <code>true</code> if the token is valid
+     */
+    private boolean validateToken(String token) {
+        AgentManagerLocal agentManager;
+        Agent agent;
+        try {
+            agentManager = getAgentManager();
+
+            // see if the agent token is valid - note that we do not know if the token is coming
+            // from the particular agent it is assigned to - for true security, SSL certs should be used
+            agent = agentManager.getAgentByAgentToken(token);
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to check an agent token, keeping its cache entry: " + e);
             }
+            return false;
         }
 
+        if (agent == null) {
+            TOKENS_CACHE.remove(token);
+            return false;
+        }
+
+        TOKENS_CACHE.put(token, new CachedToken(currentTimeMillis()));
+
+        try {
+            // let's take the opportunity to tell the server that this agent is up!
+            agentManager.agentIsAlive(agent);
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to mark agent [" + agent.getName() + "] as alive: " + e);
+            }
+        }
         return true;
     }
 
+    private void refreshToken(final String token, final CachedToken cachedToken) {
+        try {
+            TOKENS_REFRESHER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        validateToken(token);
+                    } finally {
+                        cachedToken.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // too many tokens are waiting to be checked, this one will be tried again with the next command
+            cachedToken.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Caches the token of an agent that was just authenticated by other means, e.g. while the agent connects.
+     *
+     * @param token the security token of the agent
+     */
+    public static void tokenValidated(String token) {
+        if (token != null) {
+            TOKENS_CACHE.put(token, new CachedToken(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Removes a token from the cache of this server, so that the next command carrying it is authenticated against
+     * the database. Call this when the agent is deleted, gets a new token or shuts down.
+     *
+     * @param token the security token of the agent
+     */
+    public static void invalidateToken(String token) {
+        if (token != null) {
+            TOKENS_CACHE.remove(token);
+        }
+    }
+
+    /**
+     * Removes from the cache the tokens that are no longer assigned to an agent, e.g. because the agent was deleted,
+     * or was given a new token, through another server of the cloud. All the cached tokens are checked with a single
+     * query, so this is meant to be called periodically.
+     */
+    public static void revalidateTokens() {
+        if (TOKENS_CACHE.isEmpty()) {
+            return;
+        }
+        revalidateTokens(LookupUtil.getAgentManager());
+    }
+
+    static void revalidateTokens(AgentManagerLocal agentManager) {
+
+        // if the query fails, nothing is removed; entries validated while the query runs are kept
+        Map<String, CachedToken> cachedTokens = new HashMap<String, CachedToken>(TOKENS_CACHE);
+        Set<String> invalidTokens = new HashSet<String>(cachedTokens.keySet());
+        invalidTokens.removeAll(agentManager.findValidAgentTokens(invalidTokens));
+        for (String token : invalidTokens) {
+            TOKENS_CACHE.remove(token, cachedTokens.get(token));
+        }
+
+        if (!invalidTokens.isEmpty() && LOG.isDebugEnabled()) {
+            LOG.debug("Removed [" + invalidTokens.size() + "] agent tokens that are no longer valid from the cache");
+        }
+    }
+
     @Override
     public void setServiceContainer(ServiceContainer serviceContainer) {
         // don't need this, no need to store it
@@ -161,6 +313,20 @@ public class SecurityTokenCommandAuthenticator implements CommandAuthenticator {
         return false;
     }
 
+    /**
+     * @return the current time, can be overridden by tests
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return <code>true</code> if the token is in the cache, for tests
+     */
+    static boolean isCached(String token) {
+        return TOKENS_CACHE.containsKey(token);
+    }
+
     /**
      * Returns the EJB used to authenticate security tokens.
      *
@@ -175,4 +341,26 @@ public class SecurityTokenCommandAuthenticator implements CommandAuthenticator {
 
         return m_agentManager;
     }
+
+    private static final class CachedToken {
+        /**
+         * When the token was found valid.
+         */
+        final long validated;
+
+        /**
+         * When the token is to be checked again.
+         */
+        final long expires;
+
+        /**
+         * Whether the token is being checked again in the background.
+         */
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        CachedToken(long validated) {
+            this.validated = validated;
+            this.expires = validated + TOKENS_CACHE_TIMEOUT - RANDOM.nextInt(TOKENS_CACHE_TIMEOUT_JITTER);
+        }
+    }
 }
\ No newline at end of file
@@ -72,6 +72,7 @@ import org.rhq.enterprise.communications.command.client.ClientRemotePojoFactory;
 import org.rhq.enterprise.communications.command.server.CommandProcessorMetrics.Calltime;
 import org.rhq.enterprise.communications.command.server.discovery.AutoDiscoveryListener;
 import org.rhq.enterprise.communications.util.ConcurrencyManager;
+import org.rhq.enterprise.communications.util.PermitWaitQueue.WaitStatistics;
 import org.rhq.enterprise.communications.util.SecurityUtil;
 import org.rhq.enterprise.server.agentclient.AgentClient;
 import org.rhq.enterprise.server.agentclient.impl.AgentClientImpl;
@@ -731,6 +732,11 @@ public class ServerCommunicationsService implements ServerCommunicationsServiceM
         return getServiceContainerMetricsMBean().getCallTimeDataReceived();
     }
 
+    @Override
+    public Map<String, WaitStatistics> getCommandWaitStatistics() {
+        return getServiceContainerMetricsMBean().getCommandWaitStatistics();
+    }
+
     /**
      * Returns a proxy to the {@link ServiceContainerMetricsMBean} that we wrap. We'll pass through its metrics as part
      * of our interface. We do this because a plugin's service resource is a one-to-one with a single MBean and we want
@@ -113,6 +113,7 @@ import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceTypeManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
 import org.rhq.enterprise.server.resource.metadata.PluginManagerLocal;
+import org.rhq.enterprise.server.rest.RestCacheInvalidator;
 import org.rhq.enterprise.server.system.SystemManagerLocal;
 import org.rhq.enterprise.server.util.LookupUtil;
 
@@ -1590,6 +1591,7 @@ public class DiscoveryBossBean implements DiscoveryBossLocal, DiscoveryBossRemot
         }
 
         updateInventoryStatus(subject, platforms, servers, target);
+        RestCacheInvalidator.resourcesChanged(resourceIds);
     }
 
     private <T> boolean needsUpgrade(T oldValue, T newValue) {
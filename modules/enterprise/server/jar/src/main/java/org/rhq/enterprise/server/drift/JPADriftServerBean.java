@@ -25,12 +25,17 @@ import static org.rhq.core.domain.drift.DriftChangeSetCategory.COVERAGE;
 import static org.rhq.core.domain.drift.DriftFileStatus.LOADED;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.security.DigestInputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -74,6 +79,7 @@ import org.rhq.core.domain.drift.JPADriftFileBits;
 import org.rhq.core.domain.drift.JPADriftSet;
 import org.rhq.core.domain.resource.Resource;
 import org.rhq.core.domain.util.PageList;
+import org.rhq.core.util.MessageDigestGenerator;
 import org.rhq.core.util.StopWatch;
 import org.rhq.core.util.ZipUtil;
 import org.rhq.core.util.file.FileUtil;
@@ -286,6 +292,10 @@ public class JPADriftServerBean implements JPADriftServerLocal {
         if (null == df) {
             throw new IllegalArgumentException("JPADriftFile not found [" + driftFile.getHashId() + "]");
         }
+        // content is keyed by its hash, so if another upload already loaded it there is nothing to write
+        if (LOADED == df.getStatus()) {
+            return;
+        }
         Session session = (Session)entityManager.getDelegate();
         df.setDataSize(numBytes);
         df.setData(session.getLobHelper().createBlob(new BufferedInputStream(data), numBytes));
@@ -506,20 +516,61 @@ public class JPADriftServerBean implements JPADriftServerLocal {
         // turn causes the exception.
         //
         // jsanda
+        //
+        // Entries are spooled one at a time to a temp file (never the whole zip) and the SHA-256 is computed
+        // while spooling. Content that is already LOADED, for example an identical jar uploaded by another agent
+        // after we requested it, is skipped instead of being written to the database again.
 
         String zipFileName = filesZip.getName();
         File tmpDir = new File(System.getProperty("java.io.tmpdir"));
         File dir = FileUtil.createTempDirectory(zipFileName.substring(0, zipFileName.indexOf(".")),null,tmpDir);
         dir.mkdir();
 
-        ZipUtil.unzipFile(filesZip, dir);
-        for (File file : dir.listFiles()) {
-            JPADriftFile driftFile = new JPADriftFile(file.getName());
-            try {
-                JPADriftServer.persistDriftFileData(driftFile, new FileInputStream(file), file.length());
-            } catch (Exception e) {
-                LogFactory.getLog(getClass()).info("Skipping bad drift file", e);
+        int numStored = 0;
+        int numSkipped = 0;
+        StopWatch timer = new StopWatch();
+        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(filesZip)));
+        try {
+            for (ZipEntry zipEntry = zis.getNextEntry(); zipEntry != null; zipEntry = zis.getNextEntry()) {
+                if (zipEntry.isDirectory()) {
+                    continue;
+                }
+
+                String hashId = new File(zipEntry.getName()).getName();
+                if (isDriftFileLoaded(hashId)) {
+                    ++numSkipped;
+                    continue;
+                }
+
+                File file = new File(dir, hashId);
+                try {
+                    String sha256 = spoolZipEntry(zis, file);
+                    if (!hashId.equals(sha256)) {
+                        LOG.warn("Skipping drift file [" + hashId + "], its content hashes to [" + sha256 + "]");
+                        continue;
+                    }
+
+                    InputStream data = new FileInputStream(file);
+                    try {
+                        JPADriftServer.persistDriftFileData(new JPADriftFile(hashId), data, file.length());
+                        ++numStored;
+                    } finally {
+                        StreamUtil.safeClose(data);
+                    }
+                } catch (Exception e) {
+                    LogFactory.getLog(getClass()).info("Skipping bad drift file", e);
+                } finally {
+                    file.delete();
+                }
             }
+        } finally {
+            StreamUtil.safeClose(zis);
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Stored [" + numStored + "] drift files and skipped [" + numSkipped
+                + "] already loaded drift files from [" + zipFileName + "]. Elapsed time=[" + timer.getElapsed()
+                + "]ms");
         }
 
         for (File file : dir.listFiles()) {
@@ -533,6 +584,27 @@ public class JPADriftServerBean implements JPADriftServerLocal {
         }
     }
 
+    private boolean isDriftFileLoaded(String hashId) {
+        JPADriftFile driftFile = entityManager.find(JPADriftFile.class, hashId);
+        return null != driftFile && LOADED == driftFile.getStatus();
+    }
+
+    /**
+     * Copies the current zip entry to the given file, leaving the zip stream open for the next entry.
+     *
+     * @return the SHA-256 of the copied content, in the same form the agent uses for the entry name
+     */
+    private String spoolZipEntry(ZipInputStream zis, File file) throws IOException {
+        MessageDigestGenerator digestGenerator = new MessageDigestGenerator(MessageDigestGenerator.SHA_256);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            StreamUtil.copy(new DigestInputStream(zis, digestGenerator.getMessageDigest()), out, false);
+        } finally {
+            StreamUtil.safeClose(out);
+        }
+        return digestGenerator.getDigestString();
+    }
+
     @Override
     public String getDriftFileBits(String hash) {
         // TODO add security
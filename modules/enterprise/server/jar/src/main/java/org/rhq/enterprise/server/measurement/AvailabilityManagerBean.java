@@ -78,6 +78,7 @@ import org.rhq.enterprise.server.measurement.instrumentation.MeasurementMonitor;
 import org.rhq.enterprise.server.resource.ResourceAvailabilityManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.rest.RestCacheInvalidator;
 import org.rhq.enterprise.server.scheduler.jobs.AlertAvailabilityDurationJob;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
@@ -108,6 +109,9 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         MERGE_BATCH_SIZE = (mergeBatchSize > 999) ? 999 : mergeBatchSize;
     }
 
+    // the sequence numbers of the availability reports received by this server, shared by all the bean instances
+    static private final AvailabilityReportSequence REPORT_SEQUENCE = new AvailabilityReportSequence();
+
     @PersistenceContext(unitName = RHQConstants.PERSISTENCE_UNIT_NAME)
     private EntityManager entityManager;
 
@@ -707,7 +711,8 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
             return true; // even though this report is bogus, do not ask for an immediate full report to avoid unusual infinite recursion due to this error condition
 
         } else if (log.isDebugEnabled()) {
-            log.debug("Agent [" + agentName + "]: processing availability report of size: " + reportSize);
+            log.debug("Agent [" + agentName + "]: processing availability report of size: " + reportSize
+                + ((report.getSequenceNumber() > 0L) ? (", sequence number: " + report.getSequenceNumber()) : ""));
         }
 
         // translate data into Availability objects for downstream processing
@@ -729,6 +734,14 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
                 mergeInfo.setAskForFullReport(true);
             }
 
+            // if a changes-only report of the agent was lost or arrived out of order, the server may have missed
+            // some availability changes
+            if (!REPORT_SEQUENCE.isInSequence(report)) {
+                log.info("Availability report [" + report.getSequenceNumber() + "] of agent [" + agentName
+                    + "] does not follow the last report received; asking for a full report");
+                mergeInfo.setAskForFullReport(true);
+            }
+
             // update the lastAvailReport time and unset the backfill flag if it is set.
             availabilityManager.updateLastAvailabilityReportInNewTransaction(agentToUpdate.intValue());
 
@@ -1047,6 +1060,7 @@ public class AvailabilityManagerBean implements AvailabilityManagerLocal, Availa
         if (currentAvailability != null && currentAvailability.getAvailabilityType() != reported.getAvailabilityType()) {
             currentAvailability.setAvailabilityType(reported.getAvailabilityType());
             entityManager.merge(currentAvailability);
+            RestCacheInvalidator.resourcesChanged(currentAvailability.getResourceId());
 
         } else if (currentAvailability == null) {
             // This should not happen unless the Resource in the report is stale, which can happen in certain
@@ -0,0 +1,67 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.rhq.core.domain.discovery.AvailabilityReport;
+
+/**
+ * Checks that the numbered availability reports of each agent arrive in the order the agent numbered them, without
+ * any missing. An agent numbers every report it sends, and every batch of a large changes-only report. A changes-only
+ * report only makes sense on top of the ones before it, so if one was lost, duplicated or reordered the server asks
+ * the agent for a full report, which resyncs the server and starts the sequence over.
+ * <p/>
+ * The last sequence number of each agent is kept in memory by each server, as the reports of an agent are processed
+ * one at a time by the server the agent is connected to. When an agent fails over to another server, that server does
+ * not know the reports sent to the previous one, so the first changes-only report it gets asks for a full report.
+ * Reports that are not numbered, i.e. sent by older agents or built by the server itself, are not checked.
+ */
+class AvailabilityReportSequence {
+
+    private final Map<String, Long> lastSequenceNumbers = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Records the sequence number of the report of an agent.
+     *
+     * @param report the report received from an agent
+     *
+     * @return false if the report is a changes-only report that does not directly follow the last report of its
+     *         agent, in which case a full report is needed to be sure the availabilities of the agent are up to date
+     */
+    boolean isInSequence(AvailabilityReport report) {
+        long sequenceNumber = report.getSequenceNumber();
+        if (sequenceNumber <= 0L || report.isServerSideReport() || report.getAgentName() == null) {
+            return true;
+        }
+
+        String agentName = report.getAgentName();
+        Long last = lastSequenceNumbers.get(agentName);
+        if (!report.isChangesOnlyReport()) {
+            // a full report replaces whatever the server knew, the agent may also have restarted its numbering
+            lastSequenceNumbers.put(agentName, sequenceNumber);
+            return true;
+        }
+        if (last == null || sequenceNumber > last.longValue()) {
+            lastSequenceNumbers.put(agentName, sequenceNumber);
+        }
+        return last != null && sequenceNumber == last.longValue() + 1L;
+    }
+}
@@ -93,6 +93,7 @@ import org.rhq.enterprise.server.common.PerformanceMonitorInterceptor;
 import org.rhq.enterprise.server.core.AgentManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
+import org.rhq.enterprise.server.rest.RestCacheInvalidator;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.enterprise.server.util.LookupUtil;
@@ -341,16 +342,41 @@ public class MeasurementScheduleManagerBean implements MeasurementScheduleManage
     }
 
     public void createSchedulesForExistingResources(ResourceType type, MeasurementDefinition newDefinition) {
-        List<Resource> resources = type.getResources();
-        if (resources != null) {
-            for (Resource res : resources) {
-                res.setAgentSynchronizationNeeded();
-                MeasurementSchedule sched = new MeasurementSchedule(newDefinition, res);
-                sched.setInterval(newDefinition.getDefaultInterval());
-                entityManager.persist(sched);
-            }
+        // large inventories can have many resources of the type, so rather than loading each of them to persist its
+        // schedule, create all the schedules at once and mark the resources for agent synchronization in bulk
+        entityManager.flush();
+
+        DatabaseType dbType = DatabaseTypeFactory.getDefaultDatabaseType();
+        String insertQueryString;
+        if (dbType instanceof PostgresqlDatabaseType) {
+            insertQueryString = MeasurementSchedule.NATIVE_QUERY_INSERT_SCHEDULES_FOR_DEFINITION_POSTGRES;
+        } else if (dbType instanceof OracleDatabaseType || dbType instanceof H2DatabaseType) {
+            insertQueryString = MeasurementSchedule.NATIVE_QUERY_INSERT_SCHEDULES_FOR_DEFINITION_ORACLE;
+        } else if (dbType instanceof SQLServerDatabaseType) {
+            insertQueryString = MeasurementSchedule.NATIVE_QUERY_INSERT_SCHEDULES_FOR_DEFINITION_SQL_SERVER;
+        } else {
+            throw new IllegalArgumentException("Unknown database type, can't continue: " + dbType);
+        }
+
+        Query insertQuery = entityManager.createNativeQuery(insertQueryString);
+        insertQuery.setParameter("enabled", Boolean.TRUE);
+        insertQuery.setParameter("definitionId", newDefinition.getId());
+        int created = insertQuery.executeUpdate();
+
+        if (created > 0) {
+            Query markResourceQuery = entityManager.createQuery("" //
+                + "UPDATE Resource res " //
+                + "   SET res.mtime = :now " //
+                + " WHERE res.resourceType.id = :resourceTypeId ");
+            markResourceQuery.setParameter("now", System.currentTimeMillis());
+            markResourceQuery.setParameter("resourceTypeId", type.getId());
+            markResourceQuery.executeUpdate();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Created [" + created + "] schedules for new measurement definition [" + newDefinition
+                + "] of existing resources of type [" + type + "]");
         }
-        return;
     }
 
     @RequiredPermission(Permission.MANAGE_SETTINGS)
@@ -463,6 +489,7 @@ public class MeasurementScheduleManagerBean implements MeasurementScheduleManage
             }
             JDBCUtil.bindNTimes(defUpdateStmt, measurementDefinitionIds, i);
             defUpdateStmt.executeUpdate();
+            RestCacheInvalidator.definitionsChanged(measurementDefinitionIds);
 
             if (updateExistingSchedules) {
                 Map<Integer, ResourceMeasurementScheduleRequest> reqMap = new HashMap<Integer, ResourceMeasurementScheduleRequest>();
@@ -19,7 +19,12 @@
 package org.rhq.enterprise.server.operation;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,6 +34,7 @@ import org.quartz.JobExecutionException;
 
 import org.rhq.core.domain.auth.Subject;
 import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.criteria.ResourceOperationHistoryCriteria;
 import org.rhq.core.domain.operation.GroupOperationHistory;
 import org.rhq.core.domain.operation.OperationDefinition;
 import org.rhq.core.domain.operation.OperationHistory;
@@ -57,6 +63,30 @@ public class GroupOperationJob extends OperationJob {
     public static final String DATAMAP_BOOL_HALT_ON_FAILURE = "haltOnFailure";
     public static final int BREAK_VALUE = 1000 * 60 * 60 * 24;
 
+    /**
+     * The maximum number of member operations of a parallel (i.e. not ordered) group operation that are in progress
+     * at the same time. When set, the remaining members are dispatched as earlier ones complete, so that operations
+     * like restarts do not hit every member of a large group at once. 0 (the default) dispatches all members
+     * immediately.
+     */
+    static final int MAX_CONCURRENT_MEMBER_OPERATIONS = Integer.getInteger(
+        "rhq.server.operation.group.max-concurrent", 0);
+
+    /**
+     * When dispatching in windows, the members not yet dispatched are canceled once more than this percentage of the
+     * completed member operations failed. 100 (the default) never stops dispatching.
+     */
+    static final int MAX_FAILURE_PERCENTAGE = Integer.getInteger("rhq.server.operation.group.max-failure-percentage",
+        100);
+
+    /**
+     * The failure rate is not acted upon before this many member operations completed.
+     */
+    private static final int MIN_COMPLETED_FOR_FAILURE_RATE = 10;
+
+    private final int maxConcurrentMemberOperations;
+    private final int maxFailurePercentage;
+
     class ResourceOperationDetailsComposite {
         Resource resource;
         ResourceOperationHistory history;
@@ -84,6 +114,34 @@ public class GroupOperationJob extends OperationJob {
         return GROUP_JOB_NAME_PREFIX + group.getId();
     }
 
+    public GroupOperationJob() {
+        this(MAX_CONCURRENT_MEMBER_OPERATIONS, MAX_FAILURE_PERCENTAGE);
+    }
+
+    GroupOperationJob(int maxConcurrentMemberOperations, int maxFailurePercentage) {
+        this.maxConcurrentMemberOperations = maxConcurrentMemberOperations;
+        this.maxFailurePercentage = maxFailurePercentage;
+    }
+
+    /**
+     * @return the number of windows the members of a group operation are dispatched in, 0 if they are all dispatched
+     *         at once or, for an ordered group operation, one after the other
+     */
+    static int getDispatchWindows(int members, boolean ordered, int maxConcurrentMemberOperations) {
+        if (ordered || (maxConcurrentMemberOperations <= 0) || (members <= maxConcurrentMemberOperations)) {
+            return 0;
+        }
+        return (members + maxConcurrentMemberOperations - 1) / maxConcurrentMemberOperations;
+    }
+
+    /**
+     * @return the time after which the group operation is considered timed out: the operation timeout, once for each
+     *         window the members were dispatched in
+     */
+    static long getGroupOperationTimeout(GroupOperationHistory groupHistory, long operationTimeout) {
+        return operationTimeout * Math.max(1, groupHistory.getDispatchWindows());
+    }
+
     public void execute(JobExecutionContext context) throws JobExecutionException {
         GroupOperationSchedule schedule = null;
         GroupOperationHistory groupHistory;
@@ -111,6 +169,16 @@ public class GroupOperationJob extends OperationJob {
             OperationDefinition op;
             op = operationManager.getSupportedGroupOperation(user, group.getId(), schedule.getOperationName(), false);
 
+            // get the resources to operate on, ordered or not
+            List<Resource> resourcesToOperateOn;
+            if (schedule.getExecutionOrder() != null) {
+                resourcesToOperateOn = schedule.getExecutionOrder();
+            } else {
+                ResourceManagerLocal resourceManager = LookupUtil.getResourceManager();
+                PageControl pageControl = PageControl.getUnlimitedInstance();
+                resourcesToOperateOn = resourceManager.findExplicitResourcesByResourceGroup(user, group, pageControl);
+            }
+
             // first we need to create an INPROGRESS *group* history item
             Configuration parameters = schedule.getParameters();
             if (parameters != null) {
@@ -119,19 +187,13 @@ public class GroupOperationJob extends OperationJob {
 
             groupHistory = new GroupOperationHistory(jobDetail.getName(), jobDetail.getGroup(), user.getName(), op,
                 parameters, group);
+            // the timed out operations sweep, possibly on another server, allows one operation timeout per window
+            int dispatchWindows = getDispatchWindows(resourcesToOperateOn.size(),
+                schedule.getExecutionOrder() != null, maxConcurrentMemberOperations);
+            groupHistory.setDispatchWindows(dispatchWindows);
 
             groupHistory = (GroupOperationHistory) operationManager.updateOperationHistory(user, groupHistory);
 
-            // get the resources to operate on, ordered or not
-            List<Resource> resourcesToOperateOn;
-            if (schedule.getExecutionOrder() != null) {
-                resourcesToOperateOn = schedule.getExecutionOrder();
-            } else {
-                ResourceManagerLocal resourceManager = LookupUtil.getResourceManager();
-                PageControl pageControl = PageControl.getUnlimitedInstance();
-                resourcesToOperateOn = resourceManager.findExplicitResourcesByResourceGroup(user, group, pageControl);
-            }
-
             // now create detail composites from the resource list
             List<ResourceOperationDetailsComposite> resourceComposites = new ArrayList<ResourceOperationDetailsComposite>();
             getUserWithSession(user, true); // refresh our session to reset the timeout clock
@@ -141,9 +203,10 @@ public class GroupOperationJob extends OperationJob {
                     user, nextResourceToOperateOn);
 
                 // create the resource-level history entity for the newly created non-quartz schedule entity
-                // this method also does the persisting
+                // this method also does the persisting. All members of the compatible group share the operation
+                // definition of the group, so there is no need to look it up for every one of them.
                 ResourceOperationHistory resourceHistory = createOperationHistory(resourceSchedule.getJobName(),
-                    resourceSchedule.getJobGroup(), resourceSchedule, groupHistory, operationManager);
+                    resourceSchedule.getJobGroup(), resourceSchedule, groupHistory, op, operationManager);
 
                 // add all three elements to the composite, which will be iterated over below for the bulk of the work
                 resourceComposites.add(new ResourceOperationDetailsComposite(nextResourceToOperateOn, resourceHistory,
@@ -178,7 +241,7 @@ public class GroupOperationJob extends OperationJob {
                         long sleep = 1000L; // quick sleep for fast ops, then slow down
                         long maxSleep = 5000L;
                         do {
-                            Thread.sleep(sleep);
+                            sleep(sleep);
                             sleep = (sleep == maxSleep) ? sleep : sleep + 1000L;
 
                             // it's unlikely but possible that a client program could actually query for, process, and
@@ -222,6 +285,8 @@ public class GroupOperationJob extends OperationJob {
                         }
                     }
                 }
+            } else if (dispatchWindows > 0) {
+                groupHistory = invokeInWindows(resourceComposites, schedule, groupHistory, user, operationManager);
             } else {
                 // send the invocation requests without waiting for each to return
                 for (ResourceOperationDetailsComposite composite : resourceComposites) {
@@ -269,6 +334,116 @@ public class GroupOperationJob extends OperationJob {
         }
     }
 
+    /**
+     * Invokes the member operations keeping at most {@link #MAX_CONCURRENT_MEMBER_OPERATIONS} of them in progress.
+     * The in-progress members are polled with a single query per round rather than one query per member. If the
+     * failure rate of the completed members exceeds {@link #MAX_FAILURE_PERCENTAGE}, the members not yet dispatched
+     * are canceled; the ones already running are left to finish on their agents.
+     */
+    GroupOperationHistory invokeInWindows(List<ResourceOperationDetailsComposite> resourceComposites,
+        GroupOperationSchedule schedule, GroupOperationHistory groupHistory, Subject user,
+        OperationManagerLocal operationManager) throws Exception {
+
+        Iterator<ResourceOperationDetailsComposite> pending = resourceComposites.iterator();
+        Map<Integer, ResourceOperationDetailsComposite> inProgress = new LinkedHashMap<Integer, ResourceOperationDetailsComposite>();
+        int completed = 0;
+        int failed = 0;
+        long start = System.currentTimeMillis();
+        long sleep = 1000L; // quick sleep for fast ops, then slow down
+        long maxSleep = 5000L;
+
+        while (pending.hasNext() || !inProgress.isEmpty()) {
+            while (pending.hasNext() && inProgress.size() < maxConcurrentMemberOperations) {
+                ResourceOperationDetailsComposite composite = pending.next();
+                try {
+                    invokeOperationOnResource(composite, operationManager);
+                    inProgress.put(composite.history.getId(), composite);
+                } catch (Exception e) {
+                    if (e instanceof CancelJobException) {
+                        throw e;
+                    }
+
+                    // failed to even send to the agent, immediately mark the job as failed
+                    groupHistory.setErrorMessage(ThrowableUtil.getStackAsString(e));
+                    groupHistory = (GroupOperationHistory) operationManager.updateOperationHistory(
+                        getUserWithSession(user, true), groupHistory);
+                    ++completed;
+                    ++failed;
+
+                    if (schedule.isHaltOnFailure()) {
+                        throw e;
+                    }
+                }
+            }
+
+            if (!inProgress.isEmpty()) {
+                sleep(sleep);
+                sleep = (sleep == maxSleep) ? sleep : sleep + 1000L;
+
+                ResourceOperationHistoryCriteria criteria = new ResourceOperationHistoryCriteria();
+                criteria.addFilterIds(inProgress.keySet().toArray(new Integer[inProgress.size()]));
+                criteria.clearPaging();
+                List<ResourceOperationHistory> histories = operationManager.findResourceOperationHistoriesByCriteria(
+                    getUserWithSession(user, true), criteria);
+
+                // histories that are gone were handled externally, consider them done
+                Set<Integer> done = new HashSet<Integer>(inProgress.keySet());
+                for (ResourceOperationHistory history : histories) {
+                    if (history.getStatus() == OperationRequestStatus.INPROGRESS) {
+                        done.remove(history.getId());
+                    } else if (history.getStatus() != OperationRequestStatus.SUCCESS) {
+                        ++failed;
+                    }
+                }
+                for (Integer id : done) {
+                    inProgress.remove(id);
+                    ++completed;
+                }
+                if (!done.isEmpty()) {
+                    sleep = 1000L;
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Group operation [" + groupHistory.getJobId() + "]: " + completed + " of "
+                        + resourceComposites.size() + " member operations completed, " + failed + " failed, "
+                        + inProgress.size() + " in progress");
+                }
+            }
+
+            // see the comment on BREAK_VALUE in the ordered execution above
+            if (System.currentTimeMillis() - start > BREAK_VALUE) {
+                log.warn("Group operation [" + groupHistory.getJobId() + "] is still running after "
+                    + BREAK_VALUE + "ms, no longer waiting for its members to complete");
+                cancelPending(pending, "This has been canceled because the group operation took too long.", user,
+                    operationManager);
+                break;
+            }
+
+            if (pending.hasNext() && completed >= MIN_COMPLETED_FOR_FAILURE_RATE
+                && failed * 100L > maxFailurePercentage * (long) completed) {
+                String message = "This has been canceled because " + failed + " of the " + completed
+                    + " resource operations that completed before it failed, which is more than the allowed "
+                    + maxFailurePercentage + "%.";
+                log.warn("Group operation [" + groupHistory.getJobId() + "]: " + failed + " of " + completed
+                    + " member operations failed, canceling the members not yet dispatched");
+                cancelPending(pending, message, user, operationManager);
+            }
+        }
+
+        return groupHistory;
+    }
+
+    private void cancelPending(Iterator<ResourceOperationDetailsComposite> pending, String message, Subject user,
+        OperationManagerLocal operationManager) throws Exception {
+        while (pending.hasNext()) {
+            ResourceOperationDetailsComposite composite = pending.next();
+            composite.history.setErrorMessage(message);
+            composite.history.setStatus(OperationRequestStatus.CANCELED);
+            composite.history = (ResourceOperationHistory) operationManager.updateOperationHistory(
+                getUserWithSession(user, true), composite.history);
+        }
+    }
+
     private ResourceOperationSchedule createScheduleForResource(GroupOperationSchedule schedule, String jobGroup,
         Subject user, Resource resource) throws Exception {
         ResourceOperationSchedule resourceSchedule;
@@ -292,8 +467,12 @@ public class GroupOperationJob extends OperationJob {
         return resourceSchedule;
     }
 
-    private void invokeOperationOnResource(ResourceOperationDetailsComposite composite,
+    void invokeOperationOnResource(ResourceOperationDetailsComposite composite,
         OperationManagerLocal operationManager) throws Exception {
         new ResourceOperationJob().invokeOperationOnResource(composite.schedule, composite.history, operationManager);
     }
+
+    void sleep(long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
 }
\ No newline at end of file
@@ -108,6 +108,18 @@ public abstract class OperationJob implements Job {
         op = operationManager.getSupportedResourceOperation(schedule.getSubject(), schedule.getResource().getId(),
             schedule.getOperationName(), false);
 
+        return createOperationHistory(jobName, jobGroup, schedule, groupHistory, op, operationManager);
+    }
+
+    /**
+     * Same as {@link #createOperationHistory(String, String, ResourceOperationSchedule, GroupOperationHistory,
+     * OperationManagerLocal)} but with the operation definition already known, as it is for all the members of a
+     * compatible group.
+     */
+    protected ResourceOperationHistory createOperationHistory(String jobName, String jobGroup,
+        ResourceOperationSchedule schedule, GroupOperationHistory groupHistory, OperationDefinition op,
+        OperationManagerLocal operationManager) {
+
         // first we need to create an INPROGRESS history item
         Configuration parameters = schedule.getParameters();
         if (parameters != null) {
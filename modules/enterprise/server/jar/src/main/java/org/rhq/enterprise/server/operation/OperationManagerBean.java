@@ -1684,7 +1684,9 @@ public class OperationManagerBean implements OperationManagerLocal, OperationMan
             List<GroupOperationHistory> groupHistories = query.getResultList();
             for (GroupOperationHistory groupHistory : groupHistories) {
 
-                long timeout = getOperationTimeout(groupHistory.getOperationDefinition(), groupHistory.getParameters());
+                // members dispatched in windows get one operation timeout per window, as recorded by the job
+                long timeout = GroupOperationJob.getGroupOperationTimeout(groupHistory,
+                    getOperationTimeout(groupHistory.getOperationDefinition(), groupHistory.getParameters()));
                 if (groupHistory.getDuration() < timeout) {
                     /*
                      * this INPROGRESS group operation has some children that are still INPROGRESS, but since this
@@ -1981,6 +1983,15 @@ public class OperationManagerBean implements OperationManagerLocal, OperationMan
         // if this was a resource invocation that was part of a group operation
         // see if the rest of the group members are done too, if so, close out the group history
         if (groupHistory != null) {
+            // every member completion lands here, so don't load all the member histories of a large group just to
+            // find out that some of them are still running
+            long inProgress = (Long) entityManager
+                .createNamedQuery(ResourceOperationHistory.QUERY_COUNT_IN_PROGRESS_BY_GROUP_OPERATION_HISTORY_ID)
+                .setParameter("groupHistoryId", groupHistory.getId()).getSingleResult();
+            if (inProgress > 0) {
+                return;
+            }
+
             List<ResourceOperationHistory> allResourceHistories = groupHistory.getResourceOperationHistories();
             boolean stillInProgress = false; // assume all are finished
             OperationRequestStatus groupStatus = OperationRequestStatus.SUCCESS; // will be FAILURE if at least one resource operation failed
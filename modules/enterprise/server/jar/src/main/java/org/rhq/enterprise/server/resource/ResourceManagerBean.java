@@ -149,6 +149,7 @@ import org.rhq.enterprise.server.resource.disambiguation.Disambiguator;
 import org.rhq.enterprise.server.resource.group.ResourceGroupDeleteException;
 import org.rhq.enterprise.server.resource.group.ResourceGroupManagerLocal;
 import org.rhq.enterprise.server.rest.ResourceHandlerBean;
+import org.rhq.enterprise.server.rest.RestCacheInvalidator;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.enterprise.server.util.LookupUtil;
@@ -280,7 +281,9 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
         persistedResource.setAgentSynchronizationNeeded();
         persistedResource.setModifiedBy(user.getName());
 
-        return entityManager.merge(persistedResource);
+        Resource updatedResource = entityManager.merge(persistedResource);
+        RestCacheInvalidator.resourcesChanged(updatedResource.getId());
+        return updatedResource;
     }
 
     @Override
@@ -519,6 +522,7 @@ public class ResourceManagerBean implements ResourceManagerLocal, ResourceManage
                 entityManager.flush();
             }
 
+            RestCacheInvalidator.resourcesChanged(toBeDeletedResourceIds);
             return toBeDeletedResourceIds;
 
         } catch (RuntimeException e) {
@@ -91,6 +91,7 @@ import org.rhq.enterprise.server.authz.RequiredPermission;
 import org.rhq.enterprise.server.operation.OperationManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceManagerLocal;
 import org.rhq.enterprise.server.resource.ResourceTypeManagerLocal;
+import org.rhq.enterprise.server.rest.RestCacheInvalidator;
 import org.rhq.enterprise.server.util.CriteriaQueryGenerator;
 import org.rhq.enterprise.server.util.CriteriaQueryRunner;
 import org.rhq.enterprise.server.util.QueryUtility;
@@ -239,6 +240,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             }
         }
 
+        RestCacheInvalidator.groupsChanged(groupId);
         return newlyAttachedGroup;
     }
 
@@ -315,6 +317,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
         q.executeUpdate();
 
         entityManager.remove(group);
+        RestCacheInvalidator.groupsChanged(groupId);
     }
 
     @RequiredPermission(Permission.MANAGE_INVENTORY)
@@ -458,6 +461,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
             addResourcesToGroupImplicit(subject, groupId, batchIds, true, isRecursive);
             addResourcesToGroupExplicit(subject, groupId, batchIds, isRecursive);
         }
+        RestCacheInvalidator.groupsChanged(groupId);
 
         if (setType) {
             try {
@@ -607,6 +611,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
             removeResourcesFromGroup_helper(subject, groupId, batchIdArray, isRecursive);
         }
+        RestCacheInvalidator.groupsChanged(groupId);
 
         if (setType) {
             try {
@@ -708,6 +713,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
             explicitStatement.executeUpdate();
             implicitStatement.executeUpdate();
+            RestCacheInvalidator.groupsChanged(groupId);
         } catch (SQLException sqle) {
             log.error("Error removing group resources", sqle);
             throw new ResourceGroupDeleteException("Error removing group resources: " + sqle.getMessage());
@@ -801,6 +807,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
         if (implicitRecursiveGroupIds.size() == 0) {
             return;
         }
+        RestCacheInvalidator.groupsChanged(implicitRecursiveGroupIds);
 
         /*
          * BFS-construct the resource tree
@@ -1008,6 +1015,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
 
     @TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
     public void setResourceTypeInNewTx(int resourceGroupId) throws ResourceGroupDeleteException {
+        RestCacheInvalidator.groupsChanged(resourceGroupId);
         Query query = entityManager.createNamedQuery(ResourceType.QUERY_GET_EXPLICIT_RESOURCE_TYPE_COUNTS_BY_GROUP);
         query.setParameter("groupId", resourceGroupId);
 
@@ -1897,6 +1905,7 @@ public class ResourceGroupManagerBean implements ResourceGroupManagerLocal, Reso
     }
 
     private ResourceGroup getResourceGroupToBeModified(Subject subject, int groupId) {
+        RestCacheInvalidator.groupsChanged(groupId);
         ResourceGroup group = entityManager.find(ResourceGroup.class, groupId);
 
         if (group == null) {
@@ -23,8 +23,10 @@ import static org.rhq.core.domain.criteria.Criteria.Restriction.COLLECTION_ONLY;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.ejb.EJB;
@@ -51,6 +53,7 @@ import org.rhq.enterprise.server.RHQConstants;
 import org.rhq.enterprise.server.auth.SubjectManagerLocal;
 import org.rhq.enterprise.server.measurement.MeasurementDefinitionManagerLocal;
 import org.rhq.enterprise.server.measurement.MeasurementScheduleManagerLocal;
+import org.rhq.enterprise.server.rest.RestCacheInvalidator;
 
 @Stateless
 public class MeasurementMetadataManagerBean implements MeasurementMetadataManagerLocal {
@@ -100,57 +103,61 @@ public class MeasurementMetadataManagerBean implements MeasurementMetadataManage
                 scheduleMgr.createSchedulesForExistingResources(existingType, newDefinition);
             }
         } else {
-            // Update existing or add new metrics
+            // Update existing or add new metrics, looking the existing definitions up by name rather than scanning
+            // them all for each new definition, types can have hundreds of metrics
+            Map<String, MeasurementDefinition> existingDefinitionsByKey = new HashMap<String, MeasurementDefinition>(
+                existingDefinitions.size());
+            for (MeasurementDefinition existingDefinition : existingDefinitions) {
+                String key = getDefinitionKey(existingDefinition);
+                if (!existingDefinitionsByKey.containsKey(key)) {
+                    existingDefinitionsByKey.put(key, existingDefinition);
+                }
+            }
+
             for (MeasurementDefinition newDefinition : newType.getMetricDefinitions()) {
-                boolean found = false;
-                for (MeasurementDefinition existingDefinition : existingDefinitions) {
-                    if (existingDefinition.getName().equals(newDefinition.getName())
-                        && (existingDefinition.isPerMinute() == newDefinition.isPerMinute())) {
-                        found = true;
-
-                        if (LOG.isDebugEnabled()) {
-                            LOG.debug("Updating existing metric definition: " + existingDefinition);
-                        }
-
-                        // We normally protect the user's interval settings. But the Availability metric is
-                        // a bit special. It's built-in and we know the resource category default values.  If the 
-                        // existing setting is the default, we'll allow it to be changed by the plugin. It's possible 
-                        // the user wants it the old way, and can set it back, but given that avail collection is
-                        // critical to agent perf, we'll assume plugin knows best in this case. This only happens
-                        // if the interval is at the default, a non-default value set by an earlier rev of the
-                        // plugin will not be updated.  
-                        boolean isAvail = MeasurementDefinition.AVAILABILITY_NAME.equals(newDefinition.getName());
-                        long defaultInterval = (ResourceCategory.SERVER == existingDefinition.getResourceType()
-                            .getCategory()) ? MeasurementDefinition.AVAILABILITY_DEFAULT_PERIOD_SERVER
-                            : MeasurementDefinition.AVAILABILITY_DEFAULT_PERIOD_SERVICE;
-                        boolean updateInterval = (isAvail && (defaultInterval == existingDefinition
-                            .getDefaultInterval()));
-                        existingDefinition.update(newDefinition, updateInterval);
-
-                        // we normally do not want to touch interval in case a user changed it,
-                        // but we cannot allow too-short of an interval, so override it if necessary
-                        if (existingDefinition.getDefaultInterval() < MeasurementSchedule.MINIMUM_INTERVAL) {
-                            existingDefinition.setDefaultInterval(MeasurementSchedule.MINIMUM_INTERVAL);
-                            LOG.info("Definition [" + existingDefinition
-                                + "] has too short of a default interval, setting to minimum");
-                        }
-
-                        entityMgr.merge(existingDefinition);
-
-                        // There is nothing in the schedules that need to be updated.
-                        // We do not want to change schedules (such as collection interval)
-                        // because the user might have customized them. So leave them be.
-
-                        break;
+                String key = getDefinitionKey(newDefinition);
+                MeasurementDefinition existingDefinition = existingDefinitionsByKey.get(key);
+                if (existingDefinition != null) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Updating existing metric definition: " + existingDefinition);
                     }
-                }
 
-                if (!found) {
+                    // We normally protect the user's interval settings. But the Availability metric is
+                    // a bit special. It's built-in and we know the resource category default values.  If the 
+                    // existing setting is the default, we'll allow it to be changed by the plugin. It's possible 
+                    // the user wants it the old way, and can set it back, but given that avail collection is
+                    // critical to agent perf, we'll assume plugin knows best in this case. This only happens
+                    // if the interval is at the default, a non-default value set by an earlier rev of the
+                    // plugin will not be updated.  
+                    boolean isAvail = MeasurementDefinition.AVAILABILITY_NAME.equals(newDefinition.getName());
+                    long defaultInterval = (ResourceCategory.SERVER == existingDefinition.getResourceType()
+                        .getCategory()) ? MeasurementDefinition.AVAILABILITY_DEFAULT_PERIOD_SERVER
+                        : MeasurementDefinition.AVAILABILITY_DEFAULT_PERIOD_SERVICE;
+                    boolean updateInterval = (isAvail && (defaultInterval == existingDefinition
+                        .getDefaultInterval()));
+                    existingDefinition.update(newDefinition, updateInterval);
+
+                    // we normally do not want to touch interval in case a user changed it,
+                    // but we cannot allow too-short of an interval, so override it if necessary
+                    if (existingDefinition.getDefaultInterval() < MeasurementSchedule.MINIMUM_INTERVAL) {
+                        existingDefinition.setDefaultInterval(MeasurementSchedule.MINIMUM_INTERVAL);
+                        LOG.info("Definition [" + existingDefinition
+                            + "] has too short of a default interval, setting to minimum");
+                    }
+
+                    entityMgr.merge(existingDefinition);
+                    RestCacheInvalidator.definitionsChanged(existingDefinition.getId());
+
+                    // There is nothing in the schedules that need to be updated.
+                    // We do not want to change schedules (such as collection interval)
+                    // because the user might have customized them. So leave them be.
+                } else {
                     // It's new - create it
                     LOG.info("Metadata update: Adding new " + newDefinition.getDataType().name().toLowerCase() + " definition ["
                             + newDefinition.getDisplayName() + "] to type " + existingType + "...");
                     existingType.addMetricDefinition(newDefinition);
                     entityMgr.persist(newDefinition);
+                    existingDefinitionsByKey.put(key, newDefinition);
 
                     // Now create schedules for already existing resources
                     scheduleMgr.createSchedulesForExistingResources(existingType, newDefinition);
@@ -180,6 +187,13 @@ public class MeasurementMetadataManagerBean implements MeasurementMetadataManage
         // not needed see JBNADM-1639
     }
 
+    /**
+     * An existing definition is updated by the new definition with the same name and the same per minute flag.
+     */
+    private static String getDefinitionKey(MeasurementDefinition definition) {
+        return definition.isPerMinute() + ":" + definition.getName();
+    }
+
     public static Set<MeasurementDefinition> getMetricDefinitions(ResourceType newType) {
         Set<MeasurementDefinition> result = newType.getMetricDefinitions();
         result = (null == result) ? new HashSet<MeasurementDefinition>(1) : result;
@@ -75,8 +75,12 @@ public class PluginConfigurationMetadataManagerBean implements PluginConfigurati
                     .updateConfigurationDefinition(newType.getPluginConfigurationDefinition(),
                         existingConfigurationDefinition);
 
-                if (updateReport.getNewPropertyDefinitions().size() > 0
-                    || updateReport.getUpdatedPropertyDefinitions().size() > 0) {
+                // the existing plugin configurations only need to be looked at if they may be missing a value that is
+                // now required, otherwise a redeploy of the plugin would load every resource of the type for nothing.
+                // Note that a configuration missing the value of a property that was already required before is not
+                // fixed up by the redeploy any more, the property is expected to have been filled in when it became
+                // required.
+                if (updateReport.isRequiredPropertyAdded()) {
 
                     // don't pull/update every resource entity in at this point, do it in batches
                     List<Integer> resourceIds = resourceMgr.findIdsByTypeIds(Arrays.asList(existingType.getId()));
@@ -132,18 +136,17 @@ public class PluginConfigurationMetadataManagerBean implements PluginConfigurati
                 }
             }
 
-            for (PropertyDefinition propertyDef : updateReport.getUpdatedPropertyDefinitions()) {
-                if (propertyDef.isRequired()) {
-                    // we only pull the configuration when an update is needed. The getProperties call
-                    // just ensures the lazy load happens.
-                    Configuration pluginConfiguration = resource.getPluginConfiguration();
-                    int numberOfProperties = pluginConfiguration.getProperties().size();
-                    String propertyValue = pluginConfiguration.getSimpleValue(propertyDef.getName(), null);
-                    if (propertyValue == null) {
-                        Property templateProperty = templateConfiguration.get(propertyDef.getName());
-                        pluginConfiguration.put(templateProperty.deepCopy(false));
-                        modified = true;
-                    }
+            // properties that were already required before the update were filled in when they became required
+            for (PropertyDefinition propertyDef : updateReport.getNewlyRequiredPropertyDefinitions()) {
+                // we only pull the configuration when an update is needed. The getProperties call
+                // just ensures the lazy load happens.
+                Configuration pluginConfiguration = resource.getPluginConfiguration();
+                int numberOfProperties = pluginConfiguration.getProperties().size();
+                String propertyValue = pluginConfiguration.getSimpleValue(propertyDef.getName(), null);
+                if (propertyValue == null) {
+                    Property templateProperty = templateConfiguration.get(propertyDef.getName());
+                    pluginConfiguration.put(templateProperty.deepCopy(false));
+                    modified = true;
                 }
             }
 
@@ -28,19 +28,23 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.ejb.EJB;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
@@ -94,6 +98,17 @@ public class AbstractRestBean {
 
     private static final CacheKey META_KEY = new CacheKey("rhq.rest.resourceMeta", 0);
 
+    /**
+     * How long, in seconds, a REST representation put into the cache is served from it. The REST cache is local to
+     * each server, so this bounds how long a change made through another server of the HA cloud can go unnoticed
+     * here. The other objects in the cache keep the expiration configured for the cache.
+     */
+    private static final long REPRESENTATION_CACHE_LIFESPAN = Long.getLong("rhq.server.rest.cache-lifespan", 60L);
+
+    protected static final String RESOURCE_REPRESENTATION = "rhq.rest.resource";
+    protected static final String GROUP_REPRESENTATION = "rhq.rest.group";
+    protected static final String DEFINITION_REPRESENTATION = "rhq.rest.metricDefinition";
+
     @javax.annotation.Resource( name = "ISPN")
     private CacheContainer container;
     protected Cache<CacheKey, Object> cache;
@@ -226,6 +241,17 @@ public class AbstractRestBean {
      */
     @SuppressWarnings("unchecked")
     protected <T> boolean putToCache(CacheKey key, T o) {
+        return putToCache(key, o, -1L);
+    }
+
+    /**
+     * Put an object into the cache for the given time at most.
+     * @param key Fully qualified name (=path to object)
+     * @param o Object to put
+     * @param lifespan Seconds the object is kept at most, -1 for the expiration configured for the cache
+     * @return true if put was successful
+     */
+    private <T> boolean putToCache(CacheKey key, T o, long lifespan) {
         boolean result = false;
 
         CacheValue value = (CacheValue) cache.get(key);
@@ -236,7 +262,11 @@ public class AbstractRestBean {
             value = new CacheValue(o, caller.getId());
         }
         try {
-            cache.put(key, value);
+            if (lifespan < 0) {
+                cache.put(key, value);
+            } else {
+                cache.put(key, value, lifespan, TimeUnit.SECONDS);
+            }
 
             if (log.isDebugEnabled()) {
                 log.debug("Cache Put " + key);
@@ -271,6 +301,110 @@ public class AbstractRestBean {
         return true;
     }
 
+    /**
+     * Answers a conditional request from the cache: if the caller already has the current version of the
+     * representation cached under the namespace and id, the returned builder produces a "304 Not Modified" response
+     * without any database access.
+     *
+     * @param namespace Namespace of the representation, e.g. {@link #RESOURCE_REPRESENTATION}
+     * @param id Id of the entity
+     * @param request The request with the conditional headers
+     * @return A response builder if the request can be answered from the cache, null otherwise
+     * @see #putRepresentationToCache(String, int, UriInfo, Object, EntityTag, Date)
+     */
+    protected Response.ResponseBuilder evaluatePreconditionsFromCache(String namespace, int id, Request request) {
+        CachedRepresentation cached = getFromCache(new CacheKey(namespace, id), CachedRepresentation.class);
+        if (cached == null) {
+            return null;
+        }
+        return evaluatePreconditions(request, cached);
+    }
+
+    /**
+     * Evaluates the conditional headers of the request against the entity tag and, if known, the last modification
+     * time of the representation.
+     * @param request The request with the conditional headers
+     * @param representation The current representation
+     * @return A response builder for a "304 Not Modified" or "412 Precondition Failed" response, null if the
+     * representation must be sent
+     */
+    protected Response.ResponseBuilder evaluatePreconditions(Request request, CachedRepresentation representation) {
+        Response.ResponseBuilder builder;
+        if (representation.getLastModified() != null) {
+            builder = request.evaluatePreconditions(representation.getLastModified(), representation.getETag());
+        } else {
+            builder = request.evaluatePreconditions(representation.getETag());
+        }
+        if (builder != null) {
+            addValidators(builder, representation);
+        }
+        return builder;
+    }
+
+    /**
+     * Adds the entity tag and, if known, the last modification time of the representation to the response
+     * @param builder The response builder
+     * @param representation The representation sent or confirmed by the response
+     */
+    protected void addValidators(Response.ResponseBuilder builder, CachedRepresentation representation) {
+        builder.tag(representation.getETag());
+        if (representation.getLastModified() != null) {
+            builder.lastModified(representation.getLastModified());
+        }
+    }
+
+    /**
+     * Retrieve a REST representation previously put into the cache by
+     * {@link #putRepresentationToCache(String, int, UriInfo, Object, EntityTag, Date)}. Representations contain
+     * links, so they are only returned if they were created for the same base URI.
+     * @param namespace Namespace of the representation
+     * @param id Id of the entity
+     * @param uriInfo Info about the current request
+     * @param clazz Type of the representation
+     * @return The cached representation or null if not cached or not valid for the current caller
+     */
+    protected CachedRepresentation getRepresentationFromCache(String namespace, int id, UriInfo uriInfo,
+        Class<?> clazz) {
+        CachedRepresentation cached = getFromCache(new CacheKey(namespace, id), CachedRepresentation.class);
+        if (cached == null || !cached.getBaseUri().equals(uriInfo.getBaseUri())
+            || !clazz.isInstance(cached.getEntity())) {
+            return null;
+        }
+        return cached;
+    }
+
+    /**
+     * Put the REST representation of an entity into the cache together with its entity tag, so that later
+     * conditional and unconditional requests for the entity can be answered without going to the database.
+     * The representation is kept at most {@link #REPRESENTATION_CACHE_LIFESPAN} seconds.
+     * @param namespace Namespace of the representation
+     * @param id Id of the entity
+     * @param uriInfo Info about the current request, the links in the representation are relative to it
+     * @param entity The representation
+     * @param eTag The entity tag of the representation
+     * @param lastModified The last modification time of the representation, null if not known
+     * @return The cached representation
+     */
+    protected CachedRepresentation putRepresentationToCache(String namespace, int id, UriInfo uriInfo,
+        Object entity, EntityTag eTag, Date lastModified) {
+        CachedRepresentation representation = new CachedRepresentation(entity, eTag, lastModified,
+            uriInfo.getBaseUri());
+        putToCache(new CacheKey(namespace, id), representation, REPRESENTATION_CACHE_LIFESPAN);
+        return representation;
+    }
+
+    /**
+     * Remove a REST representation from the cache, because the entity changed or was deleted
+     * @param namespace Namespace of the representation
+     * @param id Id of the entity
+     */
+    protected void removeRepresentationFromCache(String namespace, int id) {
+        CacheKey key = new CacheKey(namespace, id);
+        if (null != cache.remove(key)) {
+            log.debug("Cache Remove " + key);
+        }
+    }
+
     public ResourceWithType fillRWT(Resource res, UriInfo uriInfo) {
         ResourceType resourceType = res.getResourceType();
         ResourceWithType rwt = new ResourceWithType(res.getName(), res.getId());
@@ -489,6 +623,59 @@ public class AbstractRestBean {
         builder.header("X-collection-size",resultList.getTotalSize());
     }
 
+    /**
+     * Create the paging headers for a collection obtained using keyset paging. There is a <i>next</i> Link header
+     * carrying the continuation token if there is a next page, and the <i>current</i> one. There are no links to the
+     * previous or last page and no total size, as keyset paging does not know them.
+     * @param builder The ResponseBuilder that receives the headers
+     * @param uriInfo The uriInfo of the incoming request to build the urls
+     * @param resultList The collection with its continuation token
+     * @see org.rhq.core.domain.criteria.Criteria#setKeysetPaging(boolean)
+     */
+    protected void createKeysetPagingHeader(final Response.ResponseBuilder builder, final UriInfo uriInfo,
+                                            final PageList<?> resultList) {
+
+        if (resultList.getContinuationToken() != null) {
+            UriBuilder uriBuilder = uriInfo.getRequestUriBuilder();
+            uriBuilder.replaceQueryParam("continuation", resultList.getContinuationToken());
+            builder.header("Link", new Link("next", uriBuilder.build().toString()).rfc5988String());
+        }
+
+        UriBuilder uriBuilder = uriInfo.getRequestUriBuilder();
+        builder.header("Link", new Link("current", uriBuilder.build().toString()).rfc5988String());
+    }
+
+    /**
+     * Wrap the passed collection #resultList, obtained using keyset paging, in an object with paging information.
+     * Only the page size and the <i>next</i> and <i>current</i> links are known, see
+     * {@link #createKeysetPagingHeader(javax.ws.rs.core.Response.ResponseBuilder, javax.ws.rs.core.UriInfo,
+     * org.rhq.core.domain.util.PageList)}.
+     *
+     * @param builder ResonseBuilder to add the entity to
+     * @param uriInfo UriInfo to construct paging links
+     * @param originalList The original list to obtain the continuation token from
+     * @param resultList The list of result items
+     */
+    protected <T> void wrapForKeysetPaging(Response.ResponseBuilder builder, UriInfo uriInfo,
+                                           final PageList<?> originalList, final Collection<T> resultList) {
+
+        PagingCollection<T> pColl = new PagingCollection<T>(resultList);
+        pColl.setTotalSize(-1);
+        pColl.setPageSize(originalList.getPageControl().getPageSize());
+
+        UriBuilder uriBuilder;
+        if (originalList.getContinuationToken() != null) {
+            uriBuilder = uriInfo.getRequestUriBuilder();
+            uriBuilder.replaceQueryParam("continuation", originalList.getContinuationToken());
+            pColl.addLink(new Link("next", uriBuilder.build().toString()));
+        }
+
+        uriBuilder = uriInfo.getRequestUriBuilder();
+        pColl.addLink(new Link("current", uriBuilder.build().toString()));
+
+        builder.entity(pColl);
+    }
+
     /**
      * Wrap the passed collection #resultList in an object with paging information
      * <p/>
@@ -732,6 +919,40 @@ public class AbstractRestBean {
         }
     }
 
+    protected static class CachedRepresentation {
+        private final Object entity;
+        private final EntityTag eTag;
+        private final Date lastModified;
+        private final URI baseUri;
+
+        public CachedRepresentation(Object entity, EntityTag eTag, Date lastModified, URI baseUri) {
+            this.entity = entity;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.baseUri = baseUri;
+        }
+
+        public Object getEntity() {
+            return entity;
+        }
+
+        public <T> T getEntity(Class<T> clazz) {
+            return clazz.cast(entity);
+        }
+
+        public EntityTag getETag() {
+            return eTag;
+        }
+
+        public Date getLastModified() {
+            return lastModified;
+        }
+
+        public URI getBaseUri() {
+            return baseUri;
+        }
+    }
+
     private static class CacheValue {
         private Object value;
         private Set<Integer> readers;
@@ -107,6 +107,8 @@ public class AlertHandlerBean extends AbstractRestBean {
         @ApiParam(value = "Should not display any recovered alerts") @QueryParam("filter_recovered") @DefaultValue("false") boolean noRecovered,
         @ApiParam(value = "Should not display any recovery alerts") @QueryParam("filter_recoverytypes") @DefaultValue("false") boolean noRecoveryType,
         @ApiParam(value = "Display only alerts matching this name filter") @QueryParam("filter_name") @DefaultValue("") String name,
+        @ApiParam(value = "Use keyset paging: pages are sorted by id (newest first), 'page' is ignored and the 'next' link carries a continuation token. Deep pages are much cheaper, but there is no total size") @QueryParam("keyset") @DefaultValue("false") boolean keyset,
+        @ApiParam(value = "Continuation token of the next page when using keyset paging, implies 'keyset'") @QueryParam("continuation") String continuation,
         @Context UriInfo uriInfo, @Context HttpHeaders headers) {
 
         if (resourceId!=null && definitionId!=null) {
@@ -119,9 +121,22 @@ public class AlertHandlerBean extends AbstractRestBean {
             throw new BadArgumentException("page","Must be >=1");
         }
 
+        keyset = keyset || continuation!=null;
+        if (keyset && size==-1) {
+            throw new BadArgumentException("size","Must not be -1 with keyset paging");
+        }
+
         AlertCriteria criteria = new AlertCriteria();
 
-        if (size==-1) {
+        if (keyset) {
+            criteria.setPaging(0, size);
+            try {
+                criteria.setContinuationToken(continuation);
+            } catch (IllegalArgumentException e) {
+                throw new BadArgumentException("continuation", e.getMessage());
+            }
+        }
+        else if (size==-1) {
             PageControl pageControl = PageControl.getUnlimitedInstance();
             pageControl.setPageNumber(page);
             criteria.setPageControl(pageControl);
@@ -160,7 +175,12 @@ public class AlertHandlerBean extends AbstractRestBean {
             criteria.addFilterRecoveryIds(Integer.valueOf(0));
         }
 
-        criteria.addSortCtime(PageOrdering.DESC);
+        if (keyset) {
+            // ids are handed out in creation order, so this is (nearly) the same order as by ctime
+            criteria.addSortId(PageOrdering.DESC);
+        } else {
+            criteria.addSortCtime(PageOrdering.DESC);
+        }
 
         PageList<Alert> alerts = alertManager.findAlertsByCriteria(caller,criteria);
         List<AlertRest> ret = new ArrayList<AlertRest>(alerts.size());
@@ -177,12 +197,20 @@ public class AlertHandlerBean extends AbstractRestBean {
             builder.entity(renderTemplate("listAlerts.ftl",ret));
         } else {
             if (type.equals(wrappedCollectionJsonType)) {
-                wrapForPaging(builder,uriInfo,alerts,ret);
+                if (keyset) {
+                    wrapForKeysetPaging(builder,uriInfo,alerts,ret);
+                } else {
+                    wrapForPaging(builder,uriInfo,alerts,ret);
+                }
             }
             else {
                 GenericEntity<List<AlertRest>> entity = new GenericEntity<List<AlertRest>>(ret) {};
                 builder.entity(entity);
-                createPagingHeader(builder,uriInfo,alerts);
+                if (keyset) {
+                    createKeysetPagingHeader(builder,uriInfo,alerts);
+                } else {
+                    createPagingHeader(builder,uriInfo,alerts);
+                }
             }
         }
 
@@ -39,9 +39,11 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
@@ -160,16 +162,37 @@ public class GroupHandlerBean extends AbstractRestBean  {
     @ApiOperation(value = "Get the group with the passed id")
     @ApiError(code = 404, reason = "Group with passed id not found")
     public Response getGroup(@ApiParam(value = "Id of the group") @PathParam("id") int id,
+                             @Context Request request,
                              @Context HttpHeaders headers,
                              @Context UriInfo uriInfo) {
 
-        ResourceGroup group = fetchGroup(id, false);
+        Response.ResponseBuilder builder = evaluatePreconditionsFromCache(GROUP_REPRESENTATION, id, request);
+        if (builder != null) {
+            return builder.build();
+        }
 
-        GroupRest groupRest = fillGroup(group, uriInfo);
+        CachedRepresentation cached = getRepresentationFromCache(GROUP_REPRESENTATION, id, uriInfo,
+            GroupRest.class);
+        if (cached == null) {
+            ResourceGroup group = fetchGroup(id, false);
+            GroupRest fresh = fillGroup(group, uriInfo);
+
+            // the member counts are not reflected in the group's mtime, so it can't be used as the last modification
+            long mtime = group.getMtime() != null ? group.getMtime() : 0;
+            EntityTag eTag = new EntityTag(Long.toOctalString(mtime + 31L * fresh.getExplicitCount()
+                + fresh.getImplicitCount()));
+            cached = putRepresentationToCache(GROUP_REPRESENTATION, id, uriInfo, fresh, eTag, null);
+
+            builder = evaluatePreconditions(request, cached);
+            if (builder != null) {
+                return builder.build();
+            }
+        }
+        GroupRest groupRest = cached.getEntity(GroupRest.class);
 
         MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
 
-        Response.ResponseBuilder builder = Response.ok();
+        builder = Response.ok();
         builder.type(mediaType);
 
         if (mediaType.equals(MediaType.TEXT_HTML_TYPE)) {
@@ -178,6 +201,7 @@ public class GroupHandlerBean extends AbstractRestBean  {
         else {
             builder.entity(groupRest);
         }
+        addValidators(builder, cached);
 
         return builder.build();
     }
@@ -266,6 +290,7 @@ public class GroupHandlerBean extends AbstractRestBean  {
             resourceGroup = resourceGroupManager.updateResourceGroup(caller,resourceGroup);
             builder=Response.ok(fillGroup(resourceGroup,uriInfo));
             putToCache(resourceGroup.getId(),ResourceGroup.class,resourceGroup);
+            removeRepresentationFromCache(GROUP_REPRESENTATION, id);
         }
         catch (Exception e) {
             builder = Response.status(Response.Status.NOT_ACCEPTABLE);
@@ -292,6 +317,7 @@ public class GroupHandlerBean extends AbstractRestBean  {
         try {
             resourceGroupManager.deleteResourceGroup(caller,id);
             removeFromCache(id,ResourceGroup.class);
+            removeRepresentationFromCache(GROUP_REPRESENTATION, id);
             builder = Response.noContent();
         } catch (ResourceGroupNotFoundException e) {
             if (validate) {
@@ -370,6 +396,7 @@ public class GroupHandlerBean extends AbstractRestBean  {
 
         // TODO if comp group and no resourceTypeId set, shall we allow to have it change to a mixed group?
         resourceGroupManager.addResourcesToGroup(caller,id,new int[]{resourceId});
+        removeRepresentationFromCache(GROUP_REPRESENTATION, id);
 
         resourceGroup = fetchGroup(id, false);
         GroupRest gr = fillGroup(resourceGroup,uriInfo);
@@ -403,6 +430,7 @@ public class GroupHandlerBean extends AbstractRestBean  {
             throw new StuffNotFoundException("Resource with id " + resourceId);
 
         boolean removed = resourceGroup.removeExplicitResource(res);
+        removeRepresentationFromCache(GROUP_REPRESENTATION, id);
         if (!removed && validate) {
             throw new StuffNotFoundException("Resource " + resourceId + " in group " + id);
         }
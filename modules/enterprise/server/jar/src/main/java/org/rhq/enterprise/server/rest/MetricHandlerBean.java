@@ -18,8 +18,13 @@
  */
 package org.rhq.enterprise.server.rest;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.util.ArrayList;
@@ -28,6 +33,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -61,6 +67,8 @@ import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
 import com.wordnik.swagger.annotations.Api;
 import com.wordnik.swagger.annotations.ApiError;
 import com.wordnik.swagger.annotations.ApiErrors;
@@ -107,8 +115,12 @@ import org.rhq.enterprise.server.rest.domain.NumericDataPoint;
 import org.rhq.enterprise.server.rest.domain.RHQErrorWrapper;
 import org.rhq.enterprise.server.rest.domain.StringValue;
 import org.rhq.enterprise.server.storage.StorageClientManager;
+import org.rhq.enterprise.server.util.BatchIterator;
 import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.RequestClass;
+import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.RawNumericMetric;
+import org.rhq.server.metrics.domain.RawNumericMetricMapper;
 
 /**
  * Deal with metrics
@@ -149,6 +161,10 @@ public class MetricHandlerBean  extends AbstractRestBean  {
 
     private static final long EIGHT_HOURS = 8 * 3600L * 1000L;
     private static final long SEVEN_DAYS = 7L*86400*1000;
+    private static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+    /** How many schedules {@link #exportMetricDataRaw} reads from the storage nodes at the same time */
+    private static final int EXPORT_CONCURRENT_READS = Math.max(1,
+        Integer.getInteger("rhq.server.rest.metric-export.concurrent-reads", 16));
     @GZIP
     @GET
     @Path("data/{scheduleId}")
@@ -300,6 +316,58 @@ public class MetricHandlerBean  extends AbstractRestBean  {
             throw new BadArgumentException("Schedule [" + scheduleId + "]","it is not a ("+ type + ") metric");
         return schedule;
     }
+    /**
+     * Parse the comma separated list of schedule ids passed in the <i>sid</i> query parameter
+     * @param schedules the parameter value
+     * @return the schedule ids in the order they were passed
+     */
+    private List<Integer> parseScheduleIds(String schedules) {
+        if (schedules==null) {
+            throw new ParameterMissingException("sid");
+        }
+        String[] tmp = schedules.split(",");
+        List<Integer> scheduleIds = new ArrayList<Integer>(tmp.length);
+        try {
+            for (String id : tmp)
+                scheduleIds.add(Integer.parseInt(id));
+        }
+        catch (NumberFormatException nfe) {
+            throw new BadArgumentException("Sid" , nfe.getMessage());
+        }
+        return scheduleIds;
+    }
+
+    /**
+     * Load many schedules at once instead of one {@link #obtainSchedule(int, boolean, DataType)} call per id.
+     * The lookup goes through the criteria API, so only schedules the caller may see are found.
+     * @param scheduleIds the schedules to load
+     * @param type the data type all schedules need to have or null to accept any
+     * @return the schedules keyed by id
+     * @throws StuffNotFoundException if one of the schedules does not exist or is not visible to the caller
+     */
+    private Map<Integer, MeasurementSchedule> obtainSchedules(List<Integer> scheduleIds, DataType type) {
+        Map<Integer, MeasurementSchedule> result = new HashMap<Integer, MeasurementSchedule>(scheduleIds.size());
+        for (List<Integer> batch : new BatchIterator<Integer>(scheduleIds)) {
+            MeasurementScheduleCriteria criteria = new MeasurementScheduleCriteria();
+            criteria.addFilterIds(batch.toArray(new Integer[batch.size()]));
+            criteria.fetchDefinition(true);
+            criteria.fetchResource(true);
+            criteria.clearPaging();
+            for (MeasurementSchedule schedule : scheduleManager.findSchedulesByCriteria(caller, criteria)) {
+                result.put(schedule.getId(), schedule);
+            }
+        }
+
+        for (Integer scheduleId : scheduleIds) {
+            MeasurementSchedule schedule = result.get(scheduleId);
+            if (schedule==null)
+                throw new StuffNotFoundException("Schedule with id " + scheduleId);
+            if (type!=null && schedule.getDefinition().getDataType()!= type)
+                throw new BadArgumentException("Schedule [" + scheduleId + "]","it is not a ("+ type + ") metric");
+        }
+        return result;
+    }
+
     private MetricAggregate fillInDatapoints(MetricAggregate res, List<MeasurementDataNumericHighLowComposite> list,
                                              int scheduleId,
                                              boolean hideEmpty, boolean isHtmlOutput) {
@@ -381,24 +449,12 @@ public class MetricHandlerBean  extends AbstractRestBean  {
             startTime = endTime - EIGHT_HOURS;
         }
 
-        if (schedules==null) {
-            throw new ParameterMissingException("sid");
-        }
-        String[] tmp = schedules.split(",");
-        Integer[] scheduleIds = new Integer[tmp.length];
-        try {
-            for (int i = 0; i < tmp.length ; i++)
-                scheduleIds[i] = Integer.parseInt(tmp[i]);
-        }
-        catch (NumberFormatException nfe) {
-            throw new BadArgumentException("Sid" , nfe.getMessage());
-        }
+        List<Integer> scheduleIds = parseScheduleIds(schedules);
+        Map<Integer, MeasurementSchedule> scheduleMap = obtainSchedules(scheduleIds, null);
 
-        List<MetricAggregate> resList = new ArrayList<MetricAggregate>(scheduleIds.length);
+        List<MetricAggregate> resList = new ArrayList<MetricAggregate>(scheduleIds.size());
         for (Integer scheduleId : scheduleIds) {
-            MeasurementSchedule sched = scheduleManager.getScheduleById(caller,scheduleId);
-            if (sched==null)
-                throw new StuffNotFoundException("Schedule with id " + scheduleId);
+            MeasurementSchedule sched = scheduleMap.get(scheduleId);
             int definitionId = sched.getDefinition().getId();
             List<List<MeasurementDataNumericHighLowComposite>> listList =
                 dataManager.findDataForContext(caller, EntityContext.forResource(sched.getResource().getId()),definitionId,startTime,endTime,dataPoints);
@@ -655,22 +711,46 @@ public class MetricHandlerBean  extends AbstractRestBean  {
     @ApiOperation(value = "Get the definition ", responseClass = "MetricSchedule")
     @ApiError(code = 404, reason = "No definition exists for the given id.")
     public Response getDefinition(@ApiParam("Id of the definition to obtain") @PathParam("id") int definitionId,
-                                @Context HttpHeaders headers) {
-
-        MeasurementDefinition measurementDefinition = definitionManager.getMeasurementDefinition(caller, definitionId);
-        if (measurementDefinition==null)
-            throw new StuffNotFoundException("Definition with id " + definitionId);
+                                @Context Request request,
+                                @Context HttpHeaders headers, @Context UriInfo uriInfo) {
 
+        Response.ResponseBuilder builder = evaluatePreconditionsFromCache(DEFINITION_REPRESENTATION, definitionId,
+            request);
+        if (builder != null) {
+            return builder.build();
+        }
 
-        MetricSchedule schedule = new MetricSchedule(definitionId,
-            measurementDefinition.getName(),
-            measurementDefinition.getDisplayName(),
-            measurementDefinition.isDefaultOn(),
-            measurementDefinition.getDefaultInterval(),
-            measurementDefinition.getUnits().getName(),
-            measurementDefinition.getDataType().name());
+        CachedRepresentation cached = getRepresentationFromCache(DEFINITION_REPRESENTATION, definitionId, uriInfo,
+            MetricSchedule.class);
+        if (cached == null) {
+            MeasurementDefinition measurementDefinition = definitionManager.getMeasurementDefinition(caller,
+                definitionId);
+            if (measurementDefinition==null)
+                throw new StuffNotFoundException("Definition with id " + definitionId);
+
+            MetricSchedule schedule = new MetricSchedule(definitionId,
+                measurementDefinition.getName(),
+                measurementDefinition.getDisplayName(),
+                measurementDefinition.isDefaultOn(),
+                measurementDefinition.getDefaultInterval(),
+                measurementDefinition.getUnits().getName(),
+                measurementDefinition.getDataType().name());
+
+            // definitions have no mtime, so the tag is derived from the values that can change
+            EntityTag eTag = new EntityTag(Integer.toHexString(definitionId) + "-"
+                + Long.toHexString(measurementDefinition.getDefaultInterval())
+                + (measurementDefinition.isDefaultOn() ? "-on" : "-off"));
+            cached = putRepresentationToCache(DEFINITION_REPRESENTATION, definitionId, uriInfo, schedule, eTag, null);
+
+            builder = evaluatePreconditions(request, cached);
+            if (builder != null) {
+                return builder.build();
+            }
+        }
 
-        return Response.ok(schedule,headers.getAcceptableMediaTypes().get(0)).build();
+        builder = Response.ok(cached.getEntity(MetricSchedule.class), headers.getAcceptableMediaTypes().get(0));
+        addValidators(builder, cached);
+        return builder.build();
     }
 
     @PUT
@@ -709,6 +789,7 @@ public class MetricHandlerBean  extends AbstractRestBean  {
     @Asynchronous
     public void submitDefinitionChange(int definitionId, MetricSchedule in, boolean updateExisting) {
         scheduleManager.updateDefaultCollectionIntervalAndEnablementForMeasurementDefinitions(caller,new int[]{definitionId},in.getCollectionInterval(),in.getEnabled(),updateExisting);
+        removeRepresentationFromCache(DEFINITION_REPRESENTATION, definitionId);
     }
 
     @GZIP
@@ -758,6 +839,53 @@ public class MetricHandlerBean  extends AbstractRestBean  {
         return so;
     }
 
+    @GZIP
+    @ApiOperation(value = "Export the raw metrics of many schedules as a stream of newline delimited JSON objects "
+        + "or CSV rows. The data of the schedules is read concurrently and written schedule by schedule in the "
+        + "order the ids were passed. This can only expose raw data, which means the start date may not be older "
+        + "than 7 days.")
+    @GET
+    @Path("data/raw/export")
+    @Produces({MEDIA_TYPE_NDJSON,"text/csv"})
+    @ApiErrors({
+        @ApiError(code = 404, reason = NO_SCHEDULE_FOR_ID),
+        @ApiError(code = 406, reason = "No schedules requested"),
+        @ApiError(code = 406, reason = "Schedule Ids are not numeric")
+    })
+    public StreamingOutput exportMetricDataRaw(
+        @ApiParam(value = "A comma separated list of schedule ids",required = true) @QueryParam("sid") String schedules,
+        @ApiParam(value = "Start time since epoch", defaultValue = "Now - 8h") @QueryParam("startTime") long startTime,
+        @ApiParam(value = "End time since epoch", defaultValue = "Now") @QueryParam("endTime") long endTime,
+        @Context HttpHeaders headers) {
+
+        MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
+
+        long now = System.currentTimeMillis();
+        if (endTime==0)
+            endTime = now;
+        if (startTime==0)
+            startTime = endTime - EIGHT_HOURS;
+
+        if (startTime < now - SEVEN_DAYS)
+            throw new IllegalArgumentException("(Computed) start time is older than 7 days");
+
+        if (startTime == endTime) {
+            endTime++; // add 1ms, as otherwise the backend fails to find a value at the startTime
+        }
+
+        List<Integer> scheduleIds = parseScheduleIds(schedules);
+        // Check that all schedules exist before the first byte is written
+        obtainSchedules(scheduleIds, DataType.MEASUREMENT);
+
+        RawNumericExportStreamingOutput so = new RawNumericExportStreamingOutput();
+        so.scheduleIds = scheduleIds;
+        so.startTime = startTime;
+        so.endTime = endTime;
+        so.csv = mediaType.toString().equals("text/csv");
+
+        return so;
+    }
+
     @GET
     @ApiOperation("Expose callTime data for given scheduleId")
     @ApiErrors({
@@ -952,9 +1080,15 @@ public class MetricHandlerBean  extends AbstractRestBean  {
         MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
         Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>(points.size());
 
+        Set<Integer> scheduleIds = new HashSet<Integer>();
+        for (NumericDataPoint point : points) {
+            scheduleIds.add(point.getScheduleId());
+        }
+        Set<Integer> accessible = findAccessibleSchedules(scheduleIds);
+
         List<NumericDataPoint> rejected = new ArrayList<NumericDataPoint>();
         for (NumericDataPoint point : points) {
-            if (isScheduleAccessible(point.getScheduleId())) {
+            if (accessible.contains(point.getScheduleId())) {
                 data.add(new MeasurementDataNumeric(point.getTimeStamp(), point.getScheduleId(), point.getValue()));
             } else {
                 rejected.add(point);
@@ -972,24 +1106,105 @@ public class MetricHandlerBean  extends AbstractRestBean  {
         }
     }
 
-    private boolean isScheduleAccessible(int scheduleId) {
-        // our Key is hopefully unique combination of scheduleId and caller (user) ID
-        // it cannot be just scheduleId, because different users can have access different schedules
-        CacheKey key = new CacheKey("existsScheduleForCaller", (31 * (1 + scheduleId) * 31 * (1 + caller.getId())));
-        Boolean accessible = (Boolean) cache.get(key);
-        if (accessible != null) {
-            return accessible.booleanValue();
-        } else {
+    @POST
+    @Path("data/raw/bulk")
+    @Consumes("text/csv")
+    @ApiOperation(value = "Submit a batch of (numerical) metric values for many schedules. Each line holds one "
+        + "value as 'scheduleId,timeStamp,value', empty lines and lines starting with '#' are skipped. Access to "
+        + "the schedules is checked once for the whole batch and the accepted values are stored asynchronously.",
+        responseClass = "Map with the number of accepted values and the rejected schedule ids")
+    @ApiErrors({
+        @ApiError(code = 202, reason = "Values of accessible schedules were accepted, others were rejected"),
+        @ApiError(code = 403, reason = "None of the submitted schedules exist"),
+        @ApiError(code = 406, reason = "A line of the batch can not be parsed")
+    })
+    public Response postMetricValuesBulk(@ApiParam("The values, one per line") InputStream body) throws IOException {
+
+        List<MeasurementDataNumeric> points = new ArrayList<MeasurementDataNumeric>();
+        Set<Integer> scheduleIds = new HashSet<Integer>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, "UTF-8"));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            int firstComma = line.indexOf(',');
+            int secondComma = line.indexOf(',', firstComma + 1);
+            if (firstComma < 0 || secondComma < 0) {
+                throw new BadArgumentException("Line " + lineNumber, "expected scheduleId,timeStamp,value");
+            }
+            try {
+                int scheduleId = Integer.parseInt(line.substring(0, firstComma).trim());
+                long timeStamp = Long.parseLong(line.substring(firstComma + 1, secondComma).trim());
+                double value = Double.parseDouble(line.substring(secondComma + 1));
+                points.add(new MeasurementDataNumeric(timeStamp, scheduleId, value));
+                scheduleIds.add(scheduleId);
+            } catch (NumberFormatException nfe) {
+                throw new BadArgumentException("Line " + lineNumber, nfe.getMessage());
+            }
+        }
+
+        Set<Integer> accessible = findAccessibleSchedules(scheduleIds);
+        Set<MeasurementDataNumeric> data = new HashSet<MeasurementDataNumeric>(points.size());
+        for (MeasurementDataNumeric point : points) {
+            if (accessible.contains(point.getScheduleId())) {
+                data.add(point);
+            }
+        }
+        // storage is asynchronous, so this returns as soon as the values are queued for the storage nodes
+        dataManager.addNumericData(data);
+
+        scheduleIds.removeAll(accessible);
+        Map<String, Object> resp = new HashMap<String, Object>();
+        resp.put("accepted", data.size());
+        resp.put("rejectedSchedules", scheduleIds);
+        if (!scheduleIds.isEmpty()) {
+            resp.put("message", "Rejected schedules do not exist");
+        }
+        Status status = (data.isEmpty() && !scheduleIds.isEmpty()) ? Status.FORBIDDEN : Status.ACCEPTED;
+        return Response.status(status).entity(resp).type(MediaType.APPLICATION_JSON_TYPE).build();
+    }
+
+    /**
+     * Find out which of the passed schedules the caller can access. Results are cached per caller, so only the
+     * schedules not seen before are looked up, with one query per batch of them.
+     * @param scheduleIds the schedules to check
+     * @return the subset of the passed schedules that exist and are visible to the caller
+     */
+    private Set<Integer> findAccessibleSchedules(Set<Integer> scheduleIds) {
+        // different users can have access to different schedules, so the caller is part of the cache key
+        String namespace = "existsScheduleForCaller." + caller.getId();
+        Set<Integer> accessible = new HashSet<Integer>(scheduleIds.size());
+        List<Integer> unknown = new ArrayList<Integer>();
+        for (Integer scheduleId : scheduleIds) {
+            Boolean cached = (Boolean) cache.get(new CacheKey(namespace, scheduleId));
+            if (cached == null) {
+                unknown.add(scheduleId);
+            } else if (cached) {
+                accessible.add(scheduleId);
+            }
+        }
+
+        for (List<Integer> batch : new BatchIterator<Integer>(unknown)) {
             MeasurementScheduleCriteria criteria = new MeasurementScheduleCriteria();
-            criteria.addFilterId(scheduleId);
-            PageList<MeasurementSchedule> schedules = scheduleManager.findSchedulesByCriteria(caller, criteria);
-            if (schedules.isEmpty()) {
-                cache.put(key, Boolean.FALSE);
-                return false;
+            criteria.addFilterIds(batch.toArray(new Integer[batch.size()]));
+            criteria.clearPaging();
+            Set<Integer> found = new HashSet<Integer>(batch.size());
+            for (MeasurementSchedule schedule : scheduleManager.findSchedulesByCriteria(caller, criteria)) {
+                found.add(schedule.getId());
+            }
+            for (Integer scheduleId : batch) {
+                boolean exists = found.contains(scheduleId);
+                cache.put(new CacheKey(namespace, scheduleId), exists);
+                if (exists) {
+                    accessible.add(scheduleId);
+                }
             }
-            cache.put(key, Boolean.TRUE);
-            return true;
         }
+        return accessible;
     }
 
     @POST
@@ -1192,6 +1407,18 @@ public class MetricHandlerBean  extends AbstractRestBean  {
          }
     }
 
+    /**
+     * Print a metric value as a JSON number. JSON has no NaN or Infinity, so
+     * such values are printed as null.
+     */
+    static void printJsonValue(PrintWriter pw, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            pw.print("null");
+        } else {
+            pw.print(value);
+        }
+    }
+
     /**
      * Write the numeric data points to the output stream in the encoding
      * requested from the mediaType without creating tons of objects in the
@@ -1220,7 +1447,7 @@ public class MetricHandlerBean  extends AbstractRestBean  {
                 pw.print(metric.getTimestamp());
                 pw.print(", ");
                 pw.print("\"value\":");
-                pw.print(metric.getValue());
+                printJsonValue(pw, metric.getValue());
                 pw.print("}");
             }
             pw.println("]");
@@ -1277,4 +1504,72 @@ public class MetricHandlerBean  extends AbstractRestBean  {
             pw.close();
         }
     }
+
+    /**
+     * Write the raw data of many schedules as newline delimited JSON or CSV. Reads for up to
+     * {@link #EXPORT_CONCURRENT_READS} schedules are in flight at any time, while the rows of the oldest read are
+     * written and flushed, so memory use is bounded by the read window and not by the size of the export.
+     */
+    class RawNumericExportStreamingOutput implements StreamingOutput {
+
+        List<Integer> scheduleIds;
+        long startTime;
+        long endTime;
+        boolean csv;
+
+        @Override
+        public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+            MetricsDAO metricsDAO = sessionManager.getMetricsDAO();
+            RawNumericMetricMapper mapper = new RawNumericMetricMapper();
+            PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8")));
+
+            if (csv) {
+                pw.println("#schedule,timestamp,value");
+            }
+
+            Iterator<Integer> pending = scheduleIds.iterator();
+            LinkedList<StorageResultSetFuture> inFlight = new LinkedList<StorageResultSetFuture>();
+            while (inFlight.size() < EXPORT_CONCURRENT_READS && pending.hasNext()) {
+                inFlight.add(metricsDAO.findRawMetricsAsync(pending.next(), startTime, endTime,
+                    RequestClass.EXPORT));
+            }
+            try {
+                while (!inFlight.isEmpty()) {
+                    ResultSet resultSet = inFlight.removeFirst().get();
+                    if (pending.hasNext()) {
+                        inFlight.add(metricsDAO.findRawMetricsAsync(pending.next(), startTime, endTime,
+                            RequestClass.EXPORT));
+                    }
+                    for (Row row : resultSet) {
+                        RawNumericMetric metric = mapper.map(row);
+                        if (csv) {
+                            pw.print(metric.getScheduleId());
+                            pw.print(',');
+                            pw.print(metric.getTimestamp());
+                            pw.print(',');
+                            pw.println(metric.getValue());
+                        } else {
+                            pw.print("{\"scheduleId\":");
+                            pw.print(metric.getScheduleId());
+                            pw.print(",\"timeStamp\":");
+                            pw.print(metric.getTimestamp());
+                            pw.print(",\"value\":");
+                            printJsonValue(pw, metric.getValue());
+                            pw.print("}\n");
+                        }
+                    }
+                    pw.flush();
+                    if (pw.checkError()) {
+                        // the client went away, no need to read the rest
+                        break;
+                    }
+                }
+            } finally {
+                for (StorageResultSetFuture future : inFlight) {
+                    future.cancel(true);
+                }
+                pw.close();
+            }
+        }
+    }
 }
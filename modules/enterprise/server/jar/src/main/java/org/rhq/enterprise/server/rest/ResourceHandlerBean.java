@@ -159,18 +159,28 @@ public class ResourceHandlerBean extends AbstractRestBean {
                 @Context Request request, @Context HttpHeaders headers,
                              @Context UriInfo uriInfo) {
 
-        Resource res;
-        res = fetchResource(id);
-
-        long mtime = res.getMtime();
-        EntityTag eTag = new EntityTag(Long.toOctalString(res.hashCode() + mtime)); // factor in mtime in etag
-        Response.ResponseBuilder builder = request.evaluatePreconditions(new Date(mtime), eTag);
-
+        // Clients polling resources mostly ask for what they already have, so try to answer from the cache first
+        Response.ResponseBuilder builder = evaluatePreconditionsFromCache(RESOURCE_REPRESENTATION, id, request);
         if (builder != null) {
             return builder.build();
         }
 
-        ResourceWithType rwt = fillRWT(res, uriInfo);
+        CachedRepresentation cached = getRepresentationFromCache(RESOURCE_REPRESENTATION, id, uriInfo,
+            ResourceWithType.class);
+        if (cached == null) {
+            Resource res = fetchResource(id);
+
+            long mtime = res.getMtime();
+            EntityTag eTag = new EntityTag(Long.toOctalString(res.hashCode() + mtime)); // factor in mtime in etag
+            cached = putRepresentationToCache(RESOURCE_REPRESENTATION, id, uriInfo, fillRWT(res, uriInfo), eTag,
+                new Date(mtime));
+
+            builder = evaluatePreconditions(request, cached);
+            if (builder != null) {
+                return builder.build();
+            }
+        }
+        ResourceWithType rwt = cached.getEntity(ResourceWithType.class);
 
         // What media type does the user request?
         MediaType mediaType = headers.getAcceptableMediaTypes().get(0);
@@ -180,6 +190,7 @@ public class ResourceHandlerBean extends AbstractRestBean {
         } else {
             builder = Response.ok(rwt);
         }
+        addValidators(builder, cached);
 
         return builder.build();
     }
@@ -204,6 +215,7 @@ public class ResourceHandlerBean extends AbstractRestBean {
         if (res.getInventoryStatus()==InventoryStatus.NEW && res.getResourceType().getCategory()!=ResourceCategory.SERVICE && resourceWithType.getStatus().equalsIgnoreCase("COMMITTED")) {
             // Import
             discoveryBoss.importResources(caller,new int[] { resourceId});
+            removeRepresentationFromCache(RESOURCE_REPRESENTATION, resourceId);
 
             res = fetchResource(resourceId);
 
@@ -223,6 +235,7 @@ public class ResourceHandlerBean extends AbstractRestBean {
         in.setDescription(resourceWithType.getDescription());
         in.setLocation(resourceWithType.getLocation());
         Resource out = resMgr.updateResource(caller,in);
+        removeRepresentationFromCache(RESOURCE_REPRESENTATION, resourceId);
 
         ResourceWithType outWithType = fillRWT(out,uriInfo);
 
@@ -515,6 +528,7 @@ public class ResourceHandlerBean extends AbstractRestBean {
         report.addAvailability(availability);
 
         availMgr.mergeAvailabilityReport(report);
+        removeRepresentationFromCache(RESOURCE_REPRESENTATION, resourceId);
     }
 
     @GZIP
@@ -1275,6 +1289,7 @@ public class ResourceHandlerBean extends AbstractRestBean {
         else {
             resourceFactory.deleteResource(caller,resourceId);
         }
+        removeRepresentationFromCache(RESOURCE_REPRESENTATION, resourceId);
 
         return Response.noContent().build();
 
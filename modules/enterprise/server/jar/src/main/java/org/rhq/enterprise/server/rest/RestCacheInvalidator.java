@@ -0,0 +1,221 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.naming.InitialContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.infinispan.Cache;
+import org.infinispan.manager.CacheContainer;
+
+import org.rhq.enterprise.server.rest.AbstractRestBean.CacheKey;
+
+/**
+ * Evicts the REST representations of resources, groups and metric definitions cached by the REST handlers, so that
+ * changes made through the server's managers, not only through the REST API, are visible to the next REST request
+ * served by this server. Changes made through another server of the HA cloud are only bounded by the lifespan of the
+ * cached representations.
+ * <p/>
+ * When called within a transaction, the representations are evicted once the transaction is committed, and not at all
+ * if it is rolled back. Evicting them earlier would let a concurrent REST request read the entity before the change is
+ * committed and cache its old representation again, to be served, and to answer conditional requests, for the whole
+ * lifespan of the cached representations.
+ * <p/>
+ * The managers call this whether or not the REST API is used; if the REST cache is not available (e.g. in tests),
+ * nothing is done.
+ */
+public final class RestCacheInvalidator {
+
+    private static final Log LOG = LogFactory.getLog(RestCacheInvalidator.class);
+
+    private static final String CACHE_CONTAINER_NAME = "java:jboss/infinispan/rhq";
+    private static final String CACHE_NAME = "rhqRestCache";
+    private static final String TX_SYNCHRONIZATION_REGISTRY_NAME = "java:comp/TransactionSynchronizationRegistry";
+
+    // while the cache is not available, it is looked up again only once in a while
+    private static final long LOOKUP_RETRY_INTERVAL = 60000L;
+
+    private static final RestCacheInvalidator INSTANCE = new RestCacheInvalidator();
+
+    private volatile Cache<CacheKey, Object> cache;
+    private volatile long nextLookup;
+    private volatile TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+    private volatile long nextRegistryLookup;
+    private final boolean lookUp;
+
+    private RestCacheInvalidator() {
+        this.lookUp = true;
+    }
+
+    /**
+     * For tests, uses the given cache and registry rather than looking them up.
+     */
+    RestCacheInvalidator(Cache<CacheKey, Object> cache,
+        TransactionSynchronizationRegistry transactionSynchronizationRegistry) {
+        this.cache = cache;
+        this.transactionSynchronizationRegistry = transactionSynchronizationRegistry;
+        this.lookUp = false;
+    }
+
+    public static void resourcesChanged(int... resourceIds) {
+        INSTANCE.changed(AbstractRestBean.RESOURCE_REPRESENTATION, toList(resourceIds));
+    }
+
+    public static void resourcesChanged(Collection<Integer> resourceIds) {
+        INSTANCE.changed(AbstractRestBean.RESOURCE_REPRESENTATION, resourceIds);
+    }
+
+    public static void groupsChanged(int... groupIds) {
+        INSTANCE.changed(AbstractRestBean.GROUP_REPRESENTATION, toList(groupIds));
+    }
+
+    public static void groupsChanged(Collection<Integer> groupIds) {
+        INSTANCE.changed(AbstractRestBean.GROUP_REPRESENTATION, groupIds);
+    }
+
+    public static void definitionsChanged(int... definitionIds) {
+        INSTANCE.changed(AbstractRestBean.DEFINITION_REPRESENTATION, toList(definitionIds));
+    }
+
+    /**
+     * Evicts the representations of the entities once the current transaction, if any, is committed.
+     */
+    void changed(String namespace, Collection<Integer> ids) {
+        Cache<CacheKey, Object> restCache = getCache();
+        if (restCache == null || ids == null || ids.isEmpty()) {
+            return;
+        }
+        List<CacheKey> keys = new ArrayList<CacheKey>(ids.size());
+        for (Integer id : ids) {
+            keys.add(new CacheKey(namespace, id));
+        }
+
+        TransactionSynchronizationRegistry registry = getTransactionSynchronizationRegistry();
+        int status = (registry != null) ? registry.getTransactionStatus() : Status.STATUS_NO_TRANSACTION;
+        switch (status) {
+        case Status.STATUS_ACTIVE:
+            // all the evictions of a transaction are done by a single synchronization
+            PendingEviction pending = (PendingEviction) registry.getResource(PendingEviction.class);
+            if (pending == null) {
+                pending = new PendingEviction(restCache);
+                registry.registerInterposedSynchronization(pending);
+                registry.putResource(PendingEviction.class, pending);
+            }
+            pending.keys.addAll(keys);
+            break;
+        case Status.STATUS_MARKED_ROLLBACK:
+        case Status.STATUS_ROLLING_BACK:
+        case Status.STATUS_ROLLEDBACK:
+            // the change will not be committed
+            break;
+        default:
+            evict(restCache, keys);
+        }
+    }
+
+    private static void evict(Cache<CacheKey, Object> restCache, Collection<CacheKey> keys) {
+        for (CacheKey key : keys) {
+            restCache.remove(key);
+        }
+    }
+
+    private static List<Integer> toList(int... ids) {
+        if (ids == null) {
+            return null;
+        }
+        List<Integer> list = new ArrayList<Integer>(ids.length);
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Cache<CacheKey, Object> getCache() {
+        Cache<CacheKey, Object> restCache = cache;
+        if (restCache == null && lookUp && System.currentTimeMillis() >= nextLookup) {
+            try {
+                CacheContainer container = (CacheContainer) new InitialContext().lookup(CACHE_CONTAINER_NAME);
+                restCache = container.getCache(CACHE_NAME);
+                cache = restCache;
+            } catch (Exception e) {
+                nextLookup = System.currentTimeMillis() + LOOKUP_RETRY_INTERVAL;
+                LOG.debug("The REST cache is not available, REST representations will not be evicted: " + e);
+            }
+        }
+        return restCache;
+    }
+
+    private TransactionSynchronizationRegistry getTransactionSynchronizationRegistry() {
+        TransactionSynchronizationRegistry registry = transactionSynchronizationRegistry;
+        if (registry == null && lookUp && System.currentTimeMillis() >= nextRegistryLookup) {
+            try {
+                registry = (TransactionSynchronizationRegistry) new InitialContext()
+                    .lookup(TX_SYNCHRONIZATION_REGISTRY_NAME);
+                transactionSynchronizationRegistry = registry;
+            } catch (Exception e) {
+                nextRegistryLookup = System.currentTimeMillis() + LOOKUP_RETRY_INTERVAL;
+                LOG.debug("The transaction synchronization registry is not available, REST representations are "
+                    + "evicted right away: " + e);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Evicts the representations of the entities changed by a transaction, once it is committed.
+     */
+    private static class PendingEviction implements Synchronization {
+        private final Cache<CacheKey, Object> restCache;
+        private final Set<CacheKey> keys = new HashSet<CacheKey>();
+
+        PendingEviction(Cache<CacheKey, Object> restCache) {
+            this.restCache = restCache;
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == Status.STATUS_COMMITTED) {
+                try {
+                    evict(restCache, keys);
+                } catch (Exception e) {
+                    LOG.warn("Failed to evict changed REST representations from the cache: " + e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.scheduler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Decides whether an exclusive (i.e. heavy) job may start on this server node. At most one exclusive job runs on a
+ * node at a time, and none starts while the node's load or the usage of its database connection pool is above the
+ * configured limit. An exclusive job that recently ran for less than the configured short job runtime is not held back
+ * by the other exclusive jobs, deferring it would cost more than running it. A job that may not start is deferred:
+ * it fires again a little later, and in a server cluster whichever node acquires that trigger first runs it - usually
+ * one that is not busy. To never starve a job, it always runs once it has been deferred the maximum number of times.
+ * <p/>
+ * Jobs are identified by the simple name of their class.
+ * <p/>
+ * The connection pool usage is read from the statistics of the datasource pool MBean, i.e. it is only taken into
+ * account if the pool statistics are enabled for the datasource.
+ */
+class ExclusiveJobGate {
+
+    private static final Log LOG = LogFactory.getLog(ExclusiveJobGate.class);
+
+    /**
+     * The heavy jobs that are exclusive unless configured otherwise.
+     */
+    static final String DEFAULT_EXCLUSIVE_JOBS = "ContentProviderSyncJob,DataCalcJob,DataPurgeJob,"
+        + "DynaGroupAutoRecalculationJob,RepoSyncJob,SavedSearchResultCountRecalculationJob,"
+        + "StorageClusterReadRepairJob";
+
+    /**
+     * The statistics of the connection pool of the RHQ datasource.
+     */
+    static final String DEFAULT_DATASOURCE_POOL = "jboss.as:subsystem=datasources,xa-data-source=RHQDS,statistics=pool";
+
+    private final Set<String> exclusiveJobs;
+    private final double maxLoadPerCpu;
+    private final double maxDatasourceUsage;
+    private final long shortJobRuntime;
+    private final int maxDeferrals;
+    private final ObjectName datasourcePool;
+    private final Map<String, Long> recentRuntimes = new HashMap<String, Long>();
+    private int executing;
+
+    /**
+     * @param exclusiveJobs comma separated simple class names of the exclusive jobs
+     * @param maxLoadPerCpu exclusive jobs are deferred while the system load average per processor is above this, 0
+     *                      disables the check
+     * @param maxDeferrals  the number of times an exclusive job may be deferred before it runs regardless
+     */
+    ExclusiveJobGate(String exclusiveJobs, double maxLoadPerCpu, int maxDeferrals) {
+        this(exclusiveJobs, maxLoadPerCpu, 0, 0L, maxDeferrals, null);
+    }
+
+    /**
+     * @param exclusiveJobs      comma separated simple class names of the exclusive jobs
+     * @param maxLoadPerCpu      exclusive jobs are deferred while the system load average per processor is above
+     *                           this, 0 disables the check
+     * @param maxDatasourceUsage exclusive jobs are deferred while the ratio of the database connections in use to the
+     *                           maximum pool size is above this, 0 disables the check
+     * @param shortJobRuntime    an exclusive job whose recent runtime, in milliseconds, is below this is not deferred
+     *                           because of the other exclusive jobs, 0 disables the check
+     * @param maxDeferrals       the number of times an exclusive job may be deferred before it runs regardless
+     * @param datasourcePool     the object name of the datasource pool statistics MBean, may be <code>null</code>
+     */
+    ExclusiveJobGate(String exclusiveJobs, double maxLoadPerCpu, double maxDatasourceUsage, long shortJobRuntime,
+        int maxDeferrals, String datasourcePool) {
+        Set<String> jobs = new HashSet<String>();
+        for (String job : exclusiveJobs.split(",")) {
+            if (job.trim().length() > 0) {
+                jobs.add(job.trim());
+            }
+        }
+        this.exclusiveJobs = Collections.unmodifiableSet(jobs);
+        this.maxLoadPerCpu = maxLoadPerCpu;
+        this.maxDatasourceUsage = maxDatasourceUsage;
+        this.shortJobRuntime = shortJobRuntime;
+        this.maxDeferrals = maxDeferrals;
+        this.datasourcePool = toObjectName(datasourcePool);
+    }
+
+    boolean isExclusive(String jobType) {
+        return exclusiveJobs.contains(jobType);
+    }
+
+    /**
+     * Called when a job is about to be executed. If this returns <code>true</code> for an exclusive job, it must be
+     * followed by {@link #exit(String)} once the job is done.
+     *
+     * @param jobType   the simple name of the job class
+     * @param deferrals how many times this execution has been deferred already
+     *
+     * @return <code>true</code> if the job may run now, <code>false</code> if it should be deferred
+     */
+    synchronized boolean tryEnter(String jobType, int deferrals) {
+        if (!isExclusive(jobType)) {
+            return true;
+        }
+
+        if ((executing > 0 && !isShort(jobType)) || isOverloaded()) {
+            if (deferrals < maxDeferrals) {
+                return false;
+            }
+            if (maxDeferrals > 0) {
+                LOG.warn("Exclusive job [" + jobType + "] has already been deferred [" + deferrals
+                    + "] times, running it although this server is busy with [" + executing
+                    + "] exclusive jobs, a load per processor of [" + getLoadPerCpu()
+                    + "] and a datasource usage of [" + getDatasourceUsage() + "]");
+            }
+        }
+
+        ++executing;
+        return true;
+    }
+
+    /**
+     * Lets the job run regardless of the other exclusive jobs and of the load, e.g. because it could not be deferred.
+     * For an exclusive job, this must be followed by {@link #exit(String)} once the job is done.
+     *
+     * @param jobType the simple name of the job class
+     */
+    synchronized void enter(String jobType) {
+        if (isExclusive(jobType)) {
+            ++executing;
+        }
+    }
+
+    synchronized void exit(String jobType) {
+        if (isExclusive(jobType) && executing > 0) {
+            --executing;
+        }
+    }
+
+    synchronized int getExecuting() {
+        return executing;
+    }
+
+    /**
+     * Records how long an execution of the job ran, the recent runtime weighs the last execution as much as all the
+     * previous ones together.
+     *
+     * @param jobType the simple name of the job class
+     * @param runtime how long, in milliseconds, the job ran
+     */
+    synchronized void recordRuntime(String jobType, long runtime) {
+        if (isExclusive(jobType)) {
+            Long recent = recentRuntimes.get(jobType);
+            recentRuntimes.put(jobType, (recent == null) ? runtime : (recent.longValue() + runtime) / 2);
+        }
+    }
+
+    /**
+     * @return the recent runtime of the job in milliseconds, or a negative value if it has not run on this node yet
+     */
+    synchronized long getRecentRuntime(String jobType) {
+        Long recent = recentRuntimes.get(jobType);
+        return (recent == null) ? -1L : recent.longValue();
+    }
+
+    private boolean isShort(String jobType) {
+        long recent = getRecentRuntime(jobType);
+        return shortJobRuntime > 0 && recent >= 0 && recent < shortJobRuntime;
+    }
+
+    private boolean isOverloaded() {
+        if (maxLoadPerCpu > 0) {
+            double load = getLoadPerCpu();
+            if (load >= 0 && load > maxLoadPerCpu) {
+                return true;
+            }
+        }
+        if (maxDatasourceUsage > 0) {
+            double usage = getDatasourceUsage();
+            if (usage >= 0 && usage > maxDatasourceUsage) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the system load average of the last minute divided by the number of processors, or a negative value if
+     *         the platform does not provide it
+     */
+    double getLoadPerCpu() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = os.getSystemLoadAverage();
+        return (load < 0) ? load : load / os.getAvailableProcessors();
+    }
+
+    /**
+     * @return the number of database connections in use divided by the maximum pool size, or a negative value if the
+     *         pool statistics are not available
+     */
+    double getDatasourceUsage() {
+        if (datasourcePool == null) {
+            return -1;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            long inUse = Long.parseLong(String.valueOf(server.getAttribute(datasourcePool, "InUseCount")));
+            long available = Long.parseLong(String.valueOf(server.getAttribute(datasourcePool, "AvailableCount")));
+            return (inUse + available <= 0) ? -1 : (double) inUse / (inUse + available);
+        } catch (Exception e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Cannot read the statistics of datasource pool [" + datasourcePool + "]: " + e);
+            }
+            return -1;
+        }
+    }
+
+    private static ObjectName toObjectName(String name) {
+        if (name == null || name.trim().length() == 0) {
+            return null;
+        }
+        try {
+            return new ObjectName(name.trim());
+        } catch (Exception e) {
+            LOG.warn("Invalid datasource pool MBean name [" + name + "], the datasource usage is not checked: " + e);
+            return null;
+        }
+    }
+}
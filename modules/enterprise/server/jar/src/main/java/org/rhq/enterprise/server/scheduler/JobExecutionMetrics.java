@@ -0,0 +1,154 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.scheduler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the {@link JobExecutionMetricsMBean statistics} of the jobs executed on this server node.
+ */
+public class JobExecutionMetrics implements JobExecutionMetricsMBean {
+
+    /** Upper bounds, in milliseconds, of the runtime histogram buckets. The last bucket is unbounded. */
+    static final long[] RUNTIME_BUCKETS = { 1000L, 10000L, 60000L, 600000L, 3600000L };
+
+    private final ExclusiveJobGate gate;
+    private final ConcurrentMap<String, JobStatistics> statistics = new ConcurrentHashMap<String, JobStatistics>();
+    private final AtomicInteger executing = new AtomicInteger();
+    private final AtomicLong deferred = new AtomicLong();
+
+    JobExecutionMetrics(ExclusiveJobGate gate) {
+        this.gate = gate;
+    }
+
+    public void clear() {
+        statistics.clear();
+        deferred.set(0L);
+    }
+
+    public int getExecutingJobs() {
+        return executing.get();
+    }
+
+    public int getExecutingExclusiveJobs() {
+        return gate.getExecuting();
+    }
+
+    public long getNumberDeferredJobs() {
+        return deferred.get();
+    }
+
+    public Map<String, Map<String, Long>> getJobStatistics() {
+        Map<String, Map<String, Long>> result = new TreeMap<String, Map<String, Long>>();
+        for (Map.Entry<String, JobStatistics> entry : statistics.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return result;
+    }
+
+    void jobStarted() {
+        executing.incrementAndGet();
+    }
+
+    /**
+     * @param jobType the simple name of the job class
+     * @param delay   how late, in milliseconds, the job started compared to its scheduled fire time
+     * @param runtime how long, in milliseconds, the job ran
+     * @param failed  <code>true</code> if the job threw an exception
+     */
+    void jobFinished(String jobType, long delay, long runtime, boolean failed) {
+        executing.decrementAndGet();
+        getStatistics(jobType).add(Math.max(0L, delay), runtime, failed);
+    }
+
+    void jobDeferred(String jobType) {
+        deferred.incrementAndGet();
+        getStatistics(jobType).addDeferral();
+    }
+
+    private JobStatistics getStatistics(String jobType) {
+        JobStatistics stats = statistics.get(jobType);
+        if (stats == null) {
+            JobStatistics newStats = new JobStatistics();
+            stats = statistics.putIfAbsent(jobType, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    private static class JobStatistics {
+        private long count;
+        private long failures;
+        private long deferrals;
+        private long minRuntime = Long.MAX_VALUE;
+        private long maxRuntime;
+        private long totalRuntime;
+        private long maxDelay;
+        private long totalDelay;
+        private final long[] histogram = new long[RUNTIME_BUCKETS.length + 1];
+
+        synchronized void add(long delay, long runtime, boolean failed) {
+            ++count;
+            if (failed) {
+                ++failures;
+            }
+            minRuntime = Math.min(minRuntime, runtime);
+            maxRuntime = Math.max(maxRuntime, runtime);
+            totalRuntime += runtime;
+            maxDelay = Math.max(maxDelay, delay);
+            totalDelay += delay;
+
+            int bucket = 0;
+            while (bucket < RUNTIME_BUCKETS.length && runtime >= RUNTIME_BUCKETS[bucket]) {
+                ++bucket;
+            }
+            ++histogram[bucket];
+        }
+
+        synchronized void addDeferral() {
+            ++deferrals;
+        }
+
+        synchronized Map<String, Long> toMap() {
+            Map<String, Long> map = new LinkedHashMap<String, Long>();
+            map.put("count", count);
+            map.put("failures", failures);
+            map.put("deferrals", deferrals);
+            map.put("minRuntime", (count == 0) ? 0L : minRuntime);
+            map.put("maxRuntime", maxRuntime);
+            map.put("avgRuntime", (count == 0) ? 0L : totalRuntime / count);
+            map.put("maxDelay", maxDelay);
+            map.put("avgDelay", (count == 0) ? 0L : totalDelay / count);
+            for (int i = 0; i < histogram.length; ++i) {
+                String label = (i < RUNTIME_BUCKETS.length) ? ("runtime<" + RUNTIME_BUCKETS[i] + "ms")
+                    : ("runtime>=" + RUNTIME_BUCKETS[RUNTIME_BUCKETS.length - 1] + "ms");
+                map.put(label, histogram[i]);
+            }
+            return map;
+        }
+    }
+}
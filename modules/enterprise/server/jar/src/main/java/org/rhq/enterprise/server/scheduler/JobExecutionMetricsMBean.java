@@ -0,0 +1,67 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.scheduler;
+
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.rhq.core.util.ObjectNameFactory;
+
+/**
+ * Statistics about the jobs this server node executed through the Quartz scheduler.
+ */
+public interface JobExecutionMetricsMBean {
+    /**
+     * The name of this metric collector MBean.
+     */
+    ObjectName OBJECTNAME_METRICS = ObjectNameFactory.create("rhq:service=SchedulerMetrics");
+
+    /**
+     * Clears the metrics data, starting all values back to 0 as if starting fresh.
+     */
+    void clear();
+
+    /**
+     * @return the number of jobs currently executing on this node
+     */
+    int getExecutingJobs();
+
+    /**
+     * @return the number of exclusive jobs currently executing on this node
+     */
+    int getExecutingExclusiveJobs();
+
+    /**
+     * @return the total number of job executions this node deferred to let them run elsewhere or later
+     */
+    long getNumberDeferredJobs();
+
+    /**
+     * Returns the statistics of each job type (the simple name of the job class) executed on this node. The values
+     * only contain primitive objects so remote clients do not need this MBean's classes. For each job type the map
+     * contains <code>count</code>, <code>failures</code>, <code>deferrals</code>, <code>minRuntime</code>,
+     * <code>maxRuntime</code>, <code>avgRuntime</code>, <code>maxDelay</code> and <code>avgDelay</code> (all times in
+     * milliseconds; the delay is how late the job started compared to its scheduled fire time) followed by the runtime
+     * histogram, one entry per bucket keyed by the bucket's upper bound (e.g. <code>runtime&lt;60000ms</code>).
+     *
+     * @return job statistics keyed by job type
+     */
+    Map<String, Map<String, Long>> getJobStatistics();
+}
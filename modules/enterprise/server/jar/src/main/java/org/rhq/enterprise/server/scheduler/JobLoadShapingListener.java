@@ -0,0 +1,242 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.scheduler;
+
+import java.util.Date;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.quartz.JobDataMap;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.JobListener;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.quartz.TriggerListener;
+
+import org.rhq.enterprise.server.util.LookupUtil;
+
+/**
+ * A global job and trigger listener that shapes the load the scheduled jobs put on this server node. It records the
+ * {@link JobExecutionMetrics execution metrics} of every job, and uses the {@link ExclusiveJobGate} to keep heavy
+ * jobs from piling up on the same node: a heavy job fired while the node is busy is vetoed and fired again a little
+ * later through a one-shot trigger, which any node of the cluster can pick up.
+ * <p/>
+ * The behavior is configured with these system properties:
+ * <ul>
+ * <li><code>rhq.server.scheduler.exclusive-jobs</code> - comma separated simple class names of the heavy jobs</li>
+ * <li><code>rhq.server.scheduler.max-load-per-cpu</code> - heavy jobs are also deferred while the system load average
+ * per processor is above this, 0 (the default) disables the check</li>
+ * <li><code>rhq.server.scheduler.max-datasource-usage</code> - heavy jobs are also deferred while the ratio of the
+ * database connections in use to the maximum pool size is above this (default 0.8), 0 disables the check</li>
+ * <li><code>rhq.server.scheduler.datasource-pool</code> - the object name of the statistics MBean of the datasource
+ * pool (default the RHQDS pool, whose statistics must be enabled for the check to apply)</li>
+ * <li><code>rhq.server.scheduler.short-job-runtime</code> - the seconds under which the recent runtime of a heavy job
+ * on this node lets it run next to another heavy job (default 10), 0 disables the check</li>
+ * <li><code>rhq.server.scheduler.max-deferrals</code> - how many times a heavy job may be deferred before it runs
+ * regardless (default 3), 0 disables deferring</li>
+ * <li><code>rhq.server.scheduler.deferral-delay</code> - the seconds a deferred job waits before firing again
+ * (default 30)</li>
+ * </ul>
+ */
+public class JobLoadShapingListener implements JobListener, TriggerListener {
+
+    private static final Log LOG = LogFactory.getLog(JobLoadShapingListener.class);
+
+    private static final String NAME = "RhqJobLoadShapingListener";
+
+    /**
+     * The trigger data map entry holding the number of times the execution has been deferred.
+     */
+    static final String DEFERRALS_KEY = "rhq.scheduler.deferrals";
+
+    /**
+     * The trigger data map entry holding the time the execution was scheduled for before it was first deferred.
+     */
+    static final String ORIGINAL_FIRE_TIME_KEY = "rhq.scheduler.original-fire-time";
+
+    // context entries used to pass state from one callback of the same execution to the next
+    private static final String ENTERED_KEY = "rhq.scheduler.entered";
+    private static final String START_KEY = "rhq.scheduler.start";
+
+    private final ExclusiveJobGate gate;
+    private final JobExecutionMetrics metrics;
+    private final long deferralDelay;
+
+    public JobLoadShapingListener() {
+        this(new ExclusiveJobGate(
+            System.getProperty("rhq.server.scheduler.exclusive-jobs", ExclusiveJobGate.DEFAULT_EXCLUSIVE_JOBS),
+            Double.parseDouble(System.getProperty("rhq.server.scheduler.max-load-per-cpu", "0")),
+            Double.parseDouble(System.getProperty("rhq.server.scheduler.max-datasource-usage", "0.8")),
+            Integer.getInteger("rhq.server.scheduler.short-job-runtime", 10) * 1000L,
+            Integer.getInteger("rhq.server.scheduler.max-deferrals", 3),
+            System.getProperty("rhq.server.scheduler.datasource-pool", ExclusiveJobGate.DEFAULT_DATASOURCE_POOL)),
+            Integer.getInteger("rhq.server.scheduler.deferral-delay", 30) * 1000L);
+    }
+
+    JobLoadShapingListener(ExclusiveJobGate gate, long deferralDelay) {
+        this.gate = gate;
+        this.metrics = new JobExecutionMetrics(gate);
+        this.deferralDelay = deferralDelay;
+    }
+
+    public JobExecutionMetrics getMetrics() {
+        return metrics;
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    //---------------------------------------------------------------------
+    // TriggerListener
+    //---------------------------------------------------------------------
+
+    public void triggerFired(Trigger trigger, JobExecutionContext context) {
+    }
+
+    public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
+        String jobType = getJobType(context);
+        int deferrals = getDeferrals(trigger);
+        if (gate.tryEnter(jobType, deferrals)) {
+            if (gate.isExclusive(jobType)) {
+                context.put(ENTERED_KEY, Boolean.TRUE);
+            }
+            return false;
+        }
+
+        try {
+            defer(context, deferrals + 1);
+        } catch (Exception e) {
+            // rather run the job here than lose this execution altogether
+            LOG.warn("Failed to defer job [" + context.getJobDetail().getFullName() + "], executing it now: " + e);
+            if (gate.isExclusive(jobType)) {
+                gate.enter(jobType);
+                context.put(ENTERED_KEY, Boolean.TRUE);
+            }
+            return false;
+        }
+
+        metrics.jobDeferred(jobType);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Deferred job [" + context.getJobDetail().getFullName() + "] by [" + deferralDelay
+                + "]ms, this server is busy with [" + gate.getExecuting() + "] exclusive jobs");
+        }
+        return true;
+    }
+
+    public void triggerMisfired(Trigger trigger) {
+    }
+
+    public void triggerComplete(Trigger trigger, JobExecutionContext context, int triggerInstructionCode) {
+    }
+
+    //---------------------------------------------------------------------
+    // JobListener
+    //---------------------------------------------------------------------
+
+    public void jobToBeExecuted(JobExecutionContext context) {
+        context.put(START_KEY, Long.valueOf(System.currentTimeMillis()));
+        metrics.jobStarted();
+    }
+
+    public void jobExecutionVetoed(JobExecutionContext context) {
+        release(context);
+    }
+
+    public void jobWasExecuted(JobExecutionContext context, JobExecutionException jobException) {
+        release(context);
+
+        Long start = (Long) context.get(START_KEY);
+        long runtime = context.getJobRunTime();
+        if (runtime < 0 && start != null) {
+            runtime = System.currentTimeMillis() - start.longValue();
+        }
+        gate.recordRuntime(getJobType(context), Math.max(0L, runtime));
+        // a deferred job is late since the time it was scheduled for in the first place
+        Date scheduledFireTime = getOriginalFireTime(context.getTrigger());
+        if (scheduledFireTime == null) {
+            scheduledFireTime = context.getScheduledFireTime();
+        }
+        long delay = (scheduledFireTime == null || start == null) ? 0L : start.longValue()
+            - scheduledFireTime.getTime();
+        metrics.jobFinished(getJobType(context), delay, Math.max(0L, runtime), jobException != null);
+    }
+
+    private void release(JobExecutionContext context) {
+        if (context.get(ENTERED_KEY) != null) {
+            context.put(ENTERED_KEY, null);
+            gate.exit(getJobType(context));
+        }
+    }
+
+    private void defer(JobExecutionContext context, int deferrals) throws Exception {
+        JobDetail jobDetail = context.getJobDetail();
+        Trigger trigger = context.getTrigger();
+
+        JobDataMap jobDataMap = new JobDataMap(trigger.getJobDataMap());
+        // the job store persists properties, so the data map may only hold strings
+        jobDataMap.put(DEFERRALS_KEY, String.valueOf(deferrals));
+        if (getOriginalFireTime(trigger) == null && context.getScheduledFireTime() != null) {
+            jobDataMap.put(ORIGINAL_FIRE_TIME_KEY, String.valueOf(context.getScheduledFireTime().getTime()));
+        }
+
+        Date startTime = new Date(System.currentTimeMillis() + deferralDelay);
+        SimpleTrigger deferred = new SimpleTrigger(trigger.getName() + "-deferred-" + startTime.getTime(),
+            jobDetail.getGroup(), jobDetail.getName(), jobDetail.getGroup(), startTime, null, 0, 0L);
+        deferred.setJobDataMap(jobDataMap);
+        deferred.setVolatility(jobDetail.isVolatile());
+        deferred.setMisfireInstruction(SimpleTrigger.MISFIRE_INSTRUCTION_FIRE_NOW);
+
+        scheduleDeferred(deferred);
+    }
+
+    void scheduleDeferred(SimpleTrigger deferred) throws Exception {
+        LookupUtil.getSchedulerBean().scheduleJob(deferred);
+    }
+
+    private static int getDeferrals(Trigger trigger) {
+        Object deferrals = trigger.getJobDataMap().get(DEFERRALS_KEY);
+        if (deferrals == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(deferrals.toString());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static Date getOriginalFireTime(Trigger trigger) {
+        Object fireTime = (trigger == null) ? null : trigger.getJobDataMap().get(ORIGINAL_FIRE_TIME_KEY);
+        if (fireTime == null) {
+            return null;
+        }
+        try {
+            return new Date(Long.parseLong(fireTime.toString()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String getJobType(JobExecutionContext context) {
+        return context.getJobDetail().getJobClass().getSimpleName();
+    }
+}
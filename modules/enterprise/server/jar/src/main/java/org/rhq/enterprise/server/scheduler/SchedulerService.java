@@ -80,6 +80,8 @@ public class SchedulerService implements SchedulerServiceMBean {
     private StdSchedulerFactory schedulerFactory = new StdSchedulerFactory();
     private Scheduler scheduler;
 
+    private final JobLoadShapingListener loadShapingListener = new JobLoadShapingListener();
+
     public Properties getQuartzProperties() {
         return quartzProperties;
     }
@@ -124,6 +126,8 @@ public class SchedulerService implements SchedulerServiceMBean {
             // TODO: if we are running in a server cluster, make sure we are using Quartz's clustering capability
             LOG.debug("Scheduler service will initialize Quartz scheduler now.");
             scheduler = schedulerFactory.getScheduler();
+            scheduler.addGlobalJobListener(loadShapingListener);
+            scheduler.addGlobalTriggerListener(loadShapingListener);
         } else {
             LOG.debug("Quartz scheduler is initialized and can be started");
         }
@@ -397,6 +401,7 @@ public class SchedulerService implements SchedulerServiceMBean {
             StreamUtil.safeClose(propertiesStream);
         }
         JMXUtil.registerMBean(this, SCHEDULER_MBEAN_NAME);
+        JMXUtil.registerMBean(loadShapingListener.getMetrics(), JobExecutionMetricsMBean.OBJECTNAME_METRICS);
     }
 
     @PreDestroy
@@ -406,6 +411,7 @@ public class SchedulerService implements SchedulerServiceMBean {
         } catch (SchedulerException ignore) {
         }
         JMXUtil.unregisterMBeanQuietly(SCHEDULER_MBEAN_NAME);
+        JMXUtil.unregisterMBeanQuietly(JobExecutionMetricsMBean.OBJECTNAME_METRICS);
     }
 
     // Quartz methods that are new in 1.5.1 that were not in 1.0.7
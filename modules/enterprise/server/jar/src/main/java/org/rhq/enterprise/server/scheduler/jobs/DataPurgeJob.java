@@ -155,6 +155,7 @@ public class DataPurgeJob extends AbstractStatefulJob {
         long timeStart = System.currentTimeMillis();
         LOG.info("Package bits purge starting at " + new Date(timeStart));
         contentManager.removeHistoryDeploymentsBits();
+        contentManager.deduplicatePackageBits();
         long duration = System.currentTimeMillis() - timeStart;
         LOG.info("Purged old package bits completed in [" + duration + "]ms");
     }
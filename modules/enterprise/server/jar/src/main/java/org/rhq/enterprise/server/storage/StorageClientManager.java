@@ -21,6 +21,8 @@ package org.rhq.enterprise.server.storage;
 
 import static org.rhq.server.metrics.StorageClientConstants.DATA_CENTER;
 import static org.rhq.server.metrics.StorageClientConstants.LOAD_BALANCING;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LATENCY_PERCENTILE;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LATENCY_THRESHOLD;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TOPOLOGY_CHANGE_DELTA;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_WARMUP_PERIOD;
@@ -31,6 +33,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.ejb.ConcurrencyManagement;
 import javax.ejb.ConcurrencyManagementType;
@@ -459,6 +462,44 @@ public class StorageClientManager implements StorageClientManagerMBean{
         persistStorageProperty(REQUEST_TIMEOUT_DAMPENING, Long.toString(requestTimeoutDampening));
     }
 
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public long getRequestLatencyThreshold() {
+        return session.getLatencyThreshold();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setRequestLatencyThreshold(long requestLatencyThreshold) {
+        session.setLatencyThreshold(requestLatencyThreshold);
+        persistStorageProperty(REQUEST_LATENCY_THRESHOLD, Long.toString(requestLatencyThreshold));
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public double getRequestLatencyPercentile() {
+        return session.getLatencyPercentile();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void setRequestLatencyPercentile(double requestLatencyPercentile) {
+        session.setLatencyPercentile(requestLatencyPercentile);
+        persistStorageProperty(REQUEST_LATENCY_PERCENTILE, Double.toString(requestLatencyPercentile));
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Map<String, Map<String, Long>> getRequestClassStatistics() {
+        return session.getRequestStatistics();
+    }
+
+    @Override
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public Map<String, Map<String, Long>> getHostRequestStatistics() {
+        return session.getHostRequestStatistics();
+    }
+
     @Override
     @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public long getReadRequestTimeouts() {
@@ -19,6 +19,8 @@
 
 package org.rhq.enterprise.server.storage;
 
+import java.util.Map;
+
 /**
  * @author John Sanda
  */
@@ -44,6 +46,26 @@ public interface StorageClientManagerMBean {
 
     void setRequestTimeoutDampening(long requestTimeoutDampening);
 
+    long getRequestLatencyThreshold();
+
+    void setRequestLatencyThreshold(long requestLatencyThreshold);
+
+    double getRequestLatencyPercentile();
+
+    void setRequestLatencyPercentile(double requestLatencyPercentile);
+
+    /**
+     * @return the rate, warmup time, request, latency, timeout and borrowed permit counters of each request class,
+     * keyed by the class name, times in milliseconds
+     */
+    Map<String, Map<String, Long>> getRequestClassStatistics();
+
+    /**
+     * @return the request, latency and timeout counters of each storage node, keyed by the node address, times in
+     * milliseconds
+     */
+    Map<String, Map<String, Long>> getHostRequestStatistics();
+
     // Cassandra driver's exposed methods
     int getConnectedToHosts();
     int getKnownHosts();
@@ -97,6 +97,9 @@ public final class CriteriaQueryGenerator {
     private List<Field> persistentBagFields = new ArrayList<Field>();
     private List<Field> joinFetchFields = new ArrayList<Field>();
 
+    // the filter on which keyset paging seeks, see Criteria#setKeysetPaging(boolean)
+    private static final String SEEK_FILTER = "seekId";
+
     static {
         EXPRESSION_START_KEYWORDS = new ArrayList<String>(2);
         EXPRESSION_START_KEYWORDS.add("NOT");
@@ -569,9 +572,16 @@ public final class CriteriaQueryGenerator {
         // criteria
         StringBuilder conjunctiveResults = new StringBuilder();
         boolean firstCrit = true;
+        String seekFragment = null;
         for (Map.Entry<String, Object> filterField : filterFields.entrySet()) {
             Object filterFieldValue = filterField.getValue();
 
+            // the start of a keyset page is not a filter the caller may choose to OR with the others
+            if (SEEK_FILTER.equals(filterField.getKey())) {
+                seekFragment = fixFilterOverride(criteria.getJPQLFilterOverride(SEEK_FILTER), SEEK_FILTER);
+                continue;
+            }
+
             // if this filter field is non-binding (that is, the query has no parameter whose value is to be bound for the field)
             // and that filter field is turned off, do nothing and continue to the next filter.
             // this in effect does not filter on this field at all.
@@ -607,7 +617,7 @@ public final class CriteriaQueryGenerator {
             conjunctiveResults.append(fragment).append(' ');
         }
 
-        if (conjunctiveResults.length() > 0 || authorizationPermsFragment != null
+        if (conjunctiveResults.length() > 0 || seekFragment != null || authorizationPermsFragment != null
             || authorizationCustomConditionFragment != null || searchExpressionWhereClause != null) {
             results.append("WHERE ");
             if (conjunctiveResults.length() > 0) {
@@ -615,6 +625,16 @@ public final class CriteriaQueryGenerator {
             }
         }
 
+        // keyset paging
+        if (seekFragment != null) {
+            if (firstCrit) {
+                firstCrit = false;
+            } else {
+                results.append(NL).append(" AND ");
+            }
+            results.append(seekFragment).append(" ");
+        }
+
         // authorization
         if (authorizationPermsFragment != null) {
             if (firstCrit) {
@@ -1086,11 +1106,30 @@ public final class CriteriaQueryGenerator {
     public static PageControl getPageControl(Criteria criteria) {
         PageControl pc;
 
+        if (criteria.isKeysetPaging()) {
+            // keyset pages always start at page 0 - the seek filter skips the previous pages - and are sorted by id
+            if (criteria.getPageControlOverrides() != null || criteria.getPageSize() == null
+                || criteria.getPageSize() <= 0) {
+                throw new IllegalArgumentException("Keyset paging requires a page size to be set using setPaging");
+            }
+            if (!criteria.isSupportsAddSortId()) {
+                throw new IllegalArgumentException("Keyset paging requires sorting by id");
+            }
+            for (String fieldName : criteria.getOrderingFieldNames()) {
+                if (!"sortId".equals(fieldName)) {
+                    throw new IllegalArgumentException("Keyset paging only supports sorting by id, but [" + fieldName
+                        + "] was requested");
+                }
+            }
+        }
+
         if (criteria.getPageControlOverrides() != null) {
             pc = criteria.getPageControlOverrides();
         } else {
             if (criteria.getPageNumber() == null || criteria.getPageSize() == null) {
                 pc = PageControl.getUnlimitedInstance();
+            } else if (criteria.isKeysetPaging()) {
+                pc = new PageControl(0, criteria.getPageSize());
             } else {
                 pc = new PageControl(criteria.getPageNumber(), criteria.getPageSize());
             }
@@ -1125,5 +1164,4 @@ public final class CriteriaQueryGenerator {
 
         return pc;
     }
-
 }
@@ -24,13 +24,21 @@
 package org.rhq.enterprise.server.util;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityNotFoundException;
+import javax.persistence.PersistenceUnitUtil;
 import javax.persistence.Query;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -56,6 +64,14 @@ public class CriteriaQueryRunner<T> {
         DATA_FETCH_SETTINGS.setThrowOnMaxAttempts(true);
     }
 
+    /**
+     * Whether the collections to fetch are loaded for a whole page of results at once (one query per collection
+     * field) rather than entity by entity. On by default, set the <code>rhq.server.criteria.batch-fetch</code> system
+     * property to <code>false</code> to switch it off.
+     */
+    private static final boolean BATCH_FETCHING = Boolean.valueOf(System.getProperty(
+        "rhq.server.criteria.batch-fetch", "true"));
+
     public CriteriaQueryRunner(Criteria criteria, CriteriaQueryGenerator queryGenerator, EntityManager entityManager) {
         this(criteria, queryGenerator, entityManager, true);
     }
@@ -74,7 +90,19 @@ public class CriteriaQueryRunner<T> {
         PageControl pageControl = CriteriaQueryGenerator.getPageControl(criteria);
 
         Restriction criteriaRestriction = criteria.getRestriction();
-        if (criteriaRestriction == null) {
+        if (criteria.isKeysetPaging() && criteriaRestriction != Restriction.COUNT_ONLY) {
+            // a keyset page never needs the count, that's the point
+            results = new PageList<T>(getCollection(), pageControl);
+            if (results.size() == pageControl.getPageSize()) {
+                int lastId = getId(results.get(results.size() - 1));
+                results.setContinuationToken(Criteria.encodeContinuationToken(lastId));
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("keyset, seekId=" + criteria.getContinuationToken() + ", resultSize=" + results.size()
+                    + ", next=" + results.getContinuationToken());
+            }
+
+        } else if (criteriaRestriction == null) {
             try {
                 results = QueryUtility.fetchPagedDataAndCount(queryGenerator.getQuery(entityManager),
                     queryGenerator.getCountQuery(entityManager), pageControl, DATA_FETCH_SETTINGS);
@@ -130,6 +158,18 @@ public class CriteriaQueryRunner<T> {
         return results;
     }
 
+    private int getId(Object entity) {
+        if (queryGenerator.isProjectionAltered() || !criteria.getPersistentClass().isInstance(entity)) {
+            throw new UnsupportedOperationException("Keyset paging is not supported for altered projections");
+        }
+        Object id = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+        if (!(id instanceof Integer)) {
+            throw new UnsupportedOperationException("Keyset paging is not supported for "
+                + criteria.getPersistentClass().getSimpleName());
+        }
+        return (Integer) id;
+    }
+
     private void finalizeCollection(List<?> results) {
         /*
          * suppression of auto-fetch useful in cases where alterProject(String) was called on the generator, which
@@ -137,6 +177,10 @@ public class CriteriaQueryRunner<T> {
          * this method must, as necessary, perform the fetch manually.
          */
         if (automaticFetching) {
+            if (BATCH_FETCHING && results.size() > 1) {
+                batchInitializeCollections(results);
+            }
+            // the collections loaded in batch are already initialized, this only takes care of the rest
             if (!queryGenerator.getPersistentBagFields().isEmpty()) {
                 for (Object entity : results) {
                     initPersistentBags(entity);
@@ -150,6 +194,81 @@ public class CriteriaQueryRunner<T> {
         }
     }
 
+    /**
+     * Loads the requested collections of all the given entities using one <code>IN (...)</code> query per collection
+     * field (per 1000 entities), instead of one query per entity and field. The queries join fetch the collection
+     * for entities that are already in the persistence context, which makes Hibernate initialize the collections
+     * of those very instances - there is nothing to wire back by hand.
+     * <p/>
+     * Only collection valued fields of entities with a simple id are loaded this way. Anything else is left to the
+     * per-entity initialization.
+     */
+    private void batchInitializeCollections(List<?> entities) {
+        List<Field> fields = new ArrayList<Field>(queryGenerator.getPersistentBagFields());
+        fields.addAll(queryGenerator.getJoinFetchFields());
+        if (fields.isEmpty()) {
+            return;
+        }
+
+        Class<?> entityClass = criteria.getPersistentClass();
+        EntityType<?> entityType;
+        try {
+            entityType = entityManager.getMetamodel().entity(entityClass);
+        } catch (IllegalArgumentException e) {
+            return; // not an entity, nothing we can batch
+        }
+        String idName = getSimpleIdName(entityType);
+        if (idName == null) {
+            return;
+        }
+
+        PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        Set<Object> ids = new LinkedHashSet<Object>(entities.size());
+        for (Object entity : entities) {
+            if (!entityClass.isInstance(entity)) {
+                return; // the projection was altered, leave it to the per-entity initialization
+            }
+            ids.add(persistenceUnitUtil.getIdentifier(entity));
+        }
+        List<Object> idList = new ArrayList<Object>(ids);
+
+        for (Field field : fields) {
+            Attribute<?, ?> attribute;
+            try {
+                attribute = entityType.getAttribute(field.getName());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (!attribute.isCollection()) {
+                continue;
+            }
+
+            String queryString = "SELECT e FROM " + entityType.getName() + " e LEFT JOIN FETCH e." + field.getName()
+                + " WHERE e." + idName + " IN ( :ids )";
+            for (List<Object> batch : new BatchIterator<Object>(idList)) {
+                Query query = entityManager.createQuery(queryString);
+                query.setParameter("ids", batch);
+                query.getResultList();
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Batch initialized [" + field + "] for [" + idList.size() + "] entities");
+            }
+        }
+    }
+
+    private static String getSimpleIdName(EntityType<?> entityType) {
+        if (!entityType.hasSingleIdAttribute()
+            || entityType.getIdType().getPersistenceType() != Type.PersistenceType.BASIC) {
+            return null;
+        }
+        for (SingularAttribute<?, ?> attribute : entityType.getSingularAttributes()) {
+            if (attribute.isId()) {
+                return attribute.getName();
+            }
+        }
+        return null;
+    }
+
     private int getCount() {
         Query countQuery = queryGenerator.getCountQuery(entityManager);
         long count = (Long) countQuery.getSingleResult();
@@ -0,0 +1,145 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.configuration;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.enterprise.server.configuration.LiveConfigurationLoader.LiveConfigurations;
+import org.rhq.enterprise.server.configuration.LiveConfigurationLoader.LiveConfigurations.Status;
+
+@Test
+public class LiveConfigurationLoaderTest {
+
+    private static final int FAILING_RESOURCE_ID = 2;
+    private static final int HANGING_RESOURCE_ID = 3;
+
+    public void returnPartialResultsOnTimeout() throws Exception {
+        final CountDownLatch hanging = new CountDownLatch(1);
+        LiveConfigurationLoader loader = new LiveConfigurationLoader() {
+            @Override
+            Configuration loadLiveResourceConfiguration(int resourceId) throws Exception {
+                if (resourceId == FAILING_RESOURCE_ID) {
+                    throw new Exception("agent failure");
+                } else if (resourceId == HANGING_RESOURCE_ID) {
+                    hanging.await();
+                }
+                return new Configuration();
+            }
+        };
+
+        Set<Resource> resources = new HashSet<Resource>();
+        resources.add(createResource(1, 1));
+        resources.add(createResource(FAILING_RESOURCE_ID, 1));
+        resources.add(createResource(HANGING_RESOURCE_ID, 2));
+        resources.add(createResource(4, 2));
+
+        try {
+            LiveConfigurations result = loader.loadLiveResourceConfigurations(resources, 1);
+
+            assertEquals(result.getStatus(1), Status.LOADED);
+            assertEquals(result.getStatus(4), Status.LOADED);
+            assertEquals(result.getStatus(FAILING_RESOURCE_ID), Status.FAILED);
+            assertTrue(result.getFailures().get(FAILING_RESOURCE_ID).contains("agent failure"));
+            assertEquals(result.getStatus(HANGING_RESOURCE_ID), Status.TIMED_OUT);
+            assertEquals(result.getConfigurations().size(), 2);
+            assertEquals(result.getNotLoaded().size(), 2);
+        } finally {
+            hanging.countDown();
+        }
+    }
+
+    public void limitRequestsPerAgentAcrossLoads() throws Exception {
+        final AtomicInteger inProgress = new AtomicInteger();
+        final AtomicInteger maxInProgress = new AtomicInteger();
+        final LiveConfigurationLoader loader = new LiveConfigurationLoader() {
+            @Override
+            Configuration loadLiveResourceConfiguration(int resourceId) throws Exception {
+                int current = inProgress.incrementAndGet();
+                synchronized (maxInProgress) {
+                    maxInProgress.set(Math.max(maxInProgress.get(), current));
+                }
+                try {
+                    Thread.sleep(20);
+                } finally {
+                    inProgress.decrementAndGet();
+                }
+                return new Configuration();
+            }
+        };
+
+        // two loads of the same Agent's Resources at the same time
+        final Map<Integer, LiveConfigurations> results = new HashMap<Integer, LiveConfigurations>();
+        Thread[] loads = new Thread[2];
+        for (int i = 0; i < loads.length; i++) {
+            final int load = i;
+            final Set<Resource> resources = new HashSet<Resource>();
+            for (int j = 0; j < 10; j++) {
+                resources.add(createResource(100 * (load + 1) + j, 1));
+            }
+            loads[i] = new Thread() {
+                @Override
+                public void run() {
+                    LiveConfigurations result = loader.loadLiveResourceConfigurations(resources, 30);
+                    synchronized (results) {
+                        results.put(load, result);
+                    }
+                }
+            };
+            loads[i].start();
+        }
+        for (Thread load : loads) {
+            load.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        assertEquals(results.size(), 2);
+        for (LiveConfigurations result : results.values()) {
+            assertEquals(result.getConfigurations().size(), 10);
+            assertTrue(result.getNotLoaded().isEmpty());
+        }
+        assertTrue(maxInProgress.get() <= LiveConfigurationLoader.MAX_CONCURRENT_REQUESTS_PER_AGENT,
+            "Too many requests sent to the same agent at the same time: " + maxInProgress.get());
+    }
+
+    private static Resource createResource(int resourceId, int agentId) {
+        Agent agent = new Agent();
+        agent.setId(agentId);
+        Resource resource = new Resource(resourceId);
+        resource.setUuid("uuid-" + resourceId);
+        resource.setAgent(agent);
+        return resource;
+    }
+}
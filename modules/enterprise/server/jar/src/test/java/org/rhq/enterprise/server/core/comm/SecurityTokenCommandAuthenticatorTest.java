@@ -0,0 +1,158 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.core.comm;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.resource.Agent;
+import org.rhq.enterprise.communications.command.Command;
+import org.rhq.enterprise.server.core.AgentManagerLocal;
+
+@Test
+public class SecurityTokenCommandAuthenticatorTest {
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private String token;
+    private Agent agent;
+    private AgentManagerLocal agentManager;
+    private TestAuthenticator authenticator;
+
+    @BeforeMethod
+    public void setUp() {
+        // the cache is shared by all authenticators, use a new token for each test
+        token = UUID.randomUUID().toString();
+        agent = new Agent();
+        agent.setName("agent-" + token);
+        agentManager = mock(AgentManagerLocal.class);
+        authenticator = new TestAuthenticator(agentManager);
+    }
+
+    public void acceptValidToken() {
+        when(agentManager.getAgentByAgentToken(token)).thenReturn(agent);
+
+        assertTrue(authenticator.isAuthenticated(command(token)));
+        assertTrue(SecurityTokenCommandAuthenticator.isCached(token));
+
+        // the cached token is accepted without going to the database again
+        authenticator.now += MINUTE;
+        assertTrue(authenticator.isAuthenticated(command(token)));
+        verify(agentManager, times(1)).getAgentByAgentToken(token);
+        verify(agentManager, times(1)).agentIsAlive(agent);
+    }
+
+    public void rejectUnknownToken() {
+        assertFalse(authenticator.isAuthenticated(command(token)));
+        assertFalse(SecurityTokenCommandAuthenticator.isCached(token));
+    }
+
+    public void rejectRevokedTokenOnceCheckedAgain() throws Exception {
+        when(agentManager.getAgentByAgentToken(token)).thenReturn(agent);
+        assertTrue(authenticator.isAuthenticated(command(token)));
+
+        // the agent is deleted, the cached token is still accepted until it expires and is checked in the background
+        when(agentManager.getAgentByAgentToken(token)).thenReturn(null);
+        authenticator.now += 6 * MINUTE;
+        assertTrue(authenticator.isAuthenticated(command(token)));
+        waitUntilNotCached(token);
+
+        assertFalse(authenticator.isAuthenticated(command(token)));
+    }
+
+    public void rejectCachedTokenAfterHardTimeoutWhileDatabaseFails() throws Exception {
+        when(agentManager.getAgentByAgentToken(token)).thenReturn(agent);
+        assertTrue(authenticator.isAuthenticated(command(token)));
+
+        // the token cannot be checked again, it is accepted up to the hard timeout (the fail-open window)
+        when(agentManager.getAgentByAgentToken(token)).thenThrow(new RuntimeException("database down"));
+        authenticator.now += 6 * MINUTE;
+        assertTrue(authenticator.isAuthenticated(command(token)));
+        authenticator.now += 8 * MINUTE;
+        assertTrue(authenticator.isAuthenticated(command(token)));
+        assertTrue(SecurityTokenCommandAuthenticator.isCached(token), "A failed check must not drop the token");
+
+        authenticator.now += 2 * MINUTE;
+        assertFalse(authenticator.isAuthenticated(command(token)));
+        assertFalse(authenticator.isAuthenticated(command(token)));
+    }
+
+    public void revalidateRemovesTokensNoLongerAssigned() {
+        String otherToken = UUID.randomUUID().toString();
+        when(agentManager.getAgentByAgentToken(token)).thenReturn(agent);
+        when(agentManager.getAgentByAgentToken(otherToken)).thenReturn(agent);
+        assertTrue(authenticator.isAuthenticated(command(token)));
+        assertTrue(authenticator.isAuthenticated(command(otherToken)));
+
+        // the agent of the first token was re-registered through another server
+        when(agentManager.findValidAgentTokens(anyCollectionOf(String.class))).thenReturn(
+            Collections.singletonList(otherToken));
+        SecurityTokenCommandAuthenticator.revalidateTokens(agentManager);
+
+        assertFalse(SecurityTokenCommandAuthenticator.isCached(token));
+        assertTrue(SecurityTokenCommandAuthenticator.isCached(otherToken));
+        SecurityTokenCommandAuthenticator.invalidateToken(otherToken);
+    }
+
+    private static void waitUntilNotCached(String token) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000L;
+        while (SecurityTokenCommandAuthenticator.isCached(token) && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10L);
+        }
+        assertFalse(SecurityTokenCommandAuthenticator.isCached(token), "The token was not checked in the background");
+    }
+
+    private static Command command(String token) {
+        Properties configuration = new Properties();
+        configuration.setProperty("rhq.security-token", token);
+        Command command = mock(Command.class);
+        when(command.getConfiguration()).thenReturn(configuration);
+        return command;
+    }
+
+    private static class TestAuthenticator extends SecurityTokenCommandAuthenticator {
+        private volatile long now = System.currentTimeMillis();
+
+        TestAuthenticator(AgentManagerLocal agentManager) {
+            super(agentManager);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.measurement;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.discovery.AvailabilityReport;
+
+@Test
+public class AvailabilityReportSequenceTest {
+
+    private AvailabilityReportSequence sequence;
+
+    @BeforeMethod
+    public void setUp() {
+        sequence = new AvailabilityReportSequence();
+    }
+
+    public void reportsInOrderAreInSequence() {
+        assertTrue(sequence.isInSequence(report(false, "agent", 1L)));
+        assertTrue(sequence.isInSequence(report(true, "agent", 2L)));
+        assertTrue(sequence.isInSequence(report(true, "agent", 3L)));
+        assertTrue(sequence.isInSequence(report(true, "other", 0L)), "Reports of older agents are not numbered");
+    }
+
+    public void missingReportBreaksSequence() {
+        assertTrue(sequence.isInSequence(report(false, "agent", 1L)));
+        assertFalse(sequence.isInSequence(report(true, "agent", 3L)), "Report 2 was lost");
+        assertTrue(sequence.isInSequence(report(true, "agent", 4L)));
+    }
+
+    public void duplicateOrLateReportBreaksSequence() {
+        assertTrue(sequence.isInSequence(report(false, "agent", 1L)));
+        assertTrue(sequence.isInSequence(report(true, "agent", 2L)));
+        assertFalse(sequence.isInSequence(report(true, "agent", 2L)));
+        assertFalse(sequence.isInSequence(report(true, "agent", 1L)));
+        assertTrue(sequence.isInSequence(report(true, "agent", 3L)), "A late report must not move the sequence back");
+    }
+
+    public void fullReportRestartsSequence() {
+        assertTrue(sequence.isInSequence(report(false, "agent", 7L)));
+        // the agent restarted and numbers its reports from 1 again
+        assertTrue(sequence.isInSequence(report(false, "agent", 1L)));
+        assertTrue(sequence.isInSequence(report(true, "agent", 2L)));
+    }
+
+    public void changesOfUnknownAgentAreNotInSequence() {
+        assertFalse(sequence.isInSequence(report(true, "agent", 5L)),
+            "Reports sent to another server may have been missed");
+        assertTrue(sequence.isInSequence(report(true, "agent", 6L)));
+    }
+
+    public void sequencesAreKeptPerAgent() {
+        assertTrue(sequence.isInSequence(report(false, "agent", 1L)));
+        assertTrue(sequence.isInSequence(report(false, "other", 10L)));
+        assertTrue(sequence.isInSequence(report(true, "agent", 2L)));
+        assertTrue(sequence.isInSequence(report(true, "other", 11L)));
+    }
+
+    public void serverSideReportsAreNotChecked() {
+        AvailabilityReport report = report(true, "agent", 5L);
+        report.setServerSideReport(true);
+        assertTrue(sequence.isInSequence(report));
+    }
+
+    private static AvailabilityReport report(boolean changesOnly, String agentName, long sequenceNumber) {
+        AvailabilityReport report = new AvailabilityReport(changesOnly, agentName);
+        report.setSequenceNumber(sequenceNumber);
+        return report;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.operation;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.core.domain.operation.GroupOperationHistory;
+import org.rhq.core.domain.operation.OperationRequestStatus;
+import org.rhq.core.domain.operation.ResourceOperationHistory;
+import org.rhq.core.domain.operation.bean.GroupOperationSchedule;
+import org.rhq.core.domain.resource.Resource;
+import org.rhq.core.domain.util.PageControl;
+import org.rhq.core.domain.util.PageList;
+import org.rhq.enterprise.server.operation.GroupOperationJob.ResourceOperationDetailsComposite;
+
+@Test
+public class GroupOperationJobTest {
+
+    private static final long TIMEOUT = 600000L;
+
+    public void onlyParallelGroupsAreDispatchedInWindows() {
+        assertEquals(GroupOperationJob.getDispatchWindows(10, false, 0), 0, "Windows are off by default");
+        assertEquals(GroupOperationJob.getDispatchWindows(10, false, 10), 0, "A single window dispatches all at once");
+        assertEquals(GroupOperationJob.getDispatchWindows(10, true, 3), 0, "Ordered members are never windowed");
+        assertEquals(GroupOperationJob.getDispatchWindows(10, false, 3), 4);
+        assertEquals(GroupOperationJob.getDispatchWindows(9, false, 3), 3);
+    }
+
+    public void timeoutIsExtendedOnlyForWindowedGroups() {
+        GroupOperationHistory groupHistory = createGroupHistory();
+        assertEquals(GroupOperationJob.getGroupOperationTimeout(groupHistory, TIMEOUT), TIMEOUT);
+
+        groupHistory.setDispatchWindows(4);
+        assertEquals(GroupOperationJob.getGroupOperationTimeout(groupHistory, TIMEOUT), 4 * TIMEOUT);
+
+        groupHistory.setDispatchWindows(0);
+        assertEquals(groupHistory.getDispatchWindows(), 0);
+        assertEquals(GroupOperationJob.getGroupOperationTimeout(groupHistory, TIMEOUT), TIMEOUT);
+    }
+
+    public void windowBoundsTheMembersInProgress() throws Exception {
+        TestJob job = new TestJob(2, 100);
+        List<ResourceOperationDetailsComposite> members = job.createMembers(5);
+
+        job.invokeInWindows(members, new GroupOperationSchedule(), createGroupHistory(), new Subject(),
+            job.createOperationManager());
+
+        assertEquals(job.dispatched.size(), 5);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(job.dispatched.get(i).getId(), i + 1, "Members must be dispatched in order");
+        }
+        assertEquals(job.maxInProgress, 2);
+        for (ResourceOperationDetailsComposite member : members) {
+            assertEquals(member.history.getStatus(), OperationRequestStatus.SUCCESS);
+        }
+    }
+
+    public void failureRateCancelsTheMembersNotYetDispatched() throws Exception {
+        TestJob job = new TestJob(2, 50);
+        job.failing = true;
+        List<ResourceOperationDetailsComposite> members = job.createMembers(15);
+
+        job.invokeInWindows(members, new GroupOperationSchedule(), createGroupHistory(), new Subject(),
+            job.createOperationManager());
+
+        // the failure rate is acted upon once 10 members completed, the one then in progress is left to finish
+        assertEquals(job.dispatched.size(), 11);
+        for (int i = 0; i < members.size(); i++) {
+            OperationRequestStatus status = members.get(i).history.getStatus();
+            assertEquals(status, (i < 11) ? OperationRequestStatus.FAILURE : OperationRequestStatus.CANCELED);
+        }
+        assertTrue(members.get(14).history.getErrorMessage().contains("50%"));
+    }
+
+    private static GroupOperationHistory createGroupHistory() {
+        return new GroupOperationHistory("job", "group", "user", null, null, null);
+    }
+
+    private static class TestJob extends GroupOperationJob {
+        private final List<ResourceOperationHistory> dispatched = new ArrayList<ResourceOperationHistory>();
+        private final LinkedList<ResourceOperationHistory> running = new LinkedList<ResourceOperationHistory>();
+        private int maxInProgress;
+        private boolean failing;
+
+        TestJob(int maxConcurrentMemberOperations, int maxFailurePercentage) {
+            super(maxConcurrentMemberOperations, maxFailurePercentage);
+        }
+
+        List<ResourceOperationDetailsComposite> createMembers(int count) {
+            List<ResourceOperationDetailsComposite> members = new ArrayList<ResourceOperationDetailsComposite>();
+            for (int i = 1; i <= count; i++) {
+                Resource resource = new Resource(i);
+                ResourceOperationHistory history = new ResourceOperationHistory("job-" + i, "group", "user", null,
+                    null, resource, null);
+                history.setId(i);
+                members.add(new ResourceOperationDetailsComposite(resource, history, null));
+            }
+            return members;
+        }
+
+        /**
+         * The agents complete the oldest member in progress each time the job polls the histories.
+         */
+        OperationManagerLocal createOperationManager() {
+            return (OperationManagerLocal) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { OperationManagerLocal.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("findResourceOperationHistoriesByCriteria")) {
+                            PageList<ResourceOperationHistory> histories = new PageList<ResourceOperationHistory>(
+                                running, new PageControl());
+                            ResourceOperationHistory completed = running.removeFirst();
+                            completed.setStatus(failing ? OperationRequestStatus.FAILURE
+                                : OperationRequestStatus.SUCCESS);
+                            return histories;
+                        } else if (method.getName().equals("updateOperationHistory")) {
+                            return args[1];
+                        }
+                        throw new UnsupportedOperationException(method.toString());
+                    }
+                });
+        }
+
+        @Override
+        void invokeOperationOnResource(ResourceOperationDetailsComposite composite,
+            OperationManagerLocal operationManager) {
+            dispatched.add(composite.history);
+            running.add(composite.history);
+            maxInProgress = Math.max(maxInProgress, running.size());
+        }
+
+        @Override
+        void sleep(long millis) {
+        }
+
+        @Override
+        protected Subject getUserWithSession(Subject user, boolean reattach) {
+            return user;
+        }
+    }
+}
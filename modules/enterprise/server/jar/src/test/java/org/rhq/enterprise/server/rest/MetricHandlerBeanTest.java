@@ -0,0 +1,97 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.rest;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+
+import org.testng.annotations.Test;
+
+import org.rhq.enterprise.server.storage.StorageClientManager;
+import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.RequestClass;
+import org.rhq.server.metrics.StorageResultSetFuture;
+
+@Test
+public class MetricHandlerBeanTest {
+
+    public void nonFiniteValuesAreWrittenAsNull() {
+        assertEquals(printJsonValue(Double.NaN), "null");
+        assertEquals(printJsonValue(Double.POSITIVE_INFINITY), "null");
+        assertEquals(printJsonValue(Double.NEGATIVE_INFINITY), "null");
+        assertEquals(printJsonValue(1.5), "1.5");
+        assertEquals(printJsonValue(0.0), "0.0");
+    }
+
+    public void exportReadsUnderExportRequestClass() throws Exception {
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.iterator()).thenReturn(Collections.<Row> emptyList().iterator());
+        StorageResultSetFuture future = mock(StorageResultSetFuture.class);
+        when(future.get()).thenReturn(resultSet);
+        MetricsDAO metricsDAO = mock(MetricsDAO.class);
+        when(metricsDAO.findRawMetricsAsync(anyInt(), anyLong(), anyLong(), eq(RequestClass.EXPORT))).thenReturn(
+            future);
+        StorageClientManager sessionManager = mock(StorageClientManager.class);
+        when(sessionManager.getMetricsDAO()).thenReturn(metricsDAO);
+
+        MetricHandlerBean bean = new MetricHandlerBean();
+        Field field = MetricHandlerBean.class.getDeclaredField("sessionManager");
+        field.setAccessible(true);
+        field.set(bean, sessionManager);
+
+        MetricHandlerBean.RawNumericExportStreamingOutput output = bean.new RawNumericExportStreamingOutput();
+        output.scheduleIds = Arrays.asList(1, 2, 3);
+        output.startTime = 0L;
+        output.endTime = 1000L;
+        output.write(new ByteArrayOutputStream());
+
+        verify(metricsDAO, times(3)).findRawMetricsAsync(anyInt(), eq(0L), eq(1000L), eq(RequestClass.EXPORT));
+        verify(metricsDAO, never()).findRawMetricsAsync(anyInt(), anyLong(), anyLong(),
+            eq(RequestClass.INTERACTIVE));
+    }
+
+    private static String printJsonValue(double value) {
+        StringWriter writer = new StringWriter();
+        PrintWriter pw = new PrintWriter(writer);
+        MetricHandlerBean.printJsonValue(pw, value);
+        pw.flush();
+        return writer.toString();
+    }
+}
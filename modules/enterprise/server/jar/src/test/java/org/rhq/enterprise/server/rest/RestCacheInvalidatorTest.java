@@ -0,0 +1,242 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 2, as
+ * published by the Free Software Foundation, and/or the GNU Lesser
+ * General Public License, version 2.1, also as published by the Free
+ * Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License and the GNU Lesser General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * and the GNU Lesser General Public License along with this program;
+ * if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.rhq.enterprise.server.rest;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.UriInfo;
+
+import org.infinispan.Cache;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import org.rhq.core.domain.auth.Subject;
+import org.rhq.enterprise.server.rest.AbstractRestBean.CacheKey;
+import org.rhq.enterprise.server.rest.AbstractRestBean.CachedRepresentation;
+
+@Test
+public class RestCacheInvalidatorTest {
+
+    private static final int RESOURCE_ID = 10001;
+    private static final String OLD_NAME = "old name";
+    private static final String NEW_NAME = "new name";
+
+    private Map<Object, Object> cacheEntries;
+    private Cache<CacheKey, Object> cache;
+    private FakeSynchronizationRegistry registry;
+    private RestCacheInvalidator invalidator;
+    private AbstractRestBean restBean;
+    private UriInfo uriInfo;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        cacheEntries = new HashMap<Object, Object>();
+        cache = createCache(cacheEntries);
+        registry = new FakeSynchronizationRegistry();
+        invalidator = new RestCacheInvalidator(cache, registry);
+
+        Subject caller = new Subject();
+        caller.setId(1);
+        restBean = new AbstractRestBean();
+        restBean.cache = cache;
+        restBean.caller = caller;
+
+        uriInfo = mock(UriInfo.class);
+        when(uriInfo.getBaseUri()).thenReturn(new URI("http://localhost:7080/rest/"));
+    }
+
+    public void getAfterCommitDoesNotSeeStaleRepresentation() {
+        cacheRepresentation(OLD_NAME);
+
+        registry.status = Status.STATUS_ACTIVE;
+        invalidator.changed(AbstractRestBean.RESOURCE_REPRESENTATION, Collections.singletonList(RESOURCE_ID));
+
+        // the change is not committed yet, so a concurrent GET still sees and caches the old representation
+        assertNotNull(getCachedRepresentation(), "The representation must only be evicted on commit");
+        cacheRepresentation(OLD_NAME);
+
+        registry.complete(Status.STATUS_COMMITTED);
+
+        assertNull(getCachedRepresentation(), "A GET after the commit must not be answered from the cache");
+        Request request = mock(Request.class);
+        assertNull(restBean.evaluatePreconditionsFromCache(AbstractRestBean.RESOURCE_REPRESENTATION, RESOURCE_ID,
+            request), "A conditional GET after the commit must not be answered with a 304");
+        verify(request, never()).evaluatePreconditions(any(Date.class), any(EntityTag.class));
+        verify(request, never()).evaluatePreconditions(any(EntityTag.class));
+
+        // the GET after the commit caches the new representation
+        cacheRepresentation(NEW_NAME);
+        assertEquals(getCachedRepresentation().getEntity(), NEW_NAME);
+    }
+
+    public void rollbackKeepsRepresentation() {
+        cacheRepresentation(OLD_NAME);
+
+        registry.status = Status.STATUS_ACTIVE;
+        invalidator.changed(AbstractRestBean.RESOURCE_REPRESENTATION, Collections.singletonList(RESOURCE_ID));
+        registry.complete(Status.STATUS_ROLLEDBACK);
+
+        assertEquals(getCachedRepresentation().getEntity(), OLD_NAME);
+    }
+
+    public void changesOfTransactionAreEvictedByOneSynchronization() {
+        cacheRepresentation(OLD_NAME);
+
+        registry.status = Status.STATUS_ACTIVE;
+        invalidator.changed(AbstractRestBean.RESOURCE_REPRESENTATION, Collections.singletonList(RESOURCE_ID));
+        invalidator.changed(AbstractRestBean.GROUP_REPRESENTATION, Collections.singletonList(RESOURCE_ID));
+
+        assertEquals(registry.synchronizations.size(), 1);
+        registry.complete(Status.STATUS_COMMITTED);
+        assertNull(getCachedRepresentation());
+    }
+
+    public void evictRightAwayWithoutTransaction() {
+        cacheRepresentation(OLD_NAME);
+
+        registry.status = Status.STATUS_NO_TRANSACTION;
+        invalidator.changed(AbstractRestBean.RESOURCE_REPRESENTATION, Collections.singletonList(RESOURCE_ID));
+
+        assertNull(getCachedRepresentation());
+        assertEquals(registry.synchronizations.size(), 0);
+    }
+
+    public void doNotEvictInTransactionMarkedForRollback() {
+        cacheRepresentation(OLD_NAME);
+
+        registry.status = Status.STATUS_MARKED_ROLLBACK;
+        invalidator.changed(AbstractRestBean.RESOURCE_REPRESENTATION, Collections.singletonList(RESOURCE_ID));
+
+        assertEquals(getCachedRepresentation().getEntity(), OLD_NAME);
+        assertEquals(registry.synchronizations.size(), 0);
+    }
+
+    private void cacheRepresentation(String name) {
+        restBean.putRepresentationToCache(AbstractRestBean.RESOURCE_REPRESENTATION, RESOURCE_ID, uriInfo, name,
+            new EntityTag(name), new Date());
+    }
+
+    private CachedRepresentation getCachedRepresentation() {
+        return restBean.getRepresentationFromCache(AbstractRestBean.RESOURCE_REPRESENTATION, RESOURCE_ID, uriInfo,
+            String.class);
+    }
+
+    /**
+     * @return a cache that only supports get, put and remove, backed by the given map
+     */
+    @SuppressWarnings("unchecked")
+    private static Cache<CacheKey, Object> createCache(final Map<Object, Object> entries) {
+        return (Cache<CacheKey, Object>) Proxy.newProxyInstance(RestCacheInvalidatorTest.class.getClassLoader(),
+            new Class<?>[] { Cache.class }, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("get")) {
+                        return entries.get(args[0]);
+                    } else if (name.equals("put")) {
+                        return entries.put(args[0], args[1]);
+                    } else if (name.equals("remove") && args.length == 1) {
+                        return entries.remove(args[0]);
+                    }
+                    throw new UnsupportedOperationException(method.toString());
+                }
+            });
+    }
+
+    private static class FakeSynchronizationRegistry implements TransactionSynchronizationRegistry {
+        private int status = Status.STATUS_NO_TRANSACTION;
+        private final Map<Object, Object> resources = new HashMap<Object, Object>();
+        private final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+
+        void complete(int completionStatus) {
+            for (Synchronization synchronization : synchronizations) {
+                synchronization.beforeCompletion();
+            }
+            status = completionStatus;
+            for (Synchronization synchronization : synchronizations) {
+                synchronization.afterCompletion(completionStatus);
+            }
+            synchronizations.clear();
+            resources.clear();
+            status = Status.STATUS_NO_TRANSACTION;
+        }
+
+        @Override
+        public Object getTransactionKey() {
+            return this;
+        }
+
+        @Override
+        public void putResource(Object key, Object value) {
+            resources.put(key, value);
+        }
+
+        @Override
+        public Object getResource(Object key) {
+            return resources.get(key);
+        }
+
+        @Override
+        public void registerInterposedSynchronization(Synchronization sync) {
+            synchronizations.add(sync);
+        }
+
+        @Override
+        public int getTransactionStatus() {
+            return status;
+        }
+
+        @Override
+        public void setRollbackOnly() {
+            status = Status.STATUS_MARKED_ROLLBACK;
+        }
+
+        @Override
+        public boolean getRollbackOnly() {
+            return status == Status.STATUS_MARKED_ROLLBACK;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.scheduler;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+@Test
+public class ExclusiveJobGateTest {
+
+    public void onlyOneExclusiveJobRunsAtATime() {
+        ExclusiveJobGate gate = new ExclusiveJobGate("DataPurgeJob, DataCalcJob", 0, 3);
+
+        assertTrue(gate.tryEnter("DataPurgeJob", 0));
+        assertFalse(gate.tryEnter("DataCalcJob", 0), "Another exclusive job is running");
+        assertTrue(gate.tryEnter("CheckForSuspectedAgentsJob", 0), "Other jobs are never deferred");
+        assertEquals(gate.getExecuting(), 1);
+
+        gate.exit("CheckForSuspectedAgentsJob");
+        assertEquals(gate.getExecuting(), 1);
+        gate.exit("DataPurgeJob");
+        assertEquals(gate.getExecuting(), 0);
+        assertTrue(gate.tryEnter("DataCalcJob", 0));
+    }
+
+    public void jobsDeferredTooOftenRunRegardless() {
+        ExclusiveJobGate gate = new ExclusiveJobGate("DataPurgeJob,DataCalcJob", 0, 3);
+
+        assertTrue(gate.tryEnter("DataPurgeJob", 0));
+        assertFalse(gate.tryEnter("DataCalcJob", 2));
+        assertTrue(gate.tryEnter("DataCalcJob", 3));
+        assertEquals(gate.getExecuting(), 2);
+    }
+
+    public void jobsThatCannotBeDeferredRunRegardless() {
+        ExclusiveJobGate gate = new ExclusiveJobGate("DataPurgeJob,DataCalcJob", 0, 3);
+
+        assertTrue(gate.tryEnter("DataPurgeJob", 0));
+        gate.enter("DataCalcJob");
+        gate.enter("CheckForSuspectedAgentsJob");
+        assertEquals(gate.getExecuting(), 2);
+
+        gate.exit("DataCalcJob");
+        gate.exit("DataPurgeJob");
+        assertEquals(gate.getExecuting(), 0);
+    }
+
+    public void exclusiveJobsAreDeferredUnderLoad() {
+        final double[] load = { 0.5 };
+        ExclusiveJobGate gate = new ExclusiveJobGate("DataPurgeJob", 1.0, 3) {
+            @Override
+            double getLoadPerCpu() {
+                return load[0];
+            }
+        };
+
+        assertTrue(gate.tryEnter("DataPurgeJob", 0));
+        gate.exit("DataPurgeJob");
+
+        load[0] = 2.0;
+        assertFalse(gate.tryEnter("DataPurgeJob", 0));
+
+        // load average not available on this platform
+        load[0] = -1.0;
+        assertTrue(gate.tryEnter("DataPurgeJob", 0));
+    }
+
+    public void exclusiveJobsAreDeferredWhileDatasourceIsBusy() {
+        final double[] usage = { 0.5 };
+        ExclusiveJobGate gate = new ExclusiveJobGate("DataPurgeJob", 0, 0.8, 0L, 3, null) {
+            @Override
+            double getDatasourceUsage() {
+                return usage[0];
+            }
+        };
+
+        assertTrue(gate.tryEnter("DataPurgeJob", 0));
+        gate.exit("DataPurgeJob");
+
+        usage[0] = 0.9;
+        assertFalse(gate.tryEnter("DataPurgeJob", 0));
+        assertTrue(gate.tryEnter("CheckForSuspectedAgentsJob", 0), "Other jobs are never deferred");
+
+        // pool statistics not enabled
+        usage[0] = -1.0;
+        assertTrue(gate.tryEnter("DataPurgeJob", 0));
+    }
+
+    public void datasourceUsageIsUnknownWithoutPoolStatistics() {
+        ExclusiveJobGate gate = new ExclusiveJobGate("DataPurgeJob", 0, 0.8, 0L, 3,
+            "jboss.as:subsystem=datasources,data-source=NoSuchDS,statistics=pool");
+        assertTrue(gate.getDatasourceUsage() < 0);
+        assertTrue(new ExclusiveJobGate("DataPurgeJob", 0, 0.8, 0L, 3, "not an object name").getDatasourceUsage() < 0);
+    }
+
+    public void recentlyShortExclusiveJobsAreNotHeldBack() {
+        ExclusiveJobGate gate = new ExclusiveJobGate("DataPurgeJob,DataCalcJob", 0, 0, 10000L, 3, null);
+
+        assertTrue(gate.tryEnter("DataPurgeJob", 0));
+        assertFalse(gate.tryEnter("DataCalcJob", 0), "The runtime of the job is not known yet");
+
+        gate.recordRuntime("DataCalcJob", 2000L);
+        assertEquals(gate.getRecentRuntime("DataCalcJob"), 2000L);
+        assertTrue(gate.tryEnter("DataCalcJob", 0), "A short job does not wait for the other exclusive jobs");
+        assertEquals(gate.getExecuting(), 2);
+        gate.exit("DataCalcJob");
+
+        // the last execution weighs as much as the previous ones together
+        gate.recordRuntime("DataCalcJob", 40000L);
+        assertEquals(gate.getRecentRuntime("DataCalcJob"), 21000L);
+        assertFalse(gate.tryEnter("DataCalcJob", 0));
+
+        gate.recordRuntime("CheckForSuspectedAgentsJob", 10L);
+        assertEquals(gate.getRecentRuntime("CheckForSuspectedAgentsJob"), -1L, "Only exclusive jobs are recorded");
+    }
+
+    public void metricsAreCollectedPerJobType() {
+        ExclusiveJobGate gate = new ExclusiveJobGate(ExclusiveJobGate.DEFAULT_EXCLUSIVE_JOBS, 0, 3);
+        JobExecutionMetrics metrics = new JobExecutionMetrics(gate);
+
+        metrics.jobStarted();
+        assertEquals(metrics.getExecutingJobs(), 1);
+        metrics.jobFinished("DataPurgeJob", 100L, 500L, false);
+        metrics.jobStarted();
+        metrics.jobFinished("DataPurgeJob", -5L, 70000L, true);
+        metrics.jobDeferred("DataPurgeJob");
+        assertEquals(metrics.getExecutingJobs(), 0);
+        assertEquals(metrics.getNumberDeferredJobs(), 1L);
+
+        Map<String, Long> stats = metrics.getJobStatistics().get("DataPurgeJob");
+        assertEquals(stats.get("count"), Long.valueOf(2L));
+        assertEquals(stats.get("failures"), Long.valueOf(1L));
+        assertEquals(stats.get("deferrals"), Long.valueOf(1L));
+        assertEquals(stats.get("minRuntime"), Long.valueOf(500L));
+        assertEquals(stats.get("maxRuntime"), Long.valueOf(70000L));
+        assertEquals(stats.get("avgRuntime"), Long.valueOf(35250L));
+        assertEquals(stats.get("maxDelay"), Long.valueOf(100L));
+        assertEquals(stats.get("runtime<1000ms"), Long.valueOf(1L));
+        assertEquals(stats.get("runtime<600000ms"), Long.valueOf(1L));
+        assertEquals(stats.get("runtime<60000ms"), Long.valueOf(0L));
+
+        metrics.clear();
+        assertTrue(metrics.getJobStatistics().isEmpty());
+        assertEquals(metrics.getNumberDeferredJobs(), 0L);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+package org.rhq.enterprise.server.scheduler;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.quartz.Job;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.quartz.spi.TriggerFiredBundle;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test
+public class JobLoadShapingListenerTest {
+
+    private static final long DEFERRAL_DELAY = 30000L;
+    private static final long HOUR = 3600000L;
+
+    private ExclusiveJobGate gate;
+    private TestListener listener;
+    private JobDetail heavyJob;
+    private JobDetail otherHeavyJob;
+
+    @BeforeMethod
+    public void setUp() {
+        gate = new ExclusiveJobGate("HeavyJob,OtherHeavyJob", 0, 3);
+        listener = new TestListener(gate);
+        heavyJob = new JobDetail("heavy", "group", HeavyJob.class);
+        otherHeavyJob = new JobDetail("otherHeavy", "group", OtherHeavyJob.class);
+    }
+
+    public void deferHeavyJobThroughOneShotTrigger() {
+        JobExecutionContext running = fire(heavyJob, new SimpleTrigger("heavy", "group", new Date()));
+        assertFalse(listener.vetoJobExecution(running.getTrigger(), running));
+        listener.jobToBeExecuted(running);
+
+        Date scheduledFireTime = new Date(System.currentTimeMillis() - HOUR);
+        SimpleTrigger trigger = new SimpleTrigger("otherHeavy", "group", scheduledFireTime);
+        trigger.getJobDataMap().put("custom", "value");
+        JobExecutionContext vetoed = fire(otherHeavyJob, trigger, scheduledFireTime);
+        long before = System.currentTimeMillis();
+        assertTrue(listener.vetoJobExecution(trigger, vetoed), "A second heavy job must be deferred");
+        listener.jobExecutionVetoed(vetoed);
+        assertEquals(gate.getExecuting(), 1, "A vetoed job must not release the gate of the running one");
+
+        assertEquals(listener.deferred.size(), 1);
+        SimpleTrigger deferred = listener.deferred.get(0);
+        assertEquals(deferred.getJobName(), "otherHeavy");
+        assertEquals(deferred.getJobGroup(), "group");
+        assertEquals(deferred.getRepeatCount(), 0, "The deferred execution must fire only once");
+        assertNull(deferred.getEndTime());
+        assertTrue(deferred.getStartTime().getTime() >= before + DEFERRAL_DELAY);
+        assertTrue(deferred.getName().startsWith("otherHeavy-deferred-"));
+        assertEquals(deferred.getMisfireInstruction(), SimpleTrigger.MISFIRE_INSTRUCTION_FIRE_NOW);
+        assertEquals(deferred.getJobDataMap().get(JobLoadShapingListener.DEFERRALS_KEY), "1");
+        assertEquals(JobLoadShapingListener.getOriginalFireTime(deferred), scheduledFireTime);
+        assertEquals(deferred.getJobDataMap().get("custom"), "value", "The job data of the trigger must be kept");
+        assertEquals(listener.getMetrics().getNumberDeferredJobs(), 1L);
+    }
+
+    public void deferredJobRunsOnceTheNodeIsFree() {
+        JobExecutionContext running = fire(heavyJob, new SimpleTrigger("heavy", "group", new Date()));
+        assertFalse(listener.vetoJobExecution(running.getTrigger(), running));
+        listener.jobToBeExecuted(running);
+
+        Date scheduledFireTime = new Date(System.currentTimeMillis() - HOUR);
+        SimpleTrigger trigger = new SimpleTrigger("otherHeavy", "group", scheduledFireTime);
+        JobExecutionContext vetoed = fire(otherHeavyJob, trigger, scheduledFireTime);
+        assertTrue(listener.vetoJobExecution(trigger, vetoed));
+        listener.jobExecutionVetoed(vetoed);
+
+        // the deferred trigger fires again while the first job still runs
+        SimpleTrigger deferred = listener.deferred.get(0);
+        JobExecutionContext refired = fire(otherHeavyJob, deferred, deferred.getStartTime());
+        assertTrue(listener.vetoJobExecution(deferred, refired));
+        listener.jobExecutionVetoed(refired);
+        assertEquals(listener.deferred.size(), 2);
+        SimpleTrigger deferredAgain = listener.deferred.get(1);
+        assertEquals(deferredAgain.getJobDataMap().get(JobLoadShapingListener.DEFERRALS_KEY), "2");
+        assertEquals(JobLoadShapingListener.getOriginalFireTime(deferredAgain), scheduledFireTime,
+            "The original fire time must be kept across deferrals");
+
+        running.setJobRunTime(1000L);
+        listener.jobWasExecuted(running, null);
+        assertEquals(gate.getExecuting(), 0);
+        assertEquals(gate.getRecentRuntime("HeavyJob"), 1000L);
+
+        // the node is free now, the deferred job enters the gate and runs
+        JobExecutionContext reentered = fire(otherHeavyJob, deferredAgain, deferredAgain.getStartTime());
+        assertFalse(listener.vetoJobExecution(deferredAgain, reentered));
+        assertEquals(gate.getExecuting(), 1);
+        listener.jobToBeExecuted(reentered);
+        reentered.setJobRunTime(500L);
+        listener.jobWasExecuted(reentered, null);
+        assertEquals(gate.getExecuting(), 0);
+        assertEquals(listener.deferred.size(), 2);
+
+        Map<String, Long> stats = listener.getMetrics().getJobStatistics().get("OtherHeavyJob");
+        assertEquals(stats.get("count"), Long.valueOf(1L));
+        assertEquals(stats.get("deferrals"), Long.valueOf(2L));
+        assertTrue(stats.get("maxDelay").longValue() >= HOUR, "The delay must count from the original fire time");
+    }
+
+    public void jobDeferredTooOftenRunsRegardless() {
+        JobExecutionContext running = fire(heavyJob, new SimpleTrigger("heavy", "group", new Date()));
+        assertFalse(listener.vetoJobExecution(running.getTrigger(), running));
+
+        SimpleTrigger trigger = new SimpleTrigger("otherHeavy-deferred-1", "group", new Date());
+        trigger.getJobDataMap().put(JobLoadShapingListener.DEFERRALS_KEY, "3");
+        JobExecutionContext forced = fire(otherHeavyJob, trigger);
+        assertFalse(listener.vetoJobExecution(trigger, forced));
+        assertEquals(gate.getExecuting(), 2);
+        assertTrue(listener.deferred.isEmpty());
+
+        listener.jobWasExecuted(forced, null);
+        listener.jobWasExecuted(running, null);
+        assertEquals(gate.getExecuting(), 0);
+    }
+
+    public void jobRunsNowIfItCannotBeDeferred() {
+        listener.failScheduling = true;
+        JobExecutionContext running = fire(heavyJob, new SimpleTrigger("heavy", "group", new Date()));
+        assertFalse(listener.vetoJobExecution(running.getTrigger(), running));
+
+        JobExecutionContext notDeferred = fire(otherHeavyJob, new SimpleTrigger("otherHeavy", "group", new Date()));
+        assertFalse(listener.vetoJobExecution(notDeferred.getTrigger(), notDeferred));
+        assertEquals(gate.getExecuting(), 2);
+        assertEquals(listener.getMetrics().getNumberDeferredJobs(), 0L);
+
+        listener.jobWasExecuted(notDeferred, null);
+        assertEquals(gate.getExecuting(), 1);
+    }
+
+    public void otherJobsAreNeverVetoed() {
+        JobExecutionContext running = fire(heavyJob, new SimpleTrigger("heavy", "group", new Date()));
+        assertFalse(listener.vetoJobExecution(running.getTrigger(), running));
+
+        JobDetail lightJob = new JobDetail("light", "group", LightJob.class);
+        JobExecutionContext light = fire(lightJob, new SimpleTrigger("light", "group", new Date()));
+        assertFalse(listener.vetoJobExecution(light.getTrigger(), light));
+        listener.jobWasExecuted(light, null);
+        assertEquals(gate.getExecuting(), 1);
+        assertTrue(listener.deferred.isEmpty());
+    }
+
+    private static JobExecutionContext fire(JobDetail jobDetail, Trigger trigger) {
+        return fire(jobDetail, trigger, new Date());
+    }
+
+    private static JobExecutionContext fire(JobDetail jobDetail, Trigger trigger, Date scheduledFireTime) {
+        TriggerFiredBundle bundle = new TriggerFiredBundle(jobDetail, trigger, null, false, new Date(),
+            scheduledFireTime, null, null);
+        return new JobExecutionContext(null, bundle, new HeavyJob());
+    }
+
+    private static class TestListener extends JobLoadShapingListener {
+        private final List<SimpleTrigger> deferred = new ArrayList<SimpleTrigger>();
+        private boolean failScheduling;
+
+        TestListener(ExclusiveJobGate gate) {
+            super(gate, DEFERRAL_DELAY);
+        }
+
+        @Override
+        void scheduleDeferred(SimpleTrigger trigger) throws Exception {
+            if (failScheduling) {
+                throw new Exception("scheduler not available");
+            }
+            deferred.add(trigger);
+        }
+    }
+
+    public static class HeavyJob implements Job {
+        public void execute(JobExecutionContext context) {
+        }
+    }
+
+    public static class OtherHeavyJob implements Job {
+        public void execute(JobExecutionContext context) {
+        }
+    }
+
+    public static class LightJob implements Job {
+        public void execute(JobExecutionContext context) {
+        }
+    }
+}
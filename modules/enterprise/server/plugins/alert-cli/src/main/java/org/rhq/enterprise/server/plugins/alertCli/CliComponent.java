@@ -86,6 +86,7 @@ public class CliComponent implements ServerPluginComponent, ControlFacet {
 
     private static final String CONTROL_CHECK_ALERTS_VALIDITY = "checkAlertsValidity";
     private static final String CONTROL_REASSIGN_ALERTS = "reassignAlerts";
+    private static final String CONTROL_GET_STATISTICS = "getStatistics";
 
     private static final String PROP_ALERT_DEFINITION_NAME = "alertDefinitionName";
     private static final String PROP_RESOURCE_PATH = "resourcePath";
@@ -230,6 +231,8 @@ public class CliComponent implements ServerPluginComponent, ControlFacet {
                 checkAlertsValidity(results);
             } else if (CONTROL_REASSIGN_ALERTS.equals(name)) {
                 reassignAlerts(parameters);
+            } else if (CONTROL_GET_STATISTICS.equals(name)) {
+                CliSenderStatistics.INSTANCE.fill(results.getComplexResults());
             }
         } catch (Exception e) {
             results.setError(e);
@@ -33,11 +33,14 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 
@@ -92,9 +95,12 @@ public class CliSender extends AlertSender<CliComponent> {
     //no more than 10 concurrently running CLI notifications..
     //is that enough?
     private static final int MAX_SCRIPT_ENGINES = 10;
-    private static final Map<String, Queue<ScriptEngine>> SCRIPT_ENGINES = new HashMap<String, Queue<ScriptEngine>>();
+    private static final Map<String, Queue<PooledEngine>> SCRIPT_ENGINES = new HashMap<String, Queue<PooledEngine>>();
     private static int ENGINES_IN_USE = 0;
 
+    //the number of compiled scripts each pooled engine keeps around
+    private static final int MAX_COMPILED_SCRIPTS = 20;
+
     /**
      * Simple strongly typed representation of the alert configuration
      */
@@ -109,16 +115,32 @@ public class CliSender extends AlertSender<CliComponent> {
         public Throwable throwable;
     }
 
-    private static class BitsAndFileExtension {
-        InputStream packageBits;
-        String scriptFileExtension;
+    /**
+     * A script engine together with the scripts already compiled by it. Compiled scripts are bound to the engine
+     * that compiled them, so each pooled engine has its own cache, keyed by the package version of the script.
+     */
+    private static class PooledEngine {
+        final ScriptEngine engine;
+        final Map<String, CompiledScript> compiledScripts = Collections
+            .synchronizedMap(new LinkedHashMap<String, CompiledScript>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+                    return size() > MAX_COMPILED_SCRIPTS;
+                }
+            });
+
+        PooledEngine(ScriptEngine engine) {
+            this.engine = engine;
+        }
     }
 
     @Override
     public SenderResult send(Alert alert) {
         SenderResult result = new SenderResult();
         BufferedReader reader = null;
-        ScriptEngine engine = null;
+        PooledEngine pooledEngine = null;
         Subject subjectWithSession = null;
         final SessionManager sessionManager = SessionManager.getInstance();
         String language = null;
@@ -135,10 +157,9 @@ public class CliSender extends AlertSender<CliComponent> {
             ByteArrayOutputStream scriptOutputStream = new ByteArrayOutputStream();
             PrintWriter scriptOut = new PrintWriter(scriptOutputStream);
 
-            BitsAndFileExtension packageData = getPackageBits(config.packageId, config.repoId);
+            PackageVersion packageVersion = getPackageVersion(config.packageId, config.repoId);
 
-            InputStream packageBits = packageData.packageBits;
-            String scriptFileExtension = packageData.scriptFileExtension;
+            String scriptFileExtension = getScriptFileExtension(packageVersion);
             language = ScriptEngineFactory.getLanguageByScriptFileExtension(scriptFileExtension);
 
             if (language == null) {
@@ -153,20 +174,37 @@ public class CliSender extends AlertSender<CliComponent> {
                         + supportedExtensions);
             }
 
-            engine = getScriptEngine(alert, scriptOut, config, language, pluginComponent.getDomainPackagesNames());
+            pooledEngine = getScriptEngine(alert, scriptOut, config, language,
+                pluginComponent.getDomainPackagesNames());
+
+            final String scriptKey = getScriptKey(packageVersion);
+            final CompiledScript cachedScript = scriptKey == null ? null : pooledEngine.compiledScripts.get(scriptKey);
+            CliSenderStatistics.INSTANCE.compiledScriptLookedUp(cachedScript != null);
 
-            reader = new BufferedReader(new InputStreamReader(packageBits));
+            if (cachedScript == null) {
+                reader = new BufferedReader(new InputStreamReader(getPackageBits(packageVersion)));
+            }
 
             final BufferedReader rdr = reader;
 
             final ExceptionHolder exceptionHolder = new ExceptionHolder();
 
-            final ScriptEngine e = engine;
+            final PooledEngine e = pooledEngine;
             Thread scriptRunner = new Thread(new Runnable() {
                 @Override
                 public void run() {
                     try {
-                        e.eval(rdr);
+                        CompiledScript script = cachedScript;
+                        if (script == null && scriptKey != null && e.engine instanceof Compilable) {
+                            script = ((Compilable) e.engine).compile(rdr);
+                            e.compiledScripts.put(scriptKey, script);
+                        }
+
+                        if (script != null) {
+                            script.eval();
+                        } else {
+                            e.engine.eval(rdr);
+                        }
                     } catch (ScriptException e) {
                         exceptionHolder.scriptException = e;
                     } catch (Throwable e) {
@@ -175,6 +213,8 @@ public class CliSender extends AlertSender<CliComponent> {
                 }
             }, "Script Runner for alert " + alert);
             scriptRunner.setDaemon(true);
+
+            long start = System.currentTimeMillis();
             scriptRunner.start();
 
             if (pluginComponent.getScriptTimeout() <= 0) {
@@ -184,6 +224,7 @@ public class CliSender extends AlertSender<CliComponent> {
             }
 
             scriptRunner.interrupt();
+            CliSenderStatistics.INSTANCE.scriptExecuted(System.currentTimeMillis() - start);
 
             if (exceptionHolder.scriptException != null) {
                 LOG.info("The script execution for CLI notification of alert [" + alert + "] failed.",
@@ -226,8 +267,8 @@ public class CliSender extends AlertSender<CliComponent> {
             if (subjectWithSession != null) {
                 sessionManager.invalidate(subjectWithSession.getSessionId());
             }
-            if (engine != null) {
-                returnEngine(engine, language);
+            if (pooledEngine != null) {
+                returnEngine(pooledEngine, language);
             }
 
             if (reader != null) {
@@ -288,7 +329,7 @@ public class CliSender extends AlertSender<CliComponent> {
         return results;
     }
 
-    private static ScriptEngine getScriptEngine(Alert alert, PrintWriter output, Config config, String language,
+    private static PooledEngine getScriptEngine(Alert alert, PrintWriter output, Config config, String language,
         Set<String> domainPackagesNames) throws ScriptException, IOException, InterruptedException {
         Subject user = config.subject;
 
@@ -297,17 +338,16 @@ public class CliSender extends AlertSender<CliComponent> {
         StandardBindings bindings = new StandardBindings(output, client);
         bindings.put("alert", alert);
 
-        ScriptEngine engine = takeEngine(bindings, language, domainPackagesNames);
-        engine.getContext().setWriter(output);
-        engine.getContext().setErrorWriter(output);
+        PooledEngine pooledEngine = takeEngine(bindings, language, domainPackagesNames);
+        pooledEngine.engine.getContext().setWriter(output);
+        pooledEngine.engine.getContext().setErrorWriter(output);
 
-        return engine;
+        return pooledEngine;
     }
 
-    private static BitsAndFileExtension getPackageBits(int packageId, int repoId) throws IOException {
-        final ContentSourceManagerLocal csm = LookupUtil.getContentSourceManager();
+    private static PackageVersion getPackageVersion(int packageId, int repoId) {
         RepoManagerLocal rm = LookupUtil.getRepoManagerLocal();
-        final PackageVersion versionToUse = rm.getLatestPackageVersion(LookupUtil.getSubjectManager().getOverlord(),
+        PackageVersion versionToUse = rm.getLatestPackageVersion(LookupUtil.getSubjectManager().getOverlord(),
             packageId, repoId);
 
         if (versionToUse == null) {
@@ -317,6 +357,12 @@ public class CliSender extends AlertSender<CliComponent> {
                     + " either doesn't exist at all or doesn't have any version. Can't execute a CLI script without a script to run.");
         }
 
+        return versionToUse;
+    }
+
+    private static InputStream getPackageBits(final PackageVersion versionToUse) throws IOException {
+        final ContentSourceManagerLocal csm = LookupUtil.getContentSourceManager();
+
         PipedInputStream bits = new PipedInputStream();
         final PipedOutputStream out = new PipedOutputStream(bits);
 
@@ -345,9 +391,11 @@ public class CliSender extends AlertSender<CliComponent> {
         reader.setDaemon(true);
         reader.start();
 
-        BitsAndFileExtension ret = new BitsAndFileExtension();
-        ret.packageBits = bits;
-        String fileName = versionToUse.getFileName();
+        return bits;
+    }
+
+    private static String getScriptFileExtension(PackageVersion packageVersion) {
+        String fileName = packageVersion.getFileName();
         String extension = "";
 
         if (fileName != null) {
@@ -357,9 +405,16 @@ public class CliSender extends AlertSender<CliComponent> {
             }
         }
 
-        ret.scriptFileExtension = extension;
+        return extension;
+    }
 
-        return ret;
+    /**
+     * The compiled scripts are cached under the id and the hash of the package version so that a script is parsed
+     * again if its content ever changes. Package versions without a known hash are not cached.
+     */
+    private static String getScriptKey(PackageVersion packageVersion) {
+        String hash = packageVersion.getSHA256() != null ? packageVersion.getSHA256() : packageVersion.getMD5();
+        return hash == null ? null : packageVersion.getId() + ":" + hash;
     }
 
     /**
@@ -463,42 +518,65 @@ public class CliSender extends AlertSender<CliComponent> {
         return integerValue;
     }
 
-    private static ScriptEngine takeEngine(StandardBindings bindings, String language, Set<String> domainPackagesNames)
-        throws InterruptedException, ScriptException, IOException {
+    private static PooledEngine takeEngine(StandardBindings bindings, String language,
+        Set<String> domainPackagesNames) throws InterruptedException, ScriptException, IOException {
+        PooledEngine pooledEngine;
+
+        long start = System.currentTimeMillis();
         synchronized (SCRIPT_ENGINES) {
-            if (ENGINES_IN_USE >= MAX_SCRIPT_ENGINES) {
+            while (ENGINES_IN_USE >= MAX_SCRIPT_ENGINES) {
                 SCRIPT_ENGINES.wait();
             }
 
-            Queue<ScriptEngine> q = SCRIPT_ENGINES.get(language);
+            Queue<PooledEngine> q = SCRIPT_ENGINES.get(language);
             if (q == null) {
-                q = new ArrayDeque<ScriptEngine>();
+                q = new ArrayDeque<PooledEngine>();
                 SCRIPT_ENGINES.put(language, q);
             }
 
-            ScriptEngine engine = q.poll();
+            pooledEngine = q.poll();
 
-            if (engine == null) {
-                engine = ScriptEngineFactory.getSecuredScriptEngine(language, new CliSenderPackageFinder(
-                    domainPackagesNames), bindings, new StandardScriptPermissions());
+            ++ENGINES_IN_USE;
+        }
+        long waitTime = System.currentTimeMillis() - start;
+        long creationTime = -1;
+
+        //instantiating and initializing the engines is expensive, so do it outside of the lock so that notifications
+        //with an engine already available don't have to wait for it
+        try {
+            if (pooledEngine == null) {
+                long creationStart = System.currentTimeMillis();
+                ScriptEngine engine = ScriptEngineFactory.getSecuredScriptEngine(language,
+                    new CliSenderPackageFinder(domainPackagesNames), bindings, new StandardScriptPermissions());
+                pooledEngine = new PooledEngine(engine);
+                creationTime = System.currentTimeMillis() - creationStart;
             }
             //TODO is this OK, or should we use a different classloader than the context classloader?
             ScriptSourceProvider[] providers = ScriptSourceProviderFactory.get(null);
-            ScriptEngineFactory.injectStandardBindings(engine, bindings, true, providers);
+            ScriptEngineFactory.injectStandardBindings(pooledEngine.engine, bindings, true, providers);
+        } catch (ScriptException e) {
+            releaseEngineSlot();
+            throw e;
+        } catch (IOException e) {
+            releaseEngineSlot();
+            throw e;
+        } catch (RuntimeException e) {
+            releaseEngineSlot();
+            throw e;
+        }
 
-            ++ENGINES_IN_USE;
+        CliSenderStatistics.INSTANCE.engineTaken(waitTime, creationTime);
 
-            return engine;
-        }
+        return pooledEngine;
     }
 
-    private static void returnEngine(ScriptEngine engine, String language) {
+    private static void returnEngine(PooledEngine engine, String language) {
         synchronized (SCRIPT_ENGINES) {
-            Queue<ScriptEngine> q = SCRIPT_ENGINES.get(language);
+            Queue<PooledEngine> q = SCRIPT_ENGINES.get(language);
             if (q == null) {
                 //hmm... this is very strange and should not happen, because we should have initied the queue in the 
                 //takeEngine() method...
-                q = new ArrayDeque<ScriptEngine>();
+                q = new ArrayDeque<PooledEngine>();
                 SCRIPT_ENGINES.put(language, q);
             }
             q.offer(engine);
@@ -507,6 +585,13 @@ public class CliSender extends AlertSender<CliComponent> {
         }
     }
 
+    private static void releaseEngineSlot() {
+        synchronized (SCRIPT_ENGINES) {
+            --ENGINES_IN_USE;
+            SCRIPT_ENGINES.notify();
+        }
+    }
+
     private static int remainingResultSize(SenderResult r) {
         //the "10" is a ballpark to allow for some formatting
         //done by the receivers of the SenderResult.
@@ -0,0 +1,95 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2014 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.enterprise.server.plugins.alertCli;
+
+import org.rhq.core.domain.configuration.Configuration;
+import org.rhq.core.domain.configuration.PropertySimple;
+
+/**
+ * Counters of the CLI notifications sent since the server started: how long the notifications waited for a script
+ * engine, how long the scripts ran and how often a script could be run without parsing it again.
+ */
+final class CliSenderStatistics {
+
+    static final CliSenderStatistics INSTANCE = new CliSenderStatistics();
+
+    private long engineWaits;
+    private long totalEngineWaitTime;
+    private long maxEngineWaitTime;
+    private long engineCreations;
+    private long totalEngineCreationTime;
+    private long maxEngineCreationTime;
+    private long executions;
+    private long totalExecutionTime;
+    private long maxExecutionTime;
+    private long compiledScriptHits;
+    private long compiledScriptMisses;
+
+    private CliSenderStatistics() {
+    }
+
+    /**
+     * @param waitTime     how long the notification waited for a free script engine slot
+     * @param creationTime how long it took to create a new script engine, negative if a pooled engine was reused
+     */
+    synchronized void engineTaken(long waitTime, long creationTime) {
+        ++engineWaits;
+        totalEngineWaitTime += waitTime;
+        maxEngineWaitTime = Math.max(maxEngineWaitTime, waitTime);
+        if (creationTime >= 0) {
+            ++engineCreations;
+            totalEngineCreationTime += creationTime;
+            maxEngineCreationTime = Math.max(maxEngineCreationTime, creationTime);
+        }
+    }
+
+    synchronized void scriptExecuted(long executionTime) {
+        ++executions;
+        totalExecutionTime += executionTime;
+        maxExecutionTime = Math.max(maxExecutionTime, executionTime);
+    }
+
+    synchronized void compiledScriptLookedUp(boolean found) {
+        if (found) {
+            ++compiledScriptHits;
+        } else {
+            ++compiledScriptMisses;
+        }
+    }
+
+    /**
+     * Puts the current values, times in milliseconds, in the given configuration.
+     */
+    synchronized void fill(Configuration results) {
+        results.put(new PropertySimple("engineWaitCount", engineWaits));
+        results.put(new PropertySimple("engineWaitTimeAverage", engineWaits == 0 ? 0 : totalEngineWaitTime
+            / engineWaits));
+        results.put(new PropertySimple("engineWaitTimeMax", maxEngineWaitTime));
+        results.put(new PropertySimple("engineCreationCount", engineCreations));
+        results.put(new PropertySimple("engineCreationTimeAverage", engineCreations == 0 ? 0 : totalEngineCreationTime
+            / engineCreations));
+        results.put(new PropertySimple("engineCreationTimeMax", maxEngineCreationTime));
+        results.put(new PropertySimple("executionCount", executions));
+        results.put(new PropertySimple("executionTimeAverage", executions == 0 ? 0 : totalExecutionTime / executions));
+        results.put(new PropertySimple("executionTimeMax", maxExecutionTime));
+        results.put(new PropertySimple("compiledScriptHits", compiledScriptHits));
+        results.put(new PropertySimple("compiledScriptMisses", compiledScriptMisses));
+    }
+}
@@ -38,7 +38,9 @@ public class HibernateDetachUtilityTest {
      * This tests the rare, but very possible, condition where two objects
      * have the same identity hashcode (System.identityHashCode(A) == System.identityHashCode(B))
      * but are not identical objects (A != B). We have seen this as a valid condition
-     * on both SUN and IBM JRE implementations. 
+     * on both SUN and IBM JRE implementations. The detached objects are tracked
+     * by identity, so such objects, as well as circular references, must not
+     * confuse the detach.
      */
     public void testIdenticalHashCodesNonIdenticalObjects() throws Exception {
         class ArrayObject implements Serializable {
@@ -64,18 +66,6 @@ public class HibernateDetachUtilityTest {
 
         }
 
-        class DuplicateHashCodeGenerator implements HibernateDetachUtility.HashCodeGenerator {
-            public Integer getHashCode(Object value) {
-                if (value instanceof Integer && ((Integer) value).intValue() >= 2) {
-                    return 11111;
-                } else if (value instanceof ArrayObject) {
-                    return 22222;
-                } else {
-                    return System.identityHashCode(value);
-                }
-            }
-        }
-
         ArrayObject array1 = new ArrayObject(1, null, 1, 2, 3);
         ArrayObject array2 = new ArrayObject(2, array1, 2, 3);
         array1.object = array2; // now 1 references 2 and 2 reference 1, circular dependency
@@ -101,8 +91,6 @@ public class HibernateDetachUtilityTest {
         // make sure array3 still self-references
         assertObjectEquals(array.get(2).object, array.get(2));
 
-        // simulate rare condition
-        HibernateDetachUtility.hashCodeGenerator = new DuplicateHashCodeGenerator();
         HibernateDetachUtility.nullOutUninitializedFields(array, SerializationType.SERIALIZATION);
         assert array.get(0).array[0] == Integer.valueOf(1);
         assert array.get(0).array[1] == Integer.valueOf(2);
@@ -118,8 +106,7 @@ public class HibernateDetachUtilityTest {
         // make sure array3 still self-references
         assertObjectEquals(array.get(2).object, array.get(2));
 
-        // put it back the way it was
-        HibernateDetachUtility.hashCodeGenerator = new HibernateDetachUtility.SystemHashCodeGenerator();
+        // detaching again must leave the graph as it is
         HibernateDetachUtility.nullOutUninitializedFields(array, SerializationType.SERIALIZATION);
         assert array.get(0).array[0] == Integer.valueOf(1);
         assert array.get(0).array[1] == Integer.valueOf(2);
@@ -136,6 +123,27 @@ public class HibernateDetachUtilityTest {
         assertObjectEquals(array.get(2).object, array.get(2));
     }
 
+    public void testDepthLimit() throws Exception {
+        class Node implements Serializable {
+            private static final long serialVersionUID = 1L;
+            Node next;
+        }
+
+        Node head = new Node();
+        Node tail = head;
+        for (int i = 0; i < 1000; ++i) {
+            tail.next = new Node();
+            tail = tail.next;
+        }
+
+        try {
+            HibernateDetachUtility.nullOutUninitializedFields(head, SerializationType.SERIALIZATION);
+            assert false : "The graph is deeper than allowed by default, detaching it should have failed";
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
     private void assertObjectEquals(Object o1, Object o2) {
         assert o1 == o2 : "Object [" + o1 + "] does not equal object [" + o2 + "]";
     }
@@ -0,0 +1,79 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The latency and timeout counters of the requests served by one storage node. The host of a request is the
+ * coordinator the driver {@link com.datastax.driver.core.ExecutionInfo#getQueriedHost() queried}. A timeout is only
+ * attributed to a host when the driver reports it for that host, i.e. for client timeouts; a timeout reported by the
+ * coordinator does not tell which node it was.
+ * <p/>
+ * The permits are shared by the whole cluster and the driver chooses the host of each request, so these counters
+ * tell which node is slow but do not throttle it on their own.
+ *
+ * @see StorageSession
+ */
+final class HostRequestStatistics {
+
+    private final AtomicLong completedRequests = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong slowRequests = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param latency          the latency of the request in milliseconds
+     * @param latencyThreshold the latency above which the request counts as slow, 0 or less to not count them
+     */
+    void requestCompleted(long latency, long latencyThreshold) {
+        completedRequests.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+        if (latencyThreshold > 0 && latency > latencyThreshold) {
+            slowRequests.incrementAndGet();
+        }
+    }
+
+    void requestTimedOut() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * @return the counters of this host since the session was created, times in milliseconds
+     */
+    Map<String, Long> getStatistics() {
+        long completedCount = completedRequests.get();
+
+        Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+        statistics.put("requests", completedCount);
+        statistics.put("avgLatency", completedCount == 0 ? 0L : totalLatency.get() / completedCount);
+        statistics.put("maxLatency", maxLatency.get());
+        statistics.put("slowRequests", slowRequests.get());
+        statistics.put("timeouts", timeouts.get());
+        return statistics;
+    }
+}
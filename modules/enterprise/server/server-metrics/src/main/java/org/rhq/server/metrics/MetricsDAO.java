@@ -166,25 +166,25 @@ public class MetricsDAO {
     public StorageResultSetFuture insertRawData(MeasurementDataNumeric data) {
         BoundStatement statement = insertRawData.bind(data.getScheduleId(), new Date(data.getTimestamp()),
             data.getValue());
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, RequestClass.INGESTION);
     }
 
     public StorageResultSetFuture insert1HourData(AggregateNumericMetric metric) {
         BoundStatement statement = insertOneHourData.bind(metric.getScheduleId(), new Date(metric.getTimestamp()),
             metric.getAvg(), metric.getMax(), metric.getMin());
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, RequestClass.AGGREGATION);
     }
 
     public StorageResultSetFuture insert6HourData(AggregateNumericMetric metric) {
         BoundStatement statement = insertSixHourData.bind(metric.getScheduleId(), new Date(metric.getTimestamp()),
             metric.getAvg(), metric.getMax(), metric.getMin());
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, RequestClass.AGGREGATION);
     }
 
     public StorageResultSetFuture insert24HourData(AggregateNumericMetric metric) {
         BoundStatement statement = insertTwentyFourHourData.bind(metric.getScheduleId(),
             new Date(metric.getTimestamp()), metric.getAvg(), metric.getMax(), metric.getMin());
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, RequestClass.AGGREGATION);
     }
 
     public List<RawNumericMetric> findRawMetrics(int scheduleId, long startTime, long endTime) {
@@ -201,8 +201,13 @@ public class MetricsDAO {
     }
 
     public StorageResultSetFuture findRawMetricsAsync(int scheduleId, long startTime, long endTime) {
+        return findRawMetricsAsync(scheduleId, startTime, endTime, RequestClass.INTERACTIVE);
+    }
+
+    public StorageResultSetFuture findRawMetricsAsync(int scheduleId, long startTime, long endTime,
+        RequestClass requestClass) {
         BoundStatement boundStatement = rawMetricsQuery.bind(scheduleId, new Date(startTime), new Date(endTime));
-        return storageSession.executeAsync(boundStatement);
+        return storageSession.executeAsync(boundStatement, requestClass);
     }
 
     public RawNumericMetric findLatestRawMetric(int scheduleId) {
@@ -229,38 +234,45 @@ public class MetricsDAO {
 
     public StorageResultSetFuture findAggregateMetricsAsync(int scheduleId, Bucket bucket, long startTime,
         long endTime) {
+        return findAggregateMetricsAsync(scheduleId, bucket, startTime, endTime, RequestClass.INTERACTIVE);
+    }
+
+    public StorageResultSetFuture findAggregateMetricsAsync(int scheduleId, Bucket bucket, long startTime,
+        long endTime, RequestClass requestClass) {
         BoundStatement statement = findAggregateMetricsByDateRange.bind(scheduleId, bucket.toString(),
             new Date(startTime), new Date(endTime));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, requestClass);
     }
 
     public StorageResultSetFuture findIndexEntries(IndexBucket bucket, int partition, long timestamp) {
         BoundStatement statement = findIndexEntries.bind(bucket.toString(), partition, new Date(timestamp));
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, RequestClass.AGGREGATION);
     }
 
     public StorageResultSetFuture findIndexEntries(IndexBucket bucket, int partition, long timestamp, int scheduleId) {
         BoundStatement statement = findIndexEntriesAfterScheduleId.bind(bucket.toString(), partition,
             new Date(timestamp), scheduleId);
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, RequestClass.AGGREGATION);
     }
 
     public StorageResultSetFuture updateIndex(IndexBucket bucket, long timestamp, int scheduleId) {
         BoundStatement statement = insertIndexEntry.bind(bucket.toString(),
             (scheduleId % configuration.getIndexPartitions()), new Date(timestamp), scheduleId);
-        return storageSession.executeAsync(statement);
+        // the raw index is updated along with every raw data insert, the other indexes by the aggregation
+        return storageSession.executeAsync(statement, bucket == IndexBucket.RAW ? RequestClass.INGESTION
+            : RequestClass.AGGREGATION);
     }
 
     public StorageResultSetFuture deleteIndexEntry(IndexEntry indexEntry) {
         BoundStatement statement = deleteIndexEntry.bind(indexEntry.getBucket().toString(), indexEntry.getPartition(),
             new Date(indexEntry.getTimestamp()), indexEntry.getScheduleId());
-        return storageSession.executeAsync(statement);
+        return storageSession.executeAsync(statement, RequestClass.AGGREGATION);
     }
 
     public void deleteAggregate(AggregateNumericMetric metric) {
         BoundStatement statement = deleteAggregate.bind(metric.getScheduleId(), metric.getBucket().toString(),
             new Date(metric.getTimestamp()));
-        storageSession.execute(statement);
+        storageSession.execute(statement, RequestClass.AGGREGATION);
     }
 
     public ResultSet checkLiveness(String keyspace) throws QueryTimeoutException, NoHostAvailableException {
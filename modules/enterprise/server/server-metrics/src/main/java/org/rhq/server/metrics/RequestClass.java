@@ -0,0 +1,72 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.server.metrics;
+
+/**
+ * The classes of requests sent to the storage cluster. {@link StorageSession} throttles each class with its own
+ * permits, so that for example a heavy aggregation run does not slow down the chart reads of the UI.
+ * <p/>
+ * The classes are declared by decreasing priority. When requests of a class time out, the permits of that class and
+ * of all the classes with a lower priority are reduced, while the classes with a higher priority keep their rate. When
+ * requests of a class are slow, only the permits of that class are reduced.
+ */
+public enum RequestClass {
+
+    /**
+     * Reads done on behalf of a user, like the chart and summary reads, and any request not classified otherwise.
+     */
+    INTERACTIVE(0.2),
+
+    /**
+     * The inserts of the raw data reported by the agents.
+     */
+    INGESTION(0.45),
+
+    /**
+     * The reads, writes and deletes done while aggregating the metric data.
+     */
+    AGGREGATION(0.25),
+
+    /**
+     * The bulk reads of the raw data exports. They come last, so that an export never slows down the other requests.
+     */
+    EXPORT(0.1);
+
+    private final double defaultShare;
+
+    private RequestClass(double defaultShare) {
+        this.defaultShare = defaultShare;
+    }
+
+    /**
+     * @return the system property holding the share of the request limit given to this class
+     */
+    public String getShareProperty() {
+        return StorageClientConstants.REQUEST_LIMIT_SHARE + "." + name().toLowerCase();
+    }
+
+    /**
+     * @return the share of the request limit given to this class unless configured otherwise, the default shares of
+     * all the classes add up to 1
+     */
+    public double getDefaultShare() {
+        return defaultShare;
+    }
+}
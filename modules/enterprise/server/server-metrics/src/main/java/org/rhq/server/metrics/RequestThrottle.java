@@ -0,0 +1,270 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.server.metrics;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * The permits of one {@link RequestClass}. The rate is the share of the class of the request limit of the session.
+ * A class that has no permit available right away may borrow one from a class that is idle, so the share of a class
+ * is the rate it is guaranteed, not a cap, unless it is backing off.
+ * <p/>
+ * Backing off replaces the rate limiter by a new one warming up over a longer period. A warming up limiter starts at a
+ * fraction of its rate and increases it steadily, so a back off cuts the rate at once and then gives it back little by
+ * little, unless the requests keep timing out. Slowness is judged on a percentile of the latencies of the most recent
+ * requests of the class, not on single requests.
+ *
+ * @see StorageSession
+ */
+final class RequestThrottle {
+
+    /**
+     * The number of most recent request latencies the latency percentile is computed from.
+     */
+    static final int LATENCY_WINDOW_SIZE = 200;
+
+    /**
+     * The number of completed requests between two computations of the latency percentile.
+     */
+    static final int LATENCY_CHECK_INTERVAL = 50;
+
+    private final RequestClass requestClass;
+
+    private final double share;
+
+    private volatile RateLimiter permits;
+
+    private int previousWarmupTime;
+
+    private long permitsLastChanged = System.currentTimeMillis();
+
+    private volatile long backingOffUntil;
+
+    // guarded by latencyWindow
+    private final long[] latencyWindow = new long[LATENCY_WINDOW_SIZE];
+    private int latencyWindowSize;
+    private int latencyWindowNext;
+    private int requestsSinceLatencyCheck;
+    private volatile long windowLatency;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong totalPermitWaitTime = new AtomicLong();
+    private final AtomicLong completedRequests = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong slowRequests = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong backOffs = new AtomicLong();
+    private final AtomicLong borrowedPermits = new AtomicLong();
+    private final AtomicLong lentPermits = new AtomicLong();
+
+    RequestThrottle(RequestClass requestClass, double share, double requestLimit, int warmupTime) {
+        this.requestClass = requestClass;
+        this.share = share;
+        this.previousWarmupTime = warmupTime;
+        this.permits = RateLimiter.create(getRate(requestLimit), warmupTime, TimeUnit.MINUTES);
+    }
+
+    RequestClass getRequestClass() {
+        return requestClass;
+    }
+
+    double getShare() {
+        return share;
+    }
+
+    private double getRate(double requestLimit) {
+        // never stop a class altogether, even if it is configured with no share
+        return Math.max(1.0, requestLimit * share);
+    }
+
+    /**
+     * Waits for a permit of this class.
+     */
+    void acquire() {
+        long start = System.nanoTime();
+        permits.acquire();
+        totalPermitWaitTime.addAndGet(System.nanoTime() - start);
+        requests.incrementAndGet();
+    }
+
+    /**
+     * @return true if a permit of this class was available right away
+     */
+    boolean tryAcquire() {
+        if (permits.tryAcquire()) {
+            requests.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives a permit of this class to another class, if this class is idle enough to have one available right away
+     * and is not backing off.
+     *
+     * @return true if a permit was lent
+     */
+    boolean lend() {
+        if (!isBackingOff() && permits.tryAcquire()) {
+            lentPermits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a request sent with a permit borrowed from another class.
+     */
+    void borrowed() {
+        requests.incrementAndGet();
+        borrowedPermits.incrementAndGet();
+    }
+
+    /**
+     * @return true while the permits of this class warm up after a back off, a class backing off neither borrows nor
+     * lends permits
+     */
+    boolean isBackingOff() {
+        return System.currentTimeMillis() < backingOffUntil;
+    }
+
+    double getRate() {
+        return permits.getRate();
+    }
+
+    synchronized void setRequestLimit(double requestLimit) {
+        permitsLastChanged = System.currentTimeMillis();
+        permits.setRate(getRate(requestLimit));
+    }
+
+    synchronized void resetWarmupTime(int warmupTimePeriod) {
+        previousWarmupTime = warmupTimePeriod;
+    }
+
+    synchronized int getPreviousWarmupTime() {
+        return previousWarmupTime;
+    }
+
+    /**
+     * Records a completed request. Every {@link #LATENCY_CHECK_INTERVAL} requests, the given percentile of the
+     * latencies of the last {@link #LATENCY_WINDOW_SIZE} requests is computed again and compared to the threshold.
+     *
+     * @param latency          the latency of the request in milliseconds
+     * @param latencyThreshold the latency percentile above which this class is too slow, a threshold of 0 or less
+     *                         disables the check
+     * @param percentile       the percentile, between 0 and 100, of the recent latencies compared to the threshold
+     *
+     * @return true if the latency percentile was just computed and is above the threshold
+     */
+    boolean requestCompleted(long latency, long latencyThreshold, double percentile) {
+        completedRequests.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+        if (latencyThreshold > 0 && latency > latencyThreshold) {
+            slowRequests.incrementAndGet();
+        }
+
+        long[] latencies;
+        synchronized (latencyWindow) {
+            latencyWindow[latencyWindowNext] = latency;
+            latencyWindowNext = (latencyWindowNext + 1) % LATENCY_WINDOW_SIZE;
+            if (latencyWindowSize < LATENCY_WINDOW_SIZE) {
+                latencyWindowSize++;
+            }
+            if (++requestsSinceLatencyCheck < LATENCY_CHECK_INTERVAL) {
+                return false;
+            }
+            requestsSinceLatencyCheck = 0;
+            latencies = Arrays.copyOf(latencyWindow, latencyWindowSize);
+        }
+
+        Arrays.sort(latencies);
+        int index = (int) Math.ceil(percentile / 100.0 * latencies.length) - 1;
+        windowLatency = latencies[Math.min(latencies.length - 1, Math.max(0, index))];
+        return latencyThreshold > 0 && windowLatency > latencyThreshold;
+    }
+
+    void requestTimedOut() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * Replaces the rate limiter by one warming up over a longer period, unless the permits changed less than the
+     * timeout dampening ago.
+     *
+     * @return the new warmup period in minutes, or 0 if the permits were left as they are
+     */
+    synchronized int backOff(double requestLimit, int warmupTimePeriod, int maxWarmupCounter, long timeoutDampening) {
+        if (System.currentTimeMillis() - permitsLastChanged <= timeoutDampening) {
+            return 0;
+        }
+        int warmupTime = previousWarmupTime;
+        if (previousWarmupTime < (maxWarmupCounter * warmupTimePeriod)) {
+            warmupTime += warmupTimePeriod;
+            previousWarmupTime = warmupTime;
+        }
+        permits = RateLimiter.create(getRate(requestLimit), warmupTime, TimeUnit.MINUTES);
+        permitsLastChanged = System.currentTimeMillis();
+        backingOffUntil = permitsLastChanged + TimeUnit.MINUTES.toMillis(warmupTime);
+        backOffs.incrementAndGet();
+
+        // the next latency check only considers the requests sent with the new permits
+        synchronized (latencyWindow) {
+            latencyWindowSize = 0;
+            latencyWindowNext = 0;
+            requestsSinceLatencyCheck = 0;
+        }
+        return warmupTime;
+    }
+
+    /**
+     * @return the counters of this class since the session was created, times in milliseconds
+     */
+    Map<String, Long> getStatistics() {
+        long requestCount = requests.get();
+        long completedCount = completedRequests.get();
+
+        Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+        statistics.put("rate", Math.round(getRate()));
+        statistics.put("warmupTime", (long) getPreviousWarmupTime());
+        statistics.put("requests", requestCount);
+        statistics.put("avgPermitWaitTime", requestCount == 0 ? 0L : TimeUnit.NANOSECONDS.toMillis(totalPermitWaitTime
+            .get() / requestCount));
+        statistics.put("avgLatency", completedCount == 0 ? 0L : totalLatency.get() / completedCount);
+        statistics.put("maxLatency", maxLatency.get());
+        statistics.put("windowLatency", windowLatency);
+        statistics.put("slowRequests", slowRequests.get());
+        statistics.put("timeouts", timeouts.get());
+        statistics.put("backOffs", backOffs.get());
+        statistics.put("borrowedPermits", borrowedPermits.get());
+        statistics.put("lentPermits", lentPermits.get());
+        return statistics;
+    }
+}
@@ -32,6 +32,16 @@ public class StorageClientConstants {
 
     public static final String REQUEST_TOPOLOGY_CHANGE_DELTA = "rhq.storage.request.limit.topology-delta";
 
+    /**
+     * Prefix of the properties holding the share of the request limit given to each {@link RequestClass}, e.g.
+     * <code>rhq.storage.request.limit.share.aggregation</code>.
+     */
+    public static final String REQUEST_LIMIT_SHARE = "rhq.storage.request.limit.share";
+
+    public static final String REQUEST_LATENCY_THRESHOLD = "rhq.storage.request.latency-threshold";
+
+    public static final String REQUEST_LATENCY_PERCENTILE = "rhq.storage.request.latency-percentile";
+
     public static final String LOAD_BALANCING = "rhq.storage.client.load-balancing";
 
     public static final String DATA_CENTER = "rhq.storage.dc";
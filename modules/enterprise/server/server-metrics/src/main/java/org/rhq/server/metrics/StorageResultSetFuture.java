@@ -19,9 +19,16 @@ public class StorageResultSetFuture implements ListenableFuture<ResultSet> {
 
     private StorageSession session;
 
+    private RequestClass requestClass;
+
     public StorageResultSetFuture(ResultSetFuture resultSetFuture, StorageSession session) {
+        this(resultSetFuture, session, RequestClass.INTERACTIVE);
+    }
+
+    public StorageResultSetFuture(ResultSetFuture resultSetFuture, StorageSession session, RequestClass requestClass) {
         wrapperFuture = resultSetFuture;
         this.session = session;
+        this.requestClass = requestClass;
     }
 
     @Override
@@ -52,10 +59,10 @@ public class StorageResultSetFuture implements ListenableFuture<ResultSet> {
         try {
             return wrapperFuture.getUninterruptibly();
         } catch (QueryTimeoutException e) {
-            session.handleTimeout();
+            session.handleTimeout(requestClass);
             throw e;
         } catch (NoHostAvailableException e) {
-            session.handleNoHostAvailable(e);
+            session.handleNoHostAvailable(e, requestClass);
             throw e;
         }
     }
@@ -68,10 +75,10 @@ public class StorageResultSetFuture implements ListenableFuture<ResultSet> {
         try {
             return wrapperFuture.getUninterruptibly(timeout, unit);
         } catch (QueryTimeoutException e) {
-            session.handleTimeout();
+            session.handleTimeout(requestClass);
             throw e;
         } catch (NoHostAvailableException e) {
-            session.handleNoHostAvailable(e);
+            session.handleNoHostAvailable(e, requestClass);
             throw e;
         }
     }
@@ -19,6 +19,8 @@
 
 package org.rhq.server.metrics;
 
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LATENCY_PERCENTILE;
+import static org.rhq.server.metrics.StorageClientConstants.REQUEST_LATENCY_THRESHOLD;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_WARMUP_PERIOD;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_WARMUP_PERIOD_MAX_COUNTER;
 import static org.rhq.server.metrics.StorageClientConstants.REQUEST_TIMEOUT_DAMPENING;
@@ -29,10 +31,17 @@ import java.math.MathContext;
 import java.math.RoundingMode;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ExecutionInfo;
 import com.datastax.driver.core.Host;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.Query;
@@ -41,19 +50,26 @@ import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.exceptions.NoHostAvailableException;
 import com.datastax.driver.core.exceptions.QueryTimeoutException;
-import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
+ * Throttles the requests sent to the storage cluster. The request limit, derived from the topology delta and the
+ * number of storage nodes up, is shared by the {@link RequestClass request classes}, each throttled by its own
+ * permits. A class short of permits borrows the permits other classes leave unused. When requests of a class time
+ * out, the permits of that class and of the classes with a lower priority are warmed up again over a longer period.
+ * When the recent requests of a class are too slow, i.e. a percentile of their latencies is above the latency
+ * threshold, only the permits of that class are warmed up again. The latencies and timeouts are also counted for each
+ * storage node, see {@link HostRequestStatistics}.
+ *
  * @author John Sanda
  */
 public class StorageSession implements Host.StateListener {
 
     private int warmupTimePeriod = Integer.parseInt(System.getProperty(REQUEST_WARMUP_PERIOD, "3"));
     private int maxWarmupCounter = Integer.parseInt(System.getProperty(REQUEST_WARMUP_PERIOD_MAX_COUNTER, "10"));
-    private int previousWarmupTime = warmupTimePeriod;
 
     private final Log log = LogFactory.getLog(StorageSession.class);
 
@@ -63,9 +79,15 @@ public class StorageSession implements Host.StateListener {
 
     private boolean isClusterAvailable = false;
 
-    private RateLimiter permits = null;
+    private final Map<RequestClass, RequestThrottle> throttles = new EnumMap<RequestClass, RequestThrottle>(
+        RequestClass.class);
+
+    private final ConcurrentMap<InetAddress, HostRequestStatistics> hostStatistics =
+        new ConcurrentHashMap<InetAddress, HostRequestStatistics>();
+
+    private long latencyThreshold = Long.parseLong(System.getProperty(REQUEST_LATENCY_THRESHOLD, "5000"));
 
-    private long permitsLastChanged = System.currentTimeMillis();
+    private double latencyPercentile = Double.parseDouble(System.getProperty(REQUEST_LATENCY_PERCENTILE, "95"));
 
     private long timeoutDampening = Long.parseLong(System.getProperty(REQUEST_TIMEOUT_DAMPENING, "30000"));
 
@@ -74,11 +96,12 @@ public class StorageSession implements Host.StateListener {
     public StorageSession(Session wrappedSession) {
         this.wrappedSession = wrappedSession;
         this.wrappedSession.getCluster().register(this);
-        permits = getRateLimiter(warmupTimePeriod);
-    }
-
-    private RateLimiter getRateLimiter(int warmupTime) {
-        return RateLimiter.create(calculateRequestLimit(), warmupTime, TimeUnit.MINUTES);
+        double requestLimit = calculateRequestLimit();
+        for (RequestClass requestClass : RequestClass.values()) {
+            double share = Double.parseDouble(System.getProperty(requestClass.getShareProperty(),
+                Double.toString(requestClass.getDefaultShare())));
+            throttles.put(requestClass, new RequestThrottle(requestClass, share, requestLimit, warmupTimePeriod));
+        }
     }
 
     public void registerNewSession(Session newWrappedSession) {
@@ -112,12 +135,52 @@ public class StorageSession implements Host.StateListener {
     }
 
     private void setRequestLimit() {
-        permitsLastChanged = System.currentTimeMillis();
-        permits.setRate(calculateRequestLimit());
+        double requestLimit = calculateRequestLimit();
+        for (RequestThrottle throttle : throttles.values()) {
+            throttle.setRequestLimit(requestLimit);
+        }
     }
 
+    /**
+     * @return the current rate, in requests per second, of all the request classes together
+     */
     public double getRequestLimit() {
-        return new BigDecimal(permits.getRate(), new MathContext(2, RoundingMode.HALF_UP)).doubleValue();
+        double rate = 0.0;
+        for (RequestThrottle throttle : throttles.values()) {
+            rate += throttle.getRate();
+        }
+        return new BigDecimal(rate, new MathContext(2, RoundingMode.HALF_UP)).doubleValue();
+    }
+
+    /**
+     * @return the current rate, in requests per second, of the given request class
+     */
+    public double getRequestLimit(RequestClass requestClass) {
+        return new BigDecimal(throttles.get(requestClass).getRate(), new MathContext(2, RoundingMode.HALF_UP))
+            .doubleValue();
+    }
+
+    /**
+     * @return the counters of each request class, keyed by the class name, since this session was created
+     */
+    public Map<String, Map<String, Long>> getRequestStatistics() {
+        Map<String, Map<String, Long>> statistics = new LinkedHashMap<String, Map<String, Long>>();
+        for (RequestThrottle throttle : throttles.values()) {
+            statistics.put(throttle.getRequestClass().name(), throttle.getStatistics());
+        }
+        return statistics;
+    }
+
+    /**
+     * @return the counters of each storage node that served requests, keyed by the node address, since this session
+     * was created
+     */
+    public Map<String, Map<String, Long>> getHostRequestStatistics() {
+        Map<String, Map<String, Long>> statistics = new TreeMap<String, Map<String, Long>>();
+        for (Map.Entry<InetAddress, HostRequestStatistics> entry : hostStatistics.entrySet()) {
+            statistics.put(entry.getKey().getHostAddress(), entry.getValue().getStatistics());
+        }
+        return statistics;
     }
 
     public double getTopologyDelta() {
@@ -127,7 +190,9 @@ public class StorageSession implements Host.StateListener {
     public synchronized void setTopologyDelta(double delta) {
         topologyDelta = delta;
         // On delta change, reset warmup period
-        previousWarmupTime = warmupTimePeriod;
+        for (RequestThrottle throttle : throttles.values()) {
+            throttle.resetWarmupTime(warmupTimePeriod);
+        }
         setRequestLimit();
     }
 
@@ -139,32 +204,70 @@ public class StorageSession implements Host.StateListener {
         this.timeoutDampening = timeoutDampening;
     }
 
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    /**
+     * @param latencyThreshold the milliseconds after which a request counts as slow; a request class backs off when the
+     * {@link #setLatencyPercentile(double) latency percentile} of its recent requests is above it, 0 disables the check
+     */
+    public void setLatencyThreshold(long latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    public double getLatencyPercentile() {
+        return latencyPercentile;
+    }
+
+    /**
+     * @param latencyPercentile the percentile, between 0 and 100, of the latencies of the recent requests of a class
+     * that is compared to the latency threshold
+     */
+    public void setLatencyPercentile(double latencyPercentile) {
+        this.latencyPercentile = latencyPercentile;
+    }
+
     public void addStorageStateListener(StorageStateListener listener) {
         listeners.add(listener);
     }
 
     public ResultSet execute(String query) {
+        return execute(query, RequestClass.INTERACTIVE);
+    }
+
+    public ResultSet execute(String query, RequestClass requestClass) {
         try {
-            permits.acquire();
-            return wrappedSession.execute(query);
+            acquire(requestClass);
+            long start = System.currentTimeMillis();
+            ResultSet resultSet = wrappedSession.execute(query);
+            requestCompleted(requestClass, getQueriedHost(resultSet), System.currentTimeMillis() - start);
+            return resultSet;
         } catch (QueryTimeoutException e) {
-            handleTimeout();
+            handleTimeout(requestClass);
             throw e;
         } catch (NoHostAvailableException e) {
-            handleNoHostAvailable(e);
+            handleNoHostAvailable(e, requestClass);
             throw e;
         }
     }
 
     public ResultSet execute(Query query) {
+        return execute(query, RequestClass.INTERACTIVE);
+    }
+
+    public ResultSet execute(Query query, RequestClass requestClass) {
         try {
-            permits.acquire();
-            return wrappedSession.execute(query);
+            acquire(requestClass);
+            long start = System.currentTimeMillis();
+            ResultSet resultSet = wrappedSession.execute(query);
+            requestCompleted(requestClass, getQueriedHost(resultSet), System.currentTimeMillis() - start);
+            return resultSet;
         } catch(QueryTimeoutException e) {
-            handleTimeout();
+            handleTimeout(requestClass);
             throw e;
         } catch (NoHostAvailableException e) {
-            handleNoHostAvailable(e);
+            handleNoHostAvailable(e, requestClass);
             throw e;
         }
     }
@@ -177,19 +280,93 @@ public class StorageSession implements Host.StateListener {
     }
 
     public StorageResultSetFuture executeAsync(String query) {
-        permits.acquire();
-        ResultSetFuture future = wrappedSession.executeAsync(query);
-        return new StorageResultSetFuture(future, this);
+        return executeAsync(query, RequestClass.INTERACTIVE);
+    }
+
+    public StorageResultSetFuture executeAsync(String query, RequestClass requestClass) {
+        acquire(requestClass);
+        return trackLatency(wrappedSession.executeAsync(query), requestClass);
     }
 
     public StorageResultSetFuture executeAsync(Query query) {
-        permits.acquire();
-        ResultSetFuture future = wrappedSession.executeAsync(query);
-        return new StorageResultSetFuture(future, this);
+        return executeAsync(query, RequestClass.INTERACTIVE);
+    }
+
+    public StorageResultSetFuture executeAsync(Query query, RequestClass requestClass) {
+        acquire(requestClass);
+        return trackLatency(wrappedSession.executeAsync(query), requestClass);
+    }
+
+    /**
+     * Takes a permit of the request class. If it has none available right away, the permit is borrowed from a class
+     * that has, so that the requests of a busy class are not delayed while other classes leave their share unused.
+     * Only when no class has a permit to spare does the request wait for a permit of its own class.
+     */
+    void acquire(RequestClass requestClass) {
+        RequestThrottle throttle = throttles.get(requestClass);
+        if (throttle.tryAcquire()) {
+            return;
+        }
+        if (!throttle.isBackingOff()) {
+            for (RequestThrottle lender : throttles.values()) {
+                if (lender != throttle && lender.lend()) {
+                    throttle.borrowed();
+                    return;
+                }
+            }
+        }
+        throttle.acquire();
+    }
+
+    private StorageResultSetFuture trackLatency(final ResultSetFuture future, final RequestClass requestClass) {
+        final long start = System.currentTimeMillis();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                long latency = System.currentTimeMillis() - start;
+                requestCompleted(requestClass, getQueriedHost(future), latency);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return new StorageResultSetFuture(future, this, requestClass);
+    }
+
+    /**
+     * @return the address of the node that coordinated the completed request, or null if the request failed
+     */
+    private static InetAddress getQueriedHost(ResultSetFuture future) {
+        if (future.isCancelled()) {
+            return null;
+        }
+        try {
+            return getQueriedHost(future.getUninterruptibly());
+        } catch (RuntimeException e) {
+            // the failure is handled by whoever gets the result
+            return null;
+        }
+    }
+
+    private static InetAddress getQueriedHost(ResultSet resultSet) {
+        ExecutionInfo executionInfo = (resultSet == null) ? null : resultSet.getExecutionInfo();
+        if (executionInfo == null || executionInfo.getQueriedHost() == null) {
+            return null;
+        }
+        return executionInfo.getQueriedHost().getAddress();
+    }
+
+    private HostRequestStatistics getHostStatistics(InetAddress address) {
+        HostRequestStatistics statistics = hostStatistics.get(address);
+        if (statistics == null) {
+            HostRequestStatistics newStatistics = new HostRequestStatistics();
+            statistics = hostStatistics.putIfAbsent(address, newStatistics);
+            if (statistics == null) {
+                statistics = newStatistics;
+            }
+        }
+        return statistics;
     }
 
     public PreparedStatement prepare(String query) {
-        permits.acquire();
+        acquire(RequestClass.INTERACTIVE);
         return wrappedSession.prepare(query);
     }
 
@@ -249,26 +426,51 @@ public class StorageSession implements Host.StateListener {
         }
     }
 
-    void handleNoHostAvailable(NoHostAvailableException e) {
+    void handleNoHostAvailable(NoHostAvailableException e, RequestClass requestClass) {
         log.warn("Encountered " + NoHostAvailableException.class.getSimpleName() + " due to following error(s): " +
                 e.getErrors());
         if (isClientTimeout(e)) {
-            handleTimeout();
+            for (Map.Entry<InetAddress, String> error : e.getErrors().entrySet()) {
+                if (isTimeout(error.getValue())) {
+                    getHostStatistics(error.getKey()).requestTimedOut();
+                }
+            }
+            handleTimeout(requestClass);
         } else {
             fireClusterDownEvent(e);
         }
     }
 
-    synchronized void handleTimeout() {
-        if (System.currentTimeMillis() - permitsLastChanged > timeoutDampening) {
-            int warmupTime = previousWarmupTime;
-            if(previousWarmupTime < (maxWarmupCounter * warmupTimePeriod)) {
-                warmupTime += warmupTimePeriod;
-                previousWarmupTime = warmupTime;
+    void handleTimeout(RequestClass requestClass) {
+        throttles.get(requestClass).requestTimedOut();
+        backOff(requestClass, true, "a timeout");
+    }
+
+    void requestCompleted(RequestClass requestClass, InetAddress host, long latency) {
+        if (host != null) {
+            getHostStatistics(host).requestCompleted(latency, latencyThreshold);
+        }
+        if (throttles.get(requestClass).requestCompleted(latency, latencyThreshold, latencyPercentile)) {
+            backOff(requestClass, false, "the " + latencyPercentile + " percentile of the latency going above "
+                + latencyThreshold + " ms");
+        }
+    }
+
+    /**
+     * Backs off the given request class and, if asked to, all the classes with a lower priority.
+     */
+    private synchronized void backOff(RequestClass requestClass, boolean lowerPriorities, String reason) {
+        double requestLimit = calculateRequestLimit();
+        for (RequestThrottle throttle : throttles.values()) {
+            RequestClass throttled = throttle.getRequestClass();
+            if (throttled != requestClass && (!lowerPriorities || throttled.ordinal() < requestClass.ordinal())) {
+                continue;
+            }
+            int warmupTime = throttle.backOff(requestLimit, warmupTimePeriod, maxWarmupCounter, timeoutDampening);
+            if (warmupTime > 0) {
+                log.warn("Reset warmup period of " + throttle.getRequestClass() + " requests to " + warmupTime
+                    + " minutes after " + reason + " of " + requestClass + " requests");
             }
-            permits = getRateLimiter(warmupTime);
-            log.warn("Reset warmup period to " + warmupTime + " minutes after a timeout");
-            permitsLastChanged = System.currentTimeMillis();
         }
     }
 
@@ -281,16 +483,19 @@ public class StorageSession implements Host.StateListener {
     }
 
     private boolean isClientTimeout(NoHostAvailableException e) {
-        for (InetAddress address : e.getErrors().keySet()) {
-            String error = e.getErrors().get(address);
-            if (error != null && (error.contains("Timeout during read") ||
-                error.contains("Timeout while trying to acquire available connection"))) {
+        for (String error : e.getErrors().values()) {
+            if (isTimeout(error)) {
                 return true;
             }
         }
         return false;
     }
 
+    private static boolean isTimeout(String error) {
+        return error != null && (error.contains("Timeout during read") ||
+            error.contains("Timeout while trying to acquire available connection"));
+    }
+
     private void fireClusterDownEvent(NoHostAvailableException e) {
         isClusterAvailable = false;
         for (StorageStateListener listener : listeners) {
@@ -314,7 +519,14 @@ public class StorageSession implements Host.StateListener {
         this.maxWarmupCounter = maxWarmupCounter;
     }
 
+    /**
+     * @return the longest warmup period, in minutes, currently used by a request class
+     */
     public int getPreviousWarmupTime() {
+        int previousWarmupTime = 0;
+        for (RequestThrottle throttle : throttles.values()) {
+            previousWarmupTime = Math.max(previousWarmupTime, throttle.getPreviousWarmupTime());
+        }
         return previousWarmupTime;
     }
 }
@@ -27,6 +27,7 @@ import org.rhq.server.metrics.ArithmeticMeanCalculator;
 import org.rhq.server.metrics.DateTimeService;
 import org.rhq.server.metrics.MetricsConfiguration;
 import org.rhq.server.metrics.MetricsDAO;
+import org.rhq.server.metrics.RequestClass;
 import org.rhq.server.metrics.StorageResultSetFuture;
 import org.rhq.server.metrics.domain.AggregateNumericMetric;
 import org.rhq.server.metrics.domain.AggregateNumericMetricMapper;
@@ -226,7 +227,7 @@ class DataAggregator<T extends NumericMetric> {
         List<StorageResultSetFuture> queryFutures = new ArrayList<StorageResultSetFuture>();
         for (IndexEntry indexEntry : batch) {
             queryFutures.add(dao.findRawMetricsAsync(indexEntry.getScheduleId(), batch.getStartTime().getMillis(),
-                batch.getEndTime().getMillis()));
+                batch.getEndTime().getMillis(), RequestClass.AGGREGATION));
         }
         batch.setQueriesFuture(Futures.allAsList(queryFutures));
     }
@@ -235,7 +236,7 @@ class DataAggregator<T extends NumericMetric> {
         List<StorageResultSetFuture> queryFutures = new ArrayList<StorageResultSetFuture>();
         for (IndexEntry indexEntry : batch) {
             queryFutures.add(dao.findAggregateMetricsAsync(indexEntry.getScheduleId(), bucket,
-                batch.getStartTime().getMillis(), batch.getEndTime().getMillis()));
+                batch.getStartTime().getMillis(), batch.getEndTime().getMillis(), RequestClass.AGGREGATION));
         }
         batch.setQueriesFuture(Futures.allAsList(queryFutures));
     }
@@ -0,0 +1,52 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class HostRequestStatisticsTest {
+
+    @Test
+    public void countersAreKeptForTheHost() {
+        HostRequestStatistics host = new HostRequestStatistics();
+        host.requestCompleted(100L, 1000L);
+        host.requestCompleted(3000L, 1000L);
+        host.requestCompleted(200L, 0L);
+        host.requestTimedOut();
+
+        Map<String, Long> statistics = host.getStatistics();
+        assertEquals(statistics.get("requests"), Long.valueOf(3L));
+        assertEquals(statistics.get("avgLatency"), Long.valueOf(1100L));
+        assertEquals(statistics.get("maxLatency"), Long.valueOf(3000L));
+        assertEquals(statistics.get("slowRequests"), Long.valueOf(1L), "Only requests above a threshold are slow");
+        assertEquals(statistics.get("timeouts"), Long.valueOf(1L));
+    }
+
+    @Test
+    public void noRequestsMeansNoLatency() {
+        Map<String, Long> statistics = new HostRequestStatistics().getStatistics();
+        assertEquals(statistics.get("requests"), Long.valueOf(0L));
+        assertEquals(statistics.get("avgLatency"), Long.valueOf(0L));
+    }
+}
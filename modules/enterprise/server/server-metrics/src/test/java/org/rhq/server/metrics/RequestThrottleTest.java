@@ -0,0 +1,127 @@
+/*
+ * RHQ Management Platform
+ * Copyright (C) 2005-2015 Red Hat, Inc.
+ * All rights reserved.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA
+ */
+
+package org.rhq.server.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class RequestThrottleTest {
+
+    @Test
+    public void rateIsTheShareOfTheRequestLimit() {
+        RequestThrottle throttle = new RequestThrottle(RequestClass.AGGREGATION, 0.3, 1000.0, 3);
+        assertEquals(throttle.getRate(), 300.0, 0.001);
+
+        throttle.setRequestLimit(2000.0);
+        assertEquals(throttle.getRate(), 600.0, 0.001);
+
+        throttle.setRequestLimit(0.0);
+        assertEquals(throttle.getRate(), 1.0, 0.001, "A request class should never be stopped altogether");
+    }
+
+    @Test
+    public void backOffIncreasesWarmupTimeUpToTheMaximum() {
+        RequestThrottle throttle = new RequestThrottle(RequestClass.INGESTION, 0.5, 1000.0, 3);
+
+        assertEquals(throttle.backOff(1000.0, 3, 2, -1L), 6);
+        assertEquals(throttle.backOff(1000.0, 3, 2, -1L), 6, "The warmup time should not grow beyond 2 * 3 minutes");
+        assertEquals(throttle.getPreviousWarmupTime(), 6);
+        assertEquals(throttle.getRate(), 500.0, 0.001);
+
+        throttle.resetWarmupTime(3);
+        assertEquals(throttle.getPreviousWarmupTime(), 3);
+    }
+
+    @Test
+    public void backOffIsDampened() {
+        RequestThrottle throttle = new RequestThrottle(RequestClass.INTERACTIVE, 0.2, 1000.0, 3);
+
+        assertEquals(throttle.backOff(1000.0, 3, 10, 60000L), 0, "The permits were just created");
+        assertEquals(throttle.getPreviousWarmupTime(), 3);
+    }
+
+    @Test
+    public void statisticsAreCollected() {
+        RequestThrottle throttle = new RequestThrottle(RequestClass.INTERACTIVE, 1.0, 1000.0, 3);
+
+        throttle.acquire();
+        throttle.acquire();
+        assertFalse(throttle.requestCompleted(100L, 1000L, 95.0));
+        assertFalse(throttle.requestCompleted(3000L, 1000L, 95.0), "A single slow request is not enough to back off");
+        assertFalse(throttle.requestCompleted(3000L, 0L, 95.0));
+        throttle.requestTimedOut();
+        throttle.backOff(1000.0, 3, 10, -1L);
+        throttle.borrowed();
+
+        Map<String, Long> statistics = throttle.getStatistics();
+        assertEquals(statistics.get("requests"), Long.valueOf(3L));
+        assertEquals(statistics.get("borrowedPermits"), Long.valueOf(1L));
+        assertEquals(statistics.get("avgLatency"), Long.valueOf(2033L));
+        assertEquals(statistics.get("maxLatency"), Long.valueOf(3000L));
+        assertEquals(statistics.get("slowRequests"), Long.valueOf(1L));
+        assertEquals(statistics.get("timeouts"), Long.valueOf(1L));
+        assertEquals(statistics.get("backOffs"), Long.valueOf(1L));
+        assertEquals(statistics.get("warmupTime"), Long.valueOf(6L));
+    }
+
+    @Test
+    public void backOffIsDecidedOnTheLatencyPercentile() {
+        RequestThrottle throttle = new RequestThrottle(RequestClass.INTERACTIVE, 0.2, 1000.0, 3);
+
+        for (int i = 1; i < RequestThrottle.LATENCY_CHECK_INTERVAL; i++) {
+            assertFalse(throttle.requestCompleted(10L, 1000L, 95.0));
+        }
+        assertFalse(throttle.requestCompleted(5000L, 1000L, 95.0), "One slow request out of 50 is below the 95th "
+            + "percentile");
+
+        for (int i = 1; i < RequestThrottle.LATENCY_CHECK_INTERVAL; i++) {
+            assertFalse(throttle.requestCompleted(3000L, 1000L, 95.0), "The percentile is only checked periodically");
+        }
+        assertTrue(throttle.requestCompleted(3000L, 1000L, 95.0));
+        assertEquals(throttle.getStatistics().get("windowLatency"), Long.valueOf(3000L));
+
+        throttle.backOff(1000.0, 3, 10, -1L);
+        for (int i = 1; i < RequestThrottle.LATENCY_CHECK_INTERVAL; i++) {
+            throttle.requestCompleted(10L, 1000L, 95.0);
+        }
+        assertFalse(throttle.requestCompleted(10L, 1000L, 95.0), "The latencies from before the back off should have "
+            + "been forgotten");
+    }
+
+    @Test
+    public void idlePermitsAreLent() {
+        // a rate of 1 permit per second, so that a permit is only available right away when the class is idle
+        RequestThrottle throttle = new RequestThrottle(RequestClass.AGGREGATION, 0.001, 1000.0, 3);
+
+        assertTrue(throttle.lend());
+        assertFalse(throttle.lend(), "The class should not have another permit to spare yet");
+        assertFalse(throttle.tryAcquire());
+        assertEquals(throttle.getStatistics().get("lentPermits"), Long.valueOf(1L));
+
+        throttle.backOff(1000.0, 3, 10, -1L);
+        assertTrue(throttle.isBackingOff());
+        assertFalse(throttle.lend(), "A class backing off should not lend permits");
+    }
+}
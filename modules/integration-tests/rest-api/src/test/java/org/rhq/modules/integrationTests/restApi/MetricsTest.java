@@ -215,6 +215,58 @@ public class MetricsTest extends AbstractBase {
 
     }
 
+    @Test
+    public void testExportRawDataAsCsv() throws Exception {
+
+        long now = System.currentTimeMillis();
+
+        DoubleValue dataPoint = new DoubleValue(2.5);
+
+        given()
+            .header(acceptJson)
+            .contentType(ContentType.JSON)
+            .pathParam("id", numericScheduleId)
+            .pathParam("timestamp", now)
+            .body(dataPoint)
+        .expect()
+            .statusCode(201)
+            .log().ifError()
+        .when()
+            .put("/metric/data/{id}/raw/{timestamp}");
+
+        Response response =
+        given()
+            .header("Accept", "text/csv")
+            .queryParam("sid", numericScheduleId)
+            .queryParam("startTime", now - 10)
+            .queryParam("endTime", now + 10)
+        .expect()
+            .statusCode(200)
+            .log().ifError()
+        .when()
+            .get("/metric/data/raw/export");
+
+        String[] lines = response.asString().split("\n");
+        assert lines[0].equals("#schedule,timestamp,value");
+        boolean found = false;
+        for (String line : lines) {
+            if (line.equals(numericScheduleId + "," + now + ",2.5"))
+                found = true;
+        }
+        assert found;
+    }
+
+    @Test
+    public void testExportRawDataUnknownSchedule() throws Exception {
+        given()
+            .header("Accept", "application/x-ndjson")
+            .queryParam("sid", numericScheduleId + ",-42")
+        .expect()
+            .statusCode(404)
+        .when()
+            .get("/metric/data/raw/export");
+    }
+
     @Test
     public void testGetDataRawTooBigInterval() throws Exception {
 
@@ -301,6 +353,61 @@ public class MetricsTest extends AbstractBase {
 
     }
 
+    @Test
+    public void testPostRawDataBulk() throws Exception {
+        long now = System.currentTimeMillis();
+
+        String body = "#schedule,timestamp,value\n"
+            + numericScheduleId + "," + now + ",3.5\n"
+            + numericScheduleId + "," + (now + 1) + ",4.5\n"
+            + "99999," + now + ",9999.0\n";
+
+        given()
+            .header(acceptJson)
+            .contentType("text/csv")
+            .body(body)
+        .expect()
+            .statusCode(202)
+            .log().ifError()
+            .body("accepted", is(2))
+            .body("rejectedSchedules", hasItem(99999))
+        .when()
+            .post("/metric/data/raw/bulk");
+
+        Response response =
+        given()
+            .header(acceptJson)
+            .pathParam("id", numericScheduleId)
+            .queryParam("startTime", now - 10)
+            .queryParam("endTime", now + 10)
+        .expect()
+            .statusCode(200)
+            .log().ifError()
+        .when()
+            .get("/metric/data/{id}/raw");
+
+        List<Map<String,Object>> list = response.as(List.class);
+        boolean found = false;
+        for (Map<String, Object> map : list) {
+            MDataPoint mp = new MDataPoint(map);
+            if (mp.getTimeStamp()==now + 1 && mp.getValue().compareTo(4.5d)==0)
+                found = true;
+        }
+        assert found;
+    }
+
+    @Test
+    public void testPostRawDataBulkBadLine() throws Exception {
+        given()
+            .header(acceptJson)
+            .contentType("text/csv")
+            .body(numericScheduleId + ",notatime,1.0\n")
+        .expect()
+            .statusCode(406)
+        .when()
+            .post("/metric/data/raw/bulk");
+    }
+
     /**
      * submits data points for several metrics while some of them have unexisting scheduleId
      * @throws Exception